@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * JMH benchmark measuring the throughput (diagrams written per second) of
+ * the {@link SEQUENCEWriter}, of the {@link CodeToDiagramWriter} and of the
+ * {@link PngWriter} on synthetic trees of {@link TraceMethod} (the same 
+ * methods as the ones replayed from a binary trace): a deep tree (every 
+ * method calls one method) and a wide tree (the root calls all the other
+ * methods), having <code>nodes</code> methods.
+ * 
+ * The benchmark is in the <code>org.aoplib4j.uml</code> package because it 
+ * uses the package methods of the writers and of the {@link TraceMethod}.
+ * The default number of methods is small because of the png rendering; 
+ * the text writers can be measured on bigger trees using the 
+ * <code>-p nodes=100000</code> JMH option.
+ * 
+ * Run it using the <code>benchmark</code> target of the build.
+ * 
+ * @author Adrian Citu
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class WritersBenchmark {
+
+    /**
+     * The number of classes of the methods (actors of the diagram).
+     */
+    private static final int CLASSES = 4;
+    
+    @Param({"deep", "wide" })
+    private String shape;
+    
+    @Param({"100" })
+    private int nodes;
+    
+    private SequenceMethod root;
+    
+    private File diagram;
+    
+    @Setup(Level.Trial)
+    public void buildTree() throws IOException {
+        TraceMethod[] prototypes = new TraceMethod[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            prototypes[i] = new TraceMethod(
+                    "org.aoplib4j.uml.benchmark.Actor" + i, "call" + i, 
+                    Integer.class, new Class<?>[] {String.class}, 
+                    new String[] {"str"}, 0);
+        }
+        
+        TraceMethod rootMethod = new TraceMethod(prototypes[0], null, 1, null);
+        TraceMethod caller = rootMethod;
+        for (int i = 1; i < this.nodes; i++) {
+            TraceMethod method = new TraceMethod(
+                    prototypes[i % CLASSES], caller, 1, null);
+            if ("deep".equals(this.shape)) {
+                caller = method;
+            }
+        }
+        this.root = rootMethod;
+        
+        this.diagram = File.createTempFile("aoplib4j-writers-", ".txt");
+    }
+    
+    @TearDown(Level.Trial)
+    public void deleteDiagram() {
+        String path = this.diagram.getPath();
+        new File(path.substring(0, path.lastIndexOf('.')) + ".png").delete();
+        this.diagram.delete();
+    }
+    
+    @Benchmark
+    public long sequenceWriter() throws IOException {
+        return this.write(new SEQUENCEWriter());
+    }
+    
+    @Benchmark
+    public long codeToDiagramWriter() throws IOException {
+        return this.write(new CodeToDiagramWriter());
+    }
+    
+    @Benchmark
+    public long pngWriter() throws IOException {
+        return this.write(new PngWriter());
+    }
+    
+    /**
+     * @param writer a new writer.
+     * @return the size of the written diagram.
+     */
+    private long write(final SequenceDiagramWriter writer) 
+        throws IOException {
+        
+        writer.setDiagramPath(this.diagram.getPath());
+        try {
+            writer.write(this.root);
+        } finally {
+            writer.closeWriter();
+        }
+        return this.diagram.length();
+    }
+}
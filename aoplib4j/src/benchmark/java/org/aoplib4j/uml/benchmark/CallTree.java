@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.benchmark;
+
+/**
+ * Synthetic call trees executed by the {@link SequenceDiagramBenchmark}; 
+ * every call is a join point of the sequence diagram tracing.
+ * @author Adrian Citu
+ *
+ */
+public final class CallTree {
+
+    /**
+     * Deep tree: every call makes one nested call.
+     * 
+     * @param depth the number of nested calls.
+     * @return the number of calls.
+     */
+    public int deep(final int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        return this.deep(depth - 1) + 1;
+    }
+    
+    /**
+     * Wide tree: one call making <code>width</code> calls of a leaf method.
+     * 
+     * @param width the number of leaf calls.
+     * @return the sum of the leaf results.
+     */
+    public int wide(final int width) {
+        int returnValue = 0;
+        for (int i = 0; i < width; i++) {
+            returnValue += this.leaf(i);
+        }
+        return returnValue;
+    }
+    
+    /**
+     * @param value any value.
+     * @return a value computed from the parameter.
+     */
+    public int leaf(final int value) {
+        return value * 31 + 7;
+    }
+}
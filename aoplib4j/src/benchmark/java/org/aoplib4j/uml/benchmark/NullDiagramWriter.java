@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.benchmark;
+
+import java.io.IOException;
+
+import org.aoplib4j.uml.SequenceDiagramWriter;
+import org.aoplib4j.uml.SequenceMethod;
+
+/**
+ * Writer ignoring the recorded diagram, so the recording benchmarks are not
+ * measuring the writing (only the creation of the empty diagram file).
+ * @author Adrian Citu
+ *
+ */
+public final class NullDiagramWriter extends SequenceDiagramWriter {
+
+    @Override
+    public void write(final SequenceMethod rootMethod) throws IOException {
+        //nothing to do
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.benchmark;
+
+import org.aoplib4j.uml.Aoplib4jSequenceDiagram;
+
+/**
+ * The {@link CallTree} executed inside annotated methods, so every call is
+ * recorded in a diagram written by the {@link NullDiagramWriter}.
+ * @author Adrian Citu
+ *
+ */
+public final class RecordedCallTree {
+
+    /**
+     * Maximum depth of the diagrams; bigger than the biggest tree.
+     */
+    private static final int MAX_DEPTH = 100000;
+    
+    private final CallTree tree = new CallTree();
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = NullDiagramWriter.class,
+            diagramDepth = MAX_DEPTH)
+    public int recordDeep(final int depth) {
+        return this.tree.deep(depth);
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = NullDiagramWriter.class,
+            diagramDepth = MAX_DEPTH)
+    public int recordWide(final int width) {
+        return this.tree.wide(width);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.benchmark;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.aoplib4j.uml.Aoplib4jSequenceDiagram;
+import org.aoplib4j.uml.SEQUENCEWriter;
+
+/**
+ * Thread recording a sequence diagram until it is stopped; used to measure
+ * the cost of the tracing on the other threads while a diagram is 
+ * recorded somewhere in the application.
+ * @author Adrian Citu
+ *
+ */
+public final class RecordingThread extends Thread {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    
+    public RecordingThread() {
+        super("recording-thread");
+        this.setDaemon(true);
+    }
+    
+    @Override
+    public void run() {
+        this.record();
+        new File(System.getProperty("java.io.tmpdir"), 
+                "RecordingThread.record().txt").delete();
+    }
+    
+    /**
+     * Starts the thread and waits until the diagram is recorded.
+     */
+    public void startRecording() throws InterruptedException {
+        this.start();
+        this.started.await();
+    }
+    
+    /**
+     * Stops the recording and waits for the end of the thread.
+     */
+    public void stopRecording() throws InterruptedException {
+        this.stopped.countDown();
+        this.join();
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = SEQUENCEWriter.class)
+    private void record() {
+        this.started.countDown();
+        try {
+            this.stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH benchmark measuring the cost of the sequence diagram recording on
+ * synthetic call trees, deep ({@link CallTree#deep(int)}) and wide 
+ * ({@link CallTree#wide(int)}), having <code>size</code> calls:
+ * <ul>
+ *  <li><code>deepTree</code>, <code>wideTree</code>: the woven calls are
+ *  executed while no diagram is recorded.</li>
+ *  <li><code>deepTreeRecorded</code>, <code>wideTreeRecorded</code>: the 
+ *  same calls are recorded in a diagram (see {@link RecordedCallTree}); 
+ *  includes the creation of the diagram and of his (empty) file.</li>
+ * </ul>
+ * The cost of one join point is the time of an operation divided by the
+ * <code>size</code>; the difference between the recorded and the not 
+ * recorded benchmarks is the cost of the recording.
+ * 
+ * Run it using the <code>benchmark</code> target of the build.
+ * 
+ * @author Adrian Citu
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SequenceDiagramBenchmark {
+
+    /**
+     * The number of calls of the trees.
+     */
+    @Param({"10", "100", "1000" })
+    private int size;
+    
+    /**
+     * The calls executed without diagram.
+     */
+    private CallTree tree = new CallTree();
+    
+    /**
+     * The calls recorded in a diagram.
+     */
+    private RecordedCallTree recordedTree = new RecordedCallTree();
+    
+    @Benchmark
+    public int deepTree() {
+        return this.tree.deep(this.size);
+    }
+    
+    @Benchmark
+    public int deepTreeRecorded() {
+        return this.recordedTree.recordDeep(this.size);
+    }
+    
+    @Benchmark
+    public int wideTree() {
+        return this.tree.wide(this.size);
+    }
+    
+    @Benchmark
+    public int wideTreeRecorded() {
+        return this.recordedTree.recordWide(this.size);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * JMH benchmark measuring the cost of the sequence diagram tracing on a
+ * woven but not annotated method (the usual case in an application using 
+ * the sequence diagrams). The difference between {@link #hotMethod()} and
+ * {@link #baseline()} is the cost of the tracing code of one method 
+ * execution:
+ * <ul>
+ *  <li>{@link #hotMethod()}: no diagram is recorded; the tracing code reads
+ *  only the global counter of the recorded diagrams.</li>
+ *  <li>{@link #hotMethodWhileRecording(RecordingState)}: another thread 
+ *  records a diagram; the tracing code reads also the recording context of
+ *  the current thread.</li>
+ * </ul>
+ * 
+ * Run it using the <code>benchmark</code> target of the build.
+ * 
+ * @author Adrian Citu
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SequenceMethodsPointcutBenchmark {
+
+    /**
+     * The woven method.
+     */
+    private HotTarget target = new HotTarget();
+    
+    /**
+     * The parameter of the woven method.
+     */
+    private int value = 42;
+    
+    /**
+     * A diagram recorded by another thread during the whole benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class RecordingState {
+        
+        private RecordingThread recordingThread;
+        
+        @Setup(Level.Trial)
+        public void startRecording() throws InterruptedException {
+            this.recordingThread = new RecordingThread();
+            this.recordingThread.startRecording();
+        }
+        
+        @TearDown(Level.Trial)
+        public void stopRecording() throws InterruptedException {
+            this.recordingThread.stopRecording();
+        }
+    }
+    
+    @Benchmark
+    public int baseline() {
+        return this.value * 31 + 7;
+    }
+    
+    @Benchmark
+    public int hotMethod() {
+        return this.target.compute(this.value);
+    }
+    
+    @Benchmark
+    public int hotMethodWhileRecording(final RecordingState recording) {
+        return this.target.compute(this.value);
+    }
+}
@@ -42,6 +42,15 @@ abstract class AbstractBoundary {
     private static final Logger LOGGER = Logger
             .getLogger(AbstractBoundary.class.getName());
     
+    /**
+     * The caller and the verdict of every call site of a static method 
+     * checked so far; the key is the static part of the call join point,
+     * created once per call site by AspectJ and kept by the woven class (a
+     * weak key so the cache does not keep the woven classes loaded).
+     */
+    private final WeakKeyMap<JoinPoint.StaticPart, CallSite> callSites =
+        new WeakKeyMap<JoinPoint.StaticPart, CallSite>();
+    
     /**
      * 
      * Method that will create  a callback class using information from the
@@ -55,13 +64,13 @@ abstract class AbstractBoundary {
      * @param classBoundary the class boundary annotation (if applicable)
      * @param pkgBoundary the package boundary annotation (if applicable)
      * @param calledMethod the called method
-     * @param callerSte the caller stacke trace.
+     * @param callerClassName the name of the caller class.
      */
      void createAndExecuteCallback(final Class<?> calledClass,
             final Aoplib4jClassBoundary classBoundary, 
             final Aoplib4jPackageBoundary pkgBoundary,
             final Method calledMethod,
-            final StackTraceElement callerSte) {
+            final String callerClassName) {
         try {
             BoundaryViolationCallback cllbck = 
                 createCallBackInstance(classBoundary, pkgBoundary);
@@ -69,7 +78,7 @@ abstract class AbstractBoundary {
             ViolationInformation bv = new ViolationInformationImpl(
                     calledMethod.getName(), 
                     calledClass.getCanonicalName(),
-                    callerSte.getClassName());
+                    callerClassName);
 
             cllbck.boundaryViolation(bv);
         } catch (InstantiationException e) {
@@ -119,6 +128,69 @@ abstract class AbstractBoundary {
 
      }
      
+     /**
+      * Returns the caller of a static method and the result of the 
+      * boundary check, computed only once per call site: the caller class 
+      * is the class containing the call, taken from the enclosing join 
+      * point (the method or the initializer containing the call) which is 
+      * already known by AspectJ, so no stack trace is needed. The stack 
+      * trace ({@link #getCallerInformation(String, String)}) is used only 
+      * if the enclosing join point is not available. When the caller class
+      * is known the boundary is checked on the class itself (canonical name
+      * for the nested classes, verdict cached by the {@link BoundaryMatcher}).
+      * 
+      * @param jpsp the static part of the call join point.
+      * @param enclosing the static part of the enclosing join point; can be
+      * null.
+      * @return the caller and the verdict of the call site.
+      */
+     CallSite getCallSite(final JoinPoint.StaticPart jpsp,
+             final JoinPoint.StaticPart enclosing) {
+         
+         CallSite returnValue = this.callSites.get(jpsp);
+         if (returnValue == null) {
+             Class<?> calledClass = jpsp.getSignature().getDeclaringType();
+             
+             Class<?> callerClass = null;
+             if (enclosing != null) {
+                 callerClass = enclosing.getSignature().getDeclaringType();
+             }
+             
+             String callerClassName = null;
+             if (callerClass == null) {
+                 callerClassName = this.getCallerInformation(
+                         calledClass.getCanonicalName(), 
+                         jpsp.getSignature().getName()).getClassName();
+             } else if (callerClass.getCanonicalName() == null) {
+                 //local and anonymous classes
+                 callerClassName = callerClass.getName();
+             } else {
+                 callerClassName = callerClass.getCanonicalName();
+             }
+             
+             returnValue = new CallSite(callerClassName, 
+                     this.staticCallViolated(calledClass, callerClass, 
+                             callerClassName));
+             this.callSites.putIfAbsent(jpsp, returnValue);
+         }
+         return returnValue;
+     }
+     
+     /**
+      * Boundary check of a call of a static method; called only once per 
+      * call site (see 
+      * {@link #getCallSite(JoinPoint.StaticPart, JoinPoint.StaticPart)}).
+      * 
+      * @param calledClass the class declaring the called method.
+      * @param callerClass the class containing the call; null if the caller
+      * was taken from the stack trace.
+      * @param callerClassName the name of the caller class (the binary name
+      * if taken from the stack trace).
+      * @return true if the call violates the boundary.
+      */
+     abstract boolean staticCallViolated(Class<?> calledClass, 
+             Class<?> callerClass, String callerClassName);
+     
      /**
       * Method that computes the information about the caller class. The
       * information is stored into a {@link StackTraceElement} object.
@@ -133,12 +205,14 @@ abstract class AbstractBoundary {
       * second one to the
       * {@link 
       * ClassBoundaryAspect#callOfStaticClassBoundaryAdvice(
-      * org.aspectj.lang.JoinPoint.StaticPart)}
+      * org.aspectj.lang.JoinPoint.StaticPart,
+      * org.aspectj.lang.JoinPoint.EnclosingStaticPart)}
       * 
       *or
       *{@link
       *PackageBoundaryAspect#callOfStaticPackageBoundaryAdvice(
-      * org.aspectj.lang.JoinPoint.StaticPart)}
+      * org.aspectj.lang.JoinPoint.StaticPart,
+      * org.aspectj.lang.JoinPoint.EnclosingStaticPart)}
       * 
       * 
       * This method will return faulty results when a child class calls an
@@ -244,22 +318,51 @@ abstract class AbstractBoundary {
               return false;
           }
           
-          if (ListType.BLACKLIST.equals(listType)) {
-              for (String cls : stringArray) {
-                  if (stringTolook.equals(cls)) {
-                      return true;
-                  }
-              }
-              
-              return false;
-          //WHITELIST    
-          } else {
-              for (String cls : stringArray) {
-                  if (stringTolook.equals(cls)) {
-                      return false;
-                  }
-              }   
-              return true;    
-          }
+          return new BoundaryMatcher(listType, stringArray)
+              .isViolatedBy(stringTolook);
       }      
+
+      
+      /**
+       * The caller of a call site of a static method and the result of the 
+       * boundary check.
+       * 
+       * @author Adrian Citu
+       *
+       */
+      static final class CallSite {
+          
+          /**
+           * The name of the caller class.
+           */
+          private final String callerClassName;
+          
+          /**
+           * true if the call violates the boundary.
+           */
+          private final boolean violated;
+          
+          /**
+           * @param caller the name of the caller class.
+           * @param violation true if the call violates the boundary.
+           */
+          CallSite(final String caller, final boolean violation) {
+              this.callerClassName = caller;
+              this.violated = violation;
+          }
+          
+          /**
+           * @return the name of the caller class.
+           */
+          String getCallerClassName() {
+              return this.callerClassName;
+          }
+          
+          /**
+           * @return true if the call violates the boundary.
+           */
+          boolean isViolated() {
+              return this.violated;
+          }
+      }
 }
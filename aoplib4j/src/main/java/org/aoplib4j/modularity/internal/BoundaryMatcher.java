@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.modularity.internal;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AnnotatedElement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.aoplib4j.modularity.Aoplib4jClassBoundary;
+import org.aoplib4j.modularity.Aoplib4jPackageBoundary;
+import org.aoplib4j.modularity.ListType;
+
+/**
+ * The list of a boundary annotation ({@link Aoplib4jClassBoundary} or
+ * {@link Aoplib4jPackageBoundary}) compiled into a hash set, so a caller
+ * is checked by a single lookup whatever the size of the list.
+ *
+ * The matchers are created once per annotated class (or package) and kept
+ * in a cache; every matcher also keeps the verdict computed for every
+ * caller class, so the check of a call already seen is a single map
+ * lookup (lock-free, see {@link WeakKeyMap}). The classes and packages are
+ * weak keys of the caches and the matchers keep the annotated class (or 
+ * package) only by a weak reference,
+ * so the caches do not prevent the unloading of a class loader (a 
+ * redeployed application): the entries are removed once the classes are 
+ * collected.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class BoundaryMatcher {
+
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(BoundaryMatcher.class.getName());
+
+    /**
+     * Matcher cached for the classes which are not annotated (the null 
+     * value means not computed yet).
+     */
+    private static final BoundaryMatcher NOT_ANNOTATED =
+        new BoundaryMatcher(ListType.BLACKLIST, new String[0]);
+
+    /**
+     * The matcher of every class called so far; the classes are weak keys.
+     */
+    private static final WeakKeyMap<Class<?>, BoundaryMatcher> 
+        CLASS_MATCHERS = new WeakKeyMap<Class<?>, BoundaryMatcher>();
+
+    /**
+     * The matcher of every package called so far; the packages are weak 
+     * keys.
+     */
+    private static final WeakKeyMap<Package, BoundaryMatcher> 
+        PACKAGE_MATCHERS = new WeakKeyMap<Package, BoundaryMatcher>();
+
+    /**
+     * true if the {@link #names} are forbidden, false if they are the only
+     * allowed ones.
+     */
+    private final boolean blacklist;
+
+    /**
+     * The names of the listed classes (canonical names) or packages.
+     */
+    private final Set<String> names;
+
+    /**
+     * The verdict computed for every caller class; the classes are weak 
+     * keys.
+     */
+    private final WeakKeyMap<Class<?>, Boolean> verdicts =
+        new WeakKeyMap<Class<?>, Boolean>();
+
+    /**
+     * true if the list contains packages (package boundary), false if it 
+     * contains classes (class boundary).
+     */
+    private boolean packageList = false;
+
+    /**
+     * The annotated class (class boundary) or package (package boundary);
+     * a weak reference since the matcher is a value of a weak cache. Null 
+     * if the matcher was not created from an annotation.
+     */
+    private WeakReference<AnnotatedElement> annotated = null;
+
+    /**
+     * @param listType the type of the list.
+     * @param list the names of the classes or packages.
+     */
+    BoundaryMatcher(final ListType listType, final String[] list) {
+        this.blacklist = ListType.BLACKLIST.equals(listType);
+        this.names = new HashSet<String>(Arrays.asList(list));
+    }
+
+    /**
+     * @param calledClass a class called by another class.
+     * @return the matcher compiled from the {@link Aoplib4jClassBoundary}
+     * of the class or null if the class is not annotated (the annotation is
+     * not inherited by the subclasses).
+     */
+    static BoundaryMatcher forClass(final Class<?> calledClass) {
+        BoundaryMatcher returnValue = CLASS_MATCHERS.get(calledClass);
+        if (returnValue == null) {
+            returnValue = NOT_ANNOTATED;
+
+            Aoplib4jClassBoundary boundary =
+                calledClass.getAnnotation(Aoplib4jClassBoundary.class);
+            if (boundary != null) {
+                Class<?>[] classes = boundary.classesList();
+                String[] classNames = new String[classes.length];
+                for (int i = 0; i < classes.length; i++) {
+                    classNames[i] = classes[i].getCanonicalName();
+                }
+
+                returnValue = new BoundaryMatcher(
+                        boundary.classesListType(), classNames);
+                returnValue.annotated = 
+                    new WeakReference<AnnotatedElement>(calledClass);
+            }
+            
+            BoundaryMatcher existing = 
+                CLASS_MATCHERS.putIfAbsent(calledClass, returnValue);
+            if (existing != null) {
+                returnValue = existing;
+            }
+        }
+
+        if (returnValue == NOT_ANNOTATED) {
+            return null;
+        }
+        return returnValue;
+    }
+
+    /**
+     * @param calledPackage the package of a class called by another class.
+     * @return the matcher compiled from the {@link Aoplib4jPackageBoundary}
+     * of the package or null if the package is not annotated.
+     */
+    static BoundaryMatcher forPackage(final Package calledPackage) {
+        BoundaryMatcher returnValue = PACKAGE_MATCHERS.get(calledPackage);
+        if (returnValue == null) {
+            returnValue = NOT_ANNOTATED;
+
+            Aoplib4jPackageBoundary boundary =
+                calledPackage.getAnnotation(Aoplib4jPackageBoundary.class);
+            if (boundary != null) {
+                returnValue = new BoundaryMatcher(
+                        boundary.packagesListType(), boundary.packagesList());
+                returnValue.packageList = true;
+                returnValue.annotated = 
+                    new WeakReference<AnnotatedElement>(calledPackage);
+            }
+            
+            BoundaryMatcher existing = 
+                PACKAGE_MATCHERS.putIfAbsent(calledPackage, returnValue);
+            if (existing != null) {
+                returnValue = existing;
+            }
+        }
+
+        if (returnValue == NOT_ANNOTATED) {
+            return null;
+        }
+        return returnValue;
+    }
+
+    /**
+     * @return the class boundary annotation; null for a package boundary
+     * (or if the annotated class was collected).
+     */
+    Aoplib4jClassBoundary getClassBoundary() {
+        if (this.packageList || this.annotated == null 
+                || this.annotated.get() == null) {
+            return null;
+        }
+        return this.annotated.get().getAnnotation(
+                Aoplib4jClassBoundary.class);
+    }
+
+    /**
+     * @return the package boundary annotation; null for a class boundary
+     * (or if the annotated package was collected).
+     */
+    Aoplib4jPackageBoundary getPackageBoundary() {
+        if (!this.packageList || this.annotated == null 
+                || this.annotated.get() == null) {
+            return null;
+        }
+        return this.annotated.get().getAnnotation(
+                Aoplib4jPackageBoundary.class);
+    }
+
+    /**
+     * @param name the canonical name of the caller class (class boundary)
+     * or the name of the caller package (package boundary).
+     * @return true if the caller is forbidden (present into a
+     * {@link ListType#BLACKLIST} or absent from a {@link ListType#WHITELIST});
+     * false if the name is null.
+     */
+    boolean isViolatedBy(final String name) {
+        if (name == null) {
+            LOGGER.log(Level.WARNING, "The caller name is null; the "
+                    + "boundary cannot be checked.");
+            return false;
+        }
+        return this.names.contains(name) == this.blacklist;
+    }
+
+    /**
+     * @param callerClass the class of the caller.
+     * @return the same as {@link #isViolatedBy(String)} for the canonical
+     * name of the class (class boundary) or for the name of his package
+     * (package boundary); computed only once per caller class.
+     */
+    boolean isViolatedBy(final Class<?> callerClass) {
+        Boolean returnValue = this.verdicts.get(callerClass);
+        if (returnValue == null) {
+            String name = null;
+            if (!this.packageList) {
+                name = callerClass.getCanonicalName();
+            } else if (callerClass.getPackage() != null) {
+                name = callerClass.getPackage().getName();
+            }
+
+            returnValue = Boolean.valueOf(this.isViolatedBy(name));
+            this.verdicts.putIfAbsent(callerClass, returnValue);
+        }
+        return returnValue.booleanValue();
+    }
+}
@@ -17,7 +17,6 @@ package org.aoplib4j.modularity.internal;
 import java.lang.reflect.Method;
 
 import org.aoplib4j.modularity.Aoplib4jClassBoundary;
-import org.aoplib4j.modularity.ListType;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Before;
@@ -57,9 +56,8 @@ public final class ClassBoundaryAspect extends AbstractBoundary {
      * @param callerObj instance of the caller object.
      * 
      * @return false if calledObject == callerObject (the call is made on the 
-     * class instance) or if the retrieved {@link Aoplib4jClassBoundary} 
-     * annotation
-     * from the called class is null.
+     * class instance). The annotation of the called class is checked by the
+     * advice, so the matcher is looked up only once per call.
      */
     @Pointcut("call(!private !static * "
             + "(@org.aoplib4j.modularity.Aoplib4jClassBoundary *)."
@@ -68,20 +66,7 @@ public final class ClassBoundaryAspect extends AbstractBoundary {
             final Object callerObj) {
 
         //the caller and called are the same instance
-        if (calledObj == callerObj) {
-            return false;
-        }
-        
-        Aoplib4jClassBoundary boundary = getClassBoundaryAnnotation(calledObj
-                .getClass());
-
-        //advice is called on a subclass; the annotation is not inherited by
-        //the subclasses.
-        if (boundary == null) {
-            return false;
-        }
-        
-        return true;
+        return calledObj != callerObj;
     }
 
     /**
@@ -93,37 +78,15 @@ public final class ClassBoundaryAspect extends AbstractBoundary {
      *  AspectJ pointcut:
      *    call(!private static * 
      *    (@org.aoplib4j.modularity.Aoplib4jClassBoundary *).*(..))
-     *    && if() 
      * </pre>
      * 
-     * The pointcut is represented by a static boolean method 
-     * because of the use of the <code>if()</code> pointcut (see 7.3.2 from
-     * AspectJ in action 2 ed.)
-     * 
-     * @param jpsp AspectJ join point static part.
-     * 
-     * @return false if the {@link Aoplib4jClassBoundary} annotation retrieved 
-     * from
-     * the calledClass is null true otherwise.
+     * The calls to a subclass of an annotated class (the annotation is not
+     * inherited) are filtered by the advice, once per call site.
      */
     @Pointcut("call(!private static * "
             + "(@org.aoplib4j.modularity.Aoplib4jClassBoundary *)."
-            + "*(..))  && if()")
-    public static boolean callOfStaticClassBoundaryPointcut(
-            final JoinPoint.StaticPart jpsp) {
-
-        Class<?> calledClass = jpsp.getSignature().getDeclaringType();
-
-        Aoplib4jClassBoundary boundary = 
-            getClassBoundaryAnnotation(calledClass);
-
-        //advice is called on a subclass; the annotation is not inherited by
-        //the subclasses.
-        if (boundary == null) {
-            return false;
-        }
-        
-        return true;
+            + "*(..))")
+    public void callOfStaticClassBoundaryPointcut() {
     }
 
     /**
@@ -133,8 +96,11 @@ public final class ClassBoundaryAspect extends AbstractBoundary {
      * The advice compute the called class informations (using the 
      * <code>calledObj</code> parameter), the caller class
      * informations (using the <code>callerObj</code> parameter) and then 
-     * checks if the caller class is present or not into
-     * the list of forbidden classes.
+     * (if the called class is annotated; the annotation is not inherited by
+     * the subclasses) checks if the caller class is present or not into
+     * the list of forbidden classes; the list is compiled once per called 
+     * class and the verdict is kept per caller class (see 
+     * {@link BoundaryMatcher}).
      * 
      * If the caller is present into the list of forbidden classes, the
      * framework creates an instance of 
@@ -157,14 +123,12 @@ public final class ClassBoundaryAspect extends AbstractBoundary {
     public void callOfClassBoundaryAdvice(final Object calledObj,
             final Object callerObj, final JoinPoint jp) {
         
-        Aoplib4jClassBoundary boundary = getClassBoundaryAnnotation(calledObj
-                .getClass());
+        BoundaryMatcher matcher = 
+            BoundaryMatcher.forClass(calledObj.getClass());
 
-        if (boundary != null
-                && classBoundaryViolated(
-                callerObj.getClass().getCanonicalName(), boundary)) {
-            createAndExecuteCallback(
-                    calledObj, callerObj, jp, null, boundary);
+        if (matcher != null && matcher.isViolatedBy(callerObj.getClass())) {
+            createAndExecuteCallback(calledObj, callerObj, jp, null, 
+                    matcher.getClassBoundary());
         }
 
     }
@@ -175,13 +139,11 @@ public final class ClassBoundaryAspect extends AbstractBoundary {
      * The advice retrieve the called informations using the
      * {@link org.aspectj.lang.JoinPoint.StaticPart}
      * object. Since static pointcuts cannot retrieve the caller object
-     * using <code>this</code> pointcut the caller information is computed 
-     * using the 
-     * stack trace of the current execution thread by creating a new
-     * {@link Throwable} object and calling {@link Throwable#getStackTrace()}.
-     * (see {@link #getCallerInformation(String, String)}).
-     * After the caller and called classes are computed a violation check is 
-     * made.
+     * using <code>this</code> pointcut the caller class is the class 
+     * containing the call, taken from the enclosing join point (see 
+     * {@link #getCallSite(JoinPoint.StaticPart, JoinPoint.StaticPart)}).
+     * The caller and the result of the violation check are computed only
+     * once per call site.
      * 
      * In the case of a violation, the framework creates an instance of 
      * {@link 
@@ -198,72 +160,53 @@ public final class ClassBoundaryAspect extends AbstractBoundary {
      * org.aoplib4j.modularity.ViolationInformation)}
      *
      * @param jpsp AspectJ join point static part.
+     * @param enclosing AspectJ enclosing join point static part (the 
+     * method containing the call).
      * 
-     * @see 
-     *  ClassBoundaryAspect#classBoundaryViolated(String, Aoplib4jClassBoundary)
+     * @see BoundaryMatcher#isViolatedBy(String)
      * @see  
      * org.aoplib4j.modularity.BoundaryViolationCallback
      */
-    @Before("callOfStaticClassBoundaryPointcut(jpsp)")
+    @Before("callOfStaticClassBoundaryPointcut()")
     public void callOfStaticClassBoundaryAdvice(
-            final JoinPoint.StaticPart jpsp) {
+            final JoinPoint.StaticPart jpsp,
+            final JoinPoint.EnclosingStaticPart enclosing) {
 
-        Class<?> calledClass = jpsp.getSignature().getDeclaringType();
+        CallSite callSite = this.getCallSite(jpsp, enclosing);
+        if (!callSite.isViolated()) {
+            return;
+        }
 
+        Class<?> calledClass = jpsp.getSignature().getDeclaringType();
         Aoplib4jClassBoundary boundary = 
-            getClassBoundaryAnnotation(calledClass);
+            BoundaryMatcher.forClass(calledClass).getClassBoundary();
 
         Method calledMethod = ((MethodSignature) jpsp.getSignature())
                 .getMethod();
 
-        StackTraceElement callerSte = this.getCallerInformation(calledClass
-                .getCanonicalName(), calledMethod.getName());
-
-        if (classBoundaryViolated(
-                callerSte.getClassName(), boundary)) {
-
-            createAndExecuteCallback(calledClass, boundary, null, calledMethod,
-                    callerSte);
-        }
-    }
-    
-    /**
-     * Method that returns the {@link Aoplib4jClassBoundary} annotation from the
-     * object
-     * passed as parameter or null if the class is not annotated.
-     * 
-     * @param calledClass
-     *            the class from which the annotation should be retrieved.
-     * @return attached {@link Aoplib4jClassBoundary} or null.
-     */
-    private static Aoplib4jClassBoundary getClassBoundaryAnnotation(
-            final Class<?> calledClass) {
-        
-        return calledClass.getAnnotation(Aoplib4jClassBoundary.class);
+        createAndExecuteCallback(calledClass, boundary, null, calledMethod,
+                callSite.getCallerClassName());
     }
-    
+
     /**
-     * Verifies the violation of class boundary by retrieving the information
-     * from the {@link Aoplib4jClassBoundary} annotation (the classes list, the
-     * list type) and comparing with the class name passed as parameter.
+     * {@inheritDoc}
      * 
-     * @param classBoundary {@link Aoplib4jClassBoundary} annotation.
-     * @param callerClassName caller class name.
-     * @return true if a boundary violation; false otherwise.
+     * The caller class is checked by the matcher of the called class; the
+     * binary name of a caller taken from the stack trace is converted to the
+     * canonical name. The calls to a subclass of an annotated class are 
+     * allowed (the annotation is not inherited).
      */
-    private boolean classBoundaryViolated(final String callerClassName,
-            final Aoplib4jClassBoundary classBoundary) {
-                
-        ListType listType = classBoundary.classesListType();
-        Class<?>[] classesList = classBoundary.classesList();
+    @Override
+    boolean staticCallViolated(final Class<?> calledClass, 
+            final Class<?> callerClass, final String callerClassName) {
         
-        String[] classesNamesList = new String[classesList.length];
-        
-        for (int i = 0; i < classesList.length; i++) {
-            classesNamesList[i] = classesList[i].getCanonicalName();
+        BoundaryMatcher matcher = BoundaryMatcher.forClass(calledClass);
+        if (matcher == null) {
+            return false;
         }
-        
-        return searchStringIntoArray(
-                callerClassName, listType, classesNamesList);
+        if (callerClass != null) {
+            return matcher.isViolatedBy(callerClass);
+        }
+        return matcher.isViolatedBy(callerClassName.replace('$', '.'));
     }
 }
@@ -18,7 +18,6 @@ import java.lang.reflect.Method;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.aoplib4j.modularity.ListType;
 import org.aoplib4j.modularity.Aoplib4jPackageBoundary;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.annotation.Aspect;
@@ -70,8 +69,9 @@ public final class PackageBoundaryAspect extends AbstractBoundary {
      * 
      * @param calledObj instance of the called object.
      * @param callerObj instance of the caller object.
-     * @return false if the callerObj and calledObj have are on the same package
-     * or if the callerObj and calledObj are the same instance, true otherwise.
+     * @return false if the callerObj and calledObj are the same instance, 
+     * true otherwise. The packages are checked by the advice, so the matcher
+     * is looked up only once per call.
      */
     @Pointcut("call(!private !static * "
    + "(@org.aoplib4j.modularity.Aoplib4jInjectedPkgBoundary *)."
@@ -80,34 +80,7 @@ public final class PackageBoundaryAspect extends AbstractBoundary {
             final Object callerObj) {
 
         //caller and called are the same instance
-        if (calledObj == callerObj) {
-            return false;
-        }
-        
-        Package calledObjPackage = calledObj.getClass().getPackage();
-        
-        Package callerObjPackage = callerObj.getClass().getPackage();
-        
-        //the caller and called are in the same package.
-        if (calledObjPackage.equals(callerObjPackage)) {
-            return false;
-        }
-        
-        Aoplib4jPackageBoundary pkgBoundary = 
-            calledObjPackage.getAnnotation(Aoplib4jPackageBoundary.class);
-        
-        //should never happen unless the aspectj weaver is buggy
-        if (pkgBoundary == null) {
-            LOGGER.log(Level.WARNING, "Cannot retrieve " 
-                    + Aoplib4jPackageBoundary.class
-                    + " annotation from package " + calledObjPackage
-                    + "; The package is not annotated with the "
-                    + Aoplib4jPackageBoundary.class);
-            
-            return false;
-        }
-        
-        return true;
+        return calledObj != callerObj;
     }
 
     /**
@@ -116,11 +89,10 @@ public final class PackageBoundaryAspect extends AbstractBoundary {
      * 
      * The advice retrieve the package of the caller object 
      * (using <code>callerObj</code> parameter) and the package of the called 
-     * object (using the <code>calledObj</code> parameter) and then do a 
-     * violation check. See
-     * {@link #packageBoundaryViolated(Aoplib4jPackageBoundary, String)} for 
-     * more 
-     * information about the boundary violation check.
+     * object (using the <code>calledObj</code> parameter) and then, if the
+     * packages are different, do a violation check (see 
+     * {@link BoundaryMatcher#isViolatedBy(Class)}; the verdict is computed 
+     * once per caller class).
      * 
      * 
      * In the case of a violation, the framework creates an instance of 
@@ -147,14 +119,17 @@ public final class PackageBoundaryAspect extends AbstractBoundary {
         
         Package calledObjPackage = calledObj.getClass().getPackage();
         
-        Package callerObjPackage = callerObj.getClass().getPackage();
+        //the caller and called are in the same package.
+        if (calledObjPackage.equals(callerObj.getClass().getPackage())) {
+            return;
+        }
         
-        Aoplib4jPackageBoundary pkgBoundary = 
-            calledObjPackage.getAnnotation(Aoplib4jPackageBoundary.class);
+        BoundaryMatcher matcher = 
+            PackageBoundaryAspect.matcherOf(calledObjPackage);
         
-        if (packageBoundaryViolated(pkgBoundary, callerObjPackage.getName())) {
-            createAndExecuteCallback(
-                    calledObj, callerObj, jp, pkgBoundary, null);
+        if (matcher != null && matcher.isViolatedBy(callerObj.getClass())) {
+            createAndExecuteCallback(calledObj, callerObj, jp, 
+                    matcher.getPackageBoundary(), null);
         }
     }
  
@@ -170,59 +145,51 @@ public final class PackageBoundaryAspect extends AbstractBoundary {
      *    (@org.aoplib4j.modularity.Aoplib4jInjectedPkgBoundary *)
      *      .*(..)) 
      * </pre>
-     * The pointcut is represented by a static boolean method 
-     * because of the use of the <code>if()</code> pointcut (see 7.3.2 from
-     * AspectJ in action 2 ed.)
-     * 
-     * @param jpsp AspectJ join point static part.
-     * @return false if the {@link Aoplib4jPackageBoundary} annotation 
-     * retrieved from
-     * the called class package is null, true otherwise.
+     * The annotation of the called package is checked by the advice, once
+     * per call site.
      */
     @Pointcut("call(!private static * "
        + "(@org.aoplib4j.modularity.Aoplib4jInjectedPkgBoundary *)."
-       + "*(..)) && if()")
-    public static boolean callOfStaticPackageBoundaryPointcut(
-            final JoinPoint.StaticPart jpsp) {
-
-        Class<?> calledClass = jpsp.getSignature().getDeclaringType();
-        Package calledPackage = calledClass.getPackage();
-                
-        Aoplib4jPackageBoundary pkgBoundary = 
-            calledPackage.getAnnotation(Aoplib4jPackageBoundary.class);
+       + "*(..))")
+    public void callOfStaticPackageBoundaryPointcut() {
+    }
+    
+    /**
+     * @param calledPackage the package of the called class.
+     * @return the matcher of the package or null (and a warning is logged)
+     * if the package is not annotated; should never happen unless the 
+     * aspectj weaver is buggy.
+     */
+    private static BoundaryMatcher matcherOf(final Package calledPackage) {
+        BoundaryMatcher returnValue = 
+            BoundaryMatcher.forPackage(calledPackage);
         
-        //should never happen unless the aspectj weaver is buggy
-        if (pkgBoundary == null) {
+        if (returnValue == null) {
             LOGGER.log(Level.WARNING, "Cannot retrieve " 
                     + Aoplib4jPackageBoundary.class
                     + " annotation from package " + calledPackage
                     + "; The package is not annotated with the "
                     + Aoplib4jPackageBoundary.class);
-            return false;
         }
-        
-        return true;
+        return returnValue;
     }
     
     /**
      * Advice executed before of the 
-     * {@link #callOfStaticPackageBoundaryPointcut(
-     * org.aspectj.lang.JoinPoint.StaticPart)} pointcut.
+     * {@link #callOfStaticPackageBoundaryPointcut()} pointcut.
      * 
      * The advice retrieve the called informations using the
      * {@link org.aspectj.lang.JoinPoint.StaticPart}
      * object and the package called object . 
      * Since static pointcuts cannot retrieve the caller object
-     * using <code>this</code> pointcut, the caller object information is 
-     * computed using the stack trace of the current execution thread 
-     * (by creating a new {@link Throwable} object and calling 
-     * {@link Throwable#getStackTrace()}).
+     * using <code>this</code> pointcut, the caller class is the class 
+     * containing the call, taken from the enclosing join point (see 
+     * {@link #getCallSite(JoinPoint.StaticPart, JoinPoint.StaticPart)}).
      * 
      * After having the packages of the caller and the called object a violation
-     * check is made.See
-     * {@link #packageBoundaryViolated(Aoplib4jPackageBoundary, String)} 
-     * for more 
-     * information about the boundary violation check.
+     * check is made (see {@link BoundaryMatcher#isViolatedBy(String)}); the
+     * caller and the result of the check are computed only once per call 
+     * site.
      * 
      * 
      * In the case of a violation, the framework creates an instance of 
@@ -238,63 +205,70 @@ public final class PackageBoundaryAspect extends AbstractBoundary {
      *  org.aoplib4j.modularity.ViolationInformation)}
      * 
      * @param jpsp AspectJ join point static part.
+     * @param enclosing AspectJ enclosing join point static part (the 
+     * method containing the call).
      * 
-     * @see 
-     *PackageBoundaryAspect#packageBoundaryViolated(
-     *  Aoplib4jPackageBoundary, String)
+     * @see BoundaryMatcher#isViolatedBy(String)
      */
-    @Before("callOfStaticPackageBoundaryPointcut(jpsp)")
+    @Before("callOfStaticPackageBoundaryPointcut()")
     public void callOfStaticPackageBoundaryAdvice(
-            final JoinPoint.StaticPart jpsp) {
+            final JoinPoint.StaticPart jpsp,
+            final JoinPoint.EnclosingStaticPart enclosing) {
         
+        CallSite callSite = this.getCallSite(jpsp, enclosing);
+        if (!callSite.isViolated()) {
+            return;
+        }
 
         Class<?> calledClass = jpsp.getSignature().getDeclaringType();
-        Package calledPackage = calledClass.getPackage();
-                
-        Aoplib4jPackageBoundary pkgBoundary = 
-            calledPackage.getAnnotation(Aoplib4jPackageBoundary.class);
+        Aoplib4jPackageBoundary pkgBoundary = BoundaryMatcher.forPackage(
+                calledClass.getPackage()).getPackageBoundary();
 
         Method calledMethod = 
             ((MethodSignature) jpsp.getSignature()).getMethod();
         
-        StackTraceElement callerSte = this.getCallerInformation(calledClass
-                .getCanonicalName(), calledMethod.getName());
+        createAndExecuteCallback(calledClass, null, pkgBoundary, 
+                calledMethod, callSite.getCallerClassName());
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The calls made from the package of the called class are allowed; 
+     * the package of the caller is checked by the matcher of the called 
+     * package otherwise.
+     */
+    @Override
+    boolean staticCallViolated(final Class<?> calledClass, 
+            final Class<?> callerClass, final String callerClassName) {
         
-        String callerClassName = callerSte.getClassName();
+        Package calledPackage = calledClass.getPackage();
+        BoundaryMatcher matcher = 
+            PackageBoundaryAspect.matcherOf(calledPackage);
+        if (matcher == null) {
+            return false;
+        }
         
-        String callerPkgName = 
-            callerClassName.substring(0, callerClassName.lastIndexOf('.'));
+        if (callerClass != null && callerClass.getPackage() != null) {
+            //caller and called are in the same package.
+            if (calledPackage.getName().equals(
+                    callerClass.getPackage().getName())) {
+                return false;
+            }
+            return matcher.isViolatedBy(callerClass);
+        }
         
-        //caller and called are in the same package so just return.
-        if (calledPackage.getName().equals(callerPkgName)) {
-            return;
+        String callerPkgName = "";
+        int lastDot = callerClassName.lastIndexOf('.');
+        if (lastDot != -1) {
+            callerPkgName = callerClassName.substring(0, lastDot);
         }
         
-        if (packageBoundaryViolated(pkgBoundary, callerPkgName)) {
-            
-            createAndExecuteCallback(calledClass, null, pkgBoundary, 
-                    calledMethod, callerSte);
+        //caller and called are in the same package.
+        if (calledPackage.getName().equals(callerPkgName)) {
+            return false;
         }
-    }
-    
-    /**
-     * Verifies the violation of package boundary by retrieving the information
-     * from the {@link Aoplib4jPackageBoundary} annotation (the packages list, 
-     * the
-     * list type) and comparing with the package name of the caller class.
-     * 
-     * @param pkgBoundary {@link Aoplib4jPackageBoundary} annotation.
-     * @param callerObjPackage caller object package.
-     * @return true if a boundary violation; false otherwise.
-     */
-    private boolean packageBoundaryViolated(
-            final Aoplib4jPackageBoundary pkgBoundary,
-            final String callerObjPackage) {
-                
-        String[] packagesList = pkgBoundary.packagesList();
-        ListType listType = 
-            pkgBoundary.packagesListType();
         
-        return searchStringIntoArray(callerObjPackage, listType, packagesList);
+        return matcher.isViolatedBy(callerPkgName);
     }
 }
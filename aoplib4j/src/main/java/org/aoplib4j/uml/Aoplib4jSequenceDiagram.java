@@ -35,6 +35,11 @@ public @interface Aoplib4jSequenceDiagram {
      */
      int DEFAULT_DIAGRAM_DEPTH = 5;
     
+    /**
+     * The default maximum length of a captured value.
+     */
+     int DEFAULT_MAX_VALUE_LENGTH = 64;
+    
     /**
      * Writer implementation used to write the diagram.
      */
@@ -51,6 +56,176 @@ public @interface Aoplib4jSequenceDiagram {
      * The diagram full path; the default value will be
      * java.io.tmpdir/ClassName.MethodName.txt (this value will be computed
      * at runtime).
+     * 
+     * The files actually written can be changed by system properties: 
+     * <code>org.aoplib4j.uml.uniqueDiagramNames=true</code> adds a 
+     * timestamp and a sequence number to the name of every diagram (the 
+     * executions are not overwriting the same file), 
+     * <code>org.aoplib4j.uml.diagramCompression=gzip</code> compresses the
+     * diagrams (<code>.gz</code> files) and 
+     * <code>org.aoplib4j.uml.diagramMaxFiles</code> / 
+     * <code>org.aoplib4j.uml.diagramMaxBytes</code> delete the oldest 
+     * diagrams of a directory over the limits.
      */
     String diagramFullPath() default "";
+    
+    /**
+     * If true, the diagram is written while it is recorded (streaming mode)
+     * instead of being written when the annotated method ends; the memory 
+     * used by the diagram depends then on the depth of the current call and 
+     * not on the total number of calls. The 
+     * {@link #diagramWriter()} must implement the 
+     * {@link SequenceDiagramEventWriter} (all the {@link DFSDiagramWriter}
+     * subclasses are doing it), otherwise the diagram is written the usual 
+     * way. The {@link PngWriter} keeps the whole text of the diagram in 
+     * memory for the rendering of the image, so its memory is not bounded
+     * by the streaming mode. Default value is false.
+     */
+    boolean streaming() default false;
+    
+    /**
+     * If true, the diagram is written by a background thread once the 
+     * annotated method ends, so the annotated method returns as soon as the
+     * recording stops. The number of rendering threads and the capacity of 
+     * the rendering queue can be changed using the 
+     * <code>org.aoplib4j.uml.renderingThreads</code> and 
+     * <code>org.aoplib4j.uml.renderingQueueCapacity</code> system properties.
+     * Default value is false.
+     * 
+     * @see #overflowPolicy()
+     */
+    boolean asynchronous() default false;
+    
+    /**
+     * What to do when the rendering queue is full; used only for the 
+     * {@link #asynchronous()} diagrams. Default value is 
+     * {@link RenderingOverflowPolicy#BLOCK}.
+     */
+    RenderingOverflowPolicy overflowPolicy() 
+        default RenderingOverflowPolicy.BLOCK;
+    
+    /**
+     * If true, the consecutive calls of the same method having identical 
+     * children (the same calls, including the repeat counts) are merged
+     * while the diagram is recorded into a single method having a repeat 
+     * count and the min/max/total execution time 
+     * (see {@link SequenceMethod#getRepeatCount()}); the size of the diagram
+     * depends then on the number of distinct calls and not on the number
+     * of loop iterations. Not used in the {@link #streaming()} mode (the 
+     * methods are already written when the next call starts). Default value 
+     * is false.
+     */
+    boolean aggregateLoops() default false;
+    
+    /**
+     * If true, the execution time of every method is measured 
+     * (<code>System.nanoTime()</code>) and written in the diagram: the total
+     * time and the self time (the total time without the time of the 
+     * recorded children); see {@link SequenceMethod#getTotalTime()} and 
+     * {@link SequenceMethod#getSelfTime()}. Default value is false.
+     */
+    boolean timing() default false;
+    
+    /**
+     * Only one execution from <code>sampleRate</code> executions of the 
+     * annotated method (chosen randomly) is recorded; the other executions 
+     * are running as if the method was not annotated. Default value is 1 
+     * (all the executions are recorded).
+     * 
+     * The number of diagrams can also be limited by the
+     * {@link #maxDiagramsPerMinute()} and by the 
+     * <code>org.aoplib4j.uml.maxConcurrentDiagrams</code> system property 
+     * (the maximum number of diagrams recorded in the same time by all the 
+     * threads; default 0, no limit).
+     */
+    int sampleRate() default 1;
+    
+    /**
+     * The maximum number of diagrams recorded for the annotated method 
+     * during one minute; the executions over the limit are not recorded.
+     * Default value is 0 (no limit).
+     * 
+     * @see #sampleRate()
+     */
+    int maxDiagramsPerMinute() default 0;
+    
+    /**
+     * The packages of the classes recorded in the diagram; the methods of 
+     * the classes from other packages (and from their sub-packages) are not
+     * recorded, but the methods they call are recorded if they belong to
+     * one of these packages. The annotated method is always recorded. 
+     * Default value is an empty array (the methods of all the woven classes
+     * are recorded).
+     * 
+     * The filter is applied when the methods are executed; the classes 
+     * where the tracing code is woven can be restricted by the 
+     * <code>uml.traced.scope</code> property of the build (the scope of the 
+     * sequence diagram aspect in the generated <code>aop.xml</code>).
+     */
+    String[] tracedPackages() default { };
+    
+    /**
+     * The maximum number of methods kept in memory for the diagram (the 
+     * annotated method is not counted). Once the limit is reached the 
+     * diagram is truncated: the next calls are only counted and the writer
+     * adds at the end of the diagram a 
+     * <code>truncated: N calls omitted</code> marker. The methods merged
+     * by {@link #aggregateLoops()} or already written by the 
+     * {@link #streaming()} mode are not counted. Default value is 0 (no 
+     * limit).
+     * 
+     * @see #maxBytes()
+     */
+    int maxNodes() default 0;
+    
+    /**
+     * Approximate maximum memory, in bytes, used by the methods of the 
+     * diagram; converted to a number of methods (using an estimated size 
+     * of a method) and applied the same way as the {@link #maxNodes()} 
+     * (the smallest of the two limits is used). Default value is 0 (no 
+     * limit).
+     */
+    long maxBytes() default 0;
+    
+    /**
+     * If true, the diagrams having the same structure (the same calls in 
+     * the same order, including the repeat counts of the aggregated loops) 
+     * are written only once. A structural hash of the diagram is computed 
+     * while the calls are recorded; every distinct structure is written in 
+     * its own file, named after the {@link #diagramFullPath()} followed by 
+     * the hash (ex: <code>ClassName.MethodName()-1f2e3d4c5b6a7988.txt
+     * </code>), and the next diagrams having the same hash are only counted 
+     * in the index file (the {@link #diagramFullPath()} followed by 
+     * <code>.index</code>). The execution times written in a diagram 
+     * (see {@link #timing()}) and the captured values (see 
+     * {@link #captureValues()}) are those of the first execution. Not 
+     * used in the {@link #streaming()} mode (the diagram is written before 
+     * the structure is known). Default value is false.
+     */
+    boolean deduplicate() default false;
+    
+    /**
+     * If true, the arguments and the return value of every recorded method
+     * are captured and written in the diagram (see 
+     * {@link SequenceMethod#getArgumentValues()} and 
+     * {@link SequenceMethod#getReturnValue()}). The values are converted 
+     * into short summaries when the method is entered (and exited), so the 
+     * diagram keeps no reference to the application objects: the strings, 
+     * the numbers, the booleans, the characters and the enums are written 
+     * as values (truncated to {@link #maxValueLength()} characters), the 
+     * arrays, the collections and the maps as their type and size and the 
+     * other objects as their class name and identity hash code (their 
+     * <code>toString</code> is never called). The values written for the 
+     * calls merged by {@link #aggregateLoops()} are the values of the first
+     * call. Default value is false.
+     */
+    boolean captureValues() default false;
+    
+    /**
+     * The maximum number of characters kept from a value captured by 
+     * {@link #captureValues()}; the longer values are truncated and end 
+     * with <code>...</code>. Default value is 
+     * {@value #DEFAULT_MAX_VALUE_LENGTH}.
+     */
+    int maxValueLength() default DEFAULT_MAX_VALUE_LENGTH;
 }
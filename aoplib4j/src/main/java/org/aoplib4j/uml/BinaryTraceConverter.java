@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Command line tool converting the binary traces written by the 
+ * {@link BinaryTraceWriter} into diagrams:
+ * <pre>
+ * java -cp aoplib4j.jar:aspectjrt.jar:[sequence.jar]:application_classes
+ *  org.aoplib4j.uml.BinaryTraceConverter format trace_file diagram_file
+ * </pre>
+ * where the format is <code>sequence</code> ({@link SEQUENCEWriter}), 
+ * <code>codetodiagram</code> ({@link CodeToDiagramWriter}), 
+ * <code>png</code> ({@link PngWriter}; needs the SEQUENCE jar in the 
+ * classpath) or the full name of another {@link SequenceDiagramWriter}.
+ * The classes of the traced application must be in the classpath (they 
+ * are needed for the types of the parameters and return values).
+ * 
+ * The traced process is paying only for the binary encoding while the 
+ * (more expensive) diagram formats are produced offline; the result is 
+ * the same diagram as if the writer was used directly.
+ * 
+ * @author Adrian Citu
+ *
+ */
+public final class BinaryTraceConverter {
+    
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER = 
+        Logger.getLogger(BinaryTraceConverter.class.getName());
+    
+    /**
+     * Number of arguments of the command line.
+     */
+    private static final int ARGS_COUNT = 3;
+    
+    /**
+     * The writers known by their format name.
+     */
+    private static final Map<String, Class<? extends SequenceDiagramWriter>>
+        FORMATS = new HashMap<String, Class<? extends SequenceDiagramWriter>>();
+    
+    static {
+        FORMATS.put("sequence", SEQUENCEWriter.class);
+        FORMATS.put("codetodiagram", CodeToDiagramWriter.class);
+        FORMATS.put("png", PngWriter.class);
+    }
+    
+    /**
+     * Utility class.
+     */
+    private BinaryTraceConverter() {
+    }
+    
+    /**
+     * Converts a binary trace.
+     * 
+     * @param args the format, the trace path and the diagram path.
+     */
+    public static void main(final String[] args) {
+        if (args.length != ARGS_COUNT) {
+            LOGGER.severe("Usage: BinaryTraceConverter " 
+                    + "sequence|codetodiagram|png|writer_class_name " 
+                    + "trace_file diagram_file");
+            System.exit(1);
+        }
+        
+        try {
+            SequenceDiagramWriter writer = 
+                BinaryTraceConverter.createWriter(args[0]);
+            BinaryTraceConverter.convert(args[1], writer, args[2]);
+            LOGGER.info("The diagram was written in " + args[2]);
+        } catch (ClassNotFoundException e) {
+            LOGGER.severe(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            LOGGER.severe("Cannot convert the trace " + args[1] + ": " 
+                    + e.getMessage());
+            System.exit(1);
+        } catch (InstantiationException e) {
+            LOGGER.severe("Cannot create the writer " + args[0] + ": " 
+                    + e.getMessage());
+            System.exit(1);
+        } catch (IllegalAccessException e) {
+            LOGGER.severe("Cannot create the writer " + args[0] + ": " 
+                    + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Converts a binary trace using the given writer. The types used by the
+     * trace are loaded using the context class loader of the current thread.
+     * 
+     * @param tracePath the path of the binary trace.
+     * @param writer the writer of the diagram; the calls of the trace are
+     * replayed to it and the writer is closed at the end.
+     * @param diagramPath the path of the written diagram.
+     * @throws IOException if the trace cannot be read or the diagram cannot
+     * be written.
+     * @throws ClassNotFoundException if a class used by the trace is not 
+     * in the classpath.
+     */
+    public static void convert(final String tracePath, 
+            final SequenceDiagramWriter writer, final String diagramPath) 
+        throws IOException, ClassNotFoundException {
+        
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = BinaryTraceConverter.class.getClassLoader();
+        }
+        
+        BinaryTraceReader reader = new BinaryTraceReader(tracePath, loader);
+        try {
+            writer.setDiagramPath(diagramPath);
+            reader.replay(writer);
+        } finally {
+            writer.closeWriter();
+            reader.close();
+        }
+    }
+    
+    /**
+     * @param format the format name or the writer class name.
+     * @return a new writer.
+     * @throws ClassNotFoundException if the writer class cannot be found.
+     * @throws InstantiationException if the writer cannot be created.
+     * @throws IllegalAccessException if the writer cannot be created.
+     */
+    static SequenceDiagramWriter createWriter(final String format) 
+        throws ClassNotFoundException, InstantiationException, 
+            IllegalAccessException {
+        
+        return BinaryTraceConverter.writerClass(format).newInstance();
+    }
+    
+    /**
+     * @param format the format name or the writer class name.
+     * @return the class of the writer; no writer is created.
+     * @throws ClassNotFoundException if the writer class cannot be found.
+     */
+    static Class<? extends SequenceDiagramWriter> writerClass(
+            final String format) throws ClassNotFoundException {
+        
+        Class<? extends SequenceDiagramWriter> writerClass = 
+            FORMATS.get(format.toLowerCase());
+        
+        if (writerClass == null) {
+            Class<?> cls = Class.forName(format, true, 
+                    Thread.currentThread().getContextClassLoader());
+            if (!SequenceDiagramWriter.class.isAssignableFrom(cls)) {
+                throw new ClassNotFoundException(format 
+                        + " is not a known format or a " 
+                        + SequenceDiagramWriter.class.getName());
+            }
+            writerClass = cls.asSubclass(SequenceDiagramWriter.class);
+        }
+        return writerClass;
+    }
+}
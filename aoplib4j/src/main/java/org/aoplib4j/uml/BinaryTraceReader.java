@@ -0,0 +1,450 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a binary trace written by the {@link BinaryTraceWriter} and replays
+ * it into another {@link SequenceDiagramWriter}. If the writer implements 
+ * the {@link SequenceDiagramEventWriter} the calls are sent to the writer 
+ * while they are read (the memory used depends only on the depth of the 
+ * calls); otherwise the whole diagram is read before being written.
+ * 
+ * The types of the parameters and the return types are loaded (without
+ * initialization) using the given class loader so the classes of the traced
+ * application must be available to the reader.
+ * 
+ * @author Adrian Citu
+ *
+ */
+final class BinaryTraceReader {
+
+    /**
+     * Number of bits of a varint byte.
+     */
+    private static final int VARINT_BITS = 7;
+    
+    /**
+     * The bits of a varint byte.
+     */
+    private static final int VARINT_MASK = 0x7F;
+    
+    /**
+     * Bit marking a varint byte followed by other bytes.
+     */
+    private static final int VARINT_MORE = 0x80;
+    
+    /**
+     * Maximum number of bits of a varint.
+     */
+    private static final int VARINT_MAX_SHIFT = 63;
+    
+    /**
+     * Number of bits of a byte.
+     */
+    private static final int BYTE_BITS = 8;
+    
+    /**
+     * The primitive types; they cannot be loaded by name.
+     */
+    private static final Map<String, Class<?>> PRIMITIVES = 
+        new HashMap<String, Class<?>>();
+    
+    static {
+        Class<?>[] primitives = {
+            Boolean.TYPE, Byte.TYPE, Character.TYPE, Short.TYPE, 
+            Integer.TYPE, Long.TYPE, Float.TYPE, Double.TYPE, Void.TYPE,
+        };
+        for (Class<?> primitive : primitives) {
+            PRIMITIVES.put(primitive.getName(), primitive);
+        }
+    }
+    
+    /**
+     * The path of the trace.
+     */
+    private final String tracePath;
+    
+    /**
+     * The content of the trace.
+     */
+    private final InputStream input;
+    
+    /**
+     * The class loader used to load the types.
+     */
+    private final ClassLoader loader;
+    
+    /**
+     * The strings read so far; the index is the string index.
+     */
+    private final List<String> strings = new ArrayList<String>();
+    
+    /**
+     * The signatures read so far; the index is the signature index.
+     */
+    private final List<TraceMethod> signatures = new ArrayList<TraceMethod>();
+    
+    /**
+     * @param path the path of the trace.
+     * @param classLoader the class loader used to load the types.
+     * @throws IOException if the trace cannot be opened.
+     */
+    BinaryTraceReader(final String path, final ClassLoader classLoader) 
+        throws IOException {
+        this.tracePath = path;
+        this.loader = classLoader;
+        this.input = BinaryTraceReader.open(path);
+    }
+    
+    /**
+     * Opens the trace; a trace compressed by the {@link DiagramFileSink} is
+     * recognized by the GZIP magic number and decompressed.
+     * 
+     * @param path the path of the trace.
+     * @return the stream of the (decompressed) trace.
+     * @throws IOException if the trace cannot be opened.
+     */
+    private static InputStream open(final String path) throws IOException {
+        InputStream returnValue = 
+            new BufferedInputStream(new FileInputStream(path));
+        
+        returnValue.mark(2);
+        int magic = returnValue.read() | returnValue.read() << BYTE_BITS;
+        returnValue.reset();
+        
+        if (magic == GZIPInputStream.GZIP_MAGIC) {
+            returnValue = new BufferedInputStream(
+                    new GZIPInputStream(returnValue));
+        }
+        return returnValue;
+    }
+    
+    /**
+     * Reads the whole trace and writes it using the writer. 
+     * 
+     * @param writer the writer.
+     * @throws IOException if the trace cannot be read or is not valid or if
+     * the writer fails.
+     * @throws ClassNotFoundException if a type of the trace cannot be 
+     * loaded.
+     */
+    void replay(final SequenceDiagramWriter writer) 
+        throws IOException, ClassNotFoundException {
+        
+        writer.setTimingWritten(this.readHeader());
+        
+        SequenceDiagramEventWriter events = null;
+        if (writer instanceof SequenceDiagramEventWriter) {
+            events = (SequenceDiagramEventWriter) writer;
+        }
+        
+        List<TraceMethod> stack = new ArrayList<TraceMethod>();
+        TraceMethod root = null;
+        
+        while (true) {
+            int tag = this.input.read();
+            
+            if (tag == BinaryTraceWriter.TAG_STRING) {
+                this.strings.add(this.readString());
+            } else if (tag == BinaryTraceWriter.TAG_SIGNATURE) {
+                this.signatures.add(this.readSignature());
+            } else if (tag == BinaryTraceWriter.TAG_CALL) {
+                TraceMethod meth = this.readCall(stack, root == null);
+                stack.add(meth);
+                
+                if (root == null) {
+                    root = meth;
+                    if (events != null) {
+                        events.diagramStarted(root);
+                    }
+                }
+                if (events != null) {
+                    events.methodEntered(meth);
+                }
+            } else if (tag == BinaryTraceWriter.TAG_RETURN) {
+                if (stack.isEmpty()) {
+                    throw this.corrupted("return without call");
+                }
+                TraceMethod meth = stack.remove(stack.size() - 1);
+                this.readTimes(meth);
+                
+                if (events != null) {
+                    events.methodExited(meth);
+                    meth.detachFromParent();
+                }
+            } else if (tag == BinaryTraceWriter.TAG_TRUNCATED) {
+                writer.setOmittedCalls(this.readVarlong());
+            } else if (tag == BinaryTraceWriter.TAG_END) {
+                if (root == null || !stack.isEmpty()) {
+                    throw this.corrupted("unexpected end of the diagram");
+                }
+                
+                if (events != null) {
+                    events.diagramEnded(root);
+                } else {
+                    writer.write(root);
+                }
+                return;
+            } else if (tag == -1) {
+                throw new EOFException("The trace " + this.tracePath 
+                        + " is truncated");
+            } else {
+                throw this.corrupted("unknown record " + tag);
+            }
+        }
+    }
+    
+    /**
+     * Closes the trace.
+     * 
+     * @throws IOException if any I/O exception.
+     */
+    void close() throws IOException {
+        this.input.close();
+    }
+    
+    /**
+     * @return true if the execution times are written in the diagram.
+     * @throws IOException if the header is not valid.
+     */
+    private boolean readHeader() throws IOException {
+        for (byte b : BinaryTraceWriter.MAGIC) {
+            if (this.readByte() != b) {
+                throw new IOException("The file " + this.tracePath 
+                        + " is not a binary trace");
+            }
+        }
+        
+        int version = this.readByte();
+        if (version != BinaryTraceWriter.VERSION) {
+            throw new IOException("The trace " + this.tracePath 
+                    + " have an unsupported version: " + version);
+        }
+        
+        return (this.readByte() & BinaryTraceWriter.FLAG_TIMING) != 0;
+    }
+    
+    /**
+     * @return the string of a string record.
+     * @throws IOException if any I/O exception.
+     */
+    private String readString() throws IOException {
+        byte[] bytes = new byte[this.readVarint()];
+        
+        int read = 0;
+        while (read < bytes.length) {
+            int count = this.input.read(bytes, read, bytes.length - read);
+            if (count < 0) {
+                throw new EOFException("The trace " + this.tracePath 
+                        + " is truncated");
+            }
+            read += count;
+        }
+        return new String(bytes, "UTF-8");
+    }
+    
+    /**
+     * @return the prototype of a signature record.
+     * @throws IOException if any I/O exception.
+     * @throws ClassNotFoundException if a type cannot be loaded.
+     */
+    private TraceMethod readSignature() 
+        throws IOException, ClassNotFoundException {
+        
+        String className = this.string(this.readVarint());
+        String methodName = this.string(this.readVarint());
+        int flags = this.readVarint();
+        
+        Class<?> returnType = null;
+        int returnTypeIndex = this.readVarint();
+        if (returnTypeIndex != 0) {
+            returnType = this.loadClass(this.string(returnTypeIndex - 1));
+        }
+        
+        int paramCount = this.readVarint();
+        Class<?>[] paramTypes = new Class<?>[paramCount];
+        String[] paramNames = new String[paramCount];
+        for (int i = 0; i < paramCount; i++) {
+            paramTypes[i] = this.loadClass(this.string(this.readVarint()));
+            paramNames[i] = this.string(this.readVarint());
+        }
+        
+        return new TraceMethod(className, methodName, returnType, 
+                paramTypes, paramNames, flags);
+    }
+    
+    /**
+     * @param stack the methods under execution.
+     * @param first true if the call is the first call (the root method).
+     * @return the method of a call record, added to the children of the
+     * caller.
+     * @throws IOException if any I/O exception or if the depth of the call
+     * is not valid.
+     */
+    private TraceMethod readCall(final List<TraceMethod> stack, 
+            final boolean first) throws IOException {
+        
+        int signatureIndex = this.readVarint();
+        int depth = this.readVarint();
+        int repeatCount = this.readVarint();
+        int threadIndex = this.readVarint();
+        
+        if (depth != stack.size() || (stack.isEmpty() && !first)) {
+            throw this.corrupted("unexpected call depth " + depth);
+        }
+        if (signatureIndex >= this.signatures.size()) {
+            throw this.corrupted("unknown signature " + signatureIndex);
+        }
+        
+        TraceMethod caller = null;
+        if (!stack.isEmpty()) {
+            caller = stack.get(stack.size() - 1);
+        }
+        
+        String threadName = null;
+        if (threadIndex != 0) {
+            threadName = this.string(threadIndex - 1);
+        }
+        
+        return new TraceMethod(this.signatures.get(signatureIndex), caller,
+                repeatCount, threadName);
+    }
+    
+    /**
+     * Reads the times of a return record.
+     * 
+     * @param meth the returning method.
+     * @throws IOException if any I/O exception.
+     */
+    private void readTimes(final TraceMethod meth) throws IOException {
+        long total = BinaryTraceReader.unzigzag(this.readVarlong());
+        
+        if (total >= 0) {
+            long self = BinaryTraceReader.unzigzag(this.readVarlong());
+            long min = BinaryTraceReader.unzigzag(this.readVarlong());
+            long max = BinaryTraceReader.unzigzag(this.readVarlong());
+            meth.setTimes(total, self, min, max);
+        }
+    }
+    
+    /**
+     * @param name the name returned by {@link Class#getName()}.
+     * @return the class.
+     * @throws ClassNotFoundException if the class cannot be loaded.
+     */
+    private Class<?> loadClass(final String name) 
+        throws ClassNotFoundException {
+        
+        Class<?> returnValue = PRIMITIVES.get(name);
+        if (returnValue != null) {
+            return returnValue;
+        }
+        
+        try {
+            return Class.forName(name, false, this.loader);
+        } catch (ClassNotFoundException e) {
+            throw new ClassNotFoundException("The class " + name 
+                    + " used by the trace " + this.tracePath 
+                    + " cannot be found; the classes of the traced " 
+                    + "application should be in the classpath.", e);
+        }
+    }
+    
+    /**
+     * @param index the index of a string.
+     * @return the string.
+     * @throws IOException if the string was not read.
+     */
+    private String string(final int index) throws IOException {
+        if (index >= this.strings.size()) {
+            throw this.corrupted("unknown string " + index);
+        }
+        return this.strings.get(index);
+    }
+    
+    /**
+     * @param reason the reason.
+     * @return the exception to throw for a corrupted trace.
+     */
+    private IOException corrupted(final String reason) {
+        return new IOException("The trace " + this.tracePath 
+                + " is corrupted: " + reason);
+    }
+    
+    /**
+     * @param value a zigzag encoded value.
+     * @return the signed value.
+     */
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * @return the next byte.
+     * @throws IOException if any I/O exception or if the trace is truncated.
+     */
+    private int readByte() throws IOException {
+        int returnValue = this.input.read();
+        if (returnValue < 0) {
+            throw new EOFException("The trace " + this.tracePath 
+                    + " is truncated");
+        }
+        return returnValue;
+    }
+    
+    /**
+     * @return the next unsigned varint.
+     * @throws IOException if any I/O exception.
+     */
+    private int readVarint() throws IOException {
+        long returnValue = this.readVarlong();
+        if (returnValue > Integer.MAX_VALUE || returnValue < 0) {
+            throw this.corrupted("invalid integer " + returnValue);
+        }
+        return (int) returnValue;
+    }
+    
+    /**
+     * @return the next varint.
+     * @throws IOException if any I/O exception.
+     */
+    private long readVarlong() throws IOException {
+        long returnValue = 0;
+        int shift = 0;
+        int b = 0;
+        
+        do {
+            if (shift > VARINT_MAX_SHIFT) {
+                throw this.corrupted("invalid varint");
+            }
+            b = this.readByte();
+            returnValue |= ((long) (b & VARINT_MASK)) << shift;
+            shift += VARINT_BITS;
+        } while ((b & VARINT_MORE) != 0);
+        
+        return returnValue;
+    }
+}
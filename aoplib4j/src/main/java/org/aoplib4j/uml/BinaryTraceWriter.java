@@ -0,0 +1,516 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writer producing a compact binary trace instead of a diagram; the trace
+ * can be converted later (offline) to any diagram format using the
+ * {@link BinaryTraceConverter}. The names (classes, methods, parameters, 
+ * threads) are written only one time in a string table and every distinct
+ * method signature only one time in a signature table; the calls are 
+ * referring them by their index.
+ * 
+ * Format of the trace (all the integers are unsigned varints, 7 bits per
+ * byte, the times are zigzag encoded varints):
+ * <pre>
+ * header : 'A' '4' 'J' 'T' version flags(bit 0: the times are written)
+ * records: one byte tag followed by the record content
+ *   STRING    : length, UTF-8 bytes (index = number of previous strings)
+ *   SIGNATURE : class name, method name, flags (bit 0: static, 
+ *               bit 1: constructor), return type + 1 (0 if none), 
+ *               parameters count, (parameter type, parameter name) for 
+ *               every parameter (index = number of previous signatures)
+ *   CALL      : signature, depth, repeat count, thread name + 1 (0 if none)
+ *   RETURN    : total time (-1 if not measured), self time, min time, 
+ *               max time (nanoseconds; only the total time if not measured)
+ *   TRUNCATED : number of calls omitted (written before the END record 
+ *               only if the diagram was truncated)
+ *   END       : end of the trace
+ * </pre>
+ * The names, types and signatures are indexes in the string and signature
+ * tables; the types are the names returned by {@link Class#getName()}.
+ * Every CALL is followed (after the calls of his children) by a RETURN.
+ * 
+ * This class is a concrete class from the Template Method Pattern
+ * (http://en.wikipedia.org/wiki/Template_method_pattern).
+ * 
+ * @author Adrian Citu
+ *
+ */
+public final class BinaryTraceWriter extends DFSDiagramWriter {
+
+    /**
+     * The first bytes of a trace.
+     */
+    static final byte[] MAGIC = {'A', '4', 'J', 'T'};
+    
+    /**
+     * The version of the trace format.
+     */
+    static final int VERSION = 1;
+    
+    /**
+     * Header flag; the execution times were written in the diagram.
+     */
+    static final int FLAG_TIMING = 1;
+    
+    /**
+     * Signature flag; the method is static.
+     */
+    static final int FLAG_STATIC = 1;
+    
+    /**
+     * Signature flag; the method is a constructor.
+     */
+    static final int FLAG_CONSTRUCTOR = 2;
+    
+    /**
+     * Tag of a string record.
+     */
+    static final int TAG_STRING = 1;
+    
+    /**
+     * Tag of a signature record.
+     */
+    static final int TAG_SIGNATURE = 2;
+    
+    /**
+     * Tag of a call record.
+     */
+    static final int TAG_CALL = 3;
+    
+    /**
+     * Tag of a return record.
+     */
+    static final int TAG_RETURN = 4;
+    
+    /**
+     * Tag of the end record.
+     */
+    static final int TAG_END = 5;
+    
+    /**
+     * Tag of the truncation record.
+     */
+    static final int TAG_TRUNCATED = 6;
+    
+    /**
+     * Number of bits of a varint byte.
+     */
+    private static final int VARINT_BITS = 7;
+    
+    /**
+     * The bits of a varint byte.
+     */
+    private static final int VARINT_MASK = 0x7F;
+    
+    /**
+     * Bit marking a varint byte followed by other bytes.
+     */
+    private static final int VARINT_MORE = 0x80;
+    
+    /**
+     * Number of bits used for the zigzag encoding of the times.
+     */
+    private static final int LONG_SIGN_SHIFT = 63;
+    
+    /**
+     * Initial size of the {@link #record} buffer.
+     */
+    private static final int RECORD_SIZE = 64;
+    
+    /**
+     * The indexes of the strings already written.
+     */
+    private final Map<String, Integer> strings = 
+        new HashMap<String, Integer>();
+    
+    /**
+     * The indexes of the signatures already written, by signature object
+     * ({@link SequenceMethod#getSignature()}); looked up first so the 
+     * signature of a method is not compared field by field for every call.
+     */
+    private final Map<Object, Integer> signatureIds = 
+        new IdentityHashMap<Object, Integer>();
+    
+    /**
+     * The indexes of the signatures already written, by content; used only
+     * the first time a signature object is written (two signature objects
+     * can have the same content).
+     */
+    private final Map<SignatureKey, Integer> signatures = 
+        new HashMap<SignatureKey, Integer>();
+    
+    /**
+     * Buffer on which the current record is encoded.
+     */
+    private byte[] record = new byte[RECORD_SIZE];
+    
+    /**
+     * Number of bytes of the current record.
+     */
+    private int recordLength = 0;
+    
+    /**
+     * The depth of the current call.
+     */
+    private int depth = 0;
+    
+    /**
+     * Writes the header of the trace.
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeHeader(final SequenceMethod meth) throws IOException {
+        for (byte b : MAGIC) {
+            this.putByte(b);
+        }
+        this.putByte(VERSION);
+        
+        int flags = 0;
+        if (this.isTimingWritten()) {
+            flags |= FLAG_TIMING;
+        }
+        this.putByte(flags);
+        this.writeRecord();
+    }
+    
+    /**
+     * Writes the call record (and the string and signature records if the
+     * signature of the method was not written yet).
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeMethodBeforeChildren(final SequenceMethod meth)
+        throws IOException {
+        
+        int signature = this.signatureIndex(meth);
+        
+        int threadName = 0;
+        if (meth.getThreadName() != null) {
+            threadName = this.stringIndex(meth.getThreadName()) + 1;
+        }
+        
+        this.putByte(TAG_CALL);
+        this.putVarint(signature);
+        this.putVarint(this.depth);
+        this.putVarint(meth.getRepeatCount());
+        this.putVarint(threadName);
+        this.writeRecord();
+        
+        this.depth++;
+    }
+    
+    /**
+     * Writes the return record containing the execution times.
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeMethodAfterChildren(final SequenceMethod meth)
+        throws IOException {
+        
+        this.putByte(TAG_RETURN);
+        if (meth.getTotalTime() < 0) {
+            this.putVarlong(BinaryTraceWriter.zigzag(-1));
+        } else {
+            this.putVarlong(BinaryTraceWriter.zigzag(meth.getTotalTime()));
+            this.putVarlong(BinaryTraceWriter.zigzag(meth.getSelfTime()));
+            this.putVarlong(BinaryTraceWriter.zigzag(meth.getMinTime()));
+            this.putVarlong(BinaryTraceWriter.zigzag(meth.getMaxTime()));
+        }
+        this.writeRecord();
+        
+        this.depth--;
+    }
+    
+    /**
+     * Writes the truncation record (if the diagram was truncated) and the 
+     * end record.
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeFooter(final SequenceMethod meth) throws IOException {
+        if (this.getOmittedCalls() != 0) {
+            this.putByte(TAG_TRUNCATED);
+            this.putVarlong(this.getOmittedCalls());
+            this.writeRecord();
+        }
+        
+        this.putByte(TAG_END);
+        this.writeRecord();
+    }
+    
+    /**
+     * @param meth the method.
+     * @return the index of the method signature; the signature record 
+     * is written the first time.
+     * @throws IOException if any I/O exception.
+     */
+    private int signatureIndex(final SequenceMethod meth) 
+        throws IOException {
+        
+        Object signature = meth.getSignature();
+        if (signature == null) {
+            return this.writeSignature(meth);
+        }
+        
+        Integer returnValue = this.signatureIds.get(signature);
+        if (returnValue == null) {
+            returnValue = Integer.valueOf(this.writeSignature(meth));
+            this.signatureIds.put(signature, returnValue);
+        }
+        return returnValue.intValue();
+    }
+    
+    /**
+     * @param meth the method.
+     * @return the index of the method signature, compared by content; the
+     * signature record is written the first time.
+     * @throws IOException if any I/O exception.
+     */
+    private int writeSignature(final SequenceMethod meth) 
+        throws IOException {
+        
+        SignatureKey key = new SignatureKey(meth);
+        Integer returnValue = this.signatures.get(key);
+        
+        if (returnValue == null) {
+            Class<?>[] types = meth.getParameterTypes();
+            String[] names = meth.getParameterNames();
+            
+            //the strings must be written before the signature record.
+            int className = this.stringIndex(meth.getClassName());
+            int methodName = this.stringIndex(meth.getMethodName());
+            int returnType = 0;
+            if (meth.getReturnType() != null) {
+                returnType = this.stringIndex(meth.getReturnType().getName()) 
+                    + 1;
+            }
+            int[] params = new int[names.length * 2];
+            for (int i = 0; i < names.length; i++) {
+                params[2 * i] = this.stringIndex(types[i].getName());
+                params[2 * i + 1] = this.stringIndex(names[i]);
+            }
+            
+            int flags = 0;
+            if (meth.isStatic()) {
+                flags |= FLAG_STATIC;
+            }
+            if (meth.isConstructor()) {
+                flags |= FLAG_CONSTRUCTOR;
+            }
+            
+            this.putByte(TAG_SIGNATURE);
+            this.putVarint(className);
+            this.putVarint(methodName);
+            this.putVarint(flags);
+            this.putVarint(returnType);
+            this.putVarint(names.length);
+            for (int param : params) {
+                this.putVarint(param);
+            }
+            this.writeRecord();
+            
+            returnValue = Integer.valueOf(this.signatures.size());
+            this.signatures.put(key, returnValue);
+        }
+        return returnValue.intValue();
+    }
+    
+    /**
+     * @param str the string.
+     * @return the index of the string; the string record is written the 
+     * first time.
+     * @throws IOException if any I/O exception.
+     */
+    private int stringIndex(final String str) throws IOException {
+        Integer returnValue = this.strings.get(str);
+        
+        if (returnValue == null) {
+            byte[] bytes = str.getBytes("UTF-8");
+            
+            this.putByte(TAG_STRING);
+            this.putVarint(bytes.length);
+            this.writeRecord();
+            this.writeBytes(bytes, 0, bytes.length);
+            
+            returnValue = Integer.valueOf(this.strings.size());
+            this.strings.put(str, returnValue);
+        }
+        return returnValue.intValue();
+    }
+    
+    /**
+     * @param value a signed value.
+     * @return the value zigzag encoded (the small negative values are 
+     * encoded as small positive values).
+     */
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> LONG_SIGN_SHIFT);
+    }
+    
+    /**
+     * Adds an unsigned varint to the current record.
+     * 
+     * @param value the value (positive).
+     */
+    private void putVarint(final int value) {
+        this.putVarlong(value);
+    }
+    
+    /**
+     * Adds an unsigned varint to the current record.
+     * 
+     * @param value the value; interpreted as unsigned.
+     */
+    private void putVarlong(final long value) {
+        long remaining = value;
+        while ((remaining & ~VARINT_MASK) != 0) {
+            this.putByte((int) ((remaining & VARINT_MASK) | VARINT_MORE));
+            remaining >>>= VARINT_BITS;
+        }
+        this.putByte((int) remaining);
+    }
+    
+    /**
+     * Adds a byte to the current record.
+     * 
+     * @param value the byte (the lowest 8 bits).
+     */
+    private void putByte(final int value) {
+        if (this.recordLength == this.record.length) {
+            byte[] newRecord = new byte[this.record.length * 2];
+            System.arraycopy(this.record, 0, newRecord, 0, this.recordLength);
+            this.record = newRecord;
+        }
+        this.record[this.recordLength] = (byte) value;
+        this.recordLength++;
+    }
+    
+    /**
+     * Writes the current record and starts a new one.
+     * 
+     * @throws IOException if any I/O exception.
+     */
+    private void writeRecord() throws IOException {
+        this.writeBytes(this.record, 0, this.recordLength);
+        this.recordLength = 0;
+    }
+    
+    /**
+     * Key of the {@link BinaryTraceWriter#signatures} map; two methods have
+     * the same key if all the informations written in the signature record
+     * are equal. The key do not keep a reference to the method (the written
+     * methods can be garbage collected in the streaming mode).
+     * 
+     * @author Adrian Citu
+     *
+     */
+    private static final class SignatureKey {
+        
+        /**
+         * The class name.
+         */
+        private final String className;
+        
+        /**
+         * The method name.
+         */
+        private final String methodName;
+        
+        /**
+         * The method is static.
+         */
+        private final boolean staticMethod;
+        
+        /**
+         * The method is a constructor.
+         */
+        private final boolean constructor;
+        
+        /**
+         * The return type.
+         */
+        private final Class<?> returnType;
+        
+        /**
+         * The parameters types.
+         */
+        private final Class<?>[] parameterTypes;
+        
+        /**
+         * The parameters names.
+         */
+        private final String[] parameterNames;
+        
+        /**
+         * The hash code, computed only one time.
+         */
+        private final int hash;
+        
+        /**
+         * @param meth the method.
+         */
+        SignatureKey(final SequenceMethod meth) {
+            this.className = meth.getClassName();
+            this.methodName = meth.getMethodName();
+            this.staticMethod = meth.isStatic();
+            this.constructor = meth.isConstructor();
+            this.returnType = meth.getReturnType();
+            this.parameterTypes = meth.getParameterTypes();
+            this.parameterNames = meth.getParameterNames();
+            this.hash = this.className.hashCode() 
+                ^ this.methodName.hashCode() 
+                ^ Arrays.hashCode(this.parameterNames);
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof SignatureKey)) {
+                return false;
+            }
+            
+            SignatureKey other = (SignatureKey) obj;
+            return this.className.equals(other.className)
+                && this.methodName.equals(other.methodName)
+                && this.staticMethod == other.staticMethod
+                && this.constructor == other.constructor
+                && this.returnType == other.returnType
+                && Arrays.equals(this.parameterTypes, other.parameterTypes)
+                && Arrays.equals(this.parameterNames, other.parameterNames);
+        }
+    }
+}
@@ -14,9 +14,18 @@
  */
 package org.aoplib4j.uml;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.logging.Logger;
 
 /**
   * Writer for the <code>CODETODIAGRAM</code> project.
@@ -45,6 +54,12 @@ import java.util.Set;
  * </pre>
  * </li>
  * </ul>
+ * The messages are written, while the methods are visited, to a temporary
+ * file created in the directory of the diagram and copied into the diagram
+ * at the end (after the actors section, known only at the end); only the
+ * actors (one for every distinct class) are kept in memory, so the memory 
+ * used does not depend on the number of calls.
+ * 
  * It is possible to generate the uml diagram from the XML file using this url:
  * http://www.thiagomata.com/codetodiagram/svn/public/caller.php
  * 
@@ -113,10 +128,21 @@ public final class CodeToDiagramWriter extends DFSDiagramWriter {
     
 
     /**
-     * Buffer for the  <code>actors</code> section.
+     * The size of the buffer used to copy the messages file.
      */
-    private StringBuffer actorsBuffer = 
-        new StringBuffer("<actors>").append(NEW_LINE);
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+    
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER = 
+        Logger.getLogger(CodeToDiagramWriter.class.getName());
+    
+    /**
+     * The <code>actors</code> section; one line for every distinct class so
+     * it is kept in memory.
+     */
+    private StringBuilder actorsBuffer = new StringBuilder();
     
     /**
      * Set containing defined actors (represented by the full class name). 
@@ -125,23 +151,52 @@ public final class CodeToDiagramWriter extends DFSDiagramWriter {
     private Set<String> definedActors = new HashSet<String>();
     
     /**
-     * Buffer for the <code>messages</code> section.
+     * Temporary file receiving the <code>messages</code> section while the
+     * diagram is written; null if the file cannot be created (the messages
+     * are then kept in memory).
+     */
+    private File messagesFile = null;
+    
+    /**
+     * Directory of the {@link #messagesFile}; null for the directory of the
+     * diagram.
      */
-    private StringBuffer messagesBuffer = 
-        new StringBuffer("<messages>").append(NEW_LINE);
+    private File messagesDirectory = null;
+    
+    /**
+     * Writer of the <code>messages</code> section (the 
+     * {@link #messagesFile} or a <code>StringWriter</code>).
+     */
+    private Writer messagesWriter = null;
+    
+    /**
+     * Buffer used to build a message before writing it.
+     */
+    private final StringBuilder message = new StringBuilder();
     
     /**
      * {@inheritDoc}
+     * 
+     * The <code>actors</code> section is written first but all the actors 
+     * are known only at the end, so the <code>messages</code> section 
+     * (written while the methods are visited) is copied now from the 
+     * temporary file after the actors.
      */
     @Override
     public void writeFooter(final SequenceMethod meth) 
         throws IOException {
         
-        this.actorsBuffer.append("</actors>");
-        this.writeLine(this.actorsBuffer.toString());
+        this.writeLine("<actors>");
+        this.writeLine(this.actorsBuffer.append("</actors>").toString());
         
-        this.messagesBuffer.append("</messages>");
-        this.writeLine(this.messagesBuffer.toString());
+        this.writeLine("<messages>");
+        this.copyMessages();
+        this.writeLine("</messages>");
+        
+        String truncation = this.formatTruncation();
+        if (truncation != null) {
+            this.writeLine("<!-- " + truncation + " -->");
+        }
         
         this.writeLine(FOOTER);
 
@@ -150,12 +205,109 @@ public final class CodeToDiagramWriter extends DFSDiagramWriter {
  
     /**
      * {@inheritDoc}
+     * 
+     * Opens the temporary file of the <code>messages</code> section, in the
+     * directory of the diagram. If the diagram is not written in a file 
+     * (the text is only copied, see 
+     * {@link #copyLinesTo(StringBuilder)}) the messages are kept in 
+     * memory, since the copy of the file is not added to the copied text.
      */
     @Override
     public void writeHeader(final SequenceMethod meth) 
         throws IOException {
         this.writeLine(HEADER);
-
+        
+        if (this.getFilePath() == null) {
+            this.messagesWriter = new StringWriter();
+            return;
+        }
+        
+        File directory = this.messagesDirectory;
+        if (directory == null) {
+            directory = new File(this.getDiagramFullPath())
+                .getAbsoluteFile().getParentFile();
+        }
+        
+        try {
+            this.messagesFile = File.createTempFile("aoplib4j-messages-", 
+                    ".xml", directory);
+            this.messagesWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(this.messagesFile), "UTF-8"));
+        } catch (IOException e) {
+            LOGGER.warning("Cannot create the temporary messages file of the"
+                    + " diagram " + this.getDiagramFullPath() + "; the "
+                    + "messages are kept in memory: " + e.getMessage());
+            this.releaseResources();
+            this.messagesWriter = new StringWriter();
+        }
+    }
+    
+    /**
+     * Changes the directory of the temporary messages file. The method is 
+     * package protected only for testing purposes.
+     * 
+     * @param directory the directory of the temporary file; null for the
+     * directory of the diagram.
+     */
+    void setMessagesDirectory(final File directory) {
+        this.messagesDirectory = directory;
+    }
+    
+    /**
+     * Copies the messages written so far into the diagram.
+     * 
+     * @throws IOException if any I/O exception.
+     */
+    private void copyMessages() throws IOException {
+        this.messagesWriter.close();
+        
+        if (this.messagesFile == null) {
+            String messages = this.messagesWriter.toString();
+            if (messages.length() != 0) {
+                //the last new line is added by writeLine.
+                this.writeLine(messages.substring(0, 
+                        messages.length() - NEW_LINE.length()));
+            }
+            return;
+        }
+        
+        InputStream input = new FileInputStream(this.messagesFile);
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int count = input.read(buffer);
+            while (count != -1) {
+                this.writeBytes(buffer, 0, count);
+                count = input.read(buffer);
+            }
+        } finally {
+            input.close();
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * Deletes the temporary file of the <code>messages</code> section.
+     */
+    @Override
+    protected void releaseResources() {
+        if (this.messagesWriter != null) {
+            try {
+                this.messagesWriter.close();
+            } catch (IOException e) {
+                LOGGER.warning("Cannot close the temporary messages file: " 
+                        + e.getMessage());
+            }
+            this.messagesWriter = null;
+        }
+        
+        if (this.messagesFile != null) {
+            if (!this.messagesFile.delete()) {
+                LOGGER.warning("Cannot delete the temporary file " 
+                        + this.messagesFile);
+            }
+            this.messagesFile = null;
+        }
     }
 
 
@@ -166,20 +318,22 @@ public final class CodeToDiagramWriter extends DFSDiagramWriter {
     public void writeMethodAfterChildren(final SequenceMethod meth) 
         throws IOException {
         
-        //fill the messagesBuffer with the messages of type "return"     
-        this.writeToMessageBuffer(meth, MessageType.returnType);
+        //write the messages of type "return"     
+        this.writeMessage(meth, MessageType.returnType);
         
     }
 
 
     /**
      * @param meth the method to use for compute the actor.
+     * @throws IOException if the message cannot be written.
      */
-    private void computeActorAndMessageFromMethod(final SequenceMethod meth) {
+    private void computeActorAndMessageFromMethod(final SequenceMethod meth) 
+        throws IOException {
      
         String actorIdAttr = meth.getClassName();
 
-        //fill the actorsBuffer
+        //fill the actorsBuffer (the actors are written at the end)
         if (!this.definedActors.contains(actorIdAttr)) {
             this.definedActors.add(actorIdAttr);
             String actorTypeAttr = "system";
@@ -190,23 +344,24 @@ public final class CodeToDiagramWriter extends DFSDiagramWriter {
                 actorTypeAttr = "user";
             }
 
-            this.actorsBuffer
-                .append("<actor ")
-                .append("id=\"").append(actorIdAttr).append(QUOT_SPACE)
-                .append(TYPE_ATTR).append(actorTypeAttr).append("\">")
-                .append(actorContent)
-                .append("</actor>")
-                .append(NEW_LINE);
+            this.actorsBuffer.append("<actor ").append("id=\"")
+                .append(MethodLabels.forMethod(meth).getXmlClassName())
+                .append(QUOT_SPACE)
+                .append(TYPE_ATTR).append(actorTypeAttr).append("\">");
+            MethodLabels.appendEscaped(this.actorsBuffer, actorContent);
+            this.actorsBuffer.append("</actor>").append(NEW_LINE);
         
         }
         
-        //fill the messagesBuffer with the messages of type "call"     
-        this.writeToMessageBuffer(meth, MessageType.callType);
+        //write the messages of type "call"     
+        this.writeMessage(meth, MessageType.callType);
         
     }
     
     /**
-     *  Write a message to the {@link #messagesBuffer}.
+     *  Write a message to the {@link #messagesWriter}; the attribute values
+     *  are escaped and the parts depending only on the signatures of the 
+     *  methods are formatted only once (see {@link MethodLabels}).
      *  
      *  If the message type is a call then the line will be:
      *  <pre>
@@ -226,54 +381,88 @@ public final class CodeToDiagramWriter extends DFSDiagramWriter {
      *      text="meth.getMethodName()"
      *  /&gt;
      *  </pre>
+     *  
+     *  If the method represents several calls (the loops are aggregated) the
+     *  text ends with the repeat count: <code>text="method() *[x10]"</code>.
+     *  If the method is executed by a task on another thread the text ends
+     *  with the thread name: <code>text="method() [thread name]"</code>.
+     *  If the execution times are written 
+     *  ({@link Aoplib4jSequenceDiagram#timing()}) the text of the return
+     *  message ends with the times: 
+     *  <code>text="method() [total=1.250ms self=0.300ms]"</code>.
+     *  If the values are captured 
+     *  ({@link Aoplib4jSequenceDiagram#captureValues()}) the text of the 
+     *  call message ends with the arguments and the text of the return 
+     *  message with the returned value: 
+     *  <code>text="method() [returned=&amp;quot;abc&amp;quot;]"</code>.
+     *  
      * @param meth the method for compute the message.
      * @param type the message type 
+     * @throws IOException if the message cannot be written.
      */
-    private void writeToMessageBuffer(
-            final SequenceMethod meth, final MessageType type) {
+    private void writeMessage(
+            final SequenceMethod meth, final MessageType type) 
+        throws IOException {
         
         if (meth.getParent() == null) {
             return;
         }
         
-        this.messagesBuffer.append("<message ");
+        MethodLabels labels = MethodLabels.forMethod(meth);
+        MethodLabels parentLabels = MethodLabels.forMethod(meth.getParent());
         
-        if (MessageType.callType.equals(type)) {
-            this.messagesBuffer
-            .append(TYPE_ATTR).append("call").append(QUOT_SPACE)
-            .append(FROM_ATTR).append(meth.getParent().getClassName())
-            .append(QUOT_SPACE)
-            .append(TO_ATTR).append(meth.getClassName()).append(QUOT_SPACE);
-        }
+        String from = parentLabels.getXmlClassName();
+        String to = labels.getXmlClassName();
+        String typeAttr = "call";
         
         //for "returnType", To and From ar reversed
         if (MessageType.returnType.equals(type)) {
-
-            this.messagesBuffer
-            .append(TYPE_ATTR).append("return").append(QUOT_SPACE)
-            .append(FROM_ATTR).append(meth.getClassName()).append(QUOT_SPACE)
-            .append(TO_ATTR).append(meth.getParent().getClassName())
-            .append(QUOT_SPACE);           
+            from = labels.getXmlClassName();
+            to = parentLabels.getXmlClassName();
+            typeAttr = "return";
         }
         
-        this.messagesBuffer
-        .append("text=\"").append(meth.getMethodName()).append("(");
+        StringBuilder msg = this.message;
+        msg.setLength(0);
+        msg.append("<message ").append(TYPE_ATTR).append(typeAttr)
+            .append(QUOT_SPACE).append(FROM_ATTR).append(from)
+            .append(QUOT_SPACE).append(TO_ATTR).append(to)
+            .append(QUOT_SPACE).append("text=\"")
+            .append(labels.getXmlMessageText());
         
-        Class<?>[] paramTypes = meth.getParameterTypes();
+        if (meth.getRepeatCount() > 1) {
+            msg.append(" *[x").append(meth.getRepeatCount()).append("]");
+        }
+        
+        if (meth.getThreadName() != null) {
+            msg.append(" [thread ");
+            MethodLabels.appendEscaped(msg, meth.getThreadName());
+            msg.append("]");
+        }
         
-        for (int i = 0; i < paramTypes.length; i++) {
-            this.messagesBuffer.append(paramTypes[i].toString());
-            if (i < paramTypes.length - 1) {
-                this.messagesBuffer.append(",");
+        String values = null;
+        if (MessageType.returnType.equals(type)) {
+            values = this.formatReturnValue(meth);
+        } else {
+            values = this.formatArguments(meth);
+        }
+        if (values != null) {
+            msg.append(" [");
+            MethodLabels.appendEscaped(msg, values);
+            msg.append("]");
+        }
+        
+        if (MessageType.returnType.equals(type) && this.isTimingWritten()) {
+            String times = this.formatTimes(meth);
+            if (times != null) {
+                msg.append(" [").append(times).append("]");
             }
         }
-
-        this.messagesBuffer
-        .append(")")
-        .append(QUOTE_LT).append(NEW_LINE);
-
+        
+        msg.append(QUOTE_LT).append(NEW_LINE);
+        this.messagesWriter.append(msg);
     }
-
+    
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.IOException;
+
+/**
+ * Writer of the collapsed stacks format used by the flame graph tools 
+ * (ex: <code>flamegraph.pl</code>): one line per distinct call stack, the
+ * frames separated by ';' followed by the number of calls ending with this
+ * stack.
+ * <pre>
+ * ActorClass.actorMethod 1
+ * ActorClass.actorMethod;Class1.method1Class1 10
+ * ActorClass.actorMethod;Class1.method1Class1;Class2.method1Class2 10
+ * </pre>
+ * 
+ * The calls merged by {@link Aoplib4jSequenceDiagram#aggregateLoops()} are
+ * counted with their repeat count; the calls omitted from a truncated 
+ * diagram are counted in a <code>[truncated]</code> frame under the root 
+ * method.
+ * 
+ * The diagram file contains the stacks of one execution of the annotated 
+ * method; the stacks of all the executions are also aggregated in memory 
+ * and written periodically in the diagram path followed by 
+ * <code>.collapsed</code> (see {@link CollapsedStacks}), so the sampled 
+ * executions (see {@link Aoplib4jSequenceDiagram#sampleRate()}) of a 
+ * service can be turned into a single flame graph.
+ * 
+ * This class is a concrete class from the Template Method Pattern
+ * (http://en.wikipedia.org/wiki/Template_method_pattern).
+ * 
+ * @author Adrian Citu
+ * 
+ */
+public final class CollapsedStackWriter extends DFSDiagramWriter {
+
+    /**
+     * The frame counting the calls omitted from a truncated diagram.
+     */
+    static final String TRUNCATED_FRAME = "[truncated]";
+    
+    /**
+     * The initial capacity of the stack.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    
+    /**
+     * The root of the stacks of the diagram; not a frame.
+     */
+    private CollapsedStacks.Node stacks = null;
+    
+    /**
+     * The frames of the method under writing and of his callers; only the 
+     * first {@link #depth} elements are used.
+     */
+    private CollapsedStacks.Node[] frames = 
+        new CollapsedStacks.Node[INITIAL_CAPACITY];
+    
+    /**
+     * The number of calls of every frame of {@link #frames}; the repeat 
+     * count of the method multiplied by the calls of the caller.
+     */
+    private long[] calls = new long[INITIAL_CAPACITY];
+    
+    /**
+     * The number of frames in the stack.
+     */
+    private int depth = 0;
+    
+    /**
+     * Default constructor.
+     */
+    public CollapsedStackWriter() {
+        super();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeHeader(final SequenceMethod meth) throws IOException {
+        this.stacks = new CollapsedStacks.Node(null);
+        this.frames[0] = this.stacks;
+        this.calls[0] = 1;
+        this.depth = 1;
+    }
+
+    /**
+     * Adds the calls of the method to the frame of his stack.
+     * 
+     * @param meth the method to write.
+     * 
+     * @throws IOException if any writing error.
+     */
+    @Override
+    public void writeMethodBeforeChildren(final SequenceMethod meth) 
+        throws IOException {
+        
+        if (this.depth == this.frames.length) {
+            CollapsedStacks.Node[] newFrames = 
+                new CollapsedStacks.Node[this.depth * 2];
+            System.arraycopy(this.frames, 0, newFrames, 0, this.depth);
+            this.frames = newFrames;
+            
+            long[] newCalls = new long[this.depth * 2];
+            System.arraycopy(this.calls, 0, newCalls, 0, this.depth);
+            this.calls = newCalls;
+        }
+        
+        CollapsedStacks.Node frame = this.frames[this.depth - 1].child(
+                MethodLabels.forMethod(meth).getStackFrame());
+        long frameCalls = this.calls[this.depth - 1] * meth.getRepeatCount();
+        frame.add(frameCalls);
+        
+        this.frames[this.depth] = frame;
+        this.calls[this.depth] = frameCalls;
+        this.depth++;
+    }
+
+    /**
+     * Removes the frame of the method from the stack.
+     * 
+     * @param meth the method to write.
+     * 
+     * @throws IOException if any writing error.
+     */
+    @Override
+    public void writeMethodAfterChildren(final SequenceMethod meth) 
+        throws IOException {
+        
+        this.depth--;
+        this.frames[this.depth] = null;
+    }
+
+    /**
+     * Writes the stacks of the diagram and adds them to the aggregated 
+     * stacks.
+     * 
+     * @param meth the root method.
+     * 
+     * @throws IOException if any writing error.
+     */
+    @Override
+    public void writeFooter(final SequenceMethod meth) throws IOException {
+        if (this.getOmittedCalls() != 0) {
+            this.stacks.child(MethodLabels.forMethod(meth).getStackFrame())
+                .child(TRUNCATED_FRAME).add(this.getOmittedCalls());
+        }
+        
+        StringBuilder text = new StringBuilder();
+        CollapsedStacks.appendStacks(this.stacks, text);
+        this.writeLines(text);
+        
+        CollapsedStacks.merge(this.getDiagramFullPath(), this.stacks);
+        this.stacks = null;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The collapsed stacks of all the diagrams written by the
+ * {@link CollapsedStackWriter} in the same diagram path, kept in memory in
+ * a trie of stack frames: every node is a frame and counts the calls whose
+ * stack ends with the frame, so a stack seen many times is kept only once.
+ *
+ * The aggregated stacks are written in the aggregate file (the diagram path
+ * followed by {@value #AGGREGATE_EXTENSION}) by a background thread every
+ * {@value #FLUSH_MILLIS_PROPERTY} milliseconds (system property read when
+ * the thread starts; 10000 by default) and when the virtual machine exits,
+ * so the threads ending the diagrams are only merging the stacks. The 
+ * stacks of a diagram path not merged during a whole period are removed
+ * from memory once written; they are read back from the aggregate file 
+ * (as the stacks written before a restart) when the path is used again.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class CollapsedStacks {
+
+    /**
+     * The extension added to the diagram path for the aggregate file.
+     */
+    static final String AGGREGATE_EXTENSION = ".collapsed";
+
+    /**
+     * System property containing the minimum time, in milliseconds, between
+     * two writings of the aggregate file.
+     */
+    static final String FLUSH_MILLIS_PROPERTY =
+        "org.aoplib4j.uml.collapsedStacksFlushMillis";
+
+    /**
+     * Default value of the {@link #FLUSH_MILLIS_PROPERTY}.
+     */
+    private static final long DEFAULT_FLUSH_MILLIS = 10000;
+
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(CollapsedStacks.class.getName());
+
+    /**
+     * The aggregated stacks of every diagram path.
+     */
+    private static final ConcurrentMap<String, CollapsedStacks> AGGREGATES =
+        new ConcurrentHashMap<String, CollapsedStacks>();
+
+    /**
+     * The thread writing the aggregate files; started when the first 
+     * aggregated stacks are created.
+     */
+    private static ScheduledExecutorService flusher = null;
+
+    /**
+     * The diagram path.
+     */
+    private final String diagramPath;
+
+    /**
+     * The path of the aggregate file.
+     */
+    private final String aggregatePath;
+
+    /**
+     * The root of the trie; not a frame.
+     */
+    private final Node root = new Node(null);
+
+    /**
+     * true if stacks were added since the last writing.
+     */
+    private boolean dirty = false;
+
+    /**
+     * true once removed from the {@link #AGGREGATES}; the stacks are not
+     * merged anymore.
+     */
+    private boolean evicted = false;
+
+    /**
+     * Use {@link #forDiagram(String)}.
+     *
+     * @param path the diagram path.
+     */
+    private CollapsedStacks(final String path) {
+        this.diagramPath = path;
+        this.aggregatePath = path + AGGREGATE_EXTENSION;
+        this.load();
+    }
+
+    /**
+     * @param diagramPath the diagram path.
+     * @return the aggregated stacks of the diagrams written in the path; 
+     * read from the aggregate file the first time.
+     */
+    static CollapsedStacks forDiagram(final String diagramPath) {
+        CollapsedStacks returnValue = AGGREGATES.get(diagramPath);
+
+        if (returnValue == null) {
+            CollapsedStacks stacks = new CollapsedStacks(diagramPath);
+            returnValue = AGGREGATES.putIfAbsent(diagramPath, stacks);
+            if (returnValue == null) {
+                returnValue = stacks;
+                CollapsedStacks.startFlusher();
+            }
+        }
+        return returnValue;
+    }
+
+    /**
+     * Adds the stacks of a diagram to the aggregated stacks of the diagram
+     * path; the aggregate file is written later by the background thread.
+     *
+     * @param diagramPath the diagram path.
+     * @param stacks the root of the stacks of the diagram.
+     */
+    static void merge(final String diagramPath, final Node stacks) {
+        //the stacks evicted meanwhile are read back from the file.
+        boolean merged = false;
+        while (!merged) {
+            merged = CollapsedStacks.forDiagram(diagramPath).add(stacks);
+        }
+    }
+
+    /**
+     * Starts, the first time, the thread writing the aggregate files and
+     * registers the hook writing them when the virtual machine exits.
+     */
+    private static synchronized void startFlusher() {
+        if (flusher != null) {
+            return;
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r, 
+                                "aoplib4j-collapsed-stacks-flusher");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        long period = Math.max(1, 
+                Long.getLong(FLUSH_MILLIS_PROPERTY, DEFAULT_FLUSH_MILLIS));
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for (CollapsedStacks stacks : AGGREGATES.values()) {
+                    stacks.flushOrEvict();
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                for (CollapsedStacks stacks : AGGREGATES.values()) {
+                    stacks.flush();
+                }
+            }
+        }, "aoplib4j-collapsed-stacks-shutdown"));
+    }
+
+    /**
+     * Adds the stacks of a diagram.
+     *
+     * @param stacks the root of the stacks of the diagram.
+     * @return false if the stacks were evicted; nothing is merged.
+     */
+    private synchronized boolean add(final Node stacks) {
+        if (this.evicted) {
+            return false;
+        }
+
+        List<Node> sources = new ArrayList<Node>();
+        List<Node> targets = new ArrayList<Node>();
+        sources.add(stacks);
+        targets.add(this.root);
+
+        while (!sources.isEmpty()) {
+            Node source = sources.remove(sources.size() - 1);
+            Node target = targets.remove(targets.size() - 1);
+
+            target.add(source.count);
+            for (int i = 0; i < source.childCount; i++) {
+                sources.add(source.children[i]);
+                targets.add(target.child(source.children[i].frame));
+            }
+        }
+
+        this.dirty = true;
+        return true;
+    }
+
+    /**
+     * Writes the aggregate file if stacks were added since the last 
+     * writing, otherwise (no stacks merged during a whole period) removes
+     * the stacks from memory. The method is package protected only for 
+     * testing purposes.
+     */
+    synchronized void flushOrEvict() {
+        if (this.dirty) {
+            this.flush();
+        } else {
+            this.evicted = true;
+            AGGREGATES.remove(this.diagramPath, this);
+        }
+    }
+
+    /**
+     * Writes the aggregate file if stacks were added since the last 
+     * writing; an error is only logged.
+     */
+    synchronized void flush() {
+        if (!this.dirty) {
+            return;
+        }
+        this.dirty = false;
+
+        try {
+            Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(this.aggregatePath), "UTF-8");
+            try {
+                CollapsedStacks.appendStacks(this.root, writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Cannot write the collapsed stacks " 
+                    + this.aggregatePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the stacks of the aggregate file, if any (written before a 
+     * restart or before the eviction); an error is only logged.
+     */
+    private void load() {
+        File file = new File(this.aggregatePath);
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+            try {
+                String line = reader.readLine();
+                while (line != null) {
+                    this.loadLine(line);
+                    line = reader.readLine();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Cannot read the collapsed stacks " 
+                    + this.aggregatePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param line a line of the aggregate file (ex: <code>A;B;C 3</code>).
+     */
+    private void loadLine(final String line) {
+        int space = line.lastIndexOf(' ');
+        if (space <= 0) {
+            LOGGER.warning("Wrong line in the collapsed stacks " 
+                    + this.aggregatePath + ": " + line);
+            return;
+        }
+
+        long calls;
+        try {
+            calls = Long.parseLong(line.substring(space + 1));
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Wrong line in the collapsed stacks " 
+                    + this.aggregatePath + ": " + line);
+            return;
+        }
+
+        Node node = this.root;
+        for (String frame : line.substring(0, space).split(";")) {
+            node = node.child(frame);
+        }
+        node.add(calls);
+    }
+
+    /**
+     * Appends the stacks of a trie, one line per stack: the frames 
+     * separated by ';', a space and the number of calls 
+     * (ex: <code>A;B;C 3</code>). The trie is walked with an explicit 
+     * stack so the deep tries are not limited by the thread stack.
+     *
+     * @param stacks the root of the trie.
+     * @param target the text receiving the lines.
+     * @throws IOException if any I/O exception
+     */
+    static void appendStacks(final Node stacks, final Appendable target)
+        throws IOException {
+
+        StringBuilder path = new StringBuilder();
+        List<Node> nodes = new ArrayList<Node>();
+        List<Integer> prefixes = new ArrayList<Integer>();
+        for (int i = stacks.childCount - 1; i >= 0; i--) {
+            nodes.add(stacks.children[i]);
+            prefixes.add(0);
+        }
+
+        while (!nodes.isEmpty()) {
+            Node node = nodes.remove(nodes.size() - 1);
+            int prefix = prefixes.remove(prefixes.size() - 1);
+
+            path.setLength(prefix);
+            if (prefix != 0) {
+                path.append(';');
+            }
+            path.append(node.frame);
+
+            if (node.count != 0) {
+                target.append(path).append(' ').append(
+                        String.valueOf(node.count)).append(
+                                SequenceDiagramWriter.NEW_LINE);
+            }
+
+            for (int i = node.childCount - 1; i >= 0; i--) {
+                nodes.add(node.children[i]);
+                prefixes.add(path.length());
+            }
+        }
+    }
+
+    /**
+     * A frame of the trie.
+     *
+     * @author Adrian Citu
+     *
+     */
+    static final class Node {
+
+        /**
+         * The initial capacity of the children array.
+         */
+        private static final int INITIAL_CHILDREN = 2;
+
+        /**
+         * The frame; null for the root.
+         */
+        private final String frame;
+
+        /**
+         * The number of calls whose stack ends with this frame.
+         */
+        private long count = 0;
+
+        /**
+         * The children; only the first {@link #childCount} are used.
+         */
+        private Node[] children = null;
+
+        /**
+         * The number of children.
+         */
+        private int childCount = 0;
+
+        /**
+         * @param stackFrame the frame; null for the root.
+         */
+        Node(final String stackFrame) {
+            this.frame = stackFrame;
+        }
+
+        /**
+         * @param calls the number of calls to add.
+         */
+        void add(final long calls) {
+            this.count += calls;
+        }
+
+        /**
+         * @param stackFrame a frame.
+         * @return the child having the frame; created if not found.
+         */
+        Node child(final String stackFrame) {
+            for (int i = 0; i < this.childCount; i++) {
+                if (this.children[i].frame.equals(stackFrame)) {
+                    return this.children[i];
+                }
+            }
+
+            if (this.children == null) {
+                this.children = new Node[INITIAL_CHILDREN];
+            } else if (this.childCount == this.children.length) {
+                Node[] newChildren = new Node[this.childCount * 2];
+                System.arraycopy(this.children, 0, newChildren, 0,
+                        this.childCount);
+                this.children = newChildren;
+            }
+
+            Node returnValue = new Node(stackFrame);
+            this.children[this.childCount] = returnValue;
+            this.childCount++;
+            return returnValue;
+        }
+    }
+}
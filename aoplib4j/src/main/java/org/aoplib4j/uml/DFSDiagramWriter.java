@@ -15,6 +15,8 @@
 package org.aoplib4j.uml;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Class implementing the Depth-first search (DFS)
@@ -26,11 +28,28 @@ import java.io.IOException;
  * 
  * Every subclass must implement the way of writing the diagrams.
  * 
+ * The writer can also be fed with events while the diagram is recorded
+ * (see {@link SequenceDiagramEventWriter}); the events are translated to the
+ * same template methods so the subclasses are working the same way in both
+ * modes.
+ * 
+ * The tree is walked with an explicit stack ({@link SequenceMethodCursor})
+ * so the deep call trees are not limited by the size of the thread stack;
+ * the writers implementing {@link ParallelDiagramWriter} can also write
+ * the subtrees in parallel.
+ * 
  * @author Adrian Citu
  *
  */
-public abstract class DFSDiagramWriter extends SequenceDiagramWriter {
+public abstract class DFSDiagramWriter extends SequenceDiagramWriter 
+    implements SequenceDiagramEventWriter {
 
+    /**
+     * Method entered (streaming mode) but not written yet; the writing is
+     * delayed until the first child is entered or the method is exited 
+     * because before that it is not known if the method have children.
+     */
+    private SequenceMethod pendingMethod = null;
 
     /**
      * 
@@ -40,11 +59,45 @@ public abstract class DFSDiagramWriter extends SequenceDiagramWriter {
     @Override
     public final void write(final SequenceMethod meth) throws IOException {
         
-        this.writeHeader(meth);
-        this.writeMethod(meth);
-        this.writeFooter(meth);
+        Map<SequenceMethod, ParallelRendering.Fragment> fragments = null;
+        if (this instanceof ParallelDiagramWriter 
+                && ParallelRendering.isEnabled()) {
+            fragments = ParallelRendering.submitFragments(
+                    (ParallelDiagramWriter) this, this.isTimingWritten(), meth);
+        }
+        
+        try {
+            this.writeHeader(meth);
+            this.writeMethod(meth, fragments);
+            this.writeFooter(meth);
+        } finally {
+            if (fragments != null) {
+                ParallelRendering.cancel(fragments);
+            }
+        }
     }
     
+    /**
+     * Write some methods (and their children) of a diagram written in 
+     * parallel; called on the fragment writers (see 
+     * {@link ParallelDiagramWriter#newFragmentWriter()}).
+     * 
+     * @param methods the consecutive siblings to write.
+     * @param timing true if the execution times are written.
+     * @return the written text.
+     * @throws IOException if any exception when writing.
+     */
+    final CharSequence writeFragment(final List<SequenceMethod> methods,
+            final boolean timing) throws IOException {
+        
+        StringBuilder returnValue = new StringBuilder();
+        this.setTimingWritten(timing);
+        this.copyLinesTo(returnValue);
+        for (SequenceMethod meth : methods) {
+            this.writeMethod(meth, null);
+        }
+        return returnValue;
+    }
 
     /**
      * Last method called the end for the diagram writing.
@@ -68,8 +121,8 @@ public abstract class DFSDiagramWriter extends SequenceDiagramWriter {
      *      call {@link #writeMethodBeforeChildren(SequenceMethod)}
      *  </li>
      *  <li>
-     *      for every child method method call 
-     *      {@link #writeMethod(SequenceMethod)}
+     *      write the same way every child method (or the text of the
+     *      fragment starting with the child, if any)
      *  </li>
      *  
      *  <li>
@@ -78,18 +131,101 @@ public abstract class DFSDiagramWriter extends SequenceDiagramWriter {
      *  </ul>
      *  
      * @param meth the method to write.
+     * @param fragments the fragments written in parallel, the key being the
+     * first method of the fragment; null if written by a single thread.
      * @throws IOException if any exception when writing.
      */
-    private void writeMethod(final SequenceMethod meth) throws IOException {
+    private void writeMethod(final SequenceMethod meth,
+            final Map<SequenceMethod, ParallelRendering.Fragment> fragments) 
+        throws IOException {
         
-        this.writeMethodBeforeChildren(meth);
+        SequenceMethodCursor cursor = new SequenceMethodCursor(meth);
         
-        for (SequenceMethod children : meth.getChildren()) {
-            this.writeMethod(children);
+        while (cursor.next()) {
+            SequenceMethod current = cursor.getMethod();
+            
+            if (!cursor.isEntering()) {
+                this.writeMethodAfterChildren(current);
+                continue;
+            }
+            
+            ParallelRendering.Fragment fragment = null;
+            if (fragments != null && current != meth) {
+                fragment = fragments.get(current);
+            }
+            
+            if (fragment != null) {
+                this.writeLines(fragment.getText());
+                cursor.skip(fragment.getSize());
+            } else {
+                this.writeMethodBeforeChildren(current);
+            }
         }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Calls the {@link #writeHeader(SequenceMethod)}.
+     */
+    public final void diagramStarted(final SequenceMethod rootMethod) 
+        throws IOException {
         
+        this.pendingMethod = null;
+        this.writeHeader(rootMethod);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The method is not written directly; if the caller was not written yet 
+     * then is written now (the caller have at least one child).
+     */
+    public final void methodEntered(final SequenceMethod meth) 
+        throws IOException {
+        
+        this.writePendingMethod();
+        this.pendingMethod = meth;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Calls the {@link #writeMethodAfterChildren(SequenceMethod)}.
+     */
+    public final void methodExited(final SequenceMethod meth) 
+        throws IOException {
+        
+        this.writePendingMethod();
         this.writeMethodAfterChildren(meth);
     }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Calls the {@link #writeFooter(SequenceMethod)}.
+     */
+    public final void diagramEnded(final SequenceMethod rootMethod) 
+        throws IOException {
+        
+        this.writePendingMethod();
+        this.writeFooter(rootMethod);
+    }
+
+    /**
+     * Write (if any) the method entered but not written yet by calling
+     * {@link #writeMethodBeforeChildren(SequenceMethod)}.
+     * 
+     * @throws IOException if any exception when writing.
+     */
+    private void writePendingMethod() throws IOException {
+        
+        if (this.pendingMethod != null) {
+            SequenceMethod meth = this.pendingMethod;
+            this.pendingMethod = null;
+            this.writeMethodBeforeChildren(meth);
+        }
+    }
     
     /**
      * Method called for writing a method called BEFORE the call of the 
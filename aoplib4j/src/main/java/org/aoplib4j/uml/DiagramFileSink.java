@@ -0,0 +1,507 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The files written by the {@link DiagramOutput}: the name of the file, 
+ * the compression and the rotation of the diagrams directories, configured
+ * by system properties so a busy server recording diagrams continuously 
+ * keeps bounded the disk usage and the write bandwidth:
+ * <ul>
+ *  <li>{@value #UNIQUE_NAMES_PROPERTY}: if true, a timestamp and a 
+ *  sequence number are added to the name of every file (ex: 
+ *  <code>Class.method()-20101018-153012123-42.txt</code>) so the
+ *  executions of the same method are not overwriting the same diagram; 
+ *  false by default.</li>
+ *  <li>{@value #COMPRESSION_PROPERTY}: <code>gzip</code> to compress the 
+ *  files while they are written (the <code>.gz</code> extension is added,
+ *  the fastest compression level is used) or <code>none</code> 
+ *  (default).</li>
+ *  <li>{@value #MAX_FILES_PROPERTY} and {@value #MAX_BYTES_PROPERTY}: the
+ *  maximum number of files and of bytes of the files of a directory; when
+ *  a file is closed the oldest files of his directory are deleted until
+ *  the directory is under the limits (the last written file is always 
+ *  kept). 0 by default (no limit).</li>
+ * </ul>
+ * 
+ * The first time a file is closed in a directory, the files of the 
+ * directory having the same extension (ex: <code>.txt.gz</code>) are 
+ * counted too, the oldest first, so the files written before a restart 
+ * are also rotated; the rotation should be used with a directory 
+ * dedicated to the diagrams. The png images take the name of their .seq 
+ * file and are counted (and deleted) by the rotation like the other files;
+ * the aggregated files (ex: the {@link CollapsedStacks}) are not written by
+ * the {@link DiagramOutput} and are neither renamed nor rotated.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class DiagramFileSink {
+
+    /**
+     * System property adding a unique suffix to the file names.
+     */
+    static final String UNIQUE_NAMES_PROPERTY =
+        "org.aoplib4j.uml.uniqueDiagramNames";
+
+    /**
+     * System property containing the compression of the files.
+     */
+    static final String COMPRESSION_PROPERTY =
+        "org.aoplib4j.uml.diagramCompression";
+
+    /**
+     * System property containing the maximum number of files of a 
+     * directory.
+     */
+    static final String MAX_FILES_PROPERTY =
+        "org.aoplib4j.uml.diagramMaxFiles";
+
+    /**
+     * System property containing the maximum number of bytes of the files 
+     * of a directory.
+     */
+    static final String MAX_BYTES_PROPERTY =
+        "org.aoplib4j.uml.diagramMaxBytes";
+
+    /**
+     * The value of the {@link #COMPRESSION_PROPERTY} for the GZIP 
+     * compression.
+     */
+    static final String GZIP = "gzip";
+
+    /**
+     * The value of the {@link #COMPRESSION_PROPERTY} for no compression.
+     */
+    static final String NONE = "none";
+
+    /**
+     * The extension of the compressed files.
+     */
+    static final String GZIP_EXTENSION = ".gz";
+
+    /**
+     * The size of the buffer of the compressed stream.
+     */
+    private static final int GZIP_BUFFER = 8 * 1024;
+
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(DiagramFileSink.class.getName());
+
+    /**
+     * The sequence number of the unique names.
+     */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * The files written in every directory.
+     */
+    private static final ConcurrentMap<String, Directory> DIRECTORIES =
+        new ConcurrentHashMap<String, Directory>();
+
+    /**
+     * Utility class.
+     */
+    private DiagramFileSink() {
+    }
+
+    /**
+     * @param diagramPath the path of a diagram.
+     * @return the path of the file where the diagram is written; the 
+     * unique suffix and the compression extension are added if needed.
+     */
+    static String filePath(final String diagramPath) {
+        String returnValue = diagramPath;
+
+        if (Boolean.getBoolean(UNIQUE_NAMES_PROPERTY)) {
+            returnValue = DiagramFileSink.insertSuffix(returnValue, 
+                    String.format("-%1$tY%1$tm%1$td-%1$tH%1$tM%1$tS%1$tL-%2$d",
+                            System.currentTimeMillis(), 
+                            SEQUENCE.incrementAndGet()));
+        }
+
+        String compression = System.getProperty(COMPRESSION_PROPERTY, NONE);
+        if (GZIP.equals(compression)) {
+            if (!returnValue.endsWith(GZIP_EXTENSION)) {
+                returnValue = returnValue + GZIP_EXTENSION;
+            }
+        } else if (!NONE.equals(compression)) {
+            LOGGER.warning("Unknown diagram compression " + compression
+                    + "; the diagram " + returnValue 
+                    + " is not compressed.");
+        }
+        return returnValue;
+    }
+
+    /**
+     * Opens (and truncates) a file; the files having the 
+     * {@link #GZIP_EXTENSION} are compressed.
+     *
+     * @param filePath the path of the file.
+     * @return the channel writing the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    static WritableByteChannel open(final String filePath) 
+        throws IOException {
+
+        FileOutputStream file = new FileOutputStream(filePath);
+        if (!filePath.endsWith(GZIP_EXTENSION)) {
+            return file.getChannel();
+        }
+
+        try {
+            OutputStream gzip = new FastGzipOutputStream(file, 
+                    new Deflater(Deflater.BEST_SPEED, true));
+            return Channels.newChannel(new BufferedOutputStream(gzip));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts a closed file in his directory and deletes the oldest files 
+     * if the directory is over the limits.
+     *
+     * @param filePath the path of the file.
+     */
+    static void fileClosed(final String filePath) {
+        long maxFiles = Long.getLong(MAX_FILES_PROPERTY, 0);
+        long maxBytes = Long.getLong(MAX_BYTES_PROPERTY, 0);
+        if (maxFiles <= 0 && maxBytes <= 0) {
+            return;
+        }
+
+        File file = new File(filePath).getAbsoluteFile();
+        String dirName = file.getParent();
+        Directory directory = DIRECTORIES.get(dirName);
+        if (directory == null) {
+            Directory newDirectory = new Directory(file.getParentFile());
+            directory = DIRECTORIES.putIfAbsent(dirName, newDirectory);
+            if (directory == null) {
+                directory = newDirectory;
+            }
+        }
+
+        directory.add(file, maxFiles, maxBytes);
+    }
+
+    /**
+     * @param path a file path.
+     * @param suffix the suffix to add.
+     * @return the path with the suffix added before the extension (ex: 
+     * <code>Class.method()-suffix.txt</code>).
+     */
+    static String insertSuffix(final String path, final String suffix) {
+        int dot = path.lastIndexOf('.');
+        int nameEnd = Math.max(path.lastIndexOf(')'),
+                Math.max(path.lastIndexOf('/'),
+                        path.lastIndexOf(File.separatorChar)));
+        if (dot <= nameEnd) {
+            return path + suffix;
+        }
+        return path.substring(0, dot) + suffix + path.substring(dot);
+    }
+
+    /**
+     * @param name a file name.
+     * @return the extension of the file, including the 
+     * {@link #GZIP_EXTENSION} (ex: <code>.txt.gz</code>); "" if the file 
+     * have no extension.
+     */
+    static String extension(final String name) {
+        String returnValue = "";
+        String baseName = name;
+        if (baseName.endsWith(GZIP_EXTENSION)) {
+            returnValue = GZIP_EXTENSION;
+            baseName = baseName.substring(0, 
+                    baseName.length() - GZIP_EXTENSION.length());
+        }
+
+        int dot = baseName.lastIndexOf('.');
+        if (dot <= baseName.lastIndexOf(')')) {
+            return "";
+        }
+        return baseName.substring(dot) + returnValue;
+    }
+
+    /**
+     * The files of a directory counted by the rotation, the oldest first.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class Directory {
+
+        /**
+         * The directory.
+         */
+        private final File path;
+
+        /**
+         * The size of every file.
+         */
+        private final Map<File, Long> files = new LinkedHashMap<File, Long>();
+
+        /**
+         * The extensions whose files already present in the directory are 
+         * counted.
+         */
+        private final Set<String> listedExtensions = new HashSet<String>();
+
+        /**
+         * The total size of the files.
+         */
+        private long bytes = 0;
+
+        /**
+         * @param dir the directory.
+         */
+        Directory(final File dir) {
+            this.path = dir;
+        }
+
+        /**
+         * Adds (or moves at the end) a closed file and deletes the oldest
+         * files while the directory is over the limits.
+         *
+         * @param file the closed file.
+         * @param maxFiles the maximum number of files; 0 if no limit.
+         * @param maxBytes the maximum size of the files; 0 if no limit.
+         */
+        synchronized void add(final File file, final long maxFiles,
+                final long maxBytes) {
+
+            this.listFiles(DiagramFileSink.extension(file.getName()));
+
+            Long previous = this.files.remove(file);
+            if (previous != null) {
+                this.bytes -= previous;
+            }
+            long length = file.length();
+            this.files.put(file, length);
+            this.bytes += length;
+
+            Iterator<Map.Entry<File, Long>> it = 
+                this.files.entrySet().iterator();
+            while (this.files.size() > 1
+                    && (maxFiles > 0 && this.files.size() > maxFiles
+                            || maxBytes > 0 && this.bytes > maxBytes)) {
+                Map.Entry<File, Long> oldest = it.next();
+                if (oldest.getKey().exists() && !oldest.getKey().delete()) {
+                    LOGGER.warning("Cannot delete the diagram " 
+                            + oldest.getKey());
+                } else {
+                    DiagramIndex.fileDeleted(oldest.getKey());
+                }
+                this.bytes -= oldest.getValue();
+                it.remove();
+            }
+        }
+
+        /**
+         * Counts, the first time an extension is seen, the files of the 
+         * directory having the extension (ex: written before a restart), 
+         * the oldest first.
+         *
+         * @param ext the extension of the files.
+         */
+        private void listFiles(final String ext) {
+            if (ext.length() == 0 || !this.listedExtensions.add(ext)) {
+                return;
+            }
+
+            File[] existing = this.path.listFiles();
+            if (existing == null) {
+                return;
+            }
+
+            Arrays.sort(existing, new Comparator<File>() {
+                public int compare(final File f1, final File f2) {
+                    long m1 = f1.lastModified();
+                    long m2 = f2.lastModified();
+                    if (m1 < m2) {
+                        return -1;
+                    }
+                    if (m1 > m2) {
+                        return 1;
+                    }
+                    return f1.getName().compareTo(f2.getName());
+                }
+            });
+
+            for (File existingFile : existing) {
+                File file = existingFile.getAbsoluteFile();
+                if (file.isFile() 
+                        && ext.equals(DiagramFileSink.extension(file.getName()))
+                        && !this.files.containsKey(file)) {
+                    long length = file.length();
+                    this.files.put(file, length);
+                    this.bytes += length;
+                }
+            }
+        }
+    }
+
+    /**
+     * GZIP stream using the fastest compression level; 
+     * <code>GZIPOutputStream</code> have no way to set the level so the 
+     * GZIP header and trailer are written here around the raw deflated 
+     * data.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class FastGzipOutputStream 
+        extends DeflaterOutputStream {
+
+        /**
+         * The GZIP header: magic number, deflate method, no flags, no 
+         * modification time, no extra flags, unknown operating system.
+         */
+        private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 
+            (byte) 0xff,
+        };
+
+        /**
+         * The number of bytes of an integer of the trailer.
+         */
+        private static final int INT_BYTES = 4;
+
+        /**
+         * The number of bits of a byte.
+         */
+        private static final int BYTE_BITS = 8;
+
+        /**
+         * The mask of a byte.
+         */
+        private static final int BYTE_MASK = 0xff;
+
+        /**
+         * The compressed stream.
+         */
+        private final OutputStream target;
+
+        /**
+         * The deflater, ended when the stream is closed.
+         */
+        private final Deflater deflater;
+
+        /**
+         * The checksum of the uncompressed data.
+         */
+        private final CRC32 crc = new CRC32();
+
+        /**
+         * true once the trailer was written.
+         */
+        private boolean finished = false;
+
+        /**
+         * Writes the GZIP header.
+         *
+         * @param out the compressed stream.
+         * @param raw a deflater without zlib header (<code>nowrap</code>).
+         * @throws IOException if the header cannot be written.
+         */
+        FastGzipOutputStream(final OutputStream out, final Deflater raw)
+            throws IOException {
+            super(out, raw, GZIP_BUFFER);
+            this.target = out;
+            this.deflater = raw;
+            this.target.write(HEADER);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+            super.write(b, off, len);
+            this.crc.update(b, off, len);
+        }
+
+        /**
+         * Finishes the deflated data and writes the GZIP trailer: the 
+         * checksum and the size of the uncompressed data.
+         *
+         * @throws IOException if any I/O exception.
+         */
+        @Override
+        public void finish() throws IOException {
+            if (this.finished) {
+                return;
+            }
+            super.finish();
+            this.writeInt(this.crc.getValue());
+            this.writeInt(this.deflater.getBytesRead());
+            this.finished = true;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * The deflater is ended so his native memory is freed.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.deflater.end();
+            }
+        }
+
+        /**
+         * @param value the value to write as a little endian integer 
+         * (modulo 2^32).
+         * @throws IOException if any I/O exception.
+         */
+        private void writeInt(final long value) throws IOException {
+            for (int i = 0; i < INT_BYTES; i++) {
+                this.target.write((int) (value >>> (i * BYTE_BITS)) 
+                        & BYTE_MASK);
+            }
+        }
+    }
+}
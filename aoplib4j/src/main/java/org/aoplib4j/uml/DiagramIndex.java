@@ -0,0 +1,485 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Index of the deduplicated diagrams of an annotated method (see 
+ * {@link Aoplib4jSequenceDiagram#deduplicate()}): for every structural 
+ * hash already written, the name of the diagram file and the number of 
+ * executions having this structure (the hits).
+ *
+ * The index is kept in memory (one instance per diagram path) and saved 
+ * in the index file, one line per diagram:
+ * <pre>
+ * hash (16 hexadecimal digits) hits diagram-file-name
+ * </pre>
+ * The changed indexes are saved by a background thread every 
+ * {@value #SAVE_MILLIS} milliseconds and when the virtual machine exits, 
+ * so the recording threads never write the index files. An existing index
+ * file is read the first time the diagram is written, so the diagrams 
+ * written by a previous execution are not written again; the diagrams 
+ * whose files were deleted (for example by the rotation of the 
+ * {@link DiagramFileSink}) are removed from the index and written again 
+ * by the next execution having their structure.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class DiagramIndex {
+
+    /**
+     * The extension added to the diagram path for the index file.
+     */
+    static final String INDEX_EXTENSION = ".index";
+
+    /**
+     * Time, in milliseconds, between two savings of the changed indexes.
+     */
+    private static final long SAVE_MILLIS = 1000;
+
+    /**
+     * The radix of the hashes in the index file.
+     */
+    private static final int HEX_RADIX = 16;
+
+    /**
+     * The number of fields of a line of the index file.
+     */
+    private static final int LINE_FIELDS = 3;
+
+    /**
+     * The number of digits of a hash in the index file.
+     */
+    private static final int HASH_DIGITS = 16;
+
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(DiagramIndex.class.getName());
+
+    /**
+     * The index of every diagram path.
+     */
+    private static final ConcurrentMap<String, DiagramIndex> INDEXES =
+        new ConcurrentHashMap<String, DiagramIndex>();
+
+    /**
+     * The thread saving the changed indexes; started when the first index
+     * is created.
+     */
+    private static ScheduledExecutorService saver = null;
+
+    /**
+     * The diagram path given by the annotation.
+     */
+    private final String diagramPath;
+
+    /**
+     * The index file.
+     */
+    private final File indexFile;
+
+    /**
+     * The hits of every hash, in the order the diagrams were written.
+     */
+    private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>();
+
+    /**
+     * true if the index changed since the last saving.
+     */
+    private boolean dirty = false;
+
+    /**
+     * Lock held while the index file is written, so the savings are 
+     * written in order.
+     */
+    private final Object saveLock = new Object();
+
+    /**
+     * Use {@link #forDiagram(String)}.
+     *
+     * @param path the diagram path given by the annotation.
+     */
+    private DiagramIndex(final String path) {
+        this.diagramPath = path;
+        this.indexFile = new File(path + INDEX_EXTENSION);
+        this.load();
+    }
+
+    /**
+     * @param diagramPath the diagram path given by the annotation.
+     * @return the index of the diagram; read from the index file the first
+     * time.
+     */
+    static DiagramIndex forDiagram(final String diagramPath) {
+        DiagramIndex returnValue = INDEXES.get(diagramPath);
+
+        if (returnValue == null) {
+            //two threads may read the same file; only one index is kept.
+            DiagramIndex index = new DiagramIndex(diagramPath);
+            returnValue = INDEXES.putIfAbsent(diagramPath, index);
+            if (returnValue == null) {
+                returnValue = index;
+                DiagramIndex.startSaver();
+            }
+        }
+        return returnValue;
+    }
+
+    /**
+     * Starts, the first time, the thread saving the changed indexes and
+     * registers the hook saving them when the virtual machine exits.
+     */
+    private static synchronized void startSaver() {
+        if (saver != null) {
+            return;
+        }
+
+        Runnable saveAll = new Runnable() {
+            public void run() {
+                for (DiagramIndex index : INDEXES.values()) {
+                    index.saveHits();
+                }
+            }
+        };
+
+        saver = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = 
+                            new Thread(r, "aoplib4j-diagram-index-saver");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        saver.scheduleWithFixedDelay(saveAll, SAVE_MILLIS, SAVE_MILLIS, 
+                TimeUnit.MILLISECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(saveAll, 
+                "aoplib4j-diagram-index-shutdown"));
+    }
+
+    /**
+     * Removes from every index the diagram written in a deleted file; the
+     * next execution having his structure will write it again.
+     *
+     * @param file the deleted file.
+     */
+    static void fileDeleted(final File file) {
+        for (DiagramIndex index : INDEXES.values()) {
+            index.remove(file.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Counts an execution having the structural hash and, if the hash is 
+     * new, reserves the path of the diagram.
+     *
+     * @param hash the structural hash of the diagram.
+     * @return the path where the diagram should be written or null if a
+     * diagram with the same hash was already written.
+     */
+    synchronized String reserve(final long hash) {
+        Entry entry = this.entries.get(hash);
+
+        this.dirty = true;
+        if (entry != null) {
+            entry.hit();
+            return null;
+        }
+
+        entry = new Entry(new File(DiagramIndex.distinctPath(
+                this.diagramPath, hash)).getName(), 1);
+        this.entries.put(hash, entry);
+        return this.fileOf(entry).getPath();
+    }
+
+    /**
+     * Saves the name of the file written for a hash reserved by 
+     * {@link #reserve(long)}; the name can be different from the reserved
+     * path (see {@link DiagramFileSink#filePath(String)}).
+     *
+     * @param hash the structural hash of the diagram.
+     * @param filePath the path of the written file.
+     */
+    synchronized void opened(final long hash, final String filePath) {
+        Entry entry = this.entries.get(hash);
+        if (entry != null) {
+            entry.setFileName(new File(filePath).getName());
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Removes a hash reserved by {@link #reserve(long)} whose diagram could
+     * not be written; the next execution having the hash will write it.
+     *
+     * @param hash the structural hash of the diagram.
+     */
+    synchronized void release(final long hash) {
+        this.entries.remove(hash);
+        this.dirty = true;
+    }
+
+    /**
+     * Removes the diagram written in a file.
+     *
+     * @param file the absolute path of the file.
+     */
+    private synchronized void remove(final File file) {
+        Iterator<Entry> it = this.entries.values().iterator();
+        while (it.hasNext()) {
+            if (this.fileOf(it.next()).getAbsoluteFile().equals(file)) {
+                it.remove();
+                this.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * @param entry a diagram of the index.
+     * @return the file of the diagram; in the directory of the index.
+     */
+    private File fileOf(final Entry entry) {
+        return new File(this.indexFile.getParentFile(), entry.getFileName());
+    }
+
+    /**
+     * @param hash the structural hash of a diagram.
+     * @return the number of executions having the hash; 0 if unknown.
+     */
+    synchronized long getHits(final long hash) {
+        Entry entry = this.entries.get(hash);
+        if (entry == null) {
+            return 0;
+        }
+        return entry.getHits();
+    }
+
+    /**
+     * Saves the index file if the index changed since the last saving; the
+     * content is copied while the index is locked and the file is written
+     * after, so the recording threads are not waiting for the disk.
+     */
+    void saveHits() {
+        synchronized (this.saveLock) {
+            String content = null;
+            synchronized (this) {
+                if (!this.dirty) {
+                    return;
+                }
+                this.dirty = false;
+                content = this.format();
+            }
+
+            if (!this.save(content)) {
+                synchronized (this) {
+                    this.dirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param diagramPath the diagram path given by the annotation.
+     * @param hash a structural hash.
+     * @return the path of the diagram having the hash; the hash is added 
+     * before the extension (ex: <code>Class.method()-hash.txt</code>).
+     */
+    static String distinctPath(final String diagramPath, final long hash) {
+        return DiagramFileSink.insertSuffix(diagramPath, 
+                "-" + DiagramIndex.toHex(hash));
+    }
+
+    /**
+     * @param hash a structural hash.
+     * @return the hash as 16 hexadecimal digits.
+     */
+    private static String toHex(final long hash) {
+        String returnValue = Long.toHexString(hash);
+        StringBuilder builder = new StringBuilder();
+        for (int i = returnValue.length(); i < HASH_DIGITS; i++) {
+            builder.append('0');
+        }
+        return builder.append(returnValue).toString();
+    }
+
+    /**
+     * Reads the index file, if any; the wrong lines are ignored.
+     */
+    private void load() {
+        if (!this.indexFile.isFile()) {
+            return;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(this.indexFile), "UTF-8"));
+            try {
+                String line = reader.readLine();
+                while (line != null) {
+                    this.loadLine(line);
+                    line = reader.readLine();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Cannot read the diagram index " 
+                    + this.indexFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param line a line of the index file.
+     */
+    private void loadLine(final String line) {
+        if (line.length() == 0 || line.startsWith("#")) {
+            return;
+        }
+
+        String[] fields = line.split(" ", LINE_FIELDS);
+        try {
+            Entry entry = new Entry(fields[2], Long.parseLong(fields[1]));
+            if (!this.fileOf(entry).exists()) {
+                //deleted since the index was saved.
+                this.dirty = true;
+                return;
+            }
+            this.entries.put(
+                    new BigInteger(fields[0], HEX_RADIX).longValue(), entry);
+        } catch (RuntimeException e) {
+            LOGGER.warning("Wrong line in the diagram index " 
+                    + this.indexFile + ": " + line);
+        }
+    }
+
+    /**
+     * @return the content of the index file.
+     */
+    private String format() {
+        StringBuilder returnValue = new StringBuilder();
+        returnValue.append("# hash hits diagram")
+            .append(SequenceDiagramWriter.NEW_LINE);
+        for (Map.Entry<Long, Entry> entry : this.entries.entrySet()) {
+            returnValue.append(DiagramIndex.toHex(entry.getKey()))
+                .append(' ').append(entry.getValue().getHits())
+                .append(' ').append(entry.getValue().getFileName())
+                .append(SequenceDiagramWriter.NEW_LINE);
+        }
+        return returnValue.toString();
+    }
+
+    /**
+     * Writes the index file; an error is only logged.
+     *
+     * @param content the content of the index file.
+     * @return true if the file was written.
+     */
+    private boolean save(final String content) {
+        try {
+            Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(this.indexFile), "UTF-8");
+            try {
+                writer.write(content);
+            } finally {
+                writer.close();
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.warning("Cannot write the diagram index " 
+                    + this.indexFile + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * A diagram of the index.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class Entry {
+
+        /**
+         * The name of the diagram file.
+         */
+        private String fileName;
+
+        /**
+         * The number of executions having the structure of the diagram.
+         */
+        private long hits = 0;
+
+        /**
+         * @param name the name of the diagram file.
+         * @param executions the number of executions.
+         */
+        Entry(final String name, final long executions) {
+            this.fileName = name;
+            this.hits = executions;
+        }
+
+        /**
+         * @return the name of the diagram file.
+         */
+        String getFileName() {
+            return this.fileName;
+        }
+
+        /**
+         * @param name the name of the diagram file.
+         */
+        void setFileName(final String name) {
+            this.fileName = name;
+        }
+
+        /**
+         * @return the number of executions having the structure of the
+         * diagram.
+         */
+        long getHits() {
+            return this.hits;
+        }
+
+        /**
+         * Counts one more execution.
+         */
+        void hit() {
+            this.hits++;
+        }
+    }
+}
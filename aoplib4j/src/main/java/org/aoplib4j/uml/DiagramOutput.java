@@ -0,0 +1,305 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffered output used by the {@link SequenceDiagramWriter} to write the
+ * diagram file. The text is encoded (UTF-8) into a pooled direct
+ * {@link ByteBuffer} which is written to the file only when
+ * the output is closed or when one of the flush thresholds is reached:
+ * <ul>
+ *  <li>the number of buffered bytes, taken from the
+ *  {@value #FLUSH_BYTES_PROPERTY} system property (default: the buffer
+ *  size).</li>
+ *  <li>the time since the last flush, in milliseconds, taken from the
+ *  {@value #FLUSH_MILLIS_PROPERTY} system property (default: 0, no time
+ *  based flush).</li>
+ * </ul>
+ *
+ * The name, the compression and the rotation of the files are decided by
+ * the {@link DiagramFileSink}.
+ *
+ * An instance is not thread safe; it is used by one writer at a time.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class DiagramOutput {
+
+    /**
+     * System property containing the number of buffered bytes after which
+     * the buffer is written to the file.
+     */
+    static final String FLUSH_BYTES_PROPERTY =
+        "org.aoplib4j.uml.writerFlushBytes";
+
+    /**
+     * System property containing the number of milliseconds after which
+     * the buffer is written to the file.
+     */
+    static final String FLUSH_MILLIS_PROPERTY =
+        "org.aoplib4j.uml.writerFlushMillis";
+
+    /**
+     * The size of the pooled buffers.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The maximum number of buffers kept in the pool.
+     */
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    /**
+     * Number of buffered bytes after which the buffer is written.
+     */
+    private static final int FLUSH_BYTES = Math.min(BUFFER_SIZE,
+            Math.max(1, Integer.getInteger(FLUSH_BYTES_PROPERTY, BUFFER_SIZE)));
+
+    /**
+     * Number of milliseconds after which the buffer is written; 0 if no time
+     * based flush.
+     */
+    private static final long FLUSH_MILLIS =
+        Math.max(0, Long.getLong(FLUSH_MILLIS_PROPERTY, 0));
+
+    /**
+     * The charset used for the diagrams.
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * The pool of free buffers.
+     */
+    private static final Queue<ByteBuffer> BUFFER_POOL =
+        new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Number of buffers in the {@link #BUFFER_POOL}; the size of the
+     * <code>ConcurrentLinkedQueue</code> is not a constant time operation.
+     */
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+    /**
+     * The encoders; an encoder is not thread safe so every thread have his
+     * own.
+     */
+    private static final ThreadLocal<CharsetEncoder> ENCODER =
+        new ThreadLocal<CharsetEncoder>() {
+            @Override
+            protected CharsetEncoder initialValue() {
+                return CHARSET.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+        };
+
+    /**
+     * The path of the written file.
+     */
+    private final String filePath;
+
+    /**
+     * The channel of the diagram file.
+     */
+    private WritableByteChannel channel = null;
+
+    /**
+     * The buffer containing the bytes not written yet.
+     */
+    private ByteBuffer buffer = null;
+
+    /**
+     * The time of the last flush.
+     */
+    private long lastFlush = 0;
+
+    /**
+     * Opens (and truncate) the file.
+     *
+     * @param fullPath the full path of the diagram; the path of the file
+     * can be different (see {@link DiagramFileSink#filePath(String)}).
+     * @throws IOException if the file cannot be opened.
+     */
+    DiagramOutput(final String fullPath) throws IOException {
+        this.filePath = DiagramFileSink.filePath(fullPath);
+        this.channel = DiagramFileSink.open(this.filePath);
+        this.buffer = DiagramOutput.borrowBuffer();
+        this.lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Encode and write the string.
+     *
+     * @param str the string to write.
+     * @throws IOException if any I/O exception.
+     */
+    void write(final CharSequence str) throws IOException {
+        CharsetEncoder encoder = ENCODER.get();
+        CharBuffer chars = CharBuffer.wrap(str);
+
+        encoder.reset();
+
+        CoderResult result = encoder.encode(chars, this.buffer, true);
+        while (result.isOverflow()) {
+            this.writeBuffer();
+            result = encoder.encode(chars, this.buffer, true);
+        }
+
+        result = encoder.flush(this.buffer);
+        while (result.isOverflow()) {
+            this.writeBuffer();
+            result = encoder.flush(this.buffer);
+        }
+
+        this.flushIfNeeded();
+    }
+
+    /**
+     * Write raw bytes.
+     *
+     * @param bytes the bytes to write.
+     * @param offset the offset of the first byte to write.
+     * @param length the number of bytes to write.
+     * @throws IOException if any I/O exception.
+     */
+    void write(final byte[] bytes, final int offset, final int length)
+        throws IOException {
+
+        int written = 0;
+        while (written < length) {
+            if (!this.buffer.hasRemaining()) {
+                this.writeBuffer();
+            }
+            int chunk = Math.min(length - written, this.buffer.remaining());
+            this.buffer.put(bytes, offset + written, chunk);
+            written += chunk;
+        }
+
+        this.flushIfNeeded();
+    }
+
+    /**
+     * Write the buffered bytes to the file.
+     *
+     * @throws IOException if any I/O exception.
+     */
+    void flush() throws IOException {
+        this.writeBuffer();
+    }
+
+    /**
+     * @return the path of the written file.
+     */
+    String getFilePath() {
+        return this.filePath;
+    }
+
+    /**
+     * Write the buffered bytes, close the file and give back the buffer to
+     * the pool; the closed file is counted by the rotation of his 
+     * directory.
+     *
+     * @throws IOException if any I/O exception.
+     */
+    void close() throws IOException {
+        if (this.channel == null) {
+            return;
+        }
+
+        try {
+            this.writeBuffer();
+        } finally {
+            this.channel.close();
+            this.channel = null;
+            DiagramOutput.releaseBuffer(this.buffer);
+            this.buffer = null;
+            DiagramFileSink.fileClosed(this.filePath);
+        }
+    }
+
+    /**
+     * Write the buffer if one of the flush thresholds is reached.
+     *
+     * @throws IOException if any I/O exception.
+     */
+    private void flushIfNeeded() throws IOException {
+        if (this.buffer.position() >= FLUSH_BYTES) {
+            this.writeBuffer();
+        } else if (FLUSH_MILLIS > 0
+                && System.currentTimeMillis() - this.lastFlush
+                    >= FLUSH_MILLIS) {
+            this.writeBuffer();
+        }
+    }
+
+    /**
+     * Write the content of the buffer to the channel.
+     *
+     * @throws IOException if any I/O exception.
+     */
+    private void writeBuffer() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+
+        if (FLUSH_MILLIS > 0) {
+            this.lastFlush = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return a buffer from the pool or a new buffer if the pool is empty.
+     */
+    private static ByteBuffer borrowBuffer() {
+        ByteBuffer returnValue = BUFFER_POOL.poll();
+
+        if (returnValue == null) {
+            returnValue = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        } else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+        return returnValue;
+    }
+
+    /**
+     * Give back a buffer to the pool; the buffer is dropped if the pool is
+     * full.
+     *
+     * @param buf the buffer.
+     */
+    private static void releaseBuffer(final ByteBuffer buf) {
+        if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            buf.clear();
+            BUFFER_POOL.offer(buf);
+        } else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The parts of the written diagrams depending only on the signature of a
+ * method, formatted only once per signature and shared by all the writers
+ * (and all the threads); the writers are then only appending the cached
+ * labels for every method.
+ *
+ * The labels are kept in a map having as key the 
+ * {@link SequenceMethod#getSignature()}; the map is emptied when it 
+ * contains more than {@value #MAX_CACHED_SIGNATURES} signatures so the 
+ * signatures of the converted traces (see {@link BinaryTraceConverter}) 
+ * are not kept forever.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class MethodLabels {
+
+    /**
+     * The maximum number of cached signatures.
+     */
+    static final int MAX_CACHED_SIGNATURES = 8192;
+
+    /**
+     * The labels of every signature.
+     */
+    private static final ConcurrentMap<Object, MethodLabels> CACHE =
+        new ConcurrentHashMap<Object, MethodLabels>();
+
+    /**
+     * The SEQUENCE class label (ex: <code>Class1.</code>).
+     */
+    private final String sequenceClass;
+
+    /**
+     * The SEQUENCE method label (ex:
+     * <code>constructor(java.lang.String str) -> void</code>).
+     */
+    private final String sequenceMethod;
+
+    /**
+     * The class name escaped for XML.
+     */
+    private final String xmlClassName;
+
+    /**
+     * The CODETODIAGRAM message text escaped for XML (ex:
+     * <code>method(class java.lang.String)</code>).
+     */
+    private final String xmlMessageText;
+
+    /**
+     * The frame of the collapsed stacks (ex: <code>Class1.method1</code>);
+     * the ';' and ' ' characters are replaced by '_'.
+     */
+    private final String stackFrame;
+
+    /**
+     * Hash of the class name and of the SEQUENCE method label; the same in
+     * every virtual machine (see {@link StructuralHash}).
+     */
+    private final long signatureHash;
+
+    /**
+     * Formats the labels.
+     *
+     * @param meth a method having the signature.
+     */
+    private MethodLabels(final SequenceMethod meth) {
+        String className = meth.getClassName();
+        this.sequenceClass =
+            className.substring(className.lastIndexOf(".") + 1) + ".";
+        this.sequenceMethod = MethodLabels.formatSequenceMethod(meth);
+        this.stackFrame = (this.sequenceClass + meth.getMethodName())
+            .replace(';', '_').replace(' ', '_');
+        this.signatureHash = StructuralHash.hashText(StructuralHash.hashText(
+                StructuralHash.INITIAL, className), this.sequenceMethod);
+
+        StringBuilder builder = new StringBuilder();
+        MethodLabels.appendEscaped(builder, className);
+        this.xmlClassName = builder.toString();
+
+        builder.setLength(0);
+        MethodLabels.appendEscaped(builder, meth.getMethodName());
+        builder.append("(");
+        Class<?>[] paramTypes = meth.getParameterTypes();
+        for (int i = 0; i < paramTypes.length; i++) {
+            MethodLabels.appendEscaped(builder, paramTypes[i].toString());
+            if (i < paramTypes.length - 1) {
+                builder.append(",");
+            }
+        }
+        builder.append(")");
+        this.xmlMessageText = builder.toString();
+    }
+
+    /**
+     * @param meth a method.
+     * @return the labels of the method signature; formatted the first time
+     * the signature is written.
+     */
+    static MethodLabels forMethod(final SequenceMethod meth) {
+        Object signature = meth.getSignature();
+        MethodLabels returnValue = CACHE.get(signature);
+
+        if (returnValue == null) {
+            if (CACHE.size() >= MAX_CACHED_SIGNATURES) {
+                CACHE.clear();
+            }
+            //two threads may format the same labels; the result is the same.
+            returnValue = new MethodLabels(meth);
+            CACHE.put(signature, returnValue);
+        }
+        return returnValue;
+    }
+
+    /**
+     * @param meth a method.
+     * @return the SEQUENCE method label.
+     */
+    private static String formatSequenceMethod(final SequenceMethod meth) {
+        StringBuilder returnValue = new StringBuilder();
+        returnValue.append(meth.getMethodName()).append("(");
+
+        String[] parametersNames = meth.getParameterNames();
+        Class<?>[] parametersTypes = meth.getParameterTypes();
+
+        for (int i = 0; i < parametersNames.length; i++) {
+            if (i != 0) {
+                returnValue.append(",");
+            }
+            returnValue.append(parametersTypes[i].getCanonicalName())
+                .append(" ").append(parametersNames[i]);
+        }
+
+        returnValue.append(")").append(" -> ");
+
+        if (meth.getReturnType() != null) {
+            returnValue.append(meth.getReturnType().getSimpleName());
+        } else {
+            returnValue.append("void");
+        }
+        return returnValue.toString();
+    }
+
+    /**
+     * Appends a text replacing the XML special characters by entities.
+     *
+     * @param target the builder receiving the text.
+     * @param value the text.
+     */
+    static void appendEscaped(final StringBuilder target,
+            final String value) {
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '&':
+                target.append("&amp;");
+                break;
+            case '<':
+                target.append("&lt;");
+                break;
+            case '>':
+                target.append("&gt;");
+                break;
+            case '"':
+                target.append("&quot;");
+                break;
+            default:
+                target.append(c);
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the SEQUENCE class label, the simple class name followed by
+     * a dot; ex: <code>Class1.</code>
+     */
+    String getSequenceClass() {
+        return this.sequenceClass;
+    }
+
+    /**
+     * @return the SEQUENCE method label, the method name, the parameters 
+     * and the return type; ex: 
+     * <code>constructor(java.lang.String str) -> void</code>
+     */
+    String getSequenceMethod() {
+        return this.sequenceMethod;
+    }
+
+    /**
+     * @return the class name escaped for XML.
+     */
+    String getXmlClassName() {
+        return this.xmlClassName;
+    }
+
+    /**
+     * @return the CODETODIAGRAM message text (the method name and the
+     * parameters types) escaped for XML; ex: 
+     * <code>method(class java.lang.String)</code>
+     */
+    String getXmlMessageText() {
+        return this.xmlMessageText;
+    }
+
+    /**
+     * @return the frame of the collapsed stacks.
+     */
+    String getStackFrame() {
+        return this.stackFrame;
+    }
+
+    /**
+     * @return the hash of the signature.
+     */
+    long getSignatureHash() {
+        return this.signatureHash;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+/**
+ * Contract of the {@link DFSDiagramWriter} writers able to write the
+ * subtrees of a diagram in parallel. When the parallel rendering is enabled
+ * (the <code>org.aoplib4j.uml.parallelRendering</code> system property is
+ * true) the big subtrees of a diagram are written, by several threads, by
+ * fragment writers created with {@link #newFragmentWriter()}; the text of
+ * every fragment is kept in memory and then written in the diagram in the
+ * depth-first order, so the diagram is identical to the diagram written by
+ * a single thread.
+ *
+ * A writer can implement this interface only if the text written for a
+ * method ({@link DFSDiagramWriter#writeMethodBeforeChildren(SequenceMethod)}
+ * and {@link DFSDiagramWriter#writeMethodAfterChildren(SequenceMethod)})
+ * depends only on the method and not on the methods written before; the
+ * fragment writers are only using {@link SequenceDiagramWriter#writeLine(
+ * String)} (the header and the footer are not written by the fragments).
+ *
+ * @see SEQUENCEWriter
+ *
+ * @author Adrian Citu
+ *
+ */
+public interface ParallelDiagramWriter {
+
+    /**
+     * @return a new writer of the same kind, used by one thread for writing
+     * the methods of a subtree.
+     */
+    DFSDiagramWriter newFragmentWriter();
+}
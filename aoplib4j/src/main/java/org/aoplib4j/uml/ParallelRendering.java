@@ -0,0 +1,315 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel writing of the diagrams by the {@link ParallelDiagramWriter}
+ * writers, enabled by the {@value #ENABLED_PROPERTY} system property.
+ *
+ * The tree is split on the first level having enough methods (at least
+ * {@value #TASKS_PER_THREAD} times the number of threads) and the methods
+ * of this level are divided in ranges of consecutive siblings; every range
+ * (the methods and their subtrees) is a {@link Fragment} written by a
+ * fragment writer on a thread of a shared pool, while the thread writing
+ * the diagram writes the methods above the split level and then the text
+ * of the fragments, in the depth-first order. The number of threads is
+ * taken from the {@value #THREADS_PROPERTY} system property (the number of
+ * processors by default).
+ *
+ * @author Adrian Citu
+ *
+ */
+final class ParallelRendering {
+
+    /**
+     * System property enabling the parallel writing.
+     */
+    static final String ENABLED_PROPERTY =
+        "org.aoplib4j.uml.parallelRendering";
+
+    /**
+     * System property containing the number of threads.
+     */
+    static final String THREADS_PROPERTY =
+        "org.aoplib4j.uml.parallelRenderingThreads";
+
+    /**
+     * The number of fragments of a diagram for every thread.
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * The deepest level where the tree is split.
+     */
+    private static final int MAX_SPLIT_DEPTH = 16;
+
+    /**
+     * The pool of threads; created the first time a diagram is written in
+     * parallel.
+     */
+    private static ExecutorService executor = null;
+
+    /**
+     * The number of threads of the pool.
+     */
+    private static int threads = 0;
+
+    /**
+     * Utility class.
+     */
+    private ParallelRendering() {
+    }
+
+    /**
+     * @return true if the diagrams should be written in parallel.
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return the pool of threads.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+                    Runtime.getRuntime().availableProcessors()));
+            executor = Executors.newFixedThreadPool(threads,
+                    new FragmentThreadFactory());
+        }
+        return executor;
+    }
+
+    /**
+     * Splits the tree and starts the writing of the fragments.
+     *
+     * @param writer the writer of the diagram.
+     * @param timing true if the execution times are written.
+     * @param root the root method of the diagram.
+     * @return the fragments, the key being the first method of the
+     * fragment; null if the tree cannot be split.
+     */
+    static Map<SequenceMethod, Fragment> submitFragments(
+            final ParallelDiagramWriter writer, final boolean timing,
+            final SequenceMethod root) {
+
+        ExecutorService pool = ParallelRendering.getExecutor();
+        int target = threads * TASKS_PER_THREAD;
+
+        //the parents of the methods of the split level.
+        List<SequenceMethod> parents = new ArrayList<SequenceMethod>();
+        parents.add(root);
+        int count = root.getChildren().size();
+
+        for (int depth = 1; count < target && depth < MAX_SPLIT_DEPTH;
+                depth++) {
+            List<SequenceMethod> nextParents = new ArrayList<SequenceMethod>();
+            int nextCount = 0;
+            for (SequenceMethod parent : parents) {
+                for (SequenceMethod child : parent.getChildren()) {
+                    if (child.haveChildren()) {
+                        nextParents.add(child);
+                        nextCount += child.getChildren().size();
+                    }
+                }
+            }
+
+            if (nextCount <= count) {
+                break;
+            }
+            parents = nextParents;
+            count = nextCount;
+        }
+
+        if (count < 2) {
+            return null;
+        }
+
+        int rangeSize = Math.max(1, count / target);
+        Map<SequenceMethod, Fragment> returnValue =
+            new IdentityHashMap<SequenceMethod, Fragment>();
+
+        for (SequenceMethod parent : parents) {
+            List<SequenceMethod> children = parent.getChildren();
+            for (int i = 0; i < children.size(); i += rangeSize) {
+                List<SequenceMethod> range = children.subList(i,
+                        Math.min(children.size(), i + rangeSize));
+                returnValue.put(range.get(0), new Fragment(range.size(),
+                        pool.submit(new FragmentTask(
+                                writer.newFragmentWriter(), timing,
+                                new ArrayList<SequenceMethod>(range)))));
+            }
+        }
+        return returnValue;
+    }
+
+    /**
+     * Cancels the fragments not written yet (the writing of the diagram
+     * failed).
+     *
+     * @param fragments the fragments of the diagram.
+     */
+    static void cancel(final Map<SequenceMethod, Fragment> fragments) {
+        for (Fragment fragment : fragments.values()) {
+            fragment.text.cancel(true);
+        }
+    }
+
+    /**
+     * Consecutive siblings written by the same task.
+     *
+     * @author Adrian Citu
+     *
+     */
+    static final class Fragment {
+
+        /**
+         * The number of siblings.
+         */
+        private final int size;
+
+        /**
+         * The text of the fragment.
+         */
+        private final Future<CharSequence> text;
+
+        /**
+         * @param methods the number of siblings.
+         * @param result the text of the fragment.
+         */
+        Fragment(final int methods, final Future<CharSequence> result) {
+            this.size = methods;
+            this.text = result;
+        }
+
+        /**
+         * @return the number of siblings of the fragment.
+         */
+        int getSize() {
+            return this.size;
+        }
+
+        /**
+         * Waits until the fragment is written.
+         *
+         * @return the text of the fragment.
+         * @throws IOException if the writing of the fragment failed or the
+         * thread was interrupted.
+         */
+        CharSequence getText() throws IOException {
+            try {
+                return this.text.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while writing the diagram");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                IOException returnValue = new IOException(
+                        "Cannot write a part of the diagram: "
+                        + e.getCause());
+                returnValue.initCause(e.getCause());
+                throw returnValue;
+            }
+        }
+    }
+
+    /**
+     * Task writing the methods of a fragment.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class FragmentTask
+        implements Callable<CharSequence> {
+
+        /**
+         * The writer of the fragment.
+         */
+        private final DFSDiagramWriter writer;
+
+        /**
+         * true if the execution times are written.
+         */
+        private final boolean timing;
+
+        /**
+         * The first methods of the fragment.
+         */
+        private final List<SequenceMethod> methods;
+
+        /**
+         * @param fragmentWriter the writer of the fragment.
+         * @param timingWritten true if the execution times are written.
+         * @param siblings the first methods of the fragment.
+         */
+        FragmentTask(final DFSDiagramWriter fragmentWriter,
+                final boolean timingWritten,
+                final List<SequenceMethod> siblings) {
+            this.writer = fragmentWriter;
+            this.timing = timingWritten;
+            this.methods = siblings;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public CharSequence call() throws IOException {
+            return this.writer.writeFragment(this.methods, this.timing);
+        }
+    }
+
+    /**
+     * Factory creating daemon threads so the threads will not prevent the
+     * JVM to stop.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class FragmentThreadFactory
+        implements ThreadFactory {
+
+        /**
+         * the number of created threads.
+         */
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         */
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(r, "aoplib4j-diagram-writer-"
+                    + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Long-lived service rendering the SEQUENCE diagrams as PNG images for the
+ * {@link PngWriter}. The SEQUENCE classes are still accessed by reflection
+ * (the SEQUENCE jar is optional) but the reflective handles are resolved
+ * only once; the diagrams are rendered directly from the SEQUENCE text,
+ * the same way the <code>--headless</code> mode of SEQUENCE does, without
+ * reading again the .seq file.
+ *
+ * The diagrams are rendered by a pool of daemon threads; the number of
+ * threads is taken from the {@value #THREADS_PROPERTY} system property
+ * (the number of processors by default). The pool is only a concurrency 
+ * limit: the thread writing the diagram still waits until its image is 
+ * written, but no more than this number of images are in memory at the same
+ * time. The annotated method returns without waiting for the rendering only
+ * for the asynchronous diagrams 
+ * ({@link Aoplib4jSequenceDiagram#asynchronous()}), the wait being then 
+ * moved to a thread of the diagram rendering queue.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class PngRenderingService {
+
+    /**
+     * System property containing the number of rendering threads.
+     */
+    static final String THREADS_PROPERTY =
+        "org.aoplib4j.uml.pngRenderingThreads";
+
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(PngRenderingService.class.getName());
+
+    /**
+     * The SEQUENCE package.
+     */
+    private static final String SEQUENCE_PACKAGE = "com.zanthan.sequence.";
+
+    /**
+     * The unique instance; created the first time a png diagram is written.
+     */
+    private static PngRenderingService instance = null;
+
+    /**
+     * The pool of rendering threads.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Constructor of the default SEQUENCE parser; the parsers keep the
+     * parsed diagram so every rendering uses a new parser.
+     */
+    private Constructor<?> parserConstructor = null;
+
+    /**
+     * The SEQUENCE node factory of the default parser (stateless).
+     */
+    private Object nodeFactory = null;
+
+    /**
+     * Constructor of <code>Diagram(Parser, NodeFactory)</code>.
+     */
+    private Constructor<?> diagramConstructor = null;
+
+    /**
+     * <code>Diagram.parse(String)</code>.
+     */
+    private Method diagramParse = null;
+
+    /**
+     * <code>Diagram.layout(LayoutData)</code>.
+     */
+    private Method diagramLayout = null;
+
+    /**
+     * Constructor of <code>SwingStringMeasure(Graphics2D)</code>.
+     */
+    private Constructor<?> measureConstructor = null;
+
+    /**
+     * Constructor of <code>LayoutData(StringMeasure)</code>.
+     */
+    private Constructor<?> layoutConstructor = null;
+
+    /**
+     * <code>LayoutData.getWidth()</code>.
+     */
+    private Method layoutWidth = null;
+
+    /**
+     * <code>LayoutData.getHeight()</code>.
+     */
+    private Method layoutHeight = null;
+
+    /**
+     * <code>LayoutData.paint(Painter)</code>.
+     */
+    private Method layoutPaint = null;
+
+    /**
+     * Constructor of <code>SwingPainter()</code>.
+     */
+    private Constructor<?> painterConstructor = null;
+
+    /**
+     * <code>SwingPainter.setGraphics(Graphics2D)</code>.
+     */
+    private Method painterSetGraphics = null;
+
+    /**
+     * <code>Prefs.getColorValue(String)</code>.
+     */
+    private Method prefsColor = null;
+
+    /**
+     * true if all the SEQUENCE handles were resolved.
+     */
+    private boolean available = false;
+
+    /**
+     * Resolves the SEQUENCE handles and creates the pool of threads.
+     */
+    private PngRenderingService() {
+        this.available = this.resolveHandles();
+
+        int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+        this.executor = Executors.newFixedThreadPool(threads,
+                new RenderingThreadFactory());
+    }
+
+    /**
+     * @return the unique instance of the service.
+     */
+    static synchronized PngRenderingService getInstance() {
+        if (instance == null) {
+            instance = new PngRenderingService();
+        }
+        return instance;
+    }
+
+    /**
+     * Resolves once the SEQUENCE classes, constructors and methods used
+     * for the rendering.
+     *
+     * @return true if SEQUENCE is in the classpath and all the handles
+     * were found.
+     */
+    private boolean resolveHandles() {
+        Class<?> factoryClass =
+            PngWriter.loadClass(SEQUENCE_PACKAGE + "parser.ParserFactory");
+        if (factoryClass == null) {
+            return false;
+        }
+
+        try {
+            Object factory =
+                factoryClass.getMethod("getInstance").invoke(null);
+            Object parser =
+                factoryClass.getMethod("getDefaultParser").invoke(factory);
+            Class<?> parserClass =
+                PngWriter.loadClass(SEQUENCE_PACKAGE + "parser.Parser");
+
+            this.parserConstructor = parser.getClass().getConstructor();
+            this.nodeFactory = factoryClass.getMethod(
+                    "getNodeFactoryForParser", parserClass)
+                    .invoke(factory, parser);
+
+            Class<?> diagramClass =
+                PngWriter.loadClass(SEQUENCE_PACKAGE + "diagram.Diagram");
+            Class<?> layoutClass =
+                PngWriter.loadClass(SEQUENCE_PACKAGE + "layout.LayoutData");
+            Class<?> measureClass = PngWriter.loadClass(SEQUENCE_PACKAGE
+                    + "swing.display.SwingStringMeasure");
+            Class<?> painterClass = PngWriter.loadClass(SEQUENCE_PACKAGE
+                    + "swing.display.SwingPainter");
+
+            this.diagramConstructor = diagramClass.getConstructor(parserClass,
+                    PngWriter.loadClass(SEQUENCE_PACKAGE
+                            + "diagram.NodeFactory"));
+            this.diagramParse = diagramClass.getMethod("parse", String.class);
+            this.diagramLayout = diagramClass.getMethod("layout", layoutClass);
+
+            this.measureConstructor =
+                measureClass.getConstructor(Graphics2D.class);
+            this.layoutConstructor = layoutClass.getConstructor(
+                    PngWriter.loadClass(SEQUENCE_PACKAGE
+                            + "layout.StringMeasure"));
+            this.layoutWidth = layoutClass.getMethod("getWidth");
+            this.layoutHeight = layoutClass.getMethod("getHeight");
+            this.layoutPaint = layoutClass.getMethod("paint",
+                    PngWriter.loadClass(SEQUENCE_PACKAGE + "layout.Painter"));
+
+            this.painterConstructor = painterClass.getConstructor();
+            this.painterSetGraphics =
+                painterClass.getMethod("setGraphics", Graphics2D.class);
+
+            this.prefsColor = PngWriter.loadClass(SEQUENCE_PACKAGE
+                    + "preferences.Prefs").getMethod("getColorValue",
+                            String.class);
+            return true;
+        } catch (Exception e) {
+            LOGGER.warning("Cannot use the SEQUENCE classes for the png "
+                    + "rendering: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Renders a diagram on a thread of the pool and waits for the end of
+     * the rendering (the calling thread is blocked while all the threads of
+     * the pool are busy); the errors are only logged.
+     *
+     * @param text the diagram in the SEQUENCE format.
+     * @param pngPath the path of the png file.
+     * @return true if the png file was written.
+     */
+    boolean render(final String text, final String pngPath) {
+        if (!this.available) {
+            return false;
+        }
+
+        try {
+            this.executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    PngRenderingService.this.renderNow(text, pngPath);
+                    return null;
+                }
+            }).get();
+            return true;
+        } catch (ExecutionException e) {
+            LOGGER.warning("Cannot render the png diagram " + pngPath
+                    + ": " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warning("Interrupted while rendering the png diagram "
+                    + pngPath);
+        }
+        return false;
+    }
+
+    /**
+     * Parses, lays out and paints the diagram on the current thread; same
+     * steps as the SEQUENCE <code>--headless</code> mode.
+     *
+     * @param text the diagram in the SEQUENCE format.
+     * @param pngPath the path of the png file.
+     * @throws Exception if the diagram cannot be parsed or written.
+     */
+    void renderNow(final String text, final String pngPath)
+        throws Exception {
+
+        Object diagram = this.diagramConstructor.newInstance(
+                this.parserConstructor.newInstance(), this.nodeFactory);
+        this.diagramParse.invoke(diagram, text);
+
+        BufferedImage measureImage =
+            new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Object layout = this.layoutConstructor.newInstance(
+                this.measureConstructor.newInstance(
+                        measureImage.createGraphics()));
+        this.diagramLayout.invoke(diagram, layout);
+
+        int width = (Integer) this.layoutWidth.invoke(layout);
+        int height = (Integer) this.layoutHeight.invoke(layout);
+
+        BufferedImage image =
+            new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setClip(0, 0, width, height);
+            graphics.addRenderingHints(new RenderingHints(
+                    RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON));
+            graphics.setBackground((Color) this.prefsColor.invoke(null,
+                    "background_color"));
+            graphics.fillRect(0, 0, width, height);
+
+            Object painter = this.painterConstructor.newInstance();
+            this.painterSetGraphics.invoke(painter, graphics);
+            this.layoutPaint.invoke(layout, painter);
+        } finally {
+            graphics.dispose();
+        }
+
+        ImageIO.write(image, "png", new File(pngPath));
+    }
+
+    /**
+     * Factory creating daemon threads so the rendering threads will not
+     * prevent the JVM to stop.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class RenderingThreadFactory
+        implements ThreadFactory {
+
+        /**
+         * the number of created threads.
+         */
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         */
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(r, "aoplib4j-png-renderer-"
+                    + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -15,21 +15,33 @@
 package org.aoplib4j.uml;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.logging.Logger;
 
 
 /**
  * Writer that will generate the UML diagram as a PNG file. The writer use under
  * the hood the {@link SEQUENCEWriter} writer to generate a .seq diagram and 
- * then use SEQUENCE with the <code>--headless</code> option
+ * then renders the text of the diagram as a png image using the SEQUENCE
+ * classes (the same way as the SEQUENCE <code>--headless</code> option
  * which is used when you want to generate a .png image from an input file 
- * without displaying the SEQUENCE screen. 
+ * without displaying the SEQUENCE screen); the rendering is done by the
+ * {@link PngRenderingService}.
  *  
  * The writer will create 2 files; the first one having as name the value passed
  * as parameter to the {@link Aoplib4jSequenceDiagram#diagramDepth()} (which is
- * a seq file) and the second file which is the png file.
+ * a seq file) and the second file which is the png file. The .seq file is 
+ * written only once, through the file of this writer (the delegate is not 
+ * opening a file), and the png file have the name of the written .seq 
+ * file (unique name, see {@link DiagramFileSink}) without the compression
+ * extension; the png file is counted by the rotation of his directory like
+ * the .seq file.
+ * 
+ * The whole text of the .seq diagram is kept in memory until the png file
+ * is rendered, even for the streamed diagrams 
+ * ({@link Aoplib4jSequenceDiagram#streaming()}), so the memory used by a 
+ * png diagram always depends on the total number of calls. The thread 
+ * ending the diagram waits for the rendering (see 
+ * {@link PngRenderingService}).
  * 
  *  @see SEQUENCEWriter
  *  
@@ -50,82 +62,54 @@ public final class PngWriter extends DFSDiagramWriter {
     private SEQUENCEWriter delegate = null;
 
     /**
-     * The SEQUENCE main class name. 
+     * the text of the .seq diagram, kept in memory for the rendering.
      */
-    private static final String SEQUENCE_MAIN_CLASS = 
-        "com.zanthan.sequence.Main";
+    private StringBuilder diagramText = null;
 
     /**
      *  {@inheritDoc}
      *  
-     * Delegate the writing of the footer to the attached delegate and
-     * generate the png file. 
+     * Delegate the writing of the footer (and of the truncation marker) to
+     * the attached delegate and generate the png file (the .seq file is 
+     * closed with this writer). 
      */
     @Override
     public void writeFooter(final SequenceMethod meth) throws IOException {
+        this.delegate.setOmittedCalls(this.getOmittedCalls());
         this.delegate.writeFooter(meth);
 
-        this.generateThePngFile(this.getDiagramFullPath());
+        this.generateThePngFile(this.getFilePath());
     }
 
 
     /**
-     * Generate the png file. Verify if SEQUENCE jar is in the classpath
-     * and then invoke by reflection the {@link #SEQUENCE_MAIN_CLASS} main
-     * method with <code>--headless diagramFullPath</code> parameters.
+     * Generate the png file from the in-memory text of the diagram; the png
+     * file have the name of the .seq file with the .png extension and is
+     * counted by the rotation (see {@link DiagramFileSink#fileClosed(String)}).
      *  
-     * @param diagramFullPath the diagram full path.
+     * @param seqFilePath the path of the written .seq file.
      */
-    private void generateThePngFile(final String diagramFullPath) {
+    private void generateThePngFile(final String seqFilePath) {
         
-        Class<?> sequenceMainClass = PngWriter.loadClass(SEQUENCE_MAIN_CLASS);
-        Method mainMethod = null;
+        String pngPath = seqFilePath;
+        if (pngPath.endsWith(DiagramFileSink.GZIP_EXTENSION)) {
+            pngPath = pngPath.substring(0, 
+                    pngPath.length() - DiagramFileSink.GZIP_EXTENSION.length());
+        }
+        int extension = pngPath.lastIndexOf('.');
+        if (extension > -1) {
+            pngPath = pngPath.substring(0, extension);
+        }
+        pngPath = pngPath + ".png";
         
-        if (sequenceMainClass != null) {
-            try {           
-                mainMethod = sequenceMainClass.getDeclaredMethod(
-                        "main", new Class[] {String[].class});
-                
-                if (mainMethod != null) {
-
-                    try {
-                        mainMethod.invoke(
-                                null, 
-                                new Object[] { 
-                                        new String[] {
-                                                "--headless", diagramFullPath 
-                                            }
-                                        });
-                        
-                    } catch (IllegalAccessException e) {
-                        LOGGER.warning("Exception invoking the main method of "
-                                + SEQUENCE_MAIN_CLASS + ": "
-                                + e.getMessage());
-                    } catch (InvocationTargetException e) {
-                        LOGGER.warning("Exception invoking the main method of "
-                                + SEQUENCE_MAIN_CLASS + ": "
-                                + e.getMessage());
-                    }
-                }
-                
-            } catch (SecurityException e) {
-                LOGGER.warning("Exception retrieving by reflexion the main " 
-                        + " method of "
-                        + SEQUENCE_MAIN_CLASS + ": "
-                        + e.getMessage());
-            } catch (NoSuchMethodException e) {
-                LOGGER.warning("Exception retrieving by reflexion the main " 
-                        + " method of "
-                        + SEQUENCE_MAIN_CLASS + ": "
-                        + e.getMessage());
-            } catch (IllegalArgumentException e) {
-                LOGGER.warning("Exception retrieving by reflexion the main " 
-                        + " method of "
-                        + SEQUENCE_MAIN_CLASS + ": "
-                        + e.getMessage());
-            }   
+        if (PngRenderingService.getInstance().render(
+                this.diagramText.toString(), pngPath)) {
+            DiagramFileSink.fileClosed(pngPath);
+        } else {
+            LOGGER.warning("The png diagram " + pngPath 
+                    + " was not generated.");
         }
-
+        this.diagramText = null;
     }
 
     /**
@@ -154,12 +138,17 @@ public final class PngWriter extends DFSDiagramWriter {
 
     /**
      * Creates the delegate writer (since this is the first method that is 
-     * called) and write the header to the attached delegate.
+     * called), writing in the file of this writer, and write the header to
+     * the attached delegate.
      * {@inheritDoc}
      */
     @Override
     public void writeHeader(final SequenceMethod meth) throws IOException {
-        this.delegate = new SEQUENCEWriter(this.getDiagramFullPath());
+        this.delegate = new SEQUENCEWriter();
+        this.delegate.shareOutputOf(this);
+        this.delegate.setTimingWritten(this.isTimingWritten());
+        this.diagramText = new StringBuilder();
+        this.delegate.copyLinesTo(this.diagramText);
         this.delegate.writeHeader(meth);
         
     }
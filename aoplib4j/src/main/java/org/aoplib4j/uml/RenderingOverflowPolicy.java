@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+/**
+ * What to do with a diagram that should be written asynchronously
+ * ({@link Aoplib4jSequenceDiagram#asynchronous()}) when the rendering queue
+ * is full.
+ *
+ * @see Aoplib4jSequenceDiagram#overflowPolicy()
+ *
+ * @author Adrian Citu
+ *
+ */
+public enum RenderingOverflowPolicy {
+
+    /**
+     * The diagram is not written; a warning is logged.
+     */
+    DROP,
+
+    /**
+     * The annotated method waits until the queue have a free place.
+     */
+    BLOCK,
+
+    /**
+     * The diagram is written on the thread that executed the annotated
+     * method (as if the diagram was not asynchronous).
+     */
+    SPILL;
+}
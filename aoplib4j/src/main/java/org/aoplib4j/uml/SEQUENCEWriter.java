@@ -26,7 +26,8 @@ import java.io.IOException;
  * @author Adrian Citu
  * 
  */
-public final class SEQUENCEWriter extends DFSDiagramWriter {
+public final class SEQUENCEWriter extends DFSDiagramWriter 
+    implements ParallelDiagramWriter {
 
     /**
      * Default constructor.
@@ -45,9 +46,10 @@ public final class SEQUENCEWriter extends DFSDiagramWriter {
     }
     
     /**
-     * buffer on which the temporary content is written.
+     * buffer on which the temporary content is written; reused for every
+     * line.
      */
-    private StringBuffer strWrit = new StringBuffer();
+    private final StringBuilder strWrit = new StringBuilder();
 
     /**
      * Method called after all the children methods are written.
@@ -62,8 +64,9 @@ public final class SEQUENCEWriter extends DFSDiagramWriter {
         
         if (meth.haveChildren()) {
             this.strWrit.append("}");
-            this.writeLine(strWrit.toString());
-            this.strWrit = new StringBuffer();
+            this.appendComment(meth);
+            this.writeLine(this.strWrit.toString());
+            this.strWrit.setLength(0);
         }
     }
 
@@ -81,6 +84,27 @@ public final class SEQUENCEWriter extends DFSDiagramWriter {
      * Class1.constructor(java.lang.String str) -> void;
      * </pre>
      * 
+     * Example of result for a method called 10 times in a loop (the loops 
+     * are aggregated, see {@link Aoplib4jSequenceDiagram#aggregateLoops()}).
+     * <pre>
+     * Class1.*[x10]method1Class1() -> String;
+     * </pre>
+     * 
+     * Example of result for a method executed by a task submitted to 
+     * another thread (see {@link SequenceDiagramTasks}).
+     * <pre>
+     * Class1.[thread pool-1-thread-1]method1Class1() -> String;
+     * </pre>
+     * 
+     * If the execution times are written 
+     * ({@link Aoplib4jSequenceDiagram#timing()}) or the values are captured
+     * ({@link Aoplib4jSequenceDiagram#captureValues()}) they are added as a
+     * comment at the end of the line ending the call (the line of the 
+     * method if the method have no children, the closing brace otherwise).
+     * 
+     * The class and the method labels are formatted only once per 
+     * signature (see {@link MethodLabels}).
+     * 
      * @param meth the method to write.
      * 
      * @throws IOException if any writing error.
@@ -89,50 +113,98 @@ public final class SEQUENCEWriter extends DFSDiagramWriter {
     public void writeMethodBeforeChildren(final SequenceMethod meth) 
         throws IOException {
 
-        strWrit.append(
-                meth.getClassName().substring(
-                        meth.getClassName().lastIndexOf(".") + 1)).append(".");
+        MethodLabels labels = MethodLabels.forMethod(meth);
+        
+        this.strWrit.append(labels.getSequenceClass());
+        this.appendCondition(meth);
+        this.strWrit.append(labels.getSequenceMethod());
 
-        if (meth.isStatic()) {
-            strWrit.append("[static]");
-        }
+        if (meth.haveChildren()) {
+            this.strWrit.append("{");
 
-        strWrit.append(meth.getMethodName()).append("(");
+        } else {
+            this.strWrit.append(";");
+            this.appendComment(meth);
+        }
 
-        String[] parametersNames = meth.getParameterNames();
-        Class<?>[] parametersTypes = meth.getParameterTypes();
+        this.writeLine(this.strWrit.toString());
+        this.strWrit.setLength(0);
+        
+    }
 
-        for (int i = 0; i < parametersNames.length - 1; i++) {
-            strWrit.append(parametersTypes[i].getCanonicalName()).append(" ")
-                    .append(parametersNames[i]).append(",");
+    /**
+     * Append the condition of the method (written before the method name):
+     * <code>[static]</code> for a static method, <code>*[x10]</code> for a
+     * method called 10 times in a loop, <code>[thread name]</code> for a 
+     * method executed by a task on another thread; the conditions can be 
+     * combined, for example <code>*[static x10]</code>.
+     * 
+     * @param meth the method.
+     */
+    private void appendCondition(final SequenceMethod meth) {
+        boolean repeated = meth.getRepeatCount() > 1;
+        
+        if (!meth.isStatic() && !repeated && meth.getThreadName() == null) {
+            return;
         }
-
-        if (parametersNames.length != 0) {
-            strWrit.append(
-                    parametersTypes[parametersNames.length - 1]
-                            .getCanonicalName()).append(" ").append(
-                    parametersNames[parametersNames.length - 1]);
+        
+        if (repeated) {
+            this.strWrit.append("*");
         }
+        this.strWrit.append("[");
         
-        strWrit.append(")");
-        strWrit.append(" -> ");
-
-        if (meth.getReturnType() != null) {
-            strWrit.append(meth.getReturnType().getSimpleName());
-        } else {
-            strWrit.append("void");
+        String separator = "";
+        if (meth.isStatic()) {
+            this.strWrit.append("static");
+            separator = " ";
         }
-
-        if (meth.haveChildren()) {
-            strWrit.append("{");
-
-        } else {
-            strWrit.append(";");
+        
+        if (repeated) {
+            this.strWrit.append(separator).append("x")
+                .append(meth.getRepeatCount());
+            separator = " ";
+        }
+        
+        if (meth.getThreadName() != null) {
+            this.strWrit.append(separator).append("thread ")
+                .append(meth.getThreadName());
         }
+        
+        this.strWrit.append("]");
+    }
 
-        this.writeLine(strWrit.toString());
-        this.strWrit = new StringBuffer();
+    /**
+     * Append the captured values and the execution times of the method as 
+     * a comment at the end of the current line (the line ending the method
+     * call); nothing is appended if the values were not captured and the
+     * times should not be written or were not measured.
+     * <pre>
+     * Class1.method1Class1() -> String; // args=(3) returned="x" total=...
+     * </pre>
+     * 
+     * @param meth the method.
+     */
+    private void appendComment(final SequenceMethod meth) {
+        String separator = " // ";
+        
+        String args = this.formatArguments(meth);
+        if (args != null) {
+            this.strWrit.append(separator).append(args);
+            separator = " ";
+        }
         
+        String returned = this.formatReturnValue(meth);
+        if (returned != null) {
+            this.strWrit.append(separator).append(returned);
+            separator = " ";
+        }
+        
+        if (this.isTimingWritten()) {
+            String times = this.formatTimes(meth);
+            if (times != null) {
+                this.strWrit.append(separator).append(times);
+            }
+        }
     }
 
     /**
@@ -140,7 +212,11 @@ public final class SEQUENCEWriter extends DFSDiagramWriter {
      */
     @Override
     public void writeFooter(final SequenceMethod meth) throws IOException {
-        //nothing to do
+        //the truncation marker is written as a comment.
+        String truncation = this.formatTruncation();
+        if (truncation != null) {
+            this.writeLine("// " + truncation);
+        }
     }
 
     /**
@@ -150,4 +226,11 @@ public final class SEQUENCEWriter extends DFSDiagramWriter {
     public void writeHeader(final SequenceMethod meth) throws IOException {
         //nothing to do;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DFSDiagramWriter newFragmentWriter() {
+        return new SEQUENCEWriter();
+    }
 }
@@ -15,7 +15,9 @@
 package org.aoplib4j.uml;
 
 import java.io.IOException;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 
 /**
@@ -28,7 +30,23 @@ import java.io.IOException;
  * A sequence diagram is a tree having as nodes instances of 
  * {@link SequenceMethod} class. 
  * 
+ * In the streaming mode ({@link Aoplib4jSequenceDiagram#streaming()}) the
+ * methods are sent to the writer as soon as they are entered/exited so only 
+ * the methods of the current call path are kept in memory.
+ * 
+ * The number of methods kept in memory can be limited 
+ * ({@link Aoplib4jSequenceDiagram#maxNodes()} and 
+ * {@link Aoplib4jSequenceDiagram#maxBytes()}); once the limit is reached 
+ * the diagram is truncated and the next calls are only counted 
+ * ({@link #getOmittedCalls()}).
+ * 
+ * The diagrams having the same structure can be written only once 
+ * ({@link Aoplib4jSequenceDiagram#deduplicate()}); the structural hash 
+ * is computed while the methods are entered/exited 
+ * ({@link #getStructuralHash()}).
+ * 
  * @see SequenceDiagramWriter#write(SequenceMethod) 
+ * @see SequenceDiagramEventWriter
  * @see SequenceMethod
  * 
  * @author Adrian Citu
@@ -36,6 +54,31 @@ import java.io.IOException;
  */
 public final class SequenceDiagram {
 
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER = 
+        Logger.getLogger(SequenceDiagram.class.getName());
+
+    /**
+     * Estimated size in bytes of a recorded method (the method object and
+     * the reference kept by the parent); used to convert the 
+     * {@link Aoplib4jSequenceDiagram#maxBytes()} to a number of methods.
+     */
+    static final int NODE_BYTES = 48;
+
+    /**
+     * Estimated size in bytes of the execution times kept by a method when 
+     * the times are measured ({@link #isMeasuringTime()}).
+     */
+    static final int MEASURES_BYTES = 72;
+
+    /**
+     * Estimated size in bytes of the captured values kept by a method 
+     * ({@link #isCapturingValues()}), without the summaries themselves.
+     */
+    static final int VALUES_BYTES = 24;
+
     /**
      *  Method that is executed by the aspect at a certain time.
      */
@@ -62,6 +105,114 @@ public final class SequenceDiagram {
      */
     private SequenceMethod rootMethod = null;
 
+    /**
+     * The writer receiving the events in the streaming mode; null if the 
+     * diagram is not in the streaming mode. 
+     */
+    private SequenceDiagramEventWriter eventWriter = null;
+    
+    /**
+     * true if the streaming was stopped due to a writing error.
+     */
+    private boolean streamingStopped = false;
+    
+    /**
+     * true if the diagram is written by a background thread; taken from the 
+     * annotation parameter ({@link Aoplib4jSequenceDiagram#asynchronous()}).
+     */
+    private boolean asynchronous = false;
+    
+    /**
+     * what to do if the background rendering queue is full; taken from the
+     * annotation parameter 
+     * ({@link Aoplib4jSequenceDiagram#overflowPolicy()}).
+     */
+    private RenderingOverflowPolicy overflowPolicy = 
+        RenderingOverflowPolicy.BLOCK;
+    
+    /**
+     * true if the consecutive identical calls are merged; taken from the 
+     * annotation parameter ({@link Aoplib4jSequenceDiagram#aggregateLoops()}).
+     */
+    private boolean aggregatingLoops = false;
+    
+    /**
+     * true if the execution times are written in the diagram; taken from 
+     * the annotation parameter ({@link Aoplib4jSequenceDiagram#timing()}).
+     */
+    private boolean timing = false;
+    
+    /**
+     * the prefixes (package name followed by a dot) of the recorded 
+     * classes; empty if all the classes are recorded. Taken from the 
+     * annotation parameter 
+     * ({@link Aoplib4jSequenceDiagram#tracedPackages()}).
+     */
+    private String[] tracedPrefixes = new String[0];
+    
+    /**
+     * the maximum number of methods kept in memory; 0 if there is no 
+     * limit. Computed from the annotation parameters 
+     * ({@link Aoplib4jSequenceDiagram#maxNodes()} and 
+     * {@link Aoplib4jSequenceDiagram#maxBytes()}).
+     */
+    private int nodeLimit = 0;
+    
+    /**
+     * the number of methods kept in memory; updated only if there is a 
+     * {@link #nodeLimit}. Atomic because the tasks executed by other 
+     * threads are recording in the same diagram.
+     */
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    
+    /**
+     * the number of calls not recorded since the diagram was truncated.
+     */
+    private final AtomicLong omittedCalls = new AtomicLong();
+    
+    /**
+     * true once the {@link #nodeLimit} was reached; the diagram stays 
+     * truncated so no calls are missing in the middle of the diagram.
+     */
+    private volatile boolean truncated = false;
+    
+    /**
+     * The full path of the diagram given by the annotation.
+     */
+    private String diagramFullPath = null;
+    
+    /**
+     * true if the diagrams having the same structure are written only 
+     * once; taken from the annotation parameter 
+     * ({@link Aoplib4jSequenceDiagram#deduplicate()}).
+     */
+    private boolean deduplicating = false;
+    
+    /**
+     * the structural hash of the methods recorded by the thread of the 
+     * diagram.
+     */
+    private long structuralHash = StructuralHash.INITIAL;
+    
+    /**
+     * the sum of the structural hashes of the branches recorded by other 
+     * threads; a sum because the order of the branches is not known.
+     */
+    private final AtomicLong branchHashes = new AtomicLong();
+    
+    /**
+     * true if the arguments and the returned values are captured; taken 
+     * from the annotation parameter 
+     * ({@link Aoplib4jSequenceDiagram#captureValues()}).
+     */
+    private boolean capturingValues = false;
+    
+    /**
+     * the maximum length of a captured value; taken from the annotation 
+     * parameter ({@link Aoplib4jSequenceDiagram#maxValueLength()}).
+     */
+    private int maxValueLength = 
+        Aoplib4jSequenceDiagram.DEFAULT_MAX_VALUE_LENGTH;
  
     /**
      * Default constructor.
@@ -74,15 +225,417 @@ public final class SequenceDiagram {
     public SequenceDiagram(
             final int maxDepth, final SequenceDiagramWriter writer,
             final String diagramPath, final SequenceMethod rootMetd) {
+        this(maxDepth, writer, diagramPath, rootMetd, true);
+    }
+    
+    /**
+     * @param maxDepth the maximum depth that the diagram can have.
+     * @param writer the writer to use for writing the diagram.
+     * @param diagramPath the diagram full path.
+     * @param rootMetd root method of this diagram.
+     * @param openWriter true if the writer is opened now; otherwise the 
+     * writer is opened by {@link #write()}.
+     */
+    private SequenceDiagram(
+            final int maxDepth, final SequenceDiagramWriter writer,
+            final String diagramPath, final SequenceMethod rootMetd,
+            final boolean openWriter) {
         super();
         this.maxDiagramDepth = maxDepth;
         this.diagramWriter = writer;
-        this.diagramWriter.setDiagramPath(diagramPath);
+        this.diagramFullPath = diagramPath;
+        if (openWriter) {
+            this.diagramWriter.setDiagramPath(diagramPath);
+        }
         this.rootMethod = rootMetd;
         
         this.setActiveMethod(rootMetd);
     }
 
+    /**
+     * Constructor taking the diagram parameters from the annotation.
+     * 
+     * @param seqAnnot the annotation of the root method.
+     * @param writer the writer to use for writing the diagram.
+     * @param diagramPath the diagram full path.
+     * @param rootMetd root method of this diagram.
+     */
+    public SequenceDiagram(
+            final Aoplib4jSequenceDiagram seqAnnot, 
+            final SequenceDiagramWriter writer,
+            final String diagramPath, final SequenceMethod rootMetd) {
+        this(seqAnnot.diagramDepth(), writer, diagramPath, rootMetd, 
+                !seqAnnot.deduplicate() || seqAnnot.streaming());
+        
+        this.asynchronous = seqAnnot.asynchronous();
+        this.overflowPolicy = seqAnnot.overflowPolicy();
+        this.timing = seqAnnot.timing();
+        this.diagramWriter.setTimingWritten(this.timing);
+        this.capturingValues = seqAnnot.captureValues();
+        this.maxValueLength = Math.max(1, seqAnnot.maxValueLength());
+        
+        String[] tracedPackages = seqAnnot.tracedPackages();
+        this.tracedPrefixes = new String[tracedPackages.length];
+        for (int i = 0; i < tracedPackages.length; i++) {
+            this.tracedPrefixes[i] = tracedPackages[i] + ".";
+        }
+        
+        if (seqAnnot.streaming()) {
+            if (writer instanceof PngWriter) {
+                LOGGER.warning("The png diagram " + this.diagramFullPath 
+                        + " is kept in memory until the image is rendered;"
+                        + " the streaming mode does not bound his memory.");
+            }
+            if (writer instanceof SequenceDiagramEventWriter) {
+                this.eventWriter = (SequenceDiagramEventWriter) writer;
+            } else {
+                LOGGER.warning("The writer " + writer.getClass().getName() 
+                        + " do not implement " 
+                        + SequenceDiagramEventWriter.class.getName()
+                        + "; the diagram will not be streamed.");
+            }
+        }
+        
+        if (seqAnnot.aggregateLoops()) {
+            if (this.isStreaming()) {
+                LOGGER.warning("The loops cannot be aggregated in the "
+                        + "streaming mode; the diagram " 
+                        + this.diagramFullPath 
+                        + " will not be aggregated.");
+            } else {
+                this.aggregatingLoops = true;
+            }
+        }
+        
+        if (seqAnnot.deduplicate()) {
+            if (seqAnnot.streaming()) {
+                LOGGER.warning("The streamed diagrams cannot be "
+                        + "deduplicated; the diagram " 
+                        + this.diagramFullPath 
+                        + " will be written every time.");
+            } else {
+                this.deduplicating = true;
+            }
+        }
+        
+        this.nodeLimit = this.nodeLimit(
+                seqAnnot.maxNodes(), seqAnnot.maxBytes());
+    }
+    
+    /**
+     * @param maxNodes the maximum number of methods; 0 if no limit.
+     * @param maxBytes the maximum memory of the methods; 0 if no limit.
+     * @return the maximum number of methods kept in memory; the smallest 
+     * of the two limits or 0 if there is no limit. The size of a method 
+     * depends on the data recorded by the diagram.
+     */
+    private int nodeLimit(final int maxNodes, final long maxBytes) {
+        int returnValue = Math.max(0, maxNodes);
+        
+        if (maxBytes > 0) {
+            int nodeBytes = NODE_BYTES;
+            if (this.isMeasuringTime()) {
+                nodeBytes += MEASURES_BYTES;
+            }
+            if (this.isCapturingValues()) {
+                nodeBytes += VALUES_BYTES;
+            }
+            
+            int byBytes = (int) Math.min(Integer.MAX_VALUE, 
+                    Math.max(1, maxBytes / nodeBytes));
+            if (returnValue == 0 || byBytes < returnValue) {
+                returnValue = byBytes;
+            }
+        }
+        return returnValue;
+    }
+    
+    /**
+     * Reserves the place of a new method in the node budget; nothing is 
+     * counted if the diagram have no budget.
+     * 
+     * @return true if the method can be recorded, false if the diagram is 
+     * (or became now) truncated.
+     */
+    public boolean reserveNode() {
+        if (this.nodeLimit == 0) {
+            return true;
+        }
+        if (this.truncated) {
+            return false;
+        }
+        
+        if (this.nodeCount.incrementAndGet() > this.nodeLimit) {
+            this.nodeCount.decrementAndGet();
+            this.truncated = true;
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * @return true if the methods are counted by {@link #reserveNode()} and
+     * should be released by {@link #releaseNodes(int)}.
+     */
+    public boolean hasNodeBudget() {
+        return this.nodeLimit != 0;
+    }
+    
+    /**
+     * Releases the place of methods no longer kept in memory (merged or 
+     * already written).
+     * 
+     * @param count the number of methods.
+     */
+    public void releaseNodes(final int count) {
+        if (this.nodeLimit != 0) {
+            this.nodeCount.addAndGet(-count);
+        }
+    }
+    
+    /**
+     * Counts a call not recorded because the diagram is truncated.
+     */
+    public void callOmitted() {
+        this.omittedCalls.incrementAndGet();
+    }
+    
+    /**
+     * @return true if the node budget was reached.
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+    
+    /**
+     * @return the number of calls not recorded because the diagram is 
+     * truncated.
+     */
+    public long getOmittedCalls() {
+        return this.omittedCalls.get();
+    }
+    
+    /**
+     * @return true if the diagrams having the same structure are written 
+     * only once.
+     */
+    public boolean isDeduplicating() {
+        return this.deduplicating;
+    }
+    
+    /**
+     * Adds an entered method to the structural hash of a branch recorded 
+     * by another thread.
+     * 
+     * @param branchHash the hash of the branch; 0 for a new branch.
+     * @param meth the entered method.
+     * @return the new hash of the branch.
+     */
+    public long branchMethodEntered(final long branchHash, 
+            final SequenceMethod meth) {
+        return StructuralHash.entered(branchHash, meth);
+    }
+    
+    /**
+     * Adds an exited method to the structural hash of a branch recorded 
+     * by another thread.
+     * 
+     * @param branchHash the hash of the branch.
+     * @return the new hash of the branch.
+     */
+    public long branchMethodExited(final long branchHash) {
+        return StructuralHash.exited(branchHash);
+    }
+    
+    /**
+     * Adds the hash of a finished branch to the structural hash of the 
+     * diagram.
+     * 
+     * @param branchHash the hash of the branch.
+     */
+    public void branchFinished(final long branchHash) {
+        this.branchHashes.addAndGet(branchHash);
+    }
+    
+    /**
+     * @return the structural hash of the recorded methods; the same for 
+     * all the diagrams having the same calls (computed only if the diagram 
+     * is {@link #isDeduplicating()}).
+     */
+    public long getStructuralHash() {
+        return StructuralHash.mix(StructuralHash.mix(this.structuralHash, 
+                this.branchHashes.get()), this.omittedCalls.get());
+    }
+    
+    /**
+     * @return true if the execution time of the methods is measured; the 
+     * time is needed for writing it ({@link #isTiming()}) or for the 
+     * aggregated loops ({@link #isAggregatingLoops()}).
+     */
+    public boolean isMeasuringTime() {
+        return this.timing || this.aggregatingLoops;
+    }
+    
+    /**
+     * @return true if the arguments and the returned values of the 
+     * recorded methods are captured.
+     */
+    public boolean isCapturingValues() {
+        return this.capturingValues;
+    }
+    
+    /**
+     * @return the maximum number of characters of a captured value.
+     */
+    public int getMaxValueLength() {
+        return this.maxValueLength;
+    }
+    
+    /**
+     * @param className the full name of a class.
+     * @return true if the methods of the class should be recorded in the 
+     * diagram (see {@link Aoplib4jSequenceDiagram#tracedPackages()}).
+     */
+    public boolean isTraced(final String className) {
+        if (this.tracedPrefixes.length == 0) {
+            return true;
+        }
+        
+        for (String prefix : this.tracedPrefixes) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return true if the execution times are written in the diagram.
+     */
+    public boolean isTiming() {
+        return this.timing;
+    }
+    
+    /**
+     * @return true if the consecutive identical calls are merged while the
+     * diagram is recorded.
+     */
+    public boolean isAggregatingLoops() {
+        return this.aggregatingLoops;
+    }
+    
+    /**
+     * @return true if the diagram should be written by a background thread.
+     */
+    public boolean isAsynchronous() {
+        return this.asynchronous;
+    }
+    
+    /**
+     * @return what to do if the background rendering queue is full.
+     */
+    public RenderingOverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+    
+    /**
+     * @return the full path where the diagram is written.
+     */
+    public String getDiagramFullPath() {
+        return this.diagramFullPath;
+    }
+    
+    /**
+     * @return true if the diagram is written while is recorded.
+     */
+    public boolean isStreaming() {
+        return this.eventWriter != null;
+    }
+    
+    /**
+     * Starts the diagram; in streaming mode the start of the diagram and
+     * the root method are sent to the writer. 
+     * 
+     * An error when writing will not be thrown to the client code; the
+     * streaming is stopped and the error is logged.
+     */
+    public void start() {
+        if (this.deduplicating) {
+            this.structuralHash = 
+                StructuralHash.entered(this.structuralHash, this.rootMethod);
+        }
+        
+        if (this.isStreaming()) {
+            try {
+                this.eventWriter.diagramStarted(this.rootMethod);
+                this.eventWriter.methodEntered(this.rootMethod);
+            } catch (IOException e) {
+                this.stopStreaming(e);
+            }
+        }
+    }
+    
+    /**
+     * Method called when a new method of the diagram is entered; the 
+     * method is added to the structural hash and, in streaming mode, is 
+     * sent to the writer.
+     * 
+     * An error when writing will not be thrown to the client code; the
+     * streaming is stopped and the error is logged.
+     * 
+     * @param meth the entered method.
+     */
+    public void methodEntered(final SequenceMethod meth) {
+        if (this.deduplicating) {
+            this.structuralHash = 
+                StructuralHash.entered(this.structuralHash, meth);
+        }
+        
+        if (this.isStreaming() && !this.streamingStopped) {
+            try {
+                this.eventWriter.methodEntered(meth);
+            } catch (IOException e) {
+                this.stopStreaming(e);
+            }
+        }
+    }
+    
+    /**
+     * Method called when a method of the diagram is exited; the end of the
+     * method is added to the structural hash and, in streaming mode, the 
+     * method is sent to the writer.
+     * 
+     * An error when writing will not be thrown to the client code; the
+     * streaming is stopped and the error is logged.
+     * 
+     * @param meth the exited method.
+     */
+    public void methodExited(final SequenceMethod meth) {
+        if (this.deduplicating) {
+            this.structuralHash = StructuralHash.exited(this.structuralHash);
+        }
+        
+        if (this.isStreaming() && !this.streamingStopped) {
+            try {
+                this.eventWriter.methodExited(meth);
+            } catch (IOException e) {
+                this.stopStreaming(e);
+            }
+        }
+    }
+    
+    /**
+     * Stops the streaming of the diagram after a writing error.
+     * 
+     * @param e the writing error.
+     */
+    private void stopStreaming(final IOException e) {
+        LOGGER.warning("Error writing the diagram " 
+                + this.diagramFullPath 
+                + "; the diagram streaming is stopped: " + e.getMessage());
+        this.streamingStopped = true;
+    }
+
     /**
      * @return the actual diagram depth.
      */
@@ -127,11 +680,58 @@ public final class SequenceDiagram {
     }
 
     /**
-     * Write to the attached writer.
+     * Write to the attached writer. In streaming mode only the end of the 
+     * root method and the end of the diagram are remaining to be written
+     * (nothing is written if the streaming was stopped by an error). The
+     * number of omitted calls ({@link #getOmittedCalls()}) is passed to the 
+     * writer before the writing.
+     * 
+     * A deduplicated diagram is written only if no diagram with the same
+     * structural hash was written before (see {@link DiagramIndex}).
+     * 
      * @throws IOException  if any error when writing.
      */
     public void write() throws IOException {
-        this.diagramWriter.write(this.rootMethod);
+        this.diagramWriter.setOmittedCalls(this.omittedCalls.get());
+        
+        if (this.deduplicating) {
+            this.writeDeduplicated();
+        } else if (this.isStreaming()) {
+            if (!this.streamingStopped) {
+                this.eventWriter.methodExited(this.rootMethod);
+                this.eventWriter.diagramEnded(this.rootMethod);
+            }
+        } else {
+            this.diagramWriter.write(this.rootMethod);
+        }
+    }
+    
+    /**
+     * Writes the diagram in the file of his structural hash, if the hash is
+     * new; otherwise only the hits of the hash are counted.
+     * 
+     * @throws IOException  if any error when writing.
+     */
+    private void writeDeduplicated() throws IOException {
+        long hash = this.getStructuralHash();
+        DiagramIndex index = DiagramIndex.forDiagram(this.diagramFullPath);
+        
+        String path = index.reserve(hash);
+        if (path == null) {
+            return;
+        }
+        
+        boolean written = false;
+        try {
+            this.diagramWriter.setDiagramPath(path);
+            index.opened(hash, this.diagramWriter.getFilePath());
+            this.diagramWriter.write(this.rootMethod);
+            written = true;
+        } finally {
+            if (!written) {
+                index.release(hash);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.IOException;
+
+/**
+ * Event based contract for the sequence diagram writers. A writer
+ * implementing this interface can be used in the streaming mode
+ * ({@link Aoplib4jSequenceDiagram#streaming()}); the methods are called
+ * while the diagram is recorded so the complete tree of {@link SequenceMethod}
+ * is never kept in memory.
+ *
+ * The events are received in the following order:
+ * <ul>
+ *  <li>{@link #diagramStarted(SequenceMethod)} (only one time)</li>
+ *  <li>{@link #methodEntered(SequenceMethod)} and
+ *  {@link #methodExited(SequenceMethod)} for every method of the diagram
+ *  (the root method included) in the execution order</li>
+ *  <li>{@link #diagramEnded(SequenceMethod)} (only one time)</li>
+ * </ul>
+ *
+ * When {@link #methodEntered(SequenceMethod)} is called the children of the
+ * method are not known yet; {@link SequenceMethod#haveChildren()} becomes
+ * true only when the first child is entered.
+ *
+ * @see DFSDiagramWriter
+ *
+ * @author Adrian Citu
+ *
+ */
+public interface SequenceDiagramEventWriter {
+
+    /**
+     * Method called only one time, before any other event.
+     *
+     * @param rootMethod the root method of the diagram.
+     * @throws IOException if any exception when writing.
+     */
+    void diagramStarted(SequenceMethod rootMethod) throws IOException;
+
+    /**
+     * Method called when a method of the diagram starts the execution.
+     *
+     * @param meth the entered method; the parent of the method is the
+     * caller.
+     * @throws IOException if any exception when writing.
+     */
+    void methodEntered(SequenceMethod meth) throws IOException;
+
+    /**
+     * Method called when a method of the diagram ends the execution.
+     *
+     * @param meth the exited method.
+     * @throws IOException if any exception when writing.
+     */
+    void methodExited(SequenceMethod meth) throws IOException;
+
+    /**
+     * Method called only one time, after all the other events.
+     *
+     * @param rootMethod the root method of the diagram.
+     * @throws IOException if any exception when writing.
+     */
+    void diagramEnded(SequenceMethod rootMethod) throws IOException;
+}
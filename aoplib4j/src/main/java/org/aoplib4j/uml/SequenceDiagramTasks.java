@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.aoplib4j.uml.internal.TaskPropagation;
+
+/**
+ * Propagation of the sequence diagrams recording to the tasks executed by
+ * other threads. By default only the methods executed by the thread of the
+ * annotated method ({@link Aoplib4jSequenceDiagram}) are recorded; a task 
+ * wrapped using this class, while the current thread records a diagram, 
+ * records his calls as children of the method that wrapped the task. The 
+ * first methods called by the task are marked with the name of the thread 
+ * executing the task ({@link SequenceMethod#getThreadName()}).
+ * 
+ * <pre>
+ * ExecutorService pool = SequenceDiagramTasks.wrap(
+ *     Executors.newFixedThreadPool(4));
+ * pool.submit(task);
+ * </pre>
+ * 
+ * The calls of the task are added to the diagram when the task ends; the 
+ * calls of a task ending after the end of the annotated method may not be 
+ * part of the written diagram. The tasks are not propagated to the 
+ * diagrams in the {@link Aoplib4jSequenceDiagram#streaming()} mode.
+ * 
+ * The calls of the tasks are not placed at the position of the submission:
+ * they are written after all the other calls of the submitting method, 
+ * in the order in which the tasks ended (not in the order of the 
+ * submission). A submitted task appears so after the calls made by the 
+ * submitting method after the submission.
+ * 
+ * @author Adrian Citu
+ *
+ */
+public final class SequenceDiagramTasks {
+
+    /**
+     * Utility class.
+     */
+    private SequenceDiagramTasks() {
+    }
+    
+    /**
+     * @param task the task to wrap.
+     * @return the wrapped task or the task itself if the current thread do 
+     * not record any diagram.
+     */
+    public static Runnable wrap(final Runnable task) {
+        return TaskPropagation.wrap(task);
+    }
+    
+    /**
+     * @param <T> the type of the task result.
+     * @param task the task to wrap.
+     * @return the wrapped task or the task itself if the current thread do 
+     * not record any diagram.
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        return TaskPropagation.wrap(task);
+    }
+    
+    /**
+     * @param executor the executor to wrap.
+     * @return an executor wrapping (on the submitting thread) all the tasks
+     * before passing them to <code>executor</code>.
+     */
+    public static ExecutorService wrap(final ExecutorService executor) {
+        return TaskPropagation.wrap(executor);
+    }
+}
@@ -14,16 +14,17 @@
  */
 package org.aoplib4j.uml;
 
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.util.Locale;
+import java.util.logging.Logger;
 
 /**
  * Root class for all the sequence diagram writers.
  * This class contains a writer that will be used to write the diagram.
  * 
+ * The diagram is buffered and written to the disk only when the writer is 
+ * closed or when a flush threshold is reached (see {@link DiagramOutput}).
+ * 
  * @author Adrian Citu
  *
  */
@@ -35,15 +36,41 @@ public abstract class SequenceDiagramWriter {
     static final String NEW_LINE = System.getProperty("line.separator");
     
     /**
-     * The writer to use for the diagram writing.
+     * the logger to use.
+     */
+    private static final Logger LOGGER = 
+        Logger.getLogger(SequenceDiagramWriter.class.getName());
+    
+    /**
+     * Number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+    
+    /**
+     * The output to use for the diagram writing.
      */
-    private Writer diagramWriter = null;
+    private DiagramOutput diagramWriter = null;
     
     /**
      * The diagram full path.
      */
     private String diagramFullPath = null;
     
+    /**
+     * true if the execution times of the methods should be written.
+     */
+    private boolean timingWritten = false;
+    
+    /**
+     * Copy of the written lines; null if the lines are not copied.
+     */
+    private StringBuilder textCopy = null;
+    
+    /**
+     * The number of calls not recorded because the diagram was truncated.
+     */
+    private long omittedCalls = 0;
+    
     /**
      * Default constructor.
      * 
@@ -53,19 +80,18 @@ public abstract class SequenceDiagramWriter {
     
     /**
      *  Internal method used to create the diagram writer from the parameters
-     *  of the {@link Aoplib4jSequenceDiagram} annotation.
+     *  of the {@link Aoplib4jSequenceDiagram} annotation. If the file cannot
+     *  be opened only a message is logged (the client code is not 
+     *  interrupted) and the diagram is not written.
      *  
      */
     private void createWriter() {
         try {
-            diagramWriter = 
-                new BufferedWriter(
-                        new OutputStreamWriter(
-                                new FileOutputStream(
-                                        this.getDiagramFullPath()), "UTF8"));
+            diagramWriter = new DiagramOutput(this.getDiagramFullPath());
         } catch (IOException e) {
-            //TODO just log a message; don't interfere with the client workflow.
-            throw new UnsupportedOperationException(e);
+            LOGGER.warning("Cannot open the diagram " 
+                    + this.getDiagramFullPath() + "; the diagram is not "
+                    + "written: " + e.getMessage());
         } 
     }
     
@@ -76,6 +102,18 @@ public abstract class SequenceDiagramWriter {
         return this.diagramFullPath;
     }
 
+    /**
+     * @return the path of the file where the diagram is written; can be 
+     * different from the diagram path (see {@link DiagramFileSink}). null
+     * if the diagram is not written in a file.
+     */
+    final String getFilePath() {
+        if (this.diagramWriter == null) {
+            return null;
+        }
+        return this.diagramWriter.getFilePath();
+    }
+
     /**
      * Write a string to the diagram on a new line.
      * 
@@ -83,11 +121,211 @@ public abstract class SequenceDiagramWriter {
      * @throws IOException if any I/O exception
      */
     protected final void writeLine(final String str) throws IOException {
-        this.diagramWriter.write(str);
-        this.diagramWriter.write(NEW_LINE);
-        this.diagramWriter.flush();
+        if (this.diagramWriter != null) {
+            this.diagramWriter.write(str);
+            this.diagramWriter.write(NEW_LINE);
+        }
+        
+        if (this.textCopy != null) {
+            this.textCopy.append(str).append(NEW_LINE);
+        }
+    }
+    
+    /**
+     * Write a text already formatted as lines (ex: a part of the diagram 
+     * rendered by another writer, see {@link ParallelDiagramWriter}).
+     * 
+     * @param lines the text; every line ends with a line separator.
+     * @throws IOException if any I/O exception
+     */
+    final void writeLines(final CharSequence lines) throws IOException {
+        if (this.diagramWriter != null) {
+            this.diagramWriter.write(lines);
+        }
+        
+        if (this.textCopy != null) {
+            this.textCopy.append(lines);
+        }
+    }
+    
+    /**
+     * Keeps also in memory the lines written by {@link #writeLine(String)};
+     * used by the writers needing the diagram text after the writing (ex:
+     * the {@link PngWriter}). A writer without diagram path (never set by
+     * {@link #setDiagramPath(String)}) is only keeping the lines in memory.
+     * 
+     * @param copy the builder receiving the lines.
+     */
+    final void copyLinesTo(final StringBuilder copy) {
+        this.textCopy = copy;
+    }
+    
+    /**
+     * Makes this writer write in the diagram file of another writer instead
+     * of opening his own file; used by the writers delegating the writing 
+     * of the diagram (ex: the {@link PngWriter}). The file stays owned by 
+     * the other writer which is the only one closing it.
+     * 
+     * @param owner the writer owning the diagram file.
+     */
+    final void shareOutputOf(final SequenceDiagramWriter owner) {
+        this.diagramFullPath = owner.diagramFullPath;
+        this.diagramWriter = owner.diagramWriter;
+    }
+    
+    /**
+     * Write raw bytes to the diagram; used by the binary writers and to 
+     * copy already encoded text (ex: the messages of the 
+     * {@link CodeToDiagramWriter}). The bytes are not decoded, so they are
+     * not added to the copy of the lines (see 
+     * {@link #copyLinesTo(StringBuilder)}); the writers whose text is 
+     * copied should use {@link #writeLine(String)}. Nothing is written if
+     * the writer have no diagram file.
+     *
+     * @param bytes the bytes to write.
+     * @param offset the offset of the first byte to write.
+     * @param length the number of bytes to write.
+     * @throws IOException if any I/O exception
+     */
+    protected final void writeBytes(final byte[] bytes, final int offset,
+            final int length) throws IOException {
+        if (this.diagramWriter != null) {
+            this.diagramWriter.write(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Write on the disk the content written so far; normally the writer
+     * decides alone when the content is written.
+     * 
+     * @throws IOException if any I/O exception
+     */
+    protected final void flushWriter() throws IOException {
+        if (this.diagramWriter != null) {
+            this.diagramWriter.flush();
+        }
     }
   
+    /**
+     * @return true if the execution times of the methods should be written
+     * ({@link Aoplib4jSequenceDiagram#timing()}).
+     */
+    protected final boolean isTimingWritten() {
+        return this.timingWritten;
+    }
+    
+    /**
+     * @param written true if the execution times of the methods should be 
+     * written.
+     */
+    final void setTimingWritten(final boolean written) {
+        this.timingWritten = written;
+    }
+    
+    /**
+     * @return the number of calls not recorded because the diagram was 
+     * truncated ({@link Aoplib4jSequenceDiagram#maxNodes()}); known when 
+     * the footer of the diagram is written.
+     */
+    protected final long getOmittedCalls() {
+        return this.omittedCalls;
+    }
+    
+    /**
+     * @param omitted the number of calls not recorded because the diagram
+     * was truncated.
+     */
+    final void setOmittedCalls(final long omitted) {
+        this.omittedCalls = omitted;
+    }
+    
+    /**
+     * Formats the truncation marker written at the end of a truncated 
+     * diagram; for example <code>truncated: 42 calls omitted</code>.
+     * 
+     * @return the marker or null if the diagram was not truncated.
+     */
+    protected final String formatTruncation() {
+        if (this.omittedCalls == 0) {
+            return null;
+        }
+        return "truncated: " + this.omittedCalls + " calls omitted";
+    }
+    
+    /**
+     * Formats the execution times of a method; for example 
+     * <code>total=1.250ms self=0.300ms</code>. If the method represents 
+     * several calls (aggregated loops) the shortest and the longest 
+     * execution times are also added.
+     * 
+     * @param meth the method.
+     * @return the formatted times or null if the times were not measured.
+     */
+    protected final String formatTimes(final SequenceMethod meth) {
+        if (meth.getTotalTime() < 0) {
+            return null;
+        }
+        
+        StringBuilder returnValue = new StringBuilder();
+        returnValue.append("total=").append(formatMillis(meth.getTotalTime()))
+            .append(" self=").append(formatMillis(meth.getSelfTime()));
+        
+        if (meth.getRepeatCount() > 1) {
+            returnValue
+                .append(" min=").append(formatMillis(meth.getMinTime()))
+                .append(" max=").append(formatMillis(meth.getMaxTime()));
+        }
+        return returnValue.toString();
+    }
+    
+    /**
+     * Formats the arguments captured when the method was entered 
+     * ({@link Aoplib4jSequenceDiagram#captureValues()}); for example 
+     * <code>args=("abc", 3, null)</code>.
+     * 
+     * @param meth the method.
+     * @return the formatted arguments or null if the method have no 
+     * captured arguments.
+     */
+    protected final String formatArguments(final SequenceMethod meth) {
+        String[] values = meth.getArgumentValues();
+        if (values.length == 0) {
+            return null;
+        }
+        
+        StringBuilder returnValue = new StringBuilder("args=(");
+        for (int i = 0; i < values.length; i++) {
+            if (i != 0) {
+                returnValue.append(", ");
+            }
+            returnValue.append(values[i]);
+        }
+        return returnValue.append(")").toString();
+    }
+    
+    /**
+     * Formats the value returned by the method 
+     * ({@link Aoplib4jSequenceDiagram#captureValues()}); for example 
+     * <code>returned="abc"</code>.
+     * 
+     * @param meth the method.
+     * @return the formatted value or null if the value was not captured.
+     */
+    protected final String formatReturnValue(final SequenceMethod meth) {
+        if (meth.getReturnValue() == null) {
+            return null;
+        }
+        return "returned=" + meth.getReturnValue();
+    }
+    
+    /**
+     * @param nanos a duration in nanoseconds.
+     * @return the duration in milliseconds; ex: 1.250ms
+     */
+    private static String formatMillis(final long nanos) {
+        return String.format(Locale.US, "%.3fms", nanos / NANOS_PER_MILLI);
+    }
+    
     /**
      * Set the diagram path and creates the writer used to write the diagram on
      * disk.
@@ -99,20 +337,35 @@ public abstract class SequenceDiagramWriter {
     }
     
     /** 
-     * It closes the writer used for writing the diagram.
+     * It closes the writer used for writing the diagram and calls the
+     * {@link #releaseResources()}. The errors of the closing (ex: disk 
+     * full, GZIP trailer not written) are logged since the diagram file is
+     * incomplete.
      */
     final void closeWriter() {
+            this.releaseResources();
             if (this.diagramWriter != null) {
                 try {
                     this.diagramWriter.close();
                 } catch (IOException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
+                    LOGGER.warning("Error closing the diagram " 
+                            + this.diagramWriter.getFilePath() 
+                            + "; the diagram file is incomplete: " 
+                            + e.getMessage());
                 }   
             }
         }
 
 
+    /**
+     * Called when the writer is closed, even if the diagram was not 
+     * completely written (the annotated method threw an exception); the 
+     * subclasses using other resources than the diagram file (ex: temporary
+     * files) are releasing them here. Nothing is done by default.
+     */
+    protected void releaseResources() {
+    }
+
     /**
      * Write the diagram starting from the root method which is passed
      * as parameter.
@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aoplib4j.uml.internal.FlightRecorder;
+
+/**
+ * Always-on recording of the calls of all the threads; unlike the
+ * {@link Aoplib4jSequenceDiagram} annotation, no method has to be
+ * annotated and no diagram is written until the recorded calls are
+ * explicitly dumped, for example after an incident:
+ *
+ * <pre>
+ * SequenceFlightRecorder.getInstance().dump("sequence", "/tmp/incident");
+ * </pre>
+ *
+ * While running, every thread writes the start and the end of the woven
+ * methods as fixed-size records in his own memory-mapped ring buffer,
+ * covering the last calls of the thread; the diagrams are rebuilt from the
+ * records only when dumped, so the recording creates no objects. The
+ * recorder is started by the <code>-Dorg.aoplib4j.uml.flightRecorder=true
+ * </code> system property or by {@link #start()}; the other system
+ * properties are:
+ * <ul>
+ *  <li><code>org.aoplib4j.uml.flightRecorder.records</code>: the number of
+ *  records of every thread (16 bytes each); 65536 by default.</li>
+ *  <li><code>org.aoplib4j.uml.flightRecorder.seconds</code>: only the calls
+ *  of the last seconds are dumped; 60 by default.</li>
+ *  <li><code>org.aoplib4j.uml.flightRecorder.dir</code>: the directory of
+ *  the mapped files; java.io.tmpdir by default.</li>
+ * </ul>
+ *
+ * Next to every mapped file a <code>.names</code> text file maps the 
+ * method ids of the records to the class and method names, so the files
+ * left by a crashed process can still be decoded.
+ *
+ * The recorder is also available as an MBean
+ * ({@link SequenceFlightRecorderMBean}).
+ *
+ * @author Adrian Citu
+ *
+ */
+public final class SequenceFlightRecorder
+    implements SequenceFlightRecorderMBean {
+
+    /**
+     * The only instance.
+     */
+    private static final SequenceFlightRecorder INSTANCE =
+        new SequenceFlightRecorder();
+
+    /**
+     * Use {@link #getInstance()}.
+     */
+    private SequenceFlightRecorder() {
+    }
+
+    /**
+     * @return the flight recorder.
+     */
+    public static SequenceFlightRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRunning() {
+        return FlightRecorder.isRunning();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start() {
+        FlightRecorder.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void freeze() {
+        FlightRecorder.freeze();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] dump(final String format, final String directory)
+        throws IOException, ClassNotFoundException, InstantiationException,
+            IllegalAccessException {
+
+        //fail before the freezing if the format is not known.
+        Class<? extends SequenceDiagramWriter> writerClass =
+            BinaryTraceConverter.writerClass(format);
+
+        List<String> returnValue = new ArrayList<String>();
+        int index = 0;
+
+        for (SequenceMethod thread : FlightRecorder.snapshot()) {
+            String path = new File(SequenceFlightRecorder.directory(directory),
+                    "flight-" + index + "-"
+                    + SequenceFlightRecorder.fileName(thread.getThreadName())
+                    + ".txt").getPath();
+
+            SequenceDiagramWriter writer = writerClass.newInstance();
+            writer.setTimingWritten(true);
+            writer.setDiagramPath(path);
+            try {
+                writer.write(thread);
+            } finally {
+                writer.closeWriter();
+            }
+
+            returnValue.add(path);
+            index++;
+        }
+        return returnValue.toArray(new String[returnValue.size()]);
+    }
+
+    /**
+     * @param directory the directory given by the user.
+     * @return the directory or java.io.tmpdir.
+     */
+    private static String directory(final String directory) {
+        if (directory == null || directory.length() == 0) {
+            return System.getProperty("java.io.tmpdir");
+        }
+        return directory;
+    }
+
+    /**
+     * @param threadName the name of a thread.
+     * @return the name with all the characters not allowed in a file name
+     * replaced by '_'.
+     */
+    private static String fileName(final String threadName) {
+        return threadName.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.io.IOException;
+
+/**
+ * Management interface of the {@link SequenceFlightRecorder}; registered
+ * in the platform MBean server under the name
+ * <code>org.aoplib4j.uml:type=SequenceFlightRecorder</code> when the
+ * recorder is started for the first time.
+ * 
+ * @author Adrian Citu
+ *
+ */
+public interface SequenceFlightRecorderMBean {
+
+    /**
+     * @return true if the calls are recorded.
+     */
+    boolean isRunning();
+    
+    /**
+     * Starts (or restarts after {@link #freeze()}) the recording.
+     */
+    void start();
+    
+    /**
+     * Stops the recording; the calls recorded so far are kept.
+     */
+    void freeze();
+    
+    /**
+     * Writes the calls recorded during the last seconds, one diagram for
+     * every thread.
+     * 
+     * @param format sequence, codetodiagram, png or the name of a 
+     * {@link SequenceDiagramWriter} class.
+     * @param directory the directory of the diagrams; java.io.tmpdir if
+     * null or empty.
+     * @return the paths of the written diagrams.
+     * @throws IOException if a diagram cannot be written.
+     * @throws ClassNotFoundException if the writer class cannot be found.
+     * @throws InstantiationException if the writer cannot be created.
+     * @throws IllegalAccessException if the writer cannot be created.
+     */
+    String[] dump(String format, String directory) throws IOException, 
+        ClassNotFoundException, InstantiationException, 
+        IllegalAccessException;
+}
@@ -25,6 +25,11 @@ import java.util.List;
  * return type of the method, parameters types, parameter names, methods that
  * this method calls and the method that called this method.
  * 
+ * If the loops are aggregated 
+ * ({@link Aoplib4jSequenceDiagram#aggregateLoops()}) a sequence method can 
+ * represent several consecutive identical calls; see 
+ * {@link #getRepeatCount()}.
+ * 
  * @author Adrian Citu
  *
  */
@@ -88,4 +93,67 @@ public interface SequenceMethod {
      */
     String getSimpleClassName();
 
+    /**
+     * @return the number of consecutive identical calls represented by this
+     * method; always 1 if the loops are not aggregated
+     * ({@link Aoplib4jSequenceDiagram#aggregateLoops()}).
+     */
+    int getRepeatCount();
+
+    /**
+     * @return the execution time (in nanoseconds) of all the calls 
+     * represented by this method or -1 if the time was not measured (see
+     * {@link Aoplib4jSequenceDiagram#timing()}).
+     */
+    long getTotalTime();
+
+    /**
+     * @return the shortest execution time (in nanoseconds) of the calls 
+     * represented by this method or -1 if the time was not measured.
+     */
+    long getMinTime();
+
+    /**
+     * @return the longest execution time (in nanoseconds) of the calls 
+     * represented by this method or -1 if the time was not measured.
+     */
+    long getMaxTime();
+
+    /**
+     * @return the execution time (in nanoseconds) of all the calls 
+     * represented by this method without the execution time of the 
+     * recorded children or -1 if the time was not measured.
+     */
+    long getSelfTime();
+
+    /**
+     * @return the name of the thread that executed the method if the method
+     * was called by a task submitted to another thread (see 
+     * {@link SequenceDiagramTasks}) and is the first method called by the 
+     * task; null otherwise (the method is executed by the same thread as 
+     * the caller).
+     */
+    String getThreadName();
+
+    /**
+     * @return the summaries of the arguments, captured when the method was
+     * entered; empty if the method have no arguments or if the values were
+     * not captured (see {@link Aoplib4jSequenceDiagram#captureValues()}).
+     */
+    String[] getArgumentValues();
+
+    /**
+     * @return the summary of the returned value or null if the value was 
+     * not captured (the values are not captured, the method is a 
+     * constructor or returns void or the method threw an exception).
+     */
+    String getReturnValue();
+    
+    /**
+     * @return an object identifying the signature of the method, shared by
+     * all the calls of the same method (the object do not override 
+     * <code>equals</code>); used as key for the data computed only once 
+     * per signature (ex: the labels of the writers).
+     */
+    Object getSignature();
 }
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.util.Iterator;
+
+/**
+ * Depth-first walk of a tree of {@link SequenceMethod} using an explicit
+ * stack, so the depth of the tree is not limited by the size of the thread
+ * stack; used by the writers instead of recursive methods. Every method is
+ * visited two times, when entered (before the children) and when exited
+ * (after the children):
+ *
+ * <pre>
+ * SequenceMethodCursor cursor = new SequenceMethodCursor(rootMethod);
+ * while (cursor.next()) {
+ *     if (cursor.isEntering()) {
+ *         //before the children of cursor.getMethod()
+ *     } else {
+ *         //after the children of cursor.getMethod()
+ *     }
+ * }
+ * </pre>
+ *
+ * The stack is kept in two parallel arrays (the methods from the root to
+ * the current method and the iterators on their children) growing
+ * geometrically, so walking a deep tree creates only one iterator per
+ * method with children.
+ *
+ * A cursor is used by a single thread.
+ *
+ * @author Adrian Citu
+ *
+ */
+public final class SequenceMethodCursor {
+
+    /**
+     * The initial capacity of the stack.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * The methods from the root to the current method; only the first
+     * {@link #size} elements are used.
+     */
+    private SequenceMethod[] methods = new SequenceMethod[INITIAL_CAPACITY];
+
+    /**
+     * The iterators on the children of the {@link #methods}; null until
+     * the first child of the method is needed.
+     */
+    private Iterator<?>[] children = new Iterator<?>[INITIAL_CAPACITY];
+
+    /**
+     * The number of methods in the stack.
+     */
+    private int size = 0;
+
+    /**
+     * The root method; null once visited.
+     */
+    private SequenceMethod root = null;
+
+    /**
+     * The method of the current position.
+     */
+    private SequenceMethod current = null;
+
+    /**
+     * true if the current position is before the children of the current
+     * method.
+     */
+    private boolean entering = false;
+
+    /**
+     * @param rootMethod the first method of the walked tree.
+     */
+    public SequenceMethodCursor(final SequenceMethod rootMethod) {
+        this.root = rootMethod;
+    }
+
+    /**
+     * Moves to the next position: the entering of the first child of the
+     * current method or, if the method have no more children, the exiting
+     * of the method.
+     *
+     * @return false if the whole tree was walked.
+     */
+    public boolean next() {
+        if (this.root != null) {
+            this.push(this.root);
+            this.root = null;
+            return true;
+        }
+
+        if (this.size == 0) {
+            this.current = null;
+            return false;
+        }
+
+        int top = this.size - 1;
+        if (this.children[top] == null) {
+            this.children[top] = this.methods[top].getChildren().iterator();
+        }
+
+        if (this.children[top].hasNext()) {
+            this.push((SequenceMethod) this.children[top].next());
+        } else {
+            this.current = this.methods[top];
+            this.entering = false;
+            this.methods[top] = null;
+            this.children[top] = null;
+            this.size--;
+        }
+        return true;
+    }
+
+    /**
+     * Skips the current method and the next siblings; called on the entering
+     * position, the next position will be after the last skipped method
+     * (the skipped methods are not exited) and, until then, there is no
+     * current method.
+     *
+     * @param count the number of methods to skip, the current method
+     * included.
+     */
+    public void skip(final int count) {
+        if (!this.entering) {
+            throw new IllegalStateException(
+                    "The methods can be skipped only when entered.");
+        }
+
+        this.size--;
+        this.methods[this.size] = null;
+        this.children[this.size] = null;
+        this.current = null;
+        this.entering = false;
+
+        if (this.size != 0) {
+            Iterator<?> siblings = this.children[this.size - 1];
+            for (int i = 1; i < count && siblings.hasNext(); i++) {
+                siblings.next();
+            }
+        }
+    }
+
+    /**
+     * @return the method of the current position.
+     */
+    public SequenceMethod getMethod() {
+        return this.current;
+    }
+
+    /**
+     * @return true if the current position is before the children of the
+     * method, false if it is after them.
+     */
+    public boolean isEntering() {
+        return this.entering;
+    }
+
+    /**
+     * @return the depth of the current method; 0 for the root method.
+     */
+    public int getDepth() {
+        if (this.entering) {
+            return this.size - 1;
+        }
+        return this.size;
+    }
+
+    /**
+     * Enters a method.
+     *
+     * @param meth the entered method.
+     */
+    private void push(final SequenceMethod meth) {
+        if (this.size == this.methods.length) {
+            SequenceMethod[] newMethods = new SequenceMethod[this.size * 2];
+            System.arraycopy(this.methods, 0, newMethods, 0, this.size);
+            this.methods = newMethods;
+
+            Iterator<?>[] newChildren = new Iterator<?>[this.size * 2];
+            System.arraycopy(this.children, 0, newChildren, 0, this.size);
+            this.children = newChildren;
+        }
+
+        this.methods[this.size] = meth;
+        this.size++;
+        this.current = meth;
+        this.entering = true;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+/**
+ * Structural hash of a diagram, computed while the calls are recorded 
+ * (see {@link Aoplib4jSequenceDiagram#deduplicate()}): every entered 
+ * method mixes the hash of his signature and every exited method mixes an
+ * end marker, so two diagrams have the same hash when they have the same 
+ * calls in the same order. The signature hashes are computed (once per 
+ * signature, see {@link MethodLabels}) from the class and method names 
+ * so the hash of a diagram is the same in every virtual machine and can be
+ * kept in the index files.
+ *
+ * The hash is a 64 bits FNV-1a variant mixing a long value at every step.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class StructuralHash {
+
+    /**
+     * The hash of an empty diagram.
+     */
+    static final long INITIAL = 0xcbf29ce484222325L;
+
+    /**
+     * The FNV prime.
+     */
+    private static final long PRIME = 0x100000001b3L;
+
+    /**
+     * The value mixed for an exited method.
+     */
+    private static final long EXIT_MARKER = 0x2f;
+
+    /**
+     * The shift folding the high bits of the product into the low bits.
+     */
+    private static final int FOLD_SHIFT = 32;
+
+    /**
+     * Utility class.
+     */
+    private StructuralHash() {
+    }
+
+    /**
+     * @param hash the current hash.
+     * @param value the value to mix.
+     * @return the new hash.
+     */
+    static long mix(final long hash, final long value) {
+        long returnValue = (hash ^ value) * PRIME;
+        return returnValue ^ (returnValue >>> FOLD_SHIFT);
+    }
+
+    /**
+     * @param hash the current hash.
+     * @param text the text to mix.
+     * @return the new hash.
+     */
+    static long hashText(final long hash, final String text) {
+        long returnValue = hash;
+        for (int i = 0; i < text.length(); i++) {
+            returnValue = (returnValue ^ text.charAt(i)) * PRIME;
+        }
+        return returnValue;
+    }
+
+    /**
+     * @param hash the current hash.
+     * @param meth the entered method.
+     * @return the new hash.
+     */
+    static long entered(final long hash, final SequenceMethod meth) {
+        return StructuralHash.mix(hash, 
+                MethodLabels.forMethod(meth).getSignatureHash());
+    }
+
+    /**
+     * @param hash the current hash.
+     * @return the new hash.
+     */
+    static long exited(final long hash) {
+        return StructuralHash.mix(hash, EXIT_MARKER);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link SequenceMethod} read from a binary trace (see 
+ * {@link BinaryTraceWriter}) by the {@link BinaryTraceReader}.
+ * 
+ * A method without parent and without call informations is used as
+ * prototype for all the calls having the same signature.
+ * 
+ * @author Adrian Citu
+ *
+ */
+final class TraceMethod implements SequenceMethod {
+
+    /**
+     * The class name.
+     */
+    private final String className;
+    
+    /**
+     * The method name.
+     */
+    private final String methodName;
+    
+    /**
+     * The return type; null for constructors.
+     */
+    private final Class<?> returnType;
+    
+    /**
+     * The parameters types.
+     */
+    private final Class<?>[] parameterTypes;
+    
+    /**
+     * The parameters names.
+     */
+    private final String[] parameterNames;
+    
+    /**
+     * The method is static.
+     */
+    private final boolean staticMethod;
+    
+    /**
+     * The method is a constructor.
+     */
+    private final boolean constructor;
+    
+    /**
+     * The prototype having the signature of the method; the method itself
+     * for the prototypes.
+     */
+    private final TraceMethod signature;
+    
+    /**
+     * The caller; null for the root method and the prototypes.
+     */
+    private final TraceMethod parent;
+    
+    /**
+     * The number of consecutive identical calls represented by the method.
+     */
+    private final int repeatCount;
+    
+    /**
+     * The name of the thread executing the method if the method is called
+     * by a task submitted to another thread, null otherwise.
+     */
+    private final String threadName;
+    
+    /**
+     * The called methods; null if no children.
+     */
+    private List<SequenceMethod> children = null;
+    
+    /**
+     * The number of children, including the detached ones.
+     */
+    private int childCount = 0;
+    
+    /**
+     * The times (nanoseconds); -1 if not measured.
+     */
+    private long totalTime = -1;
+    
+    /**
+     * The self time (nanoseconds); -1 if not measured.
+     */
+    private long selfTime = -1;
+    
+    /**
+     * The shortest call time (nanoseconds); -1 if not measured.
+     */
+    private long minTime = -1;
+    
+    /**
+     * The longest call time (nanoseconds); -1 if not measured.
+     */
+    private long maxTime = -1;
+    
+    /**
+     * Creates a prototype.
+     * 
+     * @param clsName the class name.
+     * @param metName the method name.
+     * @param retType the return type; null for constructors.
+     * @param paramTypes the parameters types.
+     * @param paramNames the parameters names.
+     * @param flags the {@link BinaryTraceWriter#FLAG_STATIC} and 
+     * {@link BinaryTraceWriter#FLAG_CONSTRUCTOR} flags.
+     */
+    TraceMethod(final String clsName, final String metName, 
+            final Class<?> retType, final Class<?>[] paramTypes, 
+            final String[] paramNames, final int flags) {
+        
+        this.className = clsName;
+        this.methodName = metName;
+        this.returnType = retType;
+        this.parameterTypes = paramTypes;
+        this.parameterNames = paramNames;
+        this.staticMethod = (flags & BinaryTraceWriter.FLAG_STATIC) != 0;
+        this.constructor = (flags & BinaryTraceWriter.FLAG_CONSTRUCTOR) != 0;
+        this.signature = this;
+        this.parent = null;
+        this.repeatCount = 1;
+        this.threadName = null;
+    }
+    
+    /**
+     * Creates a call of the prototype method; the call is added to the 
+     * children of the caller.
+     * 
+     * @param prototype the prototype having the signature of the method.
+     * @param caller the caller; null for the root method.
+     * @param repeat the number of consecutive identical calls.
+     * @param thread the name of the thread executing the method if the 
+     * method is called by a task submitted to another thread.
+     */
+    TraceMethod(final TraceMethod prototype, final TraceMethod caller, 
+            final int repeat, final String thread) {
+        
+        this.className = prototype.className;
+        this.methodName = prototype.methodName;
+        this.returnType = prototype.returnType;
+        this.parameterTypes = prototype.parameterTypes;
+        this.parameterNames = prototype.parameterNames;
+        this.staticMethod = prototype.staticMethod;
+        this.constructor = prototype.constructor;
+        this.signature = prototype;
+        this.parent = caller;
+        this.repeatCount = repeat;
+        this.threadName = thread;
+        
+        if (caller != null) {
+            if (caller.children == null) {
+                caller.children = new ArrayList<SequenceMethod>(1);
+            }
+            caller.children.add(this);
+            caller.childCount++;
+        }
+    }
+    
+    /**
+     * @param total the total time.
+     * @param self the self time.
+     * @param min the shortest call time.
+     * @param max the longest call time.
+     */
+    void setTimes(final long total, final long self, final long min, 
+            final long max) {
+        this.totalTime = total;
+        this.selfTime = self;
+        this.minTime = min;
+        this.maxTime = max;
+    }
+    
+    /**
+     * Detach the method from the children of the caller (the method was 
+     * already written); the caller will still know that it have children.
+     */
+    void detachFromParent() {
+        if (this.parent != null) {
+            this.parent.children.remove(this);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public String getClassName() {
+        return this.className;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSimpleClassName() {
+        return this.className.substring(this.className.lastIndexOf('.') + 1);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public String getMethodName() {
+        return this.methodName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Class<?> getReturnType() {
+        return this.returnType;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Class<?>[] getParameterTypes() {
+        return this.parameterTypes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getParameterNames() {
+        return this.parameterNames;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<SequenceMethod> getChildren() {
+        if (this.children == null) {
+            return Collections.emptyList();
+        }
+        return this.children;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SequenceMethod getParent() {
+        return this.parent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean haveChildren() {
+        return this.childCount != 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStatic() {
+        return this.staticMethod;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isConstructor() {
+        return this.constructor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getRepeatCount() {
+        return this.repeatCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTotalTime() {
+        return this.totalTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSelfTime() {
+        return this.selfTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMinTime() {
+        return this.minTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxTime() {
+        return this.maxTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getThreadName() {
+        return this.threadName;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The values are not kept in the binary traces; always empty.
+     */
+    public String[] getArgumentValues() {
+        return new String[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The values are not kept in the binary traces; always null.
+     */
+    public String getReturnValue() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getSignature() {
+        return this.signature;
+    }
+}
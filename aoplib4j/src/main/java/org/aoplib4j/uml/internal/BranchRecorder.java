@@ -0,0 +1,246 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aoplib4j.uml.SequenceDiagram;
+import org.aoplib4j.uml.SequenceMethod;
+import org.aspectj.lang.JoinPoint;
+
+/**
+ * Recorder of the calls made by a task executed on another thread than the
+ * thread recording the diagram (see {@link TaskPropagation}). The calls are
+ * recorded in a separate branch, used only by the thread executing the task,
+ * and the branch is attached to the method that submitted the task when the
+ * task ends; the first methods of the branch are marked with the name of the
+ * executing thread ({@link SequenceMethod#getThreadName()}).
+ *
+ * @author Adrian Citu
+ *
+ */
+final class BranchRecorder implements DiagramRecorder {
+
+    /**
+     * The diagram of the submitting method.
+     */
+    private final SequenceDiagram diagram;
+
+    /**
+     * The method that submitted the task.
+     */
+    private final SequenceMethodImpl caller;
+
+    /**
+     * The depth of the diagram when the task was submitted.
+     */
+    private final int callerDepth;
+
+    /**
+     * The name of the thread executing the task; null if the recorder is
+     * not started.
+     */
+    private final String threadName;
+
+    /**
+     * The actual depth of the branch.
+     */
+    private int depth = 0;
+
+    /**
+     * The number of nested calls under execution which were not recorded
+     * because the diagram is truncated.
+     */
+    private int omittedDepth = 0;
+
+    /**
+     * The active method of the branch; null if the task do not execute any
+     * recorded method at this moment.
+     */
+    private SequenceMethodImpl activeMethod = null;
+
+    /**
+     * The first methods of the branch (called directly by the task).
+     */
+    private final List<SequenceMethod> roots = new ArrayList<SequenceMethod>();
+
+    /**
+     * The structural hash of the branch; used only if the diagram is
+     * deduplicated ({@link SequenceDiagram#isDeduplicating()}).
+     */
+    private long structuralHash = 0;
+
+    /**
+     * @param diagr the diagram of the submitting method.
+     * @param callerMethod the method that submitted the task.
+     * @param callerDiagramDepth the depth of the diagram when the task was
+     * submitted.
+     * @param thread the name of the thread executing the task; null if the
+     * recorder is not started.
+     */
+    BranchRecorder(final SequenceDiagram diagr,
+            final SequenceMethodImpl callerMethod,
+            final int callerDiagramDepth, final String thread) {
+
+        this.diagram = diagr;
+        this.caller = callerMethod;
+        this.callerDepth = callerDiagramDepth;
+        this.depth = callerDiagramDepth;
+        this.threadName = thread;
+
+        if (diagr.isDeduplicating()) {
+            this.structuralHash = diagr.branchMethodEntered(0, callerMethod);
+        }
+    }
+
+    /**
+     * A task can be executed more than one time so every execution have his
+     * own recorder.
+     *
+     * @param thread the name of the thread executing the task.
+     * @return a new recorder, used for one execution of the task.
+     */
+    BranchRecorder start(final String thread) {
+        return new BranchRecorder(
+                this.diagram, this.caller, this.callerDepth, thread);
+    }
+
+    /**
+     * Attach the recorded calls to the method that submitted the task and
+     * the structural hash of the calls to the diagram.
+     */
+    void finish() {
+        if (!this.roots.isEmpty()) {
+            this.caller.addBranch(this.roots);
+
+            if (this.diagram.isDeduplicating()) {
+                this.diagram.branchFinished(this.structuralHash);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRecording(final JoinPoint.StaticPart jpsp) {
+        // getMaxDiagramDepth() - 1 because the next executed method will
+        //increase the actual depth with 1.
+        return this.depth <= this.diagram.getMaxDiagramDepth() - 1
+            && this.diagram.isTraced(
+                    jpsp.getSignature().getDeclaringTypeName());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the diagram is truncated the call is only counted.
+     */
+    public void methodEntered(final JoinPoint jp) {
+        if (!this.diagram.reserveNode()) {
+            this.diagram.callOmitted();
+            this.omittedDepth++;
+            return;
+        }
+
+        SignatureDescriptor desc =
+            SignatureDescriptor.forStaticPart(jp.getStaticPart());
+        SequenceMethodImpl seqMet = null;
+
+        if (this.activeMethod == null) {
+            seqMet = new SequenceMethodImpl(desc, this.caller, this.threadName);
+            this.roots.add(seqMet);
+        } else {
+            seqMet = new SequenceMethodImpl(desc, this.activeMethod);
+        }
+
+        if (this.diagram.isCapturingValues()) {
+            seqMet.captureArguments(jp.getArgs(),
+                    this.diagram.getMaxValueLength());
+        }
+
+        if (this.diagram.isMeasuringTime()) {
+            seqMet.entered(System.nanoTime());
+        }
+
+        if (this.diagram.isDeduplicating()) {
+            this.structuralHash =
+                this.diagram.branchMethodEntered(this.structuralHash, seqMet);
+        }
+
+        this.activeMethod = seqMet;
+        this.depth++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void methodReturned(final Object value) {
+        if (this.omittedDepth == 0 && this.diagram.isCapturingValues()) {
+            this.activeMethod.captureReturnValue(value,
+                    this.diagram.getMaxValueLength());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void methodExited() {
+        if (this.omittedDepth != 0) {
+            this.omittedDepth--;
+            return;
+        }
+
+        SequenceMethodImpl exitedMethod = this.activeMethod;
+
+        if (this.diagram.isMeasuringTime()) {
+            exitedMethod.exited(System.nanoTime());
+        }
+
+        if (this.diagram.isDeduplicating()) {
+            this.structuralHash =
+                this.diagram.branchMethodExited(this.structuralHash);
+        }
+
+        if (exitedMethod.getThreadName() == null) {
+            if (this.diagram.isAggregatingLoops()
+                    && exitedMethod.mergeIntoPreviousSibling()
+                    && this.diagram.hasNodeBudget()) {
+                this.diagram.releaseNodes(exitedMethod.countNodes());
+            }
+            this.activeMethod = (SequenceMethodImpl) exitedMethod.getParent();
+        } else {
+            //first method of the branch; the parent is the caller
+            this.activeMethod = null;
+        }
+
+        this.depth--;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BranchRecorder openBranch() {
+        if (this.threadName == null) {
+            return null;
+        }
+
+        SequenceMethodImpl branchCaller = this.activeMethod;
+        if (branchCaller == null) {
+            branchCaller = this.caller;
+        }
+        return new BranchRecorder(this.diagram, branchCaller, this.depth, null);
+    }
+}
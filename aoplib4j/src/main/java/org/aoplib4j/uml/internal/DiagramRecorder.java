@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import org.aspectj.lang.JoinPoint;
+
+/**
+ * Object recording the methods executed by a thread into a sequence diagram.
+ * The recorders of a thread are kept by the {@link RecordingContext} of the
+ * thread.
+ *
+ * @see SequenceDiagramAspect
+ * @see BranchRecorder
+ *
+ * @author Adrian Citu
+ *
+ */
+interface DiagramRecorder {
+
+    /**
+     * @param jpsp the static join point of the method about to be executed.
+     * @return true if the method should be recorded (the recording is
+     * started, the maximum depth is not reached and the class of the method
+     * is traced).
+     */
+    boolean isRecording(JoinPoint.StaticPart jpsp);
+
+    /**
+     * Records the start of a method execution; the method becomes the active
+     * method of the recorder.
+     *
+     * @param jp the join point of the method; the arguments are read only
+     * if the values are captured.
+     */
+    void methodEntered(JoinPoint jp);
+
+    /**
+     * Records the value returned by the active method; called before
+     * {@link #methodExited()} only if the method returned normally.
+     *
+     * @param value the returned value.
+     */
+    void methodReturned(Object value);
+
+    /**
+     * Records the end of the execution of the active method; the caller
+     * becomes the active method.
+     */
+    void methodExited();
+
+    /**
+     * Called on the thread that submits a task to another thread; the calls
+     * of the task will be recorded as children of the active method.
+     *
+     * @return the (not started) recorder of the task or null if the calls
+     * of the task cannot be recorded.
+     */
+    BranchRecorder openBranch();
+}
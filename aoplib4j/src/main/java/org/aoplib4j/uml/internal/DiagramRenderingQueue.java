@@ -0,0 +1,282 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.aoplib4j.uml.RenderingOverflowPolicy;
+import org.aoplib4j.uml.SequenceDiagram;
+
+/**
+ * Bounded queue of diagrams waiting to be written by a dedicated pool of
+ * background threads; used for the asynchronous diagrams
+ * ({@link org.aoplib4j.uml.Aoplib4jSequenceDiagram#asynchronous()}).
+ *
+ * The number of threads and the queue capacity are taken from the
+ * {@value #THREADS_PROPERTY} and {@value #CAPACITY_PROPERTY} system
+ * properties. A diagram takes a place from the moment it is accepted until
+ * it is written (waiting in the queue or written by a thread), so the 
+ * places are the capacity plus the number of threads; the 
+ * {@link RenderingOverflowPolicy} is applied when there is no free place.
+ * A shutdown hook drains the queue when the JVM stops; the diagrams 
+ * arriving after (including the ones waiting for a place) are written by
+ * the calling thread.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class DiagramRenderingQueue {
+
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(DiagramRenderingQueue.class.getName());
+
+    /**
+     * System property containing the number of rendering threads.
+     */
+    static final String THREADS_PROPERTY = "org.aoplib4j.uml.renderingThreads";
+
+    /**
+     * System property containing the capacity of the rendering queue.
+     */
+    static final String CAPACITY_PROPERTY =
+        "org.aoplib4j.uml.renderingQueueCapacity";
+
+    /**
+     * Default number of rendering threads.
+     */
+    private static final int DEFAULT_THREADS = 1;
+
+    /**
+     * Default capacity of the rendering queue.
+     */
+    private static final int DEFAULT_CAPACITY = 100;
+
+    /**
+     * Time (in seconds) the shutdown hook waits for the queue to be drained.
+     */
+    private static final int DRAIN_TIMEOUT = 60;
+
+    /**
+     * The unique instance; created the first time an asynchronous diagram
+     * is written.
+     */
+    private static DiagramRenderingQueue instance = null;
+
+    /**
+     * The pool of rendering threads.
+     */
+    private ThreadPoolExecutor executor = null;
+
+    /**
+     * The free places; a place is released when the diagram is written.
+     */
+    private Semaphore places = null;
+
+    /**
+     * Creates the pool of threads, configured by the system properties, and
+     * register the shutdown hook.
+     */
+    private DiagramRenderingQueue() {
+        this(Math.max(1,
+                Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS)),
+            Math.max(1,
+                Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY)));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                DiagramRenderingQueue.this.drain();
+            }
+        }, "aoplib4j-diagram-rendering-shutdown"));
+    }
+
+    /**
+     * Creates the pool of threads; the queue is not drained when the JVM 
+     * stops. Package protected only for testing purposes.
+     *
+     * @param threads the number of rendering threads.
+     * @param capacity the number of diagrams waiting for a thread.
+     */
+    DiagramRenderingQueue(final int threads, final int capacity) {
+        this.places = new Semaphore(threads + capacity);
+
+        //the queue can contain all the places so the executor never 
+        //rejects a diagram while running.
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads + capacity),
+                new RenderingThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return the unique instance of the rendering queue.
+     */
+    static synchronized DiagramRenderingQueue getInstance() {
+        if (instance == null) {
+            instance = new DiagramRenderingQueue();
+        }
+        return instance;
+    }
+
+    /**
+     * Adds a diagram to the queue. If there is no free place then the
+     * {@link SequenceDiagram#getOverflowPolicy()} is applied. If the queue
+     * was drained (the JVM is stopping) the diagram is written by the 
+     * calling thread.
+     *
+     * @param diagram the diagram to write.
+     * @throws InterruptedException if the thread is interrupted while
+     * waiting for a free place ({@link RenderingOverflowPolicy#BLOCK}).
+     */
+    void render(final SequenceDiagram diagram)
+        throws InterruptedException {
+
+        RenderingOverflowPolicy policy = diagram.getOverflowPolicy();
+
+        if (RenderingOverflowPolicy.BLOCK.equals(policy)
+                && !this.executor.isShutdown()) {
+            this.places.acquire();
+        } else if (!this.places.tryAcquire()) {
+            if (this.executor.isShutdown()
+                    || RenderingOverflowPolicy.SPILL.equals(policy)) {
+                new RenderingTask(diagram, null).run();
+            } else {
+                LOGGER.warning("The rendering queue is full; the diagram "
+                        + diagram.getDiagramFullPath() + " is dropped.");
+                diagram.closeWriter();
+            }
+            return;
+        }
+
+        try {
+            this.executor.execute(new RenderingTask(diagram, this.places));
+        } catch (RejectedExecutionException e) {
+            //drained while the diagram was waiting for a place.
+            this.places.release();
+            new RenderingTask(diagram, null).run();
+        }
+    }
+
+    /**
+     * Stops accepting new diagrams and waits until the diagrams from the
+     * queue are written.
+     */
+    void drain() {
+        this.executor.shutdown();
+
+        try {
+            if (!this.executor.awaitTermination(
+                    DRAIN_TIMEOUT, TimeUnit.SECONDS)) {
+                LOGGER.warning("Not all the asynchronous diagrams were "
+                        + "written; " + this.executor.getQueue().size()
+                        + " diagrams remaining in the queue.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Task writing a diagram and closing the writer.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class RenderingTask implements Runnable {
+
+        /**
+         * the diagram to write.
+         */
+        private SequenceDiagram diagram = null;
+
+        /**
+         * the places of the queue; null if the diagram is not in the queue.
+         */
+        private Semaphore places = null;
+
+        /**
+         * @param diagr the diagram to write.
+         * @param queuePlaces the places of the queue (one place is released 
+         * when the diagram is written); null if the diagram is not in the
+         * queue.
+         */
+        RenderingTask(final SequenceDiagram diagr,
+                final Semaphore queuePlaces) {
+            this.diagram = diagr;
+            this.places = queuePlaces;
+        }
+
+        /**
+         * Write the diagram; the errors (including the runtime exceptions
+         * which would otherwise be lost with the rendering thread) are only
+         * logged since there is no client code to throw them.
+         */
+        public void run() {
+            try {
+                this.diagram.write();
+            } catch (IOException e) {
+                LOGGER.warning("Error writing the diagram "
+                        + this.diagram.getDiagramFullPath() + ": "
+                        + e.getMessage());
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Error writing the diagram "
+                        + this.diagram.getDiagramFullPath(), e);
+            } finally {
+                this.diagram.closeWriter();
+                if (this.places != null) {
+                    this.places.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Factory creating daemon threads so the rendering threads will not
+     * prevent the JVM to stop (the shutdown hook drains the queue).
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class RenderingThreadFactory
+        implements ThreadFactory {
+
+        /**
+         * the number of created threads.
+         */
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         */
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(r, "aoplib4j-diagram-renderer-"
+                    + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.aoplib4j.uml.SequenceFlightRecorder;
+import org.aoplib4j.uml.SequenceFlightRecorderMBean;
+import org.aoplib4j.uml.SequenceMethod;
+import org.aspectj.lang.JoinPoint;
+
+/**
+ * Implementation of the {@link SequenceFlightRecorder}: while running, the
+ * start and the end of every method intercepted by the
+ * {@link SequenceMethodAspect} and by the {@link SequenceDiagramAspect}
+ * are written as fixed-size records in a ring buffer of the current thread
+ * ({@link FlightRing}); no {@link SequenceMethod} is created. The call
+ * trees are rebuilt from the records only when the rings are dumped
+ * ({@link #snapshot()}).
+ *
+ * The recorder is configured using system properties:
+ * <ul>
+ *  <li>{@link #ENABLED_PROPERTY}: start the recorder when the first
+ *  woven method is executed; false by default.</li>
+ *  <li>{@link #RECORDS_PROPERTY}: the number of records of every
+ *  thread; 65536 by default (1 MB).</li>
+ *  <li>{@link #SECONDS_PROPERTY}: only the records of the last seconds
+ *  are dumped; 60 by default.</li>
+ *  <li>{@link #DIRECTORY_PROPERTY}: the directory of the mapped files 
+ *  (and of the files naming the recorded methods, see 
+ *  {@link FlightRing}); java.io.tmpdir by default.</li>
+ * </ul>
+ *
+ * The ring of an ended thread is kept only while his records are in the
+ * dumped period; it is released (and his file deleted) by the next dump or
+ * when a new ring is created. The files of the remaining rings are deleted
+ * when the virtual machine exits.
+ *
+ * @author Adrian Citu
+ *
+ */
+public final class FlightRecorder {
+
+    /**
+     * System property starting the recorder.
+     */
+    public static final String ENABLED_PROPERTY =
+        "org.aoplib4j.uml.flightRecorder";
+
+    /**
+     * System property containing the number of records of every thread.
+     */
+    public static final String RECORDS_PROPERTY =
+        "org.aoplib4j.uml.flightRecorder.records";
+
+    /**
+     * System property containing the number of seconds covered by a dump.
+     */
+    public static final String SECONDS_PROPERTY =
+        "org.aoplib4j.uml.flightRecorder.seconds";
+
+    /**
+     * System property containing the directory of the mapped files.
+     */
+    public static final String DIRECTORY_PROPERTY =
+        "org.aoplib4j.uml.flightRecorder.dir";
+
+    /**
+     * The name under which the {@link SequenceFlightRecorderMBean} is
+     * registered.
+     */
+    public static final String OBJECT_NAME =
+        "org.aoplib4j.uml:type=SequenceFlightRecorder";
+
+    /**
+     * Default value of the {@link #RECORDS_PROPERTY}.
+     */
+    private static final int DEFAULT_RECORDS = 65536;
+
+    /**
+     * Default value of the {@link #SECONDS_PROPERTY}.
+     */
+    private static final int DEFAULT_SECONDS = 60;
+
+    /**
+     * Number of nanoseconds in a second.
+     */
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(FlightRecorder.class.getName());
+
+    /**
+     * The method representing the thread in the dumped call trees.
+     */
+    private static final SignatureDescriptor THREAD_METHOD =
+        new SignatureDescriptor(Thread.class.getName(), "run");
+
+    /**
+     * The rings of the running threads and of the ended threads having
+     * records in the dumped period.
+     */
+    private static final List<FlightRing> RINGS =
+        new CopyOnWriteArrayList<FlightRing>();
+
+    /**
+     * The ring of every thread; created the first time the thread executes
+     * a method while the recorder is running.
+     */
+    private static final ThreadLocal<FlightRing> RING =
+        new ThreadLocal<FlightRing>() {
+            @Override
+            protected FlightRing initialValue() {
+                return FlightRecorder.createRing();
+            }
+        };
+
+    /**
+     * Lock used to start and freeze the recorder.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * true while the records are written.
+     */
+    private static volatile boolean running = false;
+
+    /**
+     * true if the MBean was registered.
+     */
+    private static boolean registered = false;
+
+    /**
+     * Utility class.
+     */
+    private FlightRecorder() {
+    }
+
+    /**
+     * Creates and registers the ring of the current thread; not private so
+     * the ring is created without synthetic accessors (which may be woven).
+     *
+     * @return the new ring.
+     */
+    static FlightRing createRing() {
+        FlightRecorder.releaseEndedRings();
+
+        FlightRing ring = new FlightRing(Thread.currentThread(),
+                Integer.getInteger(RECORDS_PROPERTY, DEFAULT_RECORDS),
+                new File(System.getProperty(DIRECTORY_PROPERTY,
+                        System.getProperty("java.io.tmpdir"))));
+        RINGS.add(ring);
+        return ring;
+    }
+
+    /**
+     * Starts the recorder if the {@link #ENABLED_PROPERTY} is true.
+     */
+    static void startIfEnabled() {
+        if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+            FlightRecorder.start();
+        }
+    }
+
+    /**
+     * Starts (or restarts after {@link #freeze()}) the writing of the
+     * records; the first time the {@link SequenceFlightRecorderMBean} is
+     * registered in the platform MBean server.
+     */
+    public static void start() {
+        synchronized (LOCK) {
+            if (running) {
+                return;
+            }
+            running = true;
+            RecordingContext.globalRecorderStarted();
+
+            if (!registered) {
+                registered = true;
+                FlightRecorder.registerMBean();
+                FlightRecorder.registerShutdownHook();
+            }
+        }
+    }
+
+    /**
+     * Stops the writing of the records; the records written so far are
+     * kept until the recorder is started again.
+     */
+    public static void freeze() {
+        synchronized (LOCK) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            RecordingContext.globalRecorderStopped();
+        }
+    }
+
+    /**
+     * @return true if the records are written.
+     */
+    public static boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Registers the {@link SequenceFlightRecorder} in the platform MBean
+     * server; a failure is only logged.
+     */
+    private static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(SequenceFlightRecorder.getInstance(),
+                            SequenceFlightRecorderMBean.class),
+                    new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOGGER.warning("Cannot register the flight recorder MBean: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Registers the hook deleting the files of the rings when the virtual
+     * machine exits.
+     */
+    private static void registerShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                for (FlightRing ring : RINGS) {
+                    ring.release();
+                }
+            }
+        }, "aoplib4j-flight-recorder-shutdown"));
+    }
+
+    /**
+     * Releases the rings of the ended threads having no records in the 
+     * dumped period.
+     */
+    private static void releaseEndedRings() {
+        synchronized (LOCK) {
+            long windowStart = FlightRecorder.windowStart();
+            for (FlightRing ring : RINGS) {
+                if (!ring.isOwnerAlive() 
+                        && ring.getNewestTime() < windowStart) {
+                    RINGS.remove(ring);
+                    ring.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the time of the oldest dumped record 
+     * ({@link #SECONDS_PROPERTY}).
+     */
+    private static long windowStart() {
+        return System.nanoTime() - NANOS_PER_SECOND
+            * Integer.getInteger(SECONDS_PROPERTY, DEFAULT_SECONDS);
+    }
+
+    /**
+     * Records the start of a method execution.
+     *
+     * @param jpsp the static join point of the method.
+     */
+    static void methodEntered(final JoinPoint.StaticPart jpsp) {
+        if (running) {
+            RING.get().add(System.nanoTime(),
+                    SignatureDescriptor.forStaticPart(jpsp),
+                    FlightRing.ENTER);
+        }
+    }
+
+    /**
+     * Records the end of a method execution.
+     *
+     * @param jpsp the static join point of the method.
+     */
+    static void methodExited(final JoinPoint.StaticPart jpsp) {
+        if (running) {
+            RING.get().add(System.nanoTime(),
+                    SignatureDescriptor.forStaticPart(jpsp),
+                    FlightRing.EXIT);
+        }
+    }
+
+    /**
+     * Rebuilds the calls recorded during the last seconds
+     * ({@link #SECONDS_PROPERTY}); the recorder is frozen while the rings
+     * are read. Every thread is represented by a method named
+     * <code>Thread.run()</code> marked with the thread name
+     * ({@link SequenceMethod#getThreadName()}); the methods entered before
+     * the covered period (or whose enter record was overwritten) are added
+     * with the calls they made but without execution times.
+     *
+     * @return the call tree of every thread having records in the covered
+     * period.
+     */
+    public static List<SequenceMethod> snapshot() {
+        synchronized (LOCK) {
+            boolean wasRunning = running;
+            FlightRecorder.freeze();
+
+            try {
+                FlightRecorder.releaseEndedRings();
+                long windowStart = FlightRecorder.windowStart();
+
+                List<SequenceMethod> returnValue =
+                    new ArrayList<SequenceMethod>();
+                for (FlightRing ring : RINGS) {
+                    SequenceMethod thread =
+                        FlightRecorder.rebuild(ring, windowStart);
+                    if (thread != null) {
+                        returnValue.add(thread);
+                    }
+                }
+                return returnValue;
+            } finally {
+                if (wasRunning) {
+                    FlightRecorder.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the calls of a thread.
+     *
+     * @param ring the ring of the thread.
+     * @param windowStart the time of the oldest record to use.
+     * @return the method representing the thread or null if there are no
+     * records after <code>windowStart</code>.
+     */
+    private static SequenceMethod rebuild(final FlightRing ring,
+            final long windowStart) {
+
+        long end = ring.getWritten();
+        long start = ring.getOldest(end);
+        while (start < end && ring.getTime(start) < windowStart) {
+            start++;
+        }
+
+        if (start == end) {
+            return null;
+        }
+
+        SequenceMethodImpl threadMethod = new SequenceMethodImpl(
+                THREAD_METHOD, (SequenceMethodImpl) null,
+                ring.getThreadName());
+
+        List<SequenceMethodImpl> stack = new ArrayList<SequenceMethodImpl>();
+        stack.add(threadMethod);
+
+        //the methods entered before the window, the outermost first.
+        List<SignatureDescriptor> callers =
+            FlightRecorder.findCallers(ring, start, end);
+        for (int i = callers.size() - 1; i >= 0; i--) {
+            stack.add(new SequenceMethodImpl(callers.get(i),
+                    stack.get(stack.size() - 1)));
+        }
+        int callersLeft = callers.size();
+
+        for (long i = start; i < end; i++) {
+            SignatureDescriptor desc =
+                SignatureDescriptor.forId(ring.getDescriptorId(i));
+            if (desc == null) {
+                continue;
+            }
+
+            int top = stack.size() - 1;
+            if (ring.getKind(i) == FlightRing.ENTER) {
+                SequenceMethodImpl method =
+                    new SequenceMethodImpl(desc, stack.get(top));
+                method.entered(ring.getTime(i));
+                stack.add(method);
+            } else if (top != 0 && stack.get(top).getDescriptor() == desc) {
+                if (top > callersLeft) {
+                    stack.get(top).exited(ring.getTime(i));
+                } else {
+                    //no enter time for the callers.
+                    callersLeft--;
+                }
+                stack.remove(top);
+            }
+        }
+        return threadMethod;
+    }
+
+    /**
+     * Finds the methods exited in the window but entered before; the
+     * records of the window are replayed on a stack of descriptors and
+     * every exit found on an empty stack is a caller. An exit not matching
+     * the top of the stack (the enter was not written because the recorder
+     * was frozen) is ignored.
+     *
+     * @param ring the ring of the thread.
+     * @param start the index of the first record of the window.
+     * @param end the index of the last record of the window (excluded).
+     * @return the callers, the innermost first.
+     */
+    private static List<SignatureDescriptor> findCallers(
+            final FlightRing ring, final long start, final long end) {
+
+        List<SignatureDescriptor> returnValue =
+            new ArrayList<SignatureDescriptor>();
+        List<SignatureDescriptor> stack = new ArrayList<SignatureDescriptor>();
+
+        for (long i = start; i < end; i++) {
+            SignatureDescriptor desc =
+                SignatureDescriptor.forId(ring.getDescriptorId(i));
+            if (desc == null) {
+                continue;
+            }
+
+            if (ring.getKind(i) == FlightRing.ENTER) {
+                stack.add(desc);
+            } else if (stack.isEmpty()) {
+                returnValue.add(desc);
+            } else if (stack.get(stack.size() - 1) == desc) {
+                stack.remove(stack.size() - 1);
+            }
+        }
+        return returnValue;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.logging.Logger;
+
+/**
+ * Ring buffer of fixed-size records written by a single thread for the
+ * {@link FlightRecorder}. The buffer is a memory-mapped file (or, if the
+ * file cannot be mapped, a direct buffer) so the records are kept outside
+ * of the Java heap; when the ring is full the oldest records are
+ * overwritten.
+ *
+ * Layout of the file:
+ * <pre>
+ * header (32 bytes): magic "A4JF", version, record size, capacity,
+ *                    number of records written (long)
+ * records (16 bytes): time (System.nanoTime(), long), descriptor id (int),
+ *                     kind (int; {@link #ENTER} or {@link #EXIT})
+ * </pre>
+ *
+ * The descriptor ids are valid only inside the running process, so the 
+ * names of the descriptors are written next to the ring, in a text file 
+ * having the same name and the {@value #NAMES_EXTENSION} extension: one 
+ * line (<code>id TAB class name TAB method name</code>) written and 
+ * flushed before the first record of a descriptor, so the file of a 
+ * crashed process can still be decoded.
+ *
+ * The records are written only by the owner thread; the other threads
+ * read the records already published by {@link #getWritten()}. The ring 
+ * keeps only a weak reference to his thread and the file is deleted by
+ * {@link #release()} (the {@link FlightRecorder} releases the rings of the
+ * ended threads), so the rings of the ended threads are not kept forever.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class FlightRing {
+
+    /**
+     * Kind of the record written when a method is entered.
+     */
+    static final int ENTER = 1;
+
+    /**
+     * Kind of the record written when a method is exited.
+     */
+    static final int EXIT = 2;
+
+    /**
+     * The size in bytes of a record.
+     */
+    static final int RECORD_SIZE = 16;
+
+    /**
+     * The extension of the file containing the names of the descriptors.
+     */
+    static final String NAMES_EXTENSION = ".names";
+
+    /**
+     * The extension of the mapped file.
+     */
+    private static final String RING_EXTENSION = ".ring";
+
+    /**
+     * The size in bytes of the file header.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * First bytes of the file; "A4JF".
+     */
+    private static final int MAGIC = 0x41344A46;
+
+    /**
+     * The version of the file layout.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Offset of the version in the header.
+     */
+    private static final int VERSION_OFFSET = 4;
+
+    /**
+     * Offset of the record size in the header.
+     */
+    private static final int RECORD_SIZE_OFFSET = 8;
+
+    /**
+     * Offset of the capacity in the header.
+     */
+    private static final int CAPACITY_OFFSET = 12;
+
+    /**
+     * Offset of the number of written records in the header.
+     */
+    private static final int WRITTEN_OFFSET = 16;
+
+    /**
+     * Offset of the descriptor id in a record.
+     */
+    private static final int ID_OFFSET = 8;
+
+    /**
+     * Offset of the kind in a record.
+     */
+    private static final int KIND_OFFSET = 12;
+
+    /**
+     * the logger to use.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(FlightRing.class.getName());
+
+    /**
+     * The buffer containing the header and the records.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The maximum number of records.
+     */
+    private final int capacity;
+
+    /**
+     * The name of the thread writing the records.
+     */
+    private final String threadName;
+
+    /**
+     * The thread writing the records; weak so an ended thread can be 
+     * collected.
+     */
+    private final WeakReference<Thread> owner;
+
+    /**
+     * The mapped file; null if the records are kept in memory or the ring
+     * was released.
+     */
+    private File file = null;
+
+    /**
+     * The file containing the names of the descriptors; null if the 
+     * records are kept in memory or the ring was released.
+     */
+    private File namesFile = null;
+
+    /**
+     * Writes the names of the descriptors; null if the names are not 
+     * written.
+     */
+    private Writer names = null;
+
+    /**
+     * The ids of the descriptors whose names were written; used only by
+     * the owner thread.
+     */
+    private final BitSet namedIds = new BitSet();
+
+    /**
+     * The number of records written since the creation; a volatile write
+     * publishes every record to the reading threads.
+     */
+    private volatile long written = 0;
+
+    /**
+     * @param thread the thread writing the records.
+     * @param records the maximum number of records.
+     * @param directory the directory of the mapped file.
+     */
+    FlightRing(final Thread thread, final int records, final File directory) {
+        this.threadName = thread.getName();
+        this.owner = new WeakReference<Thread>(thread);
+        this.capacity = records;
+        this.buffer = this.allocate(directory,
+                HEADER_SIZE + records * RECORD_SIZE);
+
+        this.buffer.putInt(0, MAGIC);
+        this.buffer.putInt(VERSION_OFFSET, VERSION);
+        this.buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        this.buffer.putInt(CAPACITY_OFFSET, records);
+    }
+
+    /**
+     * Maps a new temporary file and creates the file of the names, both 
+     * deleted by {@link #release()}.
+     *
+     * @param directory the directory of the file.
+     * @param size the size of the buffer.
+     * @return the mapped buffer or a direct buffer if the file cannot be
+     * mapped.
+     */
+    private ByteBuffer allocate(final File directory, final int size) {
+        try {
+            this.file = File.createTempFile("aoplib4j-flight-", 
+                    RING_EXTENSION, directory);
+
+            String ringName = this.file.getName();
+            this.namesFile = new File(directory, ringName.substring(0, 
+                    ringName.length() - RING_EXTENSION.length()) 
+                    + NAMES_EXTENSION);
+            this.names = new OutputStreamWriter(
+                    new FileOutputStream(this.namesFile), "UTF-8");
+
+            RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+            try {
+                return raf.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                //the mapping stays valid after the channel is closed.
+                raf.close();
+            }
+        } catch (IOException e) {
+            this.release();
+            LOGGER.warning("Cannot map the flight recorder file; the records "
+                    + "are kept in memory: " + e.getMessage());
+            return ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    /**
+     * Writes a new record (and, the first time, the name of the 
+     * descriptor); should be called only by the owner thread.
+     *
+     * @param time the current time (System.nanoTime()).
+     * @param desc the descriptor of the method.
+     * @param kind {@link #ENTER} or {@link #EXIT}.
+     */
+    void add(final long time, final SignatureDescriptor desc, 
+            final int kind) {
+        int descId = desc.getId();
+        if (!this.namedIds.get(descId)) {
+            this.namedIds.set(descId);
+            this.writeName(desc);
+        }
+
+        long count = this.written;
+        int position = this.position(count);
+
+        this.buffer.putLong(position, time);
+        this.buffer.putInt(position + ID_OFFSET, descId);
+        this.buffer.putInt(position + KIND_OFFSET, kind);
+        this.buffer.putLong(WRITTEN_OFFSET, count + 1);
+
+        this.written = count + 1;
+    }
+
+    /**
+     * Writes (and flushes) the line of a descriptor in the file of the 
+     * names; if the line cannot be written the names are not written 
+     * anymore.
+     *
+     * @param desc the descriptor.
+     */
+    private synchronized void writeName(final SignatureDescriptor desc) {
+        if (this.names == null) {
+            return;
+        }
+
+        try {
+            this.names.write(desc.getId() + "\t" + desc.getClassName() 
+                    + "\t" + desc.getMethodName() + "\n");
+            this.names.flush();
+        } catch (IOException e) {
+            LOGGER.warning("Cannot write the flight recorder names file " 
+                    + this.namesFile + ": " + e.getMessage());
+            this.closeNames();
+        }
+    }
+
+    /**
+     * Closes the writer of the names; should be called holding the lock of
+     * the ring.
+     */
+    private void closeNames() {
+        if (this.names == null) {
+            return;
+        }
+
+        try {
+            this.names.close();
+        } catch (IOException e) {
+            LOGGER.warning("Cannot close the flight recorder names file " 
+                    + this.namesFile + ": " + e.getMessage());
+        }
+        this.names = null;
+    }
+
+    /**
+     * @param index the index of the record.
+     * @return the position of the record in the buffer.
+     */
+    private int position(final long index) {
+        return HEADER_SIZE + (int) (index % this.capacity) * RECORD_SIZE;
+    }
+
+    /**
+     * Deletes the mapped file and the file of the names; the buffer is 
+     * unmapped when the ring is collected. The ring should not be used 
+     * anymore.
+     */
+    synchronized void release() {
+        this.closeNames();
+        FlightRing.delete(this.file);
+        this.file = null;
+        FlightRing.delete(this.namesFile);
+        this.namesFile = null;
+    }
+
+    /**
+     * @param toDelete the file to delete; can be null.
+     */
+    private static void delete(final File toDelete) {
+        if (toDelete != null && toDelete.exists() && !toDelete.delete()) {
+            LOGGER.warning("Cannot delete the flight recorder file " 
+                    + toDelete);
+        }
+    }
+
+    /**
+     * @return true if the thread writing the records is still running.
+     */
+    boolean isOwnerAlive() {
+        Thread thread = this.owner.get();
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * @return the time of the newest record; Long.MIN_VALUE if there are no
+     * records.
+     */
+    long getNewestTime() {
+        long end = this.written;
+        if (end == 0) {
+            return Long.MIN_VALUE;
+        }
+        return this.getTime(end - 1);
+    }
+
+    /**
+     * @return the name of the thread writing the records.
+     */
+    String getThreadName() {
+        return this.threadName;
+    }
+
+    /**
+     * @return the number of records written since the creation; the index
+     * of the next record.
+     */
+    long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * @param end the number of written records.
+     * @return the index of the oldest record not overwritten yet.
+     */
+    long getOldest(final long end) {
+        return Math.max(0, end - this.capacity);
+    }
+
+    /**
+     * @param index the index of the record.
+     * @return the time of the record.
+     */
+    long getTime(final long index) {
+        return this.buffer.getLong(this.position(index));
+    }
+
+    /**
+     * @param index the index of the record.
+     * @return the descriptor id of the record.
+     */
+    int getDescriptorId(final long index) {
+        return this.buffer.getInt(this.position(index) + ID_OFFSET);
+    }
+
+    /**
+     * @param index the index of the record.
+     * @return the kind of the record.
+     */
+    int getKind(final long index) {
+        return this.buffer.getInt(this.position(index) + KIND_OFFSET);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aspectj.lang.JoinPoint;
+
+/**
+ * The diagrams recorded by a thread: a stack of {@link DiagramRecorder}
+ * instances, one for every annotated method under execution (more than one
+ * in the case of nested annotations) or for every task submitted by a 
+ * recording thread (see {@link TaskPropagation}). The innermost diagram is 
+ * on the top of the stack.
+ *
+ * Every thread have his own context, created the first time the thread
+ * needs it, so the context is never shared and is not synchronized. The
+ * number of recorders of all the threads is kept in a global counter, so
+ * the methods executed while no diagram is recorded (the usual case) are
+ * rejected by {@link #isAnyRecording()} without accessing the thread
+ * context.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class RecordingContext {
+
+    /**
+     * The initial capacity of the stack.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * The context of every thread.
+     */
+    private static final ThreadLocal<RecordingContext> CONTEXT =
+        new ThreadLocal<RecordingContext>() {
+            @Override
+            protected RecordingContext initialValue() {
+                return new RecordingContext();
+            }
+        };
+
+    /**
+     * The number of recorders in the stacks of all the threads.
+     */
+    private static final AtomicInteger ACTIVE_RECORDERS = new AtomicInteger();
+
+    /**
+     * The recorders; only the first {@link #size} elements are used.
+     */
+    private DiagramRecorder[] recorders =
+        new DiagramRecorder[INITIAL_CAPACITY];
+
+    /**
+     * The number of recorders in the stack.
+     */
+    private int size = 0;
+
+    /**
+     * Use {@link #current()}.
+     */
+    private RecordingContext() {
+    }
+
+    /**
+     * @return the context of the current thread.
+     */
+    static RecordingContext current() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * @return true if at least one thread records a diagram; a single 
+     * volatile read.
+     */
+    static boolean isAnyRecording() {
+        return ACTIVE_RECORDERS.get() != 0;
+    }
+
+    /**
+     * Counts a recorder of all the threads (ex: the {@link FlightRecorder})
+     * so {@link #isAnyRecording()} returns true while it records.
+     */
+    static void globalRecorderStarted() {
+        ACTIVE_RECORDERS.incrementAndGet();
+    }
+
+    /**
+     * Reverse of {@link #globalRecorderStarted()}.
+     */
+    static void globalRecorderStopped() {
+        ACTIVE_RECORDERS.decrementAndGet();
+    }
+
+    /**
+     * Adds a recorder on the top of the stack.
+     *
+     * @param recorder the recorder.
+     */
+    void push(final DiagramRecorder recorder) {
+        if (this.size == this.recorders.length) {
+            DiagramRecorder[] newRecorders =
+                new DiagramRecorder[this.recorders.length * 2];
+            System.arraycopy(this.recorders, 0, newRecorders, 0, this.size);
+            this.recorders = newRecorders;
+        }
+        this.recorders[this.size] = recorder;
+        this.size++;
+        ACTIVE_RECORDERS.incrementAndGet();
+    }
+
+    /**
+     * Removes a recorder; normally the recorder is on the top of the stack.
+     *
+     * @param recorder the recorder.
+     */
+    void remove(final DiagramRecorder recorder) {
+        for (int i = this.size - 1; i >= 0; i--) {
+            if (this.recorders[i] == recorder) {
+                System.arraycopy(this.recorders, i + 1, this.recorders, i,
+                        this.size - i - 1);
+                this.size--;
+                this.recorders[this.size] = null;
+                ACTIVE_RECORDERS.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of diagrams recorded by the thread.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @param jpsp the static join point of the method about to be executed.
+     * @return true if the method should be recorded; decided by the 
+     * innermost diagram.
+     */
+    boolean isRecording(final JoinPoint.StaticPart jpsp) {
+        return this.size != 0 
+            && this.recorders[this.size - 1].isRecording(jpsp);
+    }
+
+    /**
+     * Records the start of a method execution in all the diagrams.
+     *
+     * @param jp the join point of the method.
+     */
+    void methodEntered(final JoinPoint jp) {
+        for (int i = 0; i < this.size; i++) {
+            this.recorders[i].methodEntered(jp);
+        }
+    }
+
+    /**
+     * Records the value returned by a method in all the diagrams.
+     *
+     * @param value the returned value.
+     */
+    void methodReturned(final Object value) {
+        for (int i = 0; i < this.size; i++) {
+            this.recorders[i].methodReturned(value);
+        }
+    }
+
+    /**
+     * Records the end of a method execution in all the diagrams.
+     */
+    void methodExited() {
+        for (int i = 0; i < this.size; i++) {
+            this.recorders[i].methodExited();
+        }
+    }
+
+    /**
+     * @return the recorders of a task submitted to another thread or null 
+     * if the thread do not record any diagram.
+     */
+    BranchRecorder[] openBranches() {
+        List<BranchRecorder> returnValue = null;
+
+        for (int i = 0; i < this.size; i++) {
+            BranchRecorder branch = this.recorders[i].openBranch();
+            if (branch != null) {
+                if (returnValue == null) {
+                    returnValue = new ArrayList<BranchRecorder>(this.size);
+                }
+                returnValue.add(branch);
+            }
+        }
+
+        if (returnValue == null) {
+            return null;
+        }
+        return returnValue.toArray(new BranchRecorder[returnValue.size()]);
+    }
+}
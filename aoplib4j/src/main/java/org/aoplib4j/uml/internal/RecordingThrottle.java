@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aoplib4j.uml.Aoplib4jSequenceDiagram;
+import org.aspectj.lang.JoinPoint;
+
+/**
+ * Decides (without locking) if an execution of an annotated method should
+ * be recorded as a sequence diagram. An execution is recorded only if all
+ * the following conditions are true (checked in this order):
+ * <ul>
+ *  <li>the execution is sampled; one execution from
+ *  {@link Aoplib4jSequenceDiagram#sampleRate()}.</li>
+ *  <li>less than {@link Aoplib4jSequenceDiagram#maxDiagramsPerMinute()}
+ *  diagrams were recorded for the annotated method during the current
+ *  minute.</li>
+ *  <li>less than {@value #MAX_CONCURRENT_PROPERTY} (system property;
+ *  default 0, no limit) diagrams are recorded in the same time by all the
+ *  threads.</li>
+ * </ul>
+ *
+ * Every successful {@link #tryAcquire(Aoplib4jSequenceDiagram,
+ * JoinPoint.StaticPart)} must be followed by a {@link #release()} when the
+ * recording ends.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class RecordingThrottle {
+
+    /**
+     * System property containing the maximum number of diagrams recorded in
+     * the same time.
+     */
+    static final String MAX_CONCURRENT_PROPERTY =
+        "org.aoplib4j.uml.maxConcurrentDiagrams";
+
+    /**
+     * The length of the rate limiting window, in milliseconds.
+     */
+    private static final long WINDOW_LENGTH = 60 * 1000L;
+
+    /**
+     * The maximum number of diagrams recorded in the same time; 0 if no
+     * limit.
+     */
+    private static final int MAX_CONCURRENT =
+        Math.max(0, Integer.getInteger(MAX_CONCURRENT_PROPERTY, 0));
+
+    /**
+     * The number of diagrams recorded at this moment; used only if
+     * {@link #MAX_CONCURRENT} is not 0.
+     */
+    private static final AtomicInteger ACTIVE_RECORDINGS = new AtomicInteger();
+
+    /**
+     * The rate windows of the annotated methods having a
+     * {@link Aoplib4jSequenceDiagram#maxDiagramsPerMinute()}; the join 
+     * points are weakly referenced so the windows are not keeping the woven
+     * classes loaded.
+     */
+    private static final WeakKeyMap<JoinPoint.StaticPart, RateWindow>
+        WINDOWS = new WeakKeyMap<JoinPoint.StaticPart, RateWindow>();
+
+    /**
+     * The random generators used for the sampling; one per thread so the
+     * threads are not competing for the same seed.
+     */
+    private static final ThreadLocal<Random> RANDOM =
+        new ThreadLocal<Random>() {
+            @Override
+            protected Random initialValue() {
+                return new Random();
+            }
+        };
+
+    /**
+     * Utility class.
+     */
+    private RecordingThrottle() {
+    }
+
+    /**
+     * @param seqAnnot the annotation of the executed method.
+     * @param jpsp the static join point of the executed method.
+     * @return true if the execution should be recorded; in this case the
+     * {@link #release()} must be called at the end of the recording.
+     */
+    static boolean tryAcquire(final Aoplib4jSequenceDiagram seqAnnot,
+            final JoinPoint.StaticPart jpsp) {
+
+        int sampleRate = seqAnnot.sampleRate();
+        if (sampleRate > 1 && RANDOM.get().nextInt(sampleRate) != 0) {
+            return false;
+        }
+
+        int maxPerMinute = seqAnnot.maxDiagramsPerMinute();
+        if (maxPerMinute > 0
+                && !RecordingThrottle.getWindow(jpsp).tryAcquire(
+                        maxPerMinute, System.currentTimeMillis())) {
+            return false;
+        }
+
+        if (MAX_CONCURRENT > 0
+                && ACTIVE_RECORDINGS.incrementAndGet() > MAX_CONCURRENT) {
+            ACTIVE_RECORDINGS.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks the end of a recording started by a successful
+     * {@link #tryAcquire(Aoplib4jSequenceDiagram, JoinPoint.StaticPart)}.
+     */
+    static void release() {
+        if (MAX_CONCURRENT > 0) {
+            ACTIVE_RECORDINGS.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param jpsp the static join point of the annotated method.
+     * @return the rate window of the method; created the first time.
+     */
+    private static RateWindow getWindow(final JoinPoint.StaticPart jpsp) {
+        RateWindow returnValue = WINDOWS.get(jpsp);
+
+        if (returnValue == null) {
+            RateWindow newWindow = new RateWindow();
+            returnValue = WINDOWS.putIfAbsent(jpsp, newWindow);
+            if (returnValue == null) {
+                returnValue = newWindow;
+            }
+        }
+        return returnValue;
+    }
+
+    /**
+     * Counter of the diagrams recorded for an annotated method during a
+     * window of {@link RecordingThrottle#WINDOW_LENGTH} milliseconds.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class RateWindow {
+
+        /**
+         * The start time of the current window.
+         */
+        private final AtomicLong windowStart =
+            new AtomicLong(System.currentTimeMillis());
+
+        /**
+         * The number of diagrams recorded during the current window.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * @param max the maximum number of diagrams per window.
+         * @param now the current time (milliseconds).
+         * @return true if a new diagram can be recorded in the current
+         * window.
+         */
+        boolean tryAcquire(final int max, final long now) {
+            long start = this.windowStart.get();
+
+            //only one thread will start the new window.
+            if (now - start >= WINDOW_LENGTH
+                    && this.windowStart.compareAndSet(start, now)) {
+                this.count.set(0);
+            }
+
+            return this.count.incrementAndGet() <= max;
+        }
+    }
+}
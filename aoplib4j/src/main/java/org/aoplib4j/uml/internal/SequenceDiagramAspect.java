@@ -15,9 +15,6 @@
 package org.aoplib4j.uml.internal;
 
 import java.io.IOException;
-import java.lang.reflect.Modifier;
-import java.util.List;
-import java.util.Vector;
 import java.util.logging.Logger;
 
 import org.aoplib4j.failurehandling.internal.RetryExecutionAspect;
@@ -25,16 +22,12 @@ import org.aoplib4j.uml.Aoplib4jSequenceDiagram;
 import org.aoplib4j.uml.SequenceDiagram;
 import org.aoplib4j.uml.SequenceDiagramWriter;
 import org.aoplib4j.uml.SequenceMethod;
-import org.aspectj.lang.Aspects;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.Signature;
 import org.aspectj.lang.JoinPoint.StaticPart;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
-import org.aspectj.lang.reflect.ConstructorSignature;
-import org.aspectj.lang.reflect.MethodSignature;
 
 /**
  * Aspect that implements the creation of a sequence diagram. The aspect use
@@ -59,27 +52,13 @@ import org.aspectj.lang.reflect.MethodSignature;
  * directly the sequenceDiagramMethodStartPointcut due to a OutOfMemoryError 
  * "Java heap space" exception.
  */
-public final class SequenceDiagramAspect {
+public final class SequenceDiagramAspect implements DiagramRecorder {
 
-    /**
-     *  Objects containing aspect instances; this is useful and used in the 
-     *  case of nested annotations (method annotated containing inside own flow
-     *  another annotated methods).
-     *  
-     */
-    private static final ThreadLocal<List<SequenceDiagramAspect>> THREAD_LOCAL 
-        = new ThreadLocal<List<SequenceDiagramAspect>>(); 
-    
-    static {
-        THREAD_LOCAL.set(new Vector<SequenceDiagramAspect>());
-    }
-    
     /**
      * Boolean which is true if the aspect execution is inside a sequence
      * diagram, false otherwise. 
-     * This lag is used by the {@link #validSequenceDiagramPointcut()}
-     * which is an <code>if</code> pointcut to see if a method is executed
-     * inside the diagram or outside.
+     * This flag is used by the {@link #isRecording(JoinPoint.StaticPart)} to
+     * see if a method is executed inside the diagram or outside.
      */
     private boolean insideSequenceDiagram = false;
     
@@ -88,6 +67,14 @@ public final class SequenceDiagramAspect {
      *  concerning the diagram(path, writer).
      */
     private SequenceDiagram seqDiagram = null;
+    
+    /**
+     * The number of nested calls under execution which were not recorded
+     * because the diagram is truncated 
+     * ({@link SequenceDiagram#reserveNode()}).
+     */
+    private int omittedDepth = 0;
+    
         
     /**
      * the logger to use.
@@ -95,11 +82,6 @@ public final class SequenceDiagramAspect {
     private static final Logger LOGGER = 
         Logger.getLogger(RetryExecutionAspect.class.getName());
 
-    /**
-     * the name under which a constructor will appear in the diagrams.
-     */
-    private static final String CONSTRUCTOR_METHOD_NAME = "constructor";
-
     /**
      * Pointcut representing the execution of the methods annotated with the
      * {@link Aoplib4jSequenceDiagram} annotation. The pointcut represents
@@ -130,172 +112,130 @@ public final class SequenceDiagramAspect {
     }
     
     /**
-     * Pointcut used to distinguish if a(nother) pointcut is a valid pointcut
-     * for the writing of the diagram.
+     * {@inheritDoc}
      * 
-     * A pointcut is valid if :
-     * <ul>
-     *      <li>the pointcut is inside of the control flow of the 
-     *    {@link #sequenceDiagramMethodStartPointcut(Aoplib4jSequenceDiagram)}
-     *    pointcut, so the 
-     *        {@link SequenceDiagramAspect#insideSequenceDiagram} is true.
-     *      </li>
-     *      <pre>(AND)</pre>
-     *      <li> the current depth of the diagram is smaller or equal than 
-     *      the maximum diagram depth.
-     *      </li>
-     * </ul>
-     * The pointcut is represented by a static boolean method 
-     * because of the use of the <code>if()</code> pointcut (see 7.3.2 from
-     * AspectJ in action 2 ed.)
-     * 
-     * <pre>
-     * AspectJ pointcut:
-     *  if()
-     * </pre>
-     * @return true if the program flow is in the control flow of the 
-     * {@link #sequenceDiagramMethodStartPointcut(Aoplib4jSequenceDiagram)} 
-     * false otherwise.
+     * The method is recorded if the control flow is inside of the 
+     * {@link #sequenceDiagramMethodStartPointcut(Aoplib4jSequenceDiagram)}
+     * pointcut, so the {@link #insideSequenceDiagram} is true, the 
+     * current depth of the diagram is smaller than the maximum diagram depth
+     * and the class of the method is traced 
+     * ({@link SequenceDiagram#isTraced(String)}).
      */
-    @Pointcut("if()")
-    public static boolean validSequenceDiagramPointcut() {
-        
-       boolean aspectAttached = Aspects.hasAspect(SequenceDiagramAspect.class);
-       
-       if (aspectAttached) {
-           SequenceDiagramAspect instance = 
-               Aspects.aspectOf(SequenceDiagramAspect.class);
-           
-           // instance.maxDiagramDepth - 1 because the next executed method will
-           //increase the actual diagram depth with 1.
-           
-           return (instance.insideSequenceDiagram
-               && instance.seqDiagram.getDiagramDepth() 
-                   <= instance.seqDiagram.getMaxDiagramDepth() - 1);
-       } else {
-           return false;
-       }
- 
+    public boolean isRecording(final JoinPoint.StaticPart jpsp) {
+        // getMaxDiagramDepth() - 1 because the next executed method will
+        //increase the actual diagram depth with 1.
+        return this.insideSequenceDiagram
+            && this.seqDiagram.getDiagramDepth() 
+                <= this.seqDiagram.getMaxDiagramDepth() - 1
+            && this.seqDiagram.isTraced(
+                    jpsp.getSignature().getDeclaringTypeName());
     }
-
-    /**
-     *  Pointcut containing the execution of all the methods and constructors 
-     *  inside of the sequence diagram. To know if the pointcut is inside the 
-     *  sequence diagram the {@link #validSequenceDiagramPointcut()} is used.
-     *  
-     *  <pre>
-     *   AspectJ pointcut:
-     *   validSequenceDiagramPointcut()
-     *  && (execution(* *.*(..)) || execution(*.new(..)))
-     *  && !within (org.aoplib4j.uml.internal.SequenceDiagramAspect.*) 
-     *  && !cflow (execution (* org.aoplib4j.uml.SequenceDiagramWriter+.*(..)))"
-     *  && !within (org.aoplib4j.uml.SequenceDiagram)
-     *  && !within (org.aoplib4j.uml.SequenceMethod+)
-     *  && !within (org.aoplib4j.*.internal.*)
-     *  </pre>
-     *  
-     *  @see #validSequenceDiagramPointcut()
-     */
-    @Pointcut("validSequenceDiagramPointcut()"
-     + "&& (execution(* *.*(..)) || execution(*.new(..)))" 
-     + "&& !within (org.aoplib4j.uml.internal.SequenceDiagramAspect)"
-     + "&& !cflow (execution (* org.aoplib4j.uml.SequenceDiagramWriter+.*(..)))"
-     + "&& !within (org.aoplib4j.uml.SequenceDiagram)"
-     + "&& !within (org.aoplib4j.uml.SequenceMethod+)"
-     + "&& !within (org.aoplib4j.*.internal.*)"
-            )    
-    public void sequenceMethodsPointcut() {
-
-    }
- 
+    
     /**
-     * Method executed before the execution of any method belonging to a 
-     * sequence diagram.
-     * 
-     * The method do not use the <code>this</code> instance, instead retrieves
-     * the aspect instances from the local thread object ({@link #THREAD_LOCAL})
-     * because the behavior of this method can/should be applied to ALL the 
-     * method of ALL the aspects.
+     * {@inheritDoc}
      * 
-     * For every aspect instance a new {@link SequenceMethod} is created and
-     * attached to the {@link SequenceDiagram} of every aspect instance.
-     * 
-     * @param jp AspectJ join point.
+     * A new {@link SequenceMethod} is created and attached to the 
+     * {@link SequenceDiagram} of this aspect instance; if the diagram is 
+     * truncated the call is only counted.
      */
-    private void sequenceMethodBefore(final JoinPoint jp) {
+    public void methodEntered(final JoinPoint jp) {
+        if (!this.seqDiagram.reserveNode()) {
+            this.seqDiagram.callOmitted();
+            this.omittedDepth++;
+            return;
+        }
         
-        Signature sig = jp.getSignature();
+        SequenceMethodImpl seqMet = 
+            this.createSequenceMethodInstance(
+                    jp.getStaticPart(), this.seqDiagram.getActiveMethod());
         
-        List<SequenceDiagramAspect> aspectInstances = 
-            SequenceDiagramAspect.THREAD_LOCAL.get();
+        if (this.seqDiagram.isCapturingValues()) {
+            seqMet.captureArguments(jp.getArgs(), 
+                    this.seqDiagram.getMaxValueLength());
+        }
         
-        for (SequenceDiagramAspect aspect : aspectInstances) {
-            SequenceMethod seqMet = 
-                aspect.createSequenceMethodInstance(
-                        sig, aspect.seqDiagram.getActiveMethod());
-            
-            aspect.seqDiagram.setActiveMethod(seqMet);
-            //change the diagram depth
-            aspect.seqDiagram.increaseDiagramDepth();
+        if (this.seqDiagram.isMeasuringTime()) {
+            seqMet.entered(System.nanoTime());
         }
+        
+        this.seqDiagram.setActiveMethod(seqMet);
+        //change the diagram depth
+        this.seqDiagram.increaseDiagramDepth();
+        
+        this.seqDiagram.methodEntered(seqMet);
     }
     
-
     /**
-     * Method executed after the execution of any method belonging to a 
-     * sequence diagram.
-     * 
-     * The method do not use the <code>this</code> instance, instead retrieves
-     * the aspect instances from the local thread object ({@link #THREAD_LOCAL})
-     * because the behavior of this method can/should be applied to ALL the 
-     * method of ALL the aspects.
-     * 
-     * For every aspect instance, the active method is changed; the active
-     * method became the parent of the actual active method and the depth
-     * of the diagram is decreased.
+     * {@inheritDoc}
      * 
-     * @param jp AspectJ join point.
+     * The value is kept (as a summary) only if the diagram captures the 
+     * values; nothing is done for a call not recorded because the diagram 
+     * is truncated.
      */
-    private void sequenceMethodAfter(final JoinPoint jp) {
-              
-        List<SequenceDiagramAspect> aspectInstances = 
-            SequenceDiagramAspect.THREAD_LOCAL.get();
-        
-        for (SequenceDiagramAspect aspect : aspectInstances) {
-                        
-            aspect.seqDiagram.setActiveMethod(
-                    aspect.seqDiagram.getActiveMethod().getParent());
-            
-            //change the diagram depth
-            aspect.seqDiagram.decreaseDiagramDepth();
+    public void methodReturned(final Object value) {
+        if (this.omittedDepth == 0 && this.seqDiagram.isCapturingValues()) {
+            ((SequenceMethodImpl) this.seqDiagram.getActiveMethod())
+                .captureReturnValue(value, 
+                        this.seqDiagram.getMaxValueLength());
         }
-    }  
+    }
     
     /**
-     * Advice executed around the methods inside the sequence diagram (all the 
-     * methods beside the annotated method/root method).
-     * 
-     * This method calls the {@link #sequenceMethodBefore(JoinPoint)},
-     * {@link ProceedingJoinPoint#proceed()} and 
-     * {@link #sequenceMethodAfter(JoinPoint)}.
-     * 
+     * {@inheritDoc}
      * 
-     * @param pjp the AspectJ proceeding pointcut.
-     * @return the result of the advice execution. 
-     * @throws Throwable exception thrown by the advice execution. 
+     * The execution time of the active method is measured (if needed) and
+     * the active method is changed; the active method became the parent of
+     * the actual active method and the depth of the diagram is decreased. In
+     * streaming mode the exited method is detached from the parent since it
+     * was already written; if the loops are aggregated the exited method is
+     * merged (if possible) with the previous sibling. Nothing is done for
+     * a call not recorded because the diagram is truncated.
      */
-    @Around("sequenceMethodsPointcut()")
-    public Object sequenceMethodsAroundAdvice(final ProceedingJoinPoint pjp) 
-        throws Throwable {
+    public void methodExited() {
+        if (this.omittedDepth != 0) {
+            this.omittedDepth--;
+            return;
+        }
+        
+        SequenceMethodImpl exitedMethod = 
+            (SequenceMethodImpl) this.seqDiagram.getActiveMethod();
         
-        this.sequenceMethodBefore(pjp);
+        if (this.seqDiagram.isMeasuringTime()) {
+            exitedMethod.exited(System.nanoTime());
+        }
         
-        Object returnValue = pjp.proceed();
+        this.seqDiagram.methodExited(exitedMethod);
+        
+        //in streaming mode the method is already written so the 
+        //parent do not need to keep it.
+        if (this.seqDiagram.isStreaming()) {
+            exitedMethod.detachFromParent();
+            this.seqDiagram.releaseNodes(1);
+        } else if (this.seqDiagram.isAggregatingLoops()
+                && exitedMethod.mergeIntoPreviousSibling() 
+                && this.seqDiagram.hasNodeBudget()) {
+            this.seqDiagram.releaseNodes(exitedMethod.countNodes());
+        }
         
-        this.sequenceMethodAfter(pjp);
+        this.seqDiagram.setActiveMethod(exitedMethod.getParent());
         
-        return returnValue;
+        //change the diagram depth
+        this.seqDiagram.decreaseDiagramDepth();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The calls of a task cannot be recorded in the streaming mode.
+     */
+    public BranchRecorder openBranch() {
+        if (!this.insideSequenceDiagram || this.seqDiagram.isStreaming()) {
+            return null;
+        }
         
+        return new BranchRecorder(this.seqDiagram, 
+                (SequenceMethodImpl) this.seqDiagram.getActiveMethod(),
+                this.seqDiagram.getDiagramDepth(), null);
     }
    
 
@@ -318,20 +258,30 @@ public final class SequenceDiagramAspect {
         throws InstantiationException, IllegalAccessException {
         
         JoinPoint.StaticPart jpsp = pjp.getStaticPart();
-        Signature sig = pjp.getSignature();
         
         LOGGER.info("DIAGRAM START " + jpsp.getSignature().getName());
 
         //create the root method and attached it to the aspect diagram.
-        SequenceMethod rootMethod = this.createSequenceMethodInstance(sig);
+        SequenceMethodImpl rootMethod = this.createSequenceMethodInstance(jpsp);
 
         //create the sequence diagram for this aspect instance.
-        this.seqDiagram = new SequenceDiagram(seqAnnot.diagramDepth(), 
+        this.seqDiagram = new SequenceDiagram(seqAnnot, 
                 this.createWriterInstance(seqAnnot, jpsp),
                 this.getDiagramFullPath(seqAnnot, jpsp),
                 rootMethod);
         
-        SequenceDiagramAspect.addAspectToThread(this);
+        if (this.seqDiagram.isCapturingValues()) {
+            rootMethod.captureArguments(pjp.getArgs(), 
+                    this.seqDiagram.getMaxValueLength());
+        }
+        
+        if (this.seqDiagram.isMeasuringTime()) {
+            rootMethod.entered(System.nanoTime());
+        }
+        
+        this.seqDiagram.start();
+        
+        RecordingContext.current().push(this);
         
         this.insideSequenceDiagram = true;
     }
@@ -348,31 +298,51 @@ public final class SequenceDiagramAspect {
     private void sequenceMethodStartAfterForAllInstances(
             final ProceedingJoinPoint pjp) {
         
-        SequenceDiagramAspect.removeAspectFromThread(this);
+        RecordingContext context = RecordingContext.current();
+        context.remove(this);
         
         //if nested annotations, this method can be a inner method
         //of another aspect
-        this.sequenceMethodAfter(pjp);
+        context.methodExited();
     }
     
     /**
      * Method called at the end of the <code>sequenceMethodStartAroundAdvice
      * </code>. The method call the 
      * {@link SequenceDiagramWriter#write(SequenceMethod)} and close the 
-     * writer attached to the diagram writer.
+     * writer attached to the diagram writer. 
+     * 
+     * If the diagram is asynchronous the writing and the closing are done by 
+     * the {@link DiagramRenderingQueue}.
      * 
      * This method should only be called by the
      *  {@link #sequenceMethodStartAroundAdvice(
      *      Aoplib4jSequenceDiagram, ProceedingJoinPoint)}
      *      
      * @throws IOException if the diagram writing fails.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * for a free place in the rendering queue.
      */
-    private void sequenceMethodStartAfterForThis() throws IOException {
-        
-        this.seqDiagram.write();
-        this.seqDiagram.closeWriter();
+    private void sequenceMethodStartAfterForThis() 
+        throws IOException, InterruptedException {
         
         this.insideSequenceDiagram = false;
+        
+        if (this.seqDiagram.isMeasuringTime()) {
+            SequenceMethodImpl rootMethod = 
+                (SequenceMethodImpl) this.seqDiagram.getActiveMethod();
+            rootMethod.exited(System.nanoTime());
+        }
+        
+        if (this.seqDiagram.isAsynchronous()) {
+            DiagramRenderingQueue.getInstance().render(this.seqDiagram);
+        } else {
+            try {
+                this.seqDiagram.write();
+            } finally {
+                this.seqDiagram.closeWriter();
+            }
+        }
     }
     
     /**
@@ -382,8 +352,21 @@ public final class SequenceDiagramAspect {
      *  The method flow is:
      *  <ul>
      *      <li>
-     *       call 
-     *   {@link #sequenceMethodBefore(JoinPoint)}
+     *      call {@link FlightRecorder#methodEntered(JoinPoint.StaticPart)}
+     *      and, at the end,
+     *      {@link FlightRecorder#methodExited(JoinPoint.StaticPart)}
+     *      </li>
+     *
+     *      <li>
+     *      call {@link RecordingThrottle#tryAcquire(Aoplib4jSequenceDiagram,
+     *          JoinPoint.StaticPart)}; if the execution should not be
+     *      recorded then call 
+     *      {@link #proceedWithoutRecording(ProceedingJoinPoint)} and stop.
+     *      </li>
+     *      
+     *      <li>
+     *       call {@link RecordingContext#methodEntered(JoinPoint)}
+     *       (the method is an inner method of the enclosing diagrams)
      *      </li>
      *      
      *      <li>
@@ -393,16 +376,22 @@ public final class SequenceDiagramAspect {
      *      </li>
      *      
      *      <li>
-     *          call {@link ProceedingJoinPoint#proceed()}
+     *          call {@link ProceedingJoinPoint#proceed()} and, if no 
+     *          exception was thrown, 
+     *          {@link RecordingContext#methodReturned(Object)} (the 
+     *          returned value of the root method and of the inner method of
+     *          the enclosing diagrams)
      *      </li>
      *      
      *      <li>
-     *      call {@link #sequenceMethodStartAfterForThis()}
+     *       call
+     *     {@link #sequenceMethodStartAfterForAllInstances(ProceedingJoinPoint)}
+     *      (even if the execution throws an exception; in this case the 
+     *      diagram is not written)
      *      </li>
      *      
      *      <li>
-     *       call
-     *     {@link #sequenceMethodStartAfterForAllInstances(ProceedingJoinPoint)}
+     *      call {@link #sequenceMethodStartAfterForThis()}
      *      </li>
      *  </ul>
      *  
@@ -419,84 +408,106 @@ public final class SequenceDiagramAspect {
             final Aoplib4jSequenceDiagram seqAnnot,
             final ProceedingJoinPoint pjp) throws Throwable {
 
-        //for the case of inner annotations; handle this method for the 
-        //other aspects as a normal inner method.
-        this.sequenceMethodBefore(pjp);
-        
-        sequenceMethodStartBeforeForThis(seqAnnot, pjp);
-        
-        Object returnValue = pjp.proceed();
-        
-               
-        sequenceMethodStartAfterForThis();
-        sequenceMethodStartAfterForAllInstances(pjp);
-        
-        LOGGER.info("DIAGRAM END " + pjp.getSignature().getName());
-        
-        return returnValue;
+        FlightRecorder.methodEntered(pjp.getStaticPart());
+        try {
+            return this.recordDiagram(seqAnnot, pjp);
+        } finally {
+            FlightRecorder.methodExited(pjp.getStaticPart());
+        }
     }
-    
+
     /**
-     * Create {@link SequenceMethod} object by retrieving all the needed 
-     * informations from the {@link Signature} object (method name, method
-     * return value, method parameters).
-     * 
-     * @param sig AspectJ signature
-     * @param parent the parent method; optional parameter.
-     * @return a new instance of sequence method.
+     * Records the diagram of the annotated method; see
+     * {@link #sequenceMethodStartAroundAdvice(Aoplib4jSequenceDiagram,
+     * ProceedingJoinPoint)}.
+     *
+     * @param seqAnnot the annotation.
+     * @param pjp the AspectJ proceeding pointcut.
+     * @return the result of the joinpoint execution.
+     * @throws Throwable the exception thrown by the joinpoint execution.
      */
-    private SequenceMethod createSequenceMethodInstance(final Signature sig,
-            final SequenceMethod ... parent) {
-        
-        String className = sig.getDeclaringTypeName();
-        String methodName = CONSTRUCTOR_METHOD_NAME;
-        Class<?> returnType = null;
-        Class<?>[] parameterTypes = {};
-        String[] parameterNames = {};
-        
-        boolean[] isStaticAndConstructor = {false, false};
+    private Object recordDiagram(final Aoplib4jSequenceDiagram seqAnnot,
+            final ProceedingJoinPoint pjp) throws Throwable {
+
+        //sampling and rate limiting; checked before creating the diagram.
+        if (!RecordingThrottle.tryAcquire(seqAnnot, pjp.getStaticPart())) {
+            return this.proceedWithoutRecording(pjp);
+        }
         
-        if (sig instanceof MethodSignature) {
-            MethodSignature msig = (MethodSignature) sig;
+        try {
+            //for the case of inner annotations; handle this method for the 
+            //other aspects as a normal inner method.
+            RecordingContext.current().methodEntered(pjp);
             
-            methodName = msig.getMethod().getName();
-            isStaticAndConstructor[0] = Modifier.isStatic(msig.getModifiers());
+            sequenceMethodStartBeforeForThis(seqAnnot, pjp);
             
-            returnType = msig.getReturnType();
+            Object returnValue = null;
             
-            if (msig.getParameterTypes() != null) {
-                parameterTypes = msig.getParameterTypes();
+            try {
+                returnValue = pjp.proceed();
+                RecordingContext.current().methodReturned(returnValue);
+            } catch (Throwable e) {
+                //no diagram for an interrupted execution.
+                this.insideSequenceDiagram = false;
+                this.seqDiagram.closeWriter();
+                throw e;
+            } finally {
+                sequenceMethodStartAfterForAllInstances(pjp);
             }
+                   
+            sequenceMethodStartAfterForThis();
             
-            if (msig.getParameterNames() != null) {
-                parameterNames = msig.getParameterNames();  
-            }
+            LOGGER.info("DIAGRAM END " + pjp.getSignature().getName());
             
-        } else if (sig instanceof ConstructorSignature) {
-            ConstructorSignature msig = (ConstructorSignature) sig;
-
-            isStaticAndConstructor[1] = true;
-            
-            if (msig.getParameterTypes() != null) {
-                parameterTypes = msig.getParameterTypes();
-            }
-            
-            if (msig.getParameterNames() != null) {
-                parameterNames = msig.getParameterNames();  
-            }
+            return returnValue;
+        } finally {
+            RecordingThrottle.release();
         }
+    }
+    
+    /**
+     * Executes the annotated method without recording a diagram for it (the
+     * execution was not sampled or the limits were reached); the method is
+     * still handled as a normal inner method by the enclosing diagrams, if 
+     * any.
+     * 
+     * @param pjp the AspectJ proceeding pointcut.
+     * @return the result of the joinpoint execution.
+     * @throws Throwable the exception thrown by the joinpoint execution.
+     */
+    private Object proceedWithoutRecording(final ProceedingJoinPoint pjp) 
+        throws Throwable {
         
-        if (parent != null && parent.length != 0) {
-            return new SequenceMethodImpl(className, methodName, 
-                    isStaticAndConstructor, 
-                    returnType, parameterTypes, parameterNames, parent[0]);   
-        } else {
-            return new SequenceMethodImpl(className, methodName, 
-                    isStaticAndConstructor, 
-                    returnType, parameterTypes, parameterNames);
+        RecordingContext context = RecordingContext.current();
+        context.methodEntered(pjp);
+        
+        try {
+            Object returnValue = pjp.proceed();
+            context.methodReturned(returnValue);
+            return returnValue;
+        } finally {
+            context.methodExited();
         }
     }
     
+    /**
+     * Create {@link SequenceMethod} object for the static join point; the
+     * signature information (method name, method return value, method
+     * parameters) is retrieved only once per static join point and shared
+     * by all the created methods (see {@link SignatureDescriptor}).
+     * 
+     * @param jpsp AspectJ static join point.
+     * @param parent the parent method; optional parameter.
+     * @return a new instance of sequence method.
+     */
+    private SequenceMethodImpl createSequenceMethodInstance(
+            final JoinPoint.StaticPart jpsp,
+            final SequenceMethod ... parent) {
+        
+        return new SequenceMethodImpl(
+                SignatureDescriptor.forStaticPart(jpsp), parent);
+    }
+    
     /**
      * Method that creates an instance of {@link SequenceDiagramWriter}. The
      * needed information are the writer class (retrieved from the 
@@ -588,21 +599,4 @@ public final class SequenceDiagramAspect {
         }
         return returnValue;
     }
-        
-    /**
-     * Add a new aspect instance to the local thread variable.
-     * @param asp the new instance.
-     */
-    private static void addAspectToThread(final SequenceDiagramAspect asp) {
-        THREAD_LOCAL.get().add(asp);
-    }
-    
-    /**
-     * Remove the aspect instance from the local thread variable.
-     * @param asp the instance to remove.
-     */
-    private static void removeAspectFromThread(
-            final SequenceDiagramAspect asp) {
-        THREAD_LOCAL.get().remove(asp);
-    }
 }
@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+
+/**
+ * Aspect recording the methods executed inside the sequence diagrams (all
+ * the methods beside the annotated methods, recorded by the
+ * {@link SequenceDiagramAspect}).
+ *
+ * The aspect is a singleton; the diagrams recorded by a thread are taken
+ * from the {@link RecordingContext} of the thread. This way the methods can
+ * be recorded also on the threads executing the tasks submitted by an
+ * annotated method (see {@link TaskPropagation}), outside of the control
+ * flow of the annotated method.
+ *
+ * The aspect also writes the records of the {@link FlightRecorder} while
+ * the flight recorder is running; the recorder is started when the aspect
+ * is loaded if the {@link FlightRecorder#ENABLED_PROPERTY} is true.
+ *
+ * @see SequenceDiagramAspect
+ *
+ * @author Adrian Citu
+ **/
+@Aspect
+public final class SequenceMethodAspect {
+
+    static {
+        FlightRecorder.startIfEnabled();
+    }
+
+    /**
+     * Pointcut used to distinguish if a(nother) pointcut is a valid pointcut
+     * for the writing of the diagram.
+     *
+     * A pointcut is valid if the {@link FlightRecorder} is running or if
+     * the current thread records a diagram and the innermost diagram
+     * accepts the method
+     * ({@link DiagramRecorder#isRecording(JoinPoint.StaticPart)}); that
+     * is:
+     * <ul>
+     *      <li>the pointcut is inside of the control flow of an
+     *      {@link org.aoplib4j.uml.Aoplib4jSequenceDiagram} annotated method
+     *      or of a task submitted by such a method.
+     *      </li>
+     *      <pre>(AND)</pre>
+     *      <li> the current depth of the diagram is smaller or equal than
+     *      the maximum diagram depth.
+     *      </li>
+     *      <pre>(AND)</pre>
+     *      <li> the class of the method belongs to the
+     *      {@link org.aoplib4j.uml.Aoplib4jSequenceDiagram#tracedPackages()}.
+     *      </li>
+     * </ul>
+     * This pointcut matches the execution of every method of the woven 
+     * classes, so the global counter of the recorded diagrams
+     * ({@link RecordingContext#isAnyRecording()}, counting also the running
+     * flight recorder) is checked first; while nothing is recorded the cost
+     * is a single volatile read.
+     * The pointcut is represented by a static boolean method
+     * because of the use of the <code>if()</code> pointcut (see 7.3.2 from
+     * AspectJ in action 2 ed.)
+     *
+     * <pre>
+     * AspectJ pointcut:
+     *  if()
+     * </pre>
+     * @param jpsp the static join point of the executed method.
+     * @return true if the method should be recorded, false otherwise.
+     */
+    @Pointcut("if()")
+    public static boolean validSequenceDiagramPointcut(
+            final JoinPoint.StaticPart jpsp) {
+        return RecordingContext.isAnyRecording()
+            && (FlightRecorder.isRunning()
+                    || RecordingContext.current().isRecording(jpsp));
+    }
+
+    /**
+     *  Pointcut containing the execution of all the methods and constructors
+     *  inside of the sequence diagram. To know if the pointcut is inside the
+     *  sequence diagram the
+     *  {@link #validSequenceDiagramPointcut(JoinPoint.StaticPart)} is used.
+     *  The annotated methods are excluded; they are recorded by the
+     *  {@link SequenceDiagramAspect}.
+     *
+     *  <pre>
+     *   AspectJ pointcut:
+     *   validSequenceDiagramPointcut(*)
+     *  && (execution(* *.*(..)) || execution(*.new(..)))
+     *  && !execution(@org.aoplib4j.uml.Aoplib4jSequenceDiagram * * (..))
+     *  && !cflow (execution (* org.aoplib4j.uml.SequenceDiagramWriter+.*(..)))
+     *  && !cflow (execution (org.aoplib4j.uml.SequenceDiagramWriter+.new(..)))
+     *  && !within (org.aoplib4j.uml.SequenceDiagram)
+     *  && !within (org.aoplib4j.uml.SequenceDiagramTasks)
+     *  && !within (org.aoplib4j.uml.SequenceFlightRecorder)
+     *  && !within (org.aoplib4j.uml.SequenceMethod+)
+     *  && !within (org.aoplib4j.uml.StructuralHash)
+     *  && !within (org.aoplib4j.uml.MethodLabels)
+     *  && !within (org.aoplib4j.uml.SequenceMethodCursor)
+     *  && !within (org.aoplib4j.*.internal.*)
+     *  </pre>
+     *
+     *  @see #validSequenceDiagramPointcut(JoinPoint.StaticPart)
+     */
+    @Pointcut("validSequenceDiagramPointcut(*)"
+     + "&& (execution(* *.*(..)) || execution(*.new(..)))"
+     + "&& !execution(@org.aoplib4j.uml.Aoplib4jSequenceDiagram * * (..))"
+     + "&& !cflow (execution (* org.aoplib4j.uml.SequenceDiagramWriter+.*(..)))"
+     + "&& !cflow (execution (org.aoplib4j.uml.SequenceDiagramWriter+.new(..)))"
+     + "&& !within (org.aoplib4j.uml.SequenceDiagram)"
+     + "&& !within (org.aoplib4j.uml.SequenceDiagramTasks)"
+     + "&& !within (org.aoplib4j.uml.SequenceFlightRecorder)"
+     + "&& !within (org.aoplib4j.uml.SequenceMethod+)"
+     + "&& !within (org.aoplib4j.uml.StructuralHash)"
+     + "&& !within (org.aoplib4j.uml.MethodLabels)"
+     + "&& !within (org.aoplib4j.uml.SequenceMethodCursor)"
+     + "&& !within (org.aoplib4j.*.internal.*)"
+            )
+    public void sequenceMethodsPointcut() {
+
+    }
+
+    /**
+     * Advice executed around the methods inside the sequence diagram (all the
+     * methods beside the annotated method/root method).
+     *
+     * For every diagram recorded by the current thread a new
+     * {@link org.aoplib4j.uml.SequenceMethod} is created before the execution
+     * and the method is exited after the execution (even if the method
+     * execution throws an exception); the returned value is passed to the
+     * diagrams before the exit, only if no exception was thrown. The start
+     * and the end of the execution are also written in the
+     * {@link FlightRecorder}, if running; the diagrams are checked again
+     * because the pointcut may have matched only for the flight recorder.
+     *
+     * @param pjp the AspectJ proceeding pointcut.
+     * @return the result of the advice execution.
+     * @throws Throwable exception thrown by the advice execution.
+     */
+    @Around("sequenceMethodsPointcut()")
+    public Object sequenceMethodsAroundAdvice(final ProceedingJoinPoint pjp)
+        throws Throwable {
+
+        JoinPoint.StaticPart jpsp = pjp.getStaticPart();
+        FlightRecorder.methodEntered(jpsp);
+
+        RecordingContext context = RecordingContext.current();
+        boolean recorded = context.isRecording(jpsp);
+        if (recorded) {
+            context.methodEntered(pjp);
+        }
+
+        try {
+            Object returnValue = pjp.proceed();
+            if (recorded) {
+                context.methodReturned(returnValue);
+            }
+            return returnValue;
+        } finally {
+            if (recorded) {
+                context.methodExited();
+            }
+            FlightRecorder.methodExited(jpsp);
+        }
+    }
+}
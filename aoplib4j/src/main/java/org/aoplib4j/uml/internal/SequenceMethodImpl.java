@@ -15,91 +15,91 @@
 package org.aoplib4j.uml.internal;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.aoplib4j.uml.SequenceMethod;
+import org.aoplib4j.uml.SequenceMethodCursor;
 
 /**
  * Implementation of {@link SequenceMethod} interface.
  * 
+ * The signature information is not copied in every node; it is kept by a 
+ * {@link SignatureDescriptor} shared by all the calls of the same method, so
+ * a node contains only the descriptor reference and the parent/children 
+ * links. The optional data is kept in side objects allocated only when the
+ * diagram uses the feature: the execution times, the repeat count and the
+ * shape of the aggregated loops ({@link Measures}), the captured values 
+ * ({@link CapturedValues}) and the tasks submitted to other threads 
+ * ({@link Propagation}).
+ * 
+ * When the loops are aggregated, a method is merged at the end of his 
+ * execution into the previous sibling if both have the same shape (see
+ * {@link #mergeIntoPreviousSibling()}).
+ * 
  * @author Adrian Citu
  *
  */
 final class SequenceMethodImpl implements SequenceMethod {
 
-    
     /**
-     * The class name of which the methods is attached to.
+     * Multiplier used to compute the shape hash.
      */
-    private String className = null;
-    
+    private static final int HASH_MULTIPLIER = 31;
+
     /**
-     * The method name; default value is <code>new</code> (constructor).
+     * The signature information of the method.
      */
-    private String methodName = "new";
+    private final SignatureDescriptor descriptor;
     
     /**
-     * The return type of the method. 
+     * The "childs" of the method; all the methods that the method called.
+     * Created when the first child is attached.
      */
-    private Class<?> returnType = null;
+    private List<SequenceMethod> childs = null;
     
     /**
-     * The types of the method parameters.
+     * The number of children attached to the method since the creation; 
+     * different from the size of the {@link #childs} if children have been
+     * detached (streaming mode).
      */
-    private Class<?>[] parameterTypes = null;
+    private int childCount = 0;
     
     /**
-     * The names of the method parameters.
+     * The "parent" method; the caller of this method; is null for the
+     * first method of the diagram.
      */
-    private String[] parameterNames = null;
-    
+    private SequenceMethod parent = null;
     
     /**
-     * The method is static or not.
+     * The execution times, the repeat count and the shape; null if the 
+     * times are not measured (see {@link #entered(long)}).
      */
-    private boolean staticMethod = false;
+    private Measures measures = null;
     
     /**
-     * The method is a constructor or not.
+     * The captured arguments and returned value; null if the values are not
+     * captured.
      */
-    private boolean constructor = false;
+    private CapturedValues values = null;
     
     /**
-     * The "childs" of the method; all the methods that the method called.
+     * The thread executing the method and the tasks submitted to other 
+     * threads; null if the method is executed by the thread of the caller
+     * and no task was submitted. Changed only when holding the lock of this 
+     * method.
      */
-    private List<SequenceMethod> childs = new ArrayList<SequenceMethod>();
+    private volatile Propagation propagation = null;
     
     /**
-     * The "parent" method; the caller of this method; is null for the
-     * first method of the diagram.
-     */
-    private SequenceMethod parent = null;
-    
-
-    /**
-     * @param clsName the class name on which the method is attached.
-     * @param metdName the method name
-     * @param stsOrCons stsOrCons[0] is the method static, stsOrCons[1] is the
-     * method a constructor (made an array and not 2 parameters because of 
-     * Checkstyle rule; not proud of the solution)
-     * @param retType return type of the method.
-     * @param paramTypes parameter types of the method
-     * @param paramNames parameter names of the method
+     * @param desc the signature information of the method.
      * @param caller the caller method.
      */
-     SequenceMethodImpl(final String clsName, final String metdName, 
-            final boolean[] stsOrCons, final Class<?> retType,
-            final Class<?>[] paramTypes, final String[] paramNames,
+     SequenceMethodImpl(final SignatureDescriptor desc, 
             final SequenceMethod ... caller) {
         super();
         
-        this.className = clsName;
-        this.methodName = metdName;
-        this.staticMethod = stsOrCons[0];
-        this.constructor = stsOrCons[1];
-        this.returnType = retType;
-        this.parameterTypes = paramTypes;
-        this.parameterNames = paramNames;
+        this.descriptor = desc;
         
         if (caller != null && caller.length != 0) {
             this.parent = caller[0]; 
@@ -108,54 +108,415 @@ final class SequenceMethodImpl implements SequenceMethod {
         }
     }
     
+    /**
+     * Creates a method executed by another thread than the caller; the 
+     * method is not added to the children of the caller (see 
+     * {@link #addBranch(List)}).
+     * 
+     * @param desc the signature information of the method.
+     * @param caller the caller method.
+     * @param thread the name of the thread executing the method.
+     */
+    SequenceMethodImpl(final SignatureDescriptor desc, 
+            final SequenceMethodImpl caller, final String thread) {
+        super();
+        
+        this.descriptor = desc;
+        this.parent = caller;
+        this.propagation = new Propagation(thread);
+    }
+    
+    /**
+     * @return the signature information of the method.
+     */
+    SignatureDescriptor getDescriptor() {
+        return this.descriptor;
+    }
+    
     /**
      * {@inheritDoc}
      */
     public String getClassName() {
-        return this.className;
+        return this.descriptor.getClassName();
     }
     
     /**
      * {@inheritDoc}
      */
     public String getMethodName() {
-        return this.methodName;
+        return this.descriptor.getMethodName();
     }
     
     /**
      * {@inheritDoc}
      */
     public Class<?> getReturnType() {
-        return this.returnType;
+        return this.descriptor.getReturnType();
     }
 
     /**
      * {@inheritDoc}
      */
     public Class<?>[] getParameterTypes() {
-        return this.parameterTypes;
+        return this.descriptor.getParameterTypes();
     }
 
     /**
      * {@inheritDoc}
      */
     public String[] getParameterNames() {
-        return this.parameterNames;
+        return this.descriptor.getParameterNames();
     }
 
     /**
-     * @return the collection of children.
+     * @return the collection of children; the methods called by the tasks
+     * submitted to other threads are after the other children.
      */
     public List<SequenceMethod> getChildren() {
+        if (this.haveBranches()) {
+            synchronized (this) {
+                List<SequenceMethod> returnValue = 
+                    this.propagation.copyBranches();
+                if (this.childs != null) {
+                    returnValue.addAll(0, this.childs);
+                }
+                return returnValue;
+            }
+        }
+        
+        if (this.childs == null) {
+            return Collections.emptyList();
+        }
         return this.childs;
     }
+    
+    /**
+     * Adds the methods called by a task executed by another thread; can be
+     * called while the method is still recorded by his own thread.
+     * 
+     * @param branchMethods the first methods called by the task.
+     */
+    synchronized void addBranch(final List<SequenceMethod> branchMethods) {
+        if (this.propagation == null) {
+            this.propagation = new Propagation(null);
+        }
+        
+        this.propagation.addBranches(branchMethods);
+    }
+    
+    /**
+     * @return true if tasks submitted by this method to other threads 
+     * recorded calls.
+     */
+    private boolean haveBranches() {
+        Propagation prop = this.propagation;
+        return prop != null && prop.haveBranches();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public String getThreadName() {
+        Propagation prop = this.propagation;
+        if (prop == null) {
+            return null;
+        }
+        return prop.getThreadName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getArgumentValues() {
+        if (this.values == null) {
+            return ValueSnapshot.NO_VALUES;
+        }
+        return this.values.getArguments();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public String getReturnValue() {
+        if (this.values == null) {
+            return null;
+        }
+        return this.values.getReturned();
+    }
+    
+    /**
+     * @return the captured values; created the first time.
+     */
+    private CapturedValues values() {
+        if (this.values == null) {
+            this.values = new CapturedValues();
+        }
+        return this.values;
+    }
+    
+    /**
+     * Keeps the summaries of the arguments; the arguments themselves are 
+     * not referenced after the call.
+     * 
+     * @param args the arguments of the method.
+     * @param maxLength the maximum length of a summary.
+     */
+    void captureArguments(final Object[] args, final int maxLength) {
+        this.values().setArguments(ValueSnapshot.format(args, maxLength));
+    }
+    
+    /**
+     * Keeps the summary of the returned value; nothing is kept for the 
+     * constructors and for the methods returning void.
+     * 
+     * @param value the returned value.
+     * @param maxLength the maximum length of the summary.
+     */
+    void captureReturnValue(final Object value, final int maxLength) {
+        Class<?> type = this.descriptor.getReturnType();
+        if (type != null && type != void.class) {
+            this.values().setReturned(
+                    ValueSnapshot.format(value, maxLength));
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public Object getSignature() {
+        return this.descriptor;
+    }
 
     /**
      * Add a new child.
      * @param child the child to add.
      */
     private void setChild(final SequenceMethod child) {
+        if (this.childs == null) {
+            this.childs = new ArrayList<SequenceMethod>(1);
+        }
         this.childs.add(child);
+        this.childCount++;
+    }
+
+    /**
+     * Detach this method from the children of the parent; used in the 
+     * streaming mode when the method was already written so it can be
+     * garbage collected. The parent will still know that it have children.
+     */
+    void detachFromParent() {
+        if (this.parent != null && this.getThreadName() == null) {
+            ((SequenceMethodImpl) this.parent).childs.remove(this);
+        }
+    }
+
+    /**
+     * @return the execution times of the method; created the first time.
+     */
+    private Measures measures() {
+        if (this.measures == null) {
+            this.measures = new Measures();
+        }
+        return this.measures;
+    }
+    
+    /**
+     * @return the hash of the method and of the children; 0 if the method 
+     * was not exited (or the times are not measured).
+     */
+    private int getShapeHash() {
+        if (this.measures == null) {
+            return 0;
+        }
+        return this.measures.shapeHash;
+    }
+    
+    /**
+     * Marks the start of the method execution.
+     * 
+     * @param time the current time (System.nanoTime()).
+     */
+    void entered(final long time) {
+        this.measures().enterTime = time;
+    }
+    
+    /**
+     * Marks the end of the method execution; the execution times and the
+     * shape hash are computed. All the children are already exited.
+     * 
+     * @param time the current time (System.nanoTime()).
+     */
+    void exited(final long time) {
+        Measures meas = this.measures();
+        meas.totalTime = time - meas.enterTime;
+        meas.minTime = meas.totalTime;
+        meas.maxTime = meas.totalTime;
+        meas.selfTime = meas.totalTime - meas.childrenTime;
+        
+        //the time of a method executed by another thread is not part of 
+        //the time of the caller.
+        if (this.parent != null && this.getThreadName() == null) {
+            ((SequenceMethodImpl) this.parent).measures().childrenTime += 
+                meas.totalTime;
+        }
+        
+        int hash = this.descriptor.getId();
+        for (SequenceMethod child : this.getChildren()) {
+            SequenceMethodImpl childImpl = (SequenceMethodImpl) child;
+            hash = HASH_MULTIPLIER * hash + childImpl.getShapeHash();
+            hash = HASH_MULTIPLIER * hash + childImpl.getRepeatCount();
+        }
+        meas.shapeHash = hash;
+    }
+    
+    /**
+     * Merge this (exited) method into the previous child of the parent if 
+     * the two methods have the same shape; in this case the method is 
+     * detached from the parent and the repeat count and the execution times
+     * of the previous child are updated.
+     * 
+     * @return true if the method was merged, false otherwise.
+     */
+    boolean mergeIntoPreviousSibling() {
+        if (this.parent == null || this.measures == null 
+                || this.propagation != null) {
+            return false;
+        }
+        
+        List<SequenceMethod> siblings = 
+            ((SequenceMethodImpl) this.parent).childs;
+        int size = siblings.size();
+        
+        if (size < 2 || siblings.get(size - 1) != this) {
+            return false;
+        }
+        
+        SequenceMethodImpl previous = 
+            (SequenceMethodImpl) siblings.get(size - 2);
+        
+        if (previous.measures == null || previous.propagation != null 
+                || !previous.sameShape(this)) {
+            return false;
+        }
+        
+        previous.measures.add(this.measures);
+        
+        siblings.remove(size - 1);
+        return true;
+    }
+    
+    /**
+     * @return the number of methods of the tree starting with this method
+     * (this method included); used to release the methods of a merged 
+     * tree from the node budget of the diagram.
+     */
+    int countNodes() {
+        int returnValue = 0;
+        SequenceMethodCursor cursor = new SequenceMethodCursor(this);
+        while (cursor.next()) {
+            if (cursor.isEntering()) {
+                returnValue++;
+            }
+        }
+        return returnValue;
+    }
+    
+    /**
+     * Two methods have the same shape if are calls of the same method and
+     * the children have the same shape and the same repeat count; the 
+     * repeat count of the methods themselves is not compared. The two 
+     * trees are walked together ({@link SequenceMethodCursor}) so the 
+     * depth of the trees is not limited by the thread stack.
+     * 
+     * @param other the method to compare with.
+     * @return true if the methods have the same shape.
+     */
+    private boolean sameShape(final SequenceMethodImpl other) {
+        if (this.descriptor != other.descriptor 
+                || this.getShapeHash() != other.getShapeHash()) {
+            return false;
+        }
+        
+        if (!this.haveChildren() && !other.haveChildren()) {
+            return true;
+        }
+        
+        SequenceMethodCursor cursor = new SequenceMethodCursor(this);
+        SequenceMethodCursor otherCursor = new SequenceMethodCursor(other);
+        
+        //the trees have the same number of children on every level so 
+        //the two cursors are on the same position.
+        while (cursor.next() && otherCursor.next()) {
+            if (!cursor.isEntering()) {
+                continue;
+            }
+            
+            SequenceMethodImpl meth = 
+                (SequenceMethodImpl) cursor.getMethod();
+            SequenceMethodImpl otherMeth = 
+                (SequenceMethodImpl) otherCursor.getMethod();
+            
+            if (meth.descriptor != otherMeth.descriptor
+                    || meth.getShapeHash() != otherMeth.getShapeHash()
+                    || (meth != this 
+                            && meth.getRepeatCount() 
+                                != otherMeth.getRepeatCount())
+                    || meth.getChildren().size() 
+                        != otherMeth.getChildren().size()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getRepeatCount() {
+        if (this.measures == null) {
+            return 1;
+        }
+        return this.measures.repeatCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTotalTime() {
+        if (this.measures == null) {
+            return -1;
+        }
+        return this.measures.totalTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSelfTime() {
+        if (this.measures == null) {
+            return -1;
+        }
+        return this.measures.selfTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMinTime() {
+        if (this.measures == null) {
+            return -1;
+        }
+        return this.measures.minTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxTime() {
+        if (this.measures == null) {
+            return -1;
+        }
+        return this.measures.maxTime;
     }
 
     /**
@@ -170,33 +531,217 @@ final class SequenceMethodImpl implements SequenceMethod {
      * {@inheritDoc}
      */
     public boolean haveChildren() {
-        return this.childs.size() != 0;
+        return this.childCount != 0 || this.haveBranches();
     }
     
     /**
      * {@inheritDoc}
      */
     public boolean isStatic() {
-        return this.staticMethod;
+        return this.descriptor.isStatic();
     }
     
     /**
      * {@inheritDoc}
      */
     public boolean isConstructor() {
-        return this.constructor;
+        return this.descriptor.isConstructor();
     }
     
     /**
      * {@inheritDoc}
      */
     public String getSimpleClassName() {
-        String fullClassName = this.getClassName();
+        return this.descriptor.getSimpleClassName();
+    }
+
+    /**
+     * The execution times of a method, the number of consecutive identical
+     * calls it represents and his shape; allocated only when the diagram
+     * measures the times ({@link SequenceDiagram#isMeasuringTime()}).
+     * 
+     * @author Adrian Citu
+     *
+     */
+    private static final class Measures {
         
-        if (fullClassName != null) {
-            return fullClassName.substring(fullClassName.lastIndexOf('.') + 1);
-        } else {
-            return null;
+        /**
+         * The number of consecutive identical calls represented by the 
+         * method.
+         */
+        private int repeatCount = 1;
+        
+        /**
+         * The time (System.nanoTime()) when the method was entered.
+         */
+        private long enterTime = 0;
+        
+        /**
+         * The execution time of all the calls; -1 if not measured.
+         */
+        private long totalTime = -1;
+        
+        /**
+         * The shortest execution time; -1 if not measured.
+         */
+        private long minTime = -1;
+        
+        /**
+         * The longest execution time; -1 if not measured.
+         */
+        private long maxTime = -1;
+        
+        /**
+         * The execution time of all the calls without the children; -1 if 
+         * not measured.
+         */
+        private long selfTime = -1;
+        
+        /**
+         * The execution time of the children exited so far.
+         */
+        private long childrenTime = 0;
+        
+        /**
+         * Hash of the method and of the children (including the repeat 
+         * counts); computed when the method is exited and used to find 
+         * quickly the methods which cannot be merged.
+         */
+        private int shapeHash = 0;
+        
+        /**
+         * Adds the calls and the execution times of a method with the same
+         * shape.
+         * 
+         * @param other the measures of the merged method.
+         */
+        void add(final Measures other) {
+            this.repeatCount += other.repeatCount;
+            this.totalTime += other.totalTime;
+            this.selfTime += other.selfTime;
+            this.minTime = Math.min(this.minTime, other.minTime);
+            this.maxTime = Math.max(this.maxTime, other.maxTime);
+        }
+    }
+    
+    /**
+     * The values captured for a method; allocated only when the diagram 
+     * captures the values ({@link SequenceDiagram#isCapturingValues()}).
+     * 
+     * @author Adrian Citu
+     *
+     */
+    private static final class CapturedValues {
+        
+        /**
+         * The summaries of the arguments.
+         */
+        private String[] arguments = ValueSnapshot.NO_VALUES;
+        
+        /**
+         * The summary of the returned value; null if not captured.
+         */
+        private String returned = null;
+        
+        /**
+         * @return the summaries of the arguments.
+         */
+        String[] getArguments() {
+            return this.arguments;
+        }
+        
+        /**
+         * @return the summary of the returned value; null if not captured.
+         */
+        String getReturned() {
+            return this.returned;
+        }
+        
+        /**
+         * @param args the summaries of the arguments.
+         */
+        void setArguments(final String[] args) {
+            this.arguments = args;
+        }
+        
+        /**
+         * @param value the summary of the returned value.
+         */
+        void setReturned(final String value) {
+            this.returned = value;
+        }
+    }
+    
+    /**
+     * The thread executing a method and the methods called by the tasks it
+     * submitted to other threads (see {@link BranchRecorder}); allocated 
+     * only for these methods.
+     * 
+     * @author Adrian Citu
+     *
+     */
+    private static final class Propagation {
+        
+        /**
+         * The name of the thread executing the method if different from 
+         * the thread of the caller; null otherwise.
+         */
+        private final String threadName;
+        
+        /**
+         * The first methods called by the submitted tasks; null if no task
+         * recorded calls. Changed only when holding the lock of the method.
+         */
+        private volatile List<SequenceMethod> branches = null;
+        
+        /**
+         * @param thread the name of the thread executing the method; null
+         * if it is the thread of the caller.
+         */
+        Propagation(final String thread) {
+            this.threadName = thread;
+        }
+        
+        /**
+         * @return the name of the thread executing the method if different
+         * from the thread of the caller; null otherwise.
+         */
+        String getThreadName() {
+            return this.threadName;
+        }
+        
+        /**
+         * @return true if tasks recorded calls.
+         */
+        boolean haveBranches() {
+            return this.branches != null;
+        }
+        
+        /**
+         * @return a copy of the first methods called by the tasks; the lock
+         * of the method must be held.
+         */
+        List<SequenceMethod> copyBranches() {
+            if (this.branches == null) {
+                return new ArrayList<SequenceMethod>();
+            }
+            return new ArrayList<SequenceMethod>(this.branches);
+        }
+        
+        /**
+         * Adds the first methods called by a task; the lock of the method 
+         * must be held.
+         * 
+         * @param branchMethods the first methods called by the task.
+         */
+        void addBranches(final List<SequenceMethod> branchMethods) {
+            List<SequenceMethod> newBranches = 
+                new ArrayList<SequenceMethod>(branchMethods);
+            
+            if (this.branches != null) {
+                newBranches.addAll(0, this.branches);
+            }
+            this.branches = newBranches;
         }
     }
 }
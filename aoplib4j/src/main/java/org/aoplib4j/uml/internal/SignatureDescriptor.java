@@ -0,0 +1,372 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Modifier;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.ConstructorSignature;
+import org.aspectj.lang.reflect.MethodSignature;
+
+/**
+ * Flyweight containing the signature information of a method (class name,
+ * method name, return type, parameter types and names). A descriptor is
+ * created only one time for every AspectJ static join point (the static
+ * join points are unique so they are compared by identity) and is shared
+ * by all the {@link SequenceMethodImpl} representing a call of the method.
+ *
+ * Every descriptor have an unique id; the descriptor can be retrieved from
+ * the id using {@link #forId(int)}.
+ *
+ * The descriptors do not keep the woven classes loaded: they are cached by
+ * weak static join point keys, the id table holds them by weak references
+ * and the parameter and return types are taken from the AspectJ signature,
+ * itself held by a weak reference. A descriptor lives as long as the static
+ * join point (the woven class) or a recorded method using it; the ids of 
+ * the collected descriptors are not resolved anymore.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class SignatureDescriptor {
+
+    /**
+     * the name under which a constructor will appear in the diagrams.
+     */
+    private static final String CONSTRUCTOR_METHOD_NAME = "constructor";
+
+    /**
+     * Initial size of the {@link #descriptors} table.
+     */
+    private static final int INITIAL_TABLE_SIZE = 256;
+
+    /**
+     * Empty array of parameter types.
+     */
+    private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
+    /**
+     * The descriptors already created; the static join points are weak 
+     * keys.
+     */
+    private static final WeakKeyMap<JoinPoint.StaticPart,
+        SignatureDescriptor> DESCRIPTORS =
+            new WeakKeyMap<JoinPoint.StaticPart, SignatureDescriptor>();
+
+    /**
+     * Lock used for the creation of the descriptors.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * Table of weak references to the descriptors; the index is the 
+     * descriptor id.
+     */
+    private static volatile DescriptorReference[] descriptors =
+        new DescriptorReference[INITIAL_TABLE_SIZE];
+
+    /**
+     * Number of descriptors created (and the next id).
+     */
+    private static int descriptorsCount = 0;
+
+    /**
+     * the id of the descriptor.
+     */
+    private final int id;
+
+    /**
+     * The class name of which the methods is attached to.
+     */
+    private final String className;
+
+    /**
+     * The class name without package.
+     */
+    private final String simpleClassName;
+
+    /**
+     * The method name; {@value #CONSTRUCTOR_METHOD_NAME} for constructors.
+     */
+    private final String methodName;
+
+    /**
+     * The AspectJ signature, source of the return and parameter types; null
+     * if the descriptor do not represent a join point.
+     */
+    private final WeakReference<Signature> signature;
+
+    /**
+     * The names of the method parameters.
+     */
+    private final String[] parameterNames;
+
+    /**
+     * The method is static or not.
+     */
+    private final boolean staticMethod;
+
+    /**
+     * The method is a constructor or not.
+     */
+    private final boolean constructor;
+
+    /**
+     * Create the descriptor by retrieving all the needed informations from
+     * the {@link Signature} object (method name, method return value, method
+     * parameters).
+     *
+     * @param descId the id of the descriptor.
+     * @param sig AspectJ signature.
+     */
+    private SignatureDescriptor(final int descId, final Signature sig) {
+
+        String metName = CONSTRUCTOR_METHOD_NAME;
+        String[] paramNames = null;
+        boolean isStatic = false;
+
+        if (sig instanceof MethodSignature) {
+            MethodSignature msig = (MethodSignature) sig;
+
+            metName = msig.getName();
+            isStatic = Modifier.isStatic(msig.getModifiers());
+            paramNames = msig.getParameterNames();
+
+        } else if (sig instanceof ConstructorSignature) {
+            ConstructorSignature csig = (ConstructorSignature) sig;
+
+            paramNames = csig.getParameterNames();
+        }
+
+        if (paramNames == null) {
+            paramNames = new String[0];
+        }
+
+        this.id = descId;
+        this.className = sig.getDeclaringTypeName();
+        this.simpleClassName =
+            this.className.substring(this.className.lastIndexOf('.') + 1);
+        this.methodName = metName;
+        this.staticMethod = isStatic;
+        this.constructor = sig instanceof ConstructorSignature;
+        this.signature = new WeakReference<Signature>(sig);
+        this.parameterNames = paramNames;
+    }
+
+    /**
+     * Create a descriptor which do not represent a join point (ex: the
+     * thread replayed by the {@link FlightRecorder}); the descriptor have
+     * no parameters, is not registered and have the id -1.
+     *
+     * @param declaringType the (full) class name.
+     * @param name the method name.
+     */
+    SignatureDescriptor(final String declaringType, final String name) {
+        this.id = -1;
+        this.className = declaringType;
+        this.simpleClassName =
+            this.className.substring(this.className.lastIndexOf('.') + 1);
+        this.methodName = name;
+        this.staticMethod = false;
+        this.constructor = false;
+        this.signature = null;
+        this.parameterNames = new String[0];
+    }
+
+    /**
+     * Returns the descriptor of a static join point; the descriptor is
+     * created the first time.
+     *
+     * @param jpsp the AspectJ static join point.
+     * @return the descriptor of the static join point signature.
+     */
+    static SignatureDescriptor forStaticPart(final JoinPoint.StaticPart jpsp) {
+        SignatureDescriptor returnValue = DESCRIPTORS.get(jpsp);
+
+        if (returnValue == null) {
+            returnValue = SignatureDescriptor.create(jpsp);
+        }
+        return returnValue;
+    }
+
+    /**
+     * Creates and registers the descriptor of a static join point unless
+     * another thread already did it.
+     *
+     * @param jpsp the AspectJ static join point.
+     * @return the descriptor of the static join point signature.
+     */
+    private static SignatureDescriptor create(
+            final JoinPoint.StaticPart jpsp) {
+
+        synchronized (LOCK) {
+            SignatureDescriptor returnValue = DESCRIPTORS.get(jpsp);
+
+            if (returnValue == null) {
+                returnValue = new SignatureDescriptor(
+                        descriptorsCount, jpsp.getSignature());
+                SignatureDescriptor.register(returnValue);
+                DESCRIPTORS.putIfAbsent(jpsp, returnValue);
+            }
+            return returnValue;
+        }
+    }
+
+    /**
+     * @param descId the id of the descriptor.
+     * @return the descriptor having the id or null if no such descriptor
+     * (or if the descriptor was collected).
+     */
+    static SignatureDescriptor forId(final int descId) {
+        DescriptorReference[] table = descriptors;
+
+        if (descId >= 0 && descId < table.length 
+                && table[descId] != null) {
+            return table[descId].get();
+        }
+        return null;
+    }
+
+    /**
+     * Adds the descriptor to the {@link #descriptors} table; the table is
+     * enlarged if needed. Should be called holding the {@link #LOCK}.
+     *
+     * @param desc the descriptor to add.
+     */
+    private static void register(final SignatureDescriptor desc) {
+        DescriptorReference[] table = descriptors;
+
+        if (descriptorsCount == table.length) {
+            DescriptorReference[] newTable =
+                new DescriptorReference[table.length * 2];
+            System.arraycopy(table, 0, newTable, 0, table.length);
+            table = newTable;
+        }
+
+        table[descriptorsCount] = new DescriptorReference(desc);
+        descriptorsCount++;
+
+        //volatile write; publish the table and the new descriptor.
+        descriptors = table;
+    }
+
+    /**
+     * @return the id of the descriptor.
+     */
+    int getId() {
+        return this.id;
+    }
+
+    /**
+     * @return the (full) class name of which the method is attached to.
+     */
+    String getClassName() {
+        return this.className;
+    }
+
+    /**
+     * @return the class name without the package.
+     */
+    String getSimpleClassName() {
+        return this.simpleClassName;
+    }
+
+    /**
+     * @return the method name.
+     */
+    String getMethodName() {
+        return this.methodName;
+    }
+
+    /**
+     * @return the AspectJ signature; null if the descriptor do not 
+     * represent a join point (or if the woven class was collected).
+     */
+    private Signature getSignature() {
+        if (this.signature == null) {
+            return null;
+        }
+        return this.signature.get();
+    }
+
+    /**
+     * @return the method return type; null for constructors.
+     */
+    Class<?> getReturnType() {
+        Signature sig = this.getSignature();
+        if (sig instanceof MethodSignature) {
+            return ((MethodSignature) sig).getReturnType();
+        }
+        return null;
+    }
+
+    /**
+     * @return the method parameters types.
+     */
+    Class<?>[] getParameterTypes() {
+        Signature sig = this.getSignature();
+        Class<?>[] returnValue = null;
+        if (sig instanceof MethodSignature) {
+            returnValue = ((MethodSignature) sig).getParameterTypes();
+        } else if (sig instanceof ConstructorSignature) {
+            returnValue = ((ConstructorSignature) sig).getParameterTypes();
+        }
+        
+        if (returnValue == null) {
+            return NO_TYPES;
+        }
+        return returnValue;
+    }
+
+    /**
+     * @return the method parameter names.
+     */
+    String[] getParameterNames() {
+        return this.parameterNames;
+    }
+
+    /**
+     * @return true if the method is static.
+     */
+    boolean isStatic() {
+        return this.staticMethod;
+    }
+
+    /**
+     * @return true if the method is a constructor.
+     */
+    boolean isConstructor() {
+        return this.constructor;
+    }
+
+    /**
+     * Weak reference to a descriptor, element of the id table.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class DescriptorReference
+        extends WeakReference<SignatureDescriptor> {
+
+        /**
+         * @param desc the descriptor.
+         */
+        DescriptorReference(final SignatureDescriptor desc) {
+            super(desc);
+        }
+    }
+}
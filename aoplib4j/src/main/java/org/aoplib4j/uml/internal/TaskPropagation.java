@@ -0,0 +1,400 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of the {@link org.aoplib4j.uml.SequenceDiagramTasks}: the
+ * tasks are wrapped on the submitting thread, where the recorders of the
+ * task ({@link BranchRecorder}) are opened, and the recorders are placed in
+ * the {@link RecordingContext} of the thread executing the task for the
+ * duration of the task.
+ *
+ * @author Adrian Citu
+ *
+ */
+public final class TaskPropagation {
+
+    /**
+     * Utility class.
+     */
+    private TaskPropagation() {
+    }
+
+    /**
+     * @param task the task to wrap.
+     * @return the wrapped task or the task itself if the current thread do
+     * not record any diagram.
+     */
+    public static Runnable wrap(final Runnable task) {
+        BranchRecorder[] branches = RecordingContext.current().openBranches();
+
+        if (branches == null) {
+            return task;
+        }
+        return new PropagatingRunnable(task, branches);
+    }
+
+    /**
+     * @param <T> the type of the task result.
+     * @param task the task to wrap.
+     * @return the wrapped task or the task itself if the current thread do
+     * not record any diagram.
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        BranchRecorder[] branches = RecordingContext.current().openBranches();
+
+        if (branches == null) {
+            return task;
+        }
+        return new PropagatingCallable<T>(task, branches);
+    }
+
+    /**
+     * @param executor the executor to wrap.
+     * @return an executor wrapping all the tasks submitted to the executor.
+     */
+    public static ExecutorService wrap(final ExecutorService executor) {
+        return new PropagatingExecutorService(executor);
+    }
+
+    /**
+     * Starts the recorders of the task on the current thread.
+     *
+     * @param branches the recorders opened when the task was submitted.
+     * @param submitter the thread that submitted the task.
+     * @return the started recorders or null if the task is executed by the
+     * submitting thread (the calls are already recorded).
+     */
+    private static BranchRecorder[] startBranches(
+            final BranchRecorder[] branches, final Thread submitter) {
+
+        Thread current = Thread.currentThread();
+        if (current == submitter) {
+            return null;
+        }
+
+        RecordingContext context = RecordingContext.current();
+        BranchRecorder[] returnValue = new BranchRecorder[branches.length];
+
+        for (int i = 0; i < branches.length; i++) {
+            returnValue[i] = branches[i].start(current.getName());
+            context.push(returnValue[i]);
+        }
+        return returnValue;
+    }
+
+    /**
+     * Removes the recorders from the current thread and attach the recorded
+     * calls to the diagrams.
+     *
+     * @param started the recorders returned by
+     * {@link #startBranches(BranchRecorder[], Thread)}; can be null.
+     */
+    private static void finishBranches(final BranchRecorder[] started) {
+        if (started == null) {
+            return;
+        }
+
+        RecordingContext context = RecordingContext.current();
+        for (BranchRecorder branch : started) {
+            context.remove(branch);
+            branch.finish();
+        }
+    }
+
+    /**
+     * Runnable recording the calls of the wrapped runnable.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class PropagatingRunnable implements Runnable {
+
+        /**
+         * The wrapped task.
+         */
+        private final Runnable task;
+
+        /**
+         * The recorders opened when the task was submitted.
+         */
+        private final BranchRecorder[] branches;
+
+        /**
+         * The thread that submitted the task.
+         */
+        private final Thread submitter = Thread.currentThread();
+
+        /**
+         * @param wrappedTask the wrapped task.
+         * @param taskBranches the recorders opened when the task was
+         * submitted.
+         */
+        PropagatingRunnable(final Runnable wrappedTask,
+                final BranchRecorder[] taskBranches) {
+            this.task = wrappedTask;
+            this.branches = taskBranches;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            BranchRecorder[] started =
+                TaskPropagation.startBranches(this.branches, this.submitter);
+            try {
+                this.task.run();
+            } finally {
+                TaskPropagation.finishBranches(started);
+            }
+        }
+    }
+
+    /**
+     * Callable recording the calls of the wrapped callable.
+     *
+     * @param <T> the type of the task result.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class PropagatingCallable<T> implements Callable<T> {
+
+        /**
+         * The wrapped task.
+         */
+        private final Callable<T> task;
+
+        /**
+         * The recorders opened when the task was submitted.
+         */
+        private final BranchRecorder[] branches;
+
+        /**
+         * The thread that submitted the task.
+         */
+        private final Thread submitter = Thread.currentThread();
+
+        /**
+         * @param wrappedTask the wrapped task.
+         * @param taskBranches the recorders opened when the task was
+         * submitted.
+         */
+        PropagatingCallable(final Callable<T> wrappedTask,
+                final BranchRecorder[] taskBranches) {
+            this.task = wrappedTask;
+            this.branches = taskBranches;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public T call() throws Exception {
+            BranchRecorder[] started =
+                TaskPropagation.startBranches(this.branches, this.submitter);
+            try {
+                return this.task.call();
+            } finally {
+                TaskPropagation.finishBranches(started);
+            }
+        }
+    }
+
+    /**
+     * Executor service wrapping all the tasks before passing them to another
+     * executor service. All the submitting methods of the
+     * {@link AbstractExecutorService} are passing through the
+     * {@link #execute(Runnable)} method, called by the submitting thread.
+     * The <code>submit</code> methods and <code>invokeAll</code> (without 
+     * timeout) are wrapping the task itself and not the {@link FutureTask} 
+     * so the calls of the task are attached to the diagram before the 
+     * result of the task is available; for the other <code>invoke</code> 
+     * methods the calls are attached when the task ends, possibly after the
+     * result is returned.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class PropagatingExecutorService
+        extends AbstractExecutorService {
+
+        /**
+         * The wrapped executor.
+         */
+        private final ExecutorService delegate;
+
+        /**
+         * @param executor the wrapped executor.
+         */
+        PropagatingExecutorService(final ExecutorService executor) {
+            this.delegate = executor;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void execute(final Runnable command) {
+            if (command instanceof PropagatingFutureTask<?>) {
+                this.delegate.execute(command);
+            } else {
+                this.delegate.execute(TaskPropagation.wrap(command));
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public <T> Future<T> submit(final Callable<T> task) {
+            FutureTask<T> returnValue =
+                new PropagatingFutureTask<T>(TaskPropagation.wrap(task));
+            this.execute(returnValue);
+            return returnValue;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public <T> Future<T> submit(final Runnable task, final T result) {
+            FutureTask<T> returnValue = new PropagatingFutureTask<T>(
+                    TaskPropagation.wrap(task), result);
+            this.execute(returnValue);
+            return returnValue;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Future<?> submit(final Runnable task) {
+            return this.submit(task, null);
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * The tasks are submitted one by one so the calls of every task are 
+         * attached to the diagram before the method returns.
+         */
+        @Override
+        public <T> List<Future<T>> invokeAll(
+                final Collection<? extends Callable<T>> tasks) 
+            throws InterruptedException {
+            
+            List<Future<T>> returnValue = 
+                new ArrayList<Future<T>>(tasks.size());
+            boolean done = false;
+            try {
+                for (Callable<T> task : tasks) {
+                    returnValue.add(this.submit(task));
+                }
+                for (Future<T> future : returnValue) {
+                    try {
+                        future.get();
+                    } catch (CancellationException e) {
+                        //the result is returned by the future.
+                        continue;
+                    } catch (ExecutionException e) {
+                        //the exception is thrown by the future.
+                        continue;
+                    }
+                }
+                done = true;
+                return returnValue;
+            } finally {
+                if (!done) {
+                    for (Future<T> future : returnValue) {
+                        future.cancel(true);
+                    }
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void shutdown() {
+            this.delegate.shutdown();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public List<Runnable> shutdownNow() {
+            return this.delegate.shutdownNow();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isShutdown() {
+            return this.delegate.isShutdown();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isTerminated() {
+            return this.delegate.isTerminated();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean awaitTermination(final long timeout,
+                final TimeUnit unit) throws InterruptedException {
+            return this.delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * Future task of an already wrapped task.
+     *
+     * @param <T> the type of the task result.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private static final class PropagatingFutureTask<T> extends FutureTask<T> {
+
+        /**
+         * @param task the wrapped task.
+         */
+        PropagatingFutureTask(final Callable<T> task) {
+            super(task);
+        }
+
+        /**
+         * @param task the wrapped task.
+         * @param result the result of the task.
+         */
+        PropagatingFutureTask(final Runnable task, final T result) {
+            super(task, result);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Converts the arguments and the returned values of the recorded methods
+ * into short strings (see
+ * {@link org.aoplib4j.uml.Aoplib4jSequenceDiagram#captureValues()}), so the
+ * diagram keeps no reference to the application objects.
+ *
+ * Only the values of the JDK classes are read (the strings, the numbers,
+ * the booleans, the characters, the sizes of the collections and of the
+ * maps); the methods of the application classes are never called, since
+ * they could be slow, have side effects or be recorded themselves in the
+ * diagram. The way a class is formatted is decided once per class and kept
+ * in a cache.
+ *
+ * @author Adrian Citu
+ *
+ */
+final class ValueSnapshot {
+
+    /**
+     * The summaries of a method without arguments.
+     */
+    static final String[] NO_VALUES = new String[0];
+
+    /**
+     * The maximum number of classes kept in the cache; the formats of the
+     * other classes are computed every time.
+     */
+    private static final int MAX_CACHED_CLASSES = 4096;
+
+    /**
+     * Added at the end of the truncated values.
+     */
+    private static final String ELLIPSIS = "...";
+
+    /**
+     * The format of every class formatted so far; the classes are weakly
+     * referenced so the cache is not keeping the class loaders of the 
+     * applications (ex: redeployed web applications).
+     */
+    private static final WeakKeyMap<Class<?>, Format> FORMATS =
+        new WeakKeyMap<Class<?>, Format>();
+
+    /**
+     * Utility class.
+     */
+    private ValueSnapshot() {
+    }
+
+    /**
+     * @param values the arguments of a method; can be null.
+     * @param maxLength the maximum length of a summary.
+     * @return the summaries of the arguments; empty if the arguments are
+     * null.
+     */
+    static String[] format(final Object[] values, final int maxLength) {
+        if (values == null || values.length == 0) {
+            return NO_VALUES;
+        }
+
+        String[] returnValue = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            returnValue[i] = ValueSnapshot.format(values[i], maxLength);
+        }
+        return returnValue;
+    }
+
+    /**
+     * @param value the value to format; can be null.
+     * @param maxLength the maximum length of the summary (without the
+     * quotes and the escape characters of the strings).
+     * @return the summary of the value.
+     */
+    static String format(final Object value, final int maxLength) {
+        if (value == null) {
+            return "null";
+        }
+
+        Class<?> cls = value.getClass();
+        switch (ValueSnapshot.formatOf(cls)) {
+            case TEXT:
+                return ValueSnapshot.quote(
+                        (CharSequence) value, '"', maxLength);
+            case CHARACTER:
+                return ValueSnapshot.quote(value.toString(), '\'', maxLength);
+            case PLAIN:
+                return ValueSnapshot.truncate(value.toString(), maxLength);
+            case ENUM:
+                return ValueSnapshot.truncate(
+                        ((Enum<?>) value).name(), maxLength);
+            case CLASS:
+                return ValueSnapshot.simpleName((Class<?>) value) + ".class";
+            case ARRAY:
+                return ValueSnapshot.arrayType(cls, Array.getLength(value));
+            case COLLECTION:
+                return ValueSnapshot.simpleName(cls) + "[size="
+                    + ((Collection<?>) value).size() + "]";
+            case MAP:
+                return ValueSnapshot.simpleName(cls) + "[size="
+                    + ((Map<?, ?>) value).size() + "]";
+            default:
+                return ValueSnapshot.simpleName(cls) + "@"
+                    + Integer.toHexString(System.identityHashCode(value));
+        }
+    }
+
+    /**
+     * @param cls the class of a value.
+     * @return the format of the class; taken from the cache if the class
+     * was already formatted.
+     */
+    private static Format formatOf(final Class<?> cls) {
+        Format returnValue = FORMATS.get(cls);
+        if (returnValue == null) {
+            returnValue = ValueSnapshot.computeFormat(cls);
+            if (FORMATS.size() < MAX_CACHED_CLASSES) {
+                FORMATS.putIfAbsent(cls, returnValue);
+            }
+        }
+        return returnValue;
+    }
+
+    /**
+     * @param cls the class of a value.
+     * @return the format of the class; the values are read only for the
+     * classes loaded by the bootstrap class loader (the JDK classes).
+     */
+    private static Format computeFormat(final Class<?> cls) {
+        if (cls.isArray()) {
+            return Format.ARRAY;
+        }
+        if (Enum.class.isAssignableFrom(cls)) {
+            //name() is final so no application code is called.
+            return Format.ENUM;
+        }
+        if (cls.getClassLoader() != null) {
+            return Format.IDENTITY;
+        }
+
+        Format returnValue = Format.IDENTITY;
+        if (cls == Character.class) {
+            returnValue = Format.CHARACTER;
+        } else if (CharSequence.class.isAssignableFrom(cls)) {
+            returnValue = Format.TEXT;
+        } else if (Number.class.isAssignableFrom(cls)
+                || cls == Boolean.class) {
+            returnValue = Format.PLAIN;
+        } else if (cls == Class.class) {
+            returnValue = Format.CLASS;
+        } else if (Collection.class.isAssignableFrom(cls)) {
+            returnValue = Format.COLLECTION;
+        } else if (Map.class.isAssignableFrom(cls)) {
+            returnValue = Format.MAP;
+        }
+        return returnValue;
+    }
+
+    /**
+     * @param text the text to quote.
+     * @param quote the quote character.
+     * @param maxLength the maximum number of characters kept from the text.
+     * @return the quoted text, truncated and with the line breaks, the
+     * tabs, the quotes and the backslashes escaped so the summary stays on
+     * one line.
+     */
+    private static String quote(final CharSequence text, final char quote,
+            final int maxLength) {
+
+        int length = Math.min(text.length(), maxLength);
+        StringBuilder returnValue = new StringBuilder(length + 2);
+        returnValue.append(quote);
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\n':
+                    returnValue.append("\\n");
+                    break;
+                case '\r':
+                    returnValue.append("\\r");
+                    break;
+                case '\t':
+                    returnValue.append("\\t");
+                    break;
+                case '\\':
+                    returnValue.append("\\\\");
+                    break;
+                default:
+                    if (c == quote) {
+                        returnValue.append('\\');
+                    }
+                    returnValue.append(c);
+            }
+        }
+
+        returnValue.append(quote);
+        if (length < text.length()) {
+            returnValue.append(ELLIPSIS);
+        }
+        return returnValue.toString();
+    }
+
+    /**
+     * @param text the text of a value.
+     * @param maxLength the maximum number of characters kept.
+     * @return the text or his first characters followed by
+     * {@link #ELLIPSIS}.
+     */
+    private static String truncate(final String text, final int maxLength) {
+        if (text.length() <= maxLength) {
+            return text;
+        }
+        return text.substring(0, maxLength) + ELLIPSIS;
+    }
+
+    /**
+     * @param arrayClass the class of an array.
+     * @param length the length of the array.
+     * @return the type and the length of the array (ex:
+     * <code>int[3][]</code>).
+     */
+    private static String arrayType(final Class<?> arrayClass,
+            final int length) {
+
+        Class<?> elementClass = arrayClass.getComponentType();
+        StringBuilder dimensions = new StringBuilder();
+        while (elementClass.isArray()) {
+            dimensions.append("[]");
+            elementClass = elementClass.getComponentType();
+        }
+        return ValueSnapshot.simpleName(elementClass) + "[" + length + "]"
+            + dimensions;
+    }
+
+    /**
+     * @param cls a class.
+     * @return the class name without the package (and without the
+     * enclosing classes); the anonymous classes have no simple name so the
+     * last part of the binary name is used.
+     */
+    private static String simpleName(final Class<?> cls) {
+        String returnValue = cls.getSimpleName();
+        if (returnValue.length() == 0) {
+            String name = cls.getName();
+            returnValue = name.substring(name.lastIndexOf('.') + 1);
+        }
+        return returnValue;
+    }
+
+    /**
+     * How the values of a class are formatted.
+     *
+     * @author Adrian Citu
+     *
+     */
+    private enum Format {
+
+        /**
+         * JDK character sequence; quoted and truncated.
+         */
+        TEXT,
+
+        /**
+         * Character; between single quotes.
+         */
+        CHARACTER,
+
+        /**
+         * JDK number or boolean; the <code>toString</code>, truncated.
+         */
+        PLAIN,
+
+        /**
+         * Enum; the name of the constant.
+         */
+        ENUM,
+
+        /**
+         * Class; the simple name followed by <code>.class</code>.
+         */
+        CLASS,
+
+        /**
+         * Array; the element type and the length.
+         */
+        ARRAY,
+
+        /**
+         * JDK collection; the simple class name and the size.
+         */
+        COLLECTION,
+
+        /**
+         * JDK map; the simple class name and the size.
+         */
+        MAP,
+
+        /**
+         * Any other object; the simple class name and the identity hash
+         * code.
+         */
+        IDENTITY
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent map holding his keys by weak references and comparing them by
+ * identity; used by the caches keyed by the classes or by the AspectJ 
+ * static join points, so the caches do not keep the woven classes (and
+ * their class loader) loaded.
+ * 
+ * The lookups are lock-free (a {@link ConcurrentHashMap}); the entries of 
+ * the collected keys are removed, through a {@link ReferenceQueue}, when a
+ * new entry is added. The values must not reference the keys, otherwise the
+ * keys are never collected.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ * 
+ * @author Adrian Citu
+ *
+ */
+final class WeakKeyMap<K, V> {
+
+    /**
+     * The entries; the keys are {@link WeakKey} objects.
+     */
+    private final ConcurrentMap<Object, V> map = 
+        new ConcurrentHashMap<Object, V>();
+
+    /**
+     * The references of the collected keys.
+     */
+    private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+    /**
+     * @param key the key; not null.
+     * @return the value of the key or null if there is no value.
+     */
+    V get(final K key) {
+        return this.map.get(new LookupKey(key));
+    }
+
+    /**
+     * Adds a value unless the key already have one.
+     * 
+     * @param key the key; not null.
+     * @param value the value; not null.
+     * @return the previous value of the key or null if the value was added.
+     */
+    V putIfAbsent(final K key, final V value) {
+        this.expungeCollectedKeys();
+        return this.map.putIfAbsent(new WeakKey<K>(key, this.queue), value);
+    }
+
+    /**
+     * @return the number of entries, including the entries of the keys 
+     * collected since the last addition.
+     */
+    int size() {
+        return this.map.size();
+    }
+
+    /**
+     * Removes the entries of the collected keys.
+     */
+    private void expungeCollectedKeys() {
+        Reference<? extends K> collected = this.queue.poll();
+        while (collected != null) {
+            this.map.remove(collected);
+            collected = this.queue.poll();
+        }
+    }
+
+    /**
+     * Key of the map; two keys are equal if they refer the same object.
+     * 
+     * @author Adrian Citu
+     *
+     */
+    private interface IdentityKey {
+        
+        /**
+         * @return the referred object; null if collected.
+         */
+        Object referent();
+    }
+    
+    /**
+     * Weak reference to a key of the map; still equal to itself once the key
+     * is collected so the entry can be removed.
+     * 
+     * @param <K> the type of the key.
+     * 
+     * @author Adrian Citu
+     *
+     */
+    private static final class WeakKey<K> extends WeakReference<K> 
+        implements IdentityKey {
+
+        /**
+         * The identity hash code of the key.
+         */
+        private final int hash;
+
+        /**
+         * @param key the key.
+         * @param queue the queue receiving the reference when the key is 
+         * collected.
+         */
+        WeakKey(final K key, final ReferenceQueue<K> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object referent() {
+            return this.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            return obj == this || WeakKeyMap.sameReferent(this, obj);
+        }
+    }
+
+    /**
+     * Key used only for the lookups (strong reference).
+     * 
+     * @author Adrian Citu
+     *
+     */
+    private static final class LookupKey implements IdentityKey {
+
+        /**
+         * The key.
+         */
+        private final Object key;
+
+        /**
+         * @param lookedUp the key.
+         */
+        LookupKey(final Object lookedUp) {
+            this.key = lookedUp;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object referent() {
+            return this.key;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.key);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            return obj == this || WeakKeyMap.sameReferent(this, obj);
+        }
+    }
+
+    /**
+     * @param key a key of the map.
+     * @param obj another object.
+     * @return true if the object is a key referring the same (not 
+     * collected) object.
+     */
+    private static boolean sameReferent(final IdentityKey key, 
+            final Object obj) {
+        
+        if (!(obj instanceof IdentityKey)) {
+            return false;
+        }
+        Object referent = key.referent();
+        return referent != null && referent == ((IdentityKey) obj).referent();
+    }
+}
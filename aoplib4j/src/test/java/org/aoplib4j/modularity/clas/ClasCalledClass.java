@@ -22,13 +22,16 @@ import org.aoplib4j.modularity.ThrowErrorBoundaryCallback;
 
 /**
  * Target class; annotated with the {@link Aoplib4jClassBoundary} annotation.  
- * This class forbidden the calls from the {@link ForbiddenCallerClass} class.
+ * This class forbidden the calls from the {@link ForbiddenCallerClass} class
+ * and from his nested classes.
  *  
  * @author Adrian Citu
  *
  */
 @Aoplib4jClassBoundary(
-        classesList={ForbiddenCallerClass.class}, 
+        classesList={ForbiddenCallerClass.class,
+                ForbiddenCallerClass.NestedCaller.class,
+                ForbiddenCallerClass.InitializerCaller.class}, 
         callbackClass=ThrowErrorBoundaryCallback.class,
         classesListType = ListType.BLACKLIST)
 public class ClasCalledClass {
@@ -60,6 +60,41 @@ public class ClassBoundaryViolationTest extends TestCase {
         }
     }
     
+    /**
+     * Test for check the violation of the call boundary by a static call 
+     * from a nested class; the nested classes are listed by their 
+     * canonical name.
+     */
+    @SuppressWarnings(value={"all"})
+    public final void testViolateBoundaryFromNestedClass() {
+        try {
+            ForbiddenCallerClass.NestedCaller.staticVoidMethod();
+            
+            fail("An IllegalAccessError should be thrown because the"
+                    + ForbiddenCallerClass.NestedCaller.class.getName() 
+                    + " violated the call boundary.");
+        } catch (IllegalAccessError iae) {
+            //nothing to do
+        }
+    }
+    
+    /**
+     * Test for check the violation of the call boundary by a static call 
+     * from the static initializer of a class.
+     */
+    @SuppressWarnings(value={"all"})
+    public final void testViolateBoundaryFromStaticInitializer() {
+        try {
+            ForbiddenCallerClass.InitializerCaller.initialize();
+            
+            fail("An IllegalAccessError should be thrown because the"
+                    + ForbiddenCallerClass.InitializerCaller.class.getName() 
+                    + " violated the call boundary.");
+        } catch (IllegalAccessError iae) {
+            //nothing to do
+        }
+    }
+    
     /**
      * Test for check the violation of the call boundary. The test use the 
      * {@link OkCallerClass} that have the right to call the methods from
@@ -36,4 +36,29 @@ public class ForbiddenCallerClass {
         ClasCalledClass.calledStaticMethod();
     }
     
+    /**
+     * Nested class in which is forbidden to call methods from the 
+     * ClasCalledClass.
+     */
+    public static class NestedCaller {
+        
+        public static void staticVoidMethod() {
+            ClasCalledClass.calledStaticMethod();
+        }
+    }
+    
+    /**
+     * Nested class calling a method from the ClasCalledClass when the class
+     * is initialized; the calls are forbidden.
+     */
+    public static class InitializerCaller {
+        
+        static {
+            ClasCalledClass.calledStaticMethod();
+        }
+        
+        public static void initialize() {
+            
+        }
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2008-2009 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.modularity.internal;
+
+import org.aoplib4j.modularity.clas.ChildOfCalledClass;
+import org.aoplib4j.modularity.clas.ChildOfForbiddenCallerClass;
+import org.aoplib4j.modularity.clas.ClasCalledClass;
+import org.aoplib4j.modularity.clas.ForbiddenCallerClass;
+import org.aoplib4j.modularity.clas.OkCallerClass;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the {@link BoundaryMatcher}.
+ * 
+ * @author Adrian Citu
+ *
+ */
+public class BoundaryMatcherTest extends TestCase {
+
+    /**
+     * The matcher of a class is compiled only once; the not annotated 
+     * classes (including the subclasses of an annotated class) have no 
+     * matcher.
+     */
+    public final void testMatcherIsCachedPerClass() {
+        BoundaryMatcher matcher = 
+            BoundaryMatcher.forClass(ClasCalledClass.class);
+        
+        assertNotNull(matcher);
+        assertSame(matcher, BoundaryMatcher.forClass(ClasCalledClass.class));
+        assertNotNull(matcher.getClassBoundary());
+        assertNull(matcher.getPackageBoundary());
+        
+        assertNull(BoundaryMatcher.forClass(ChildOfCalledClass.class));
+        assertNull(BoundaryMatcher.forClass(ChildOfCalledClass.class));
+    }
+    
+    /**
+     * The callers are compared by their canonical names; the subclasses of
+     * a forbidden class are not forbidden.
+     */
+    public final void testVerdictPerCallerClass() {
+        BoundaryMatcher matcher = 
+            BoundaryMatcher.forClass(ClasCalledClass.class);
+        
+        assertTrue(matcher.isViolatedBy(ForbiddenCallerClass.class));
+        assertTrue(matcher.isViolatedBy(ForbiddenCallerClass.class));
+        assertTrue(matcher.isViolatedBy(
+                ForbiddenCallerClass.class.getCanonicalName()));
+        
+        assertFalse(matcher.isViolatedBy(OkCallerClass.class));
+        assertFalse(matcher.isViolatedBy(ChildOfForbiddenCallerClass.class));
+        assertFalse(matcher.isViolatedBy((String) null));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.binary.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link BinaryTraceWriter} and the 
+ * {@link BinaryTraceConverter}; the converted traces should be identical to
+ * the diagrams written directly by the writers.
+ * @author Adrian Citu
+ *
+ */
+public final class BinaryTraceTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    @Test
+    public final void testConvertToSEQUENCE()
+        throws FileNotFoundException, IOException, URISyntaxException,
+            ClassNotFoundException {
+        
+        new ActorClass().actorMethodWithParams("");
+        
+        String expectedContent =
+            TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/SEQUENCE/"
+                    + "ActorClass.actorMethodWithParams(..).txt");
+        
+        this.genericTest("ActorClass.actorMethodWithParams(..).txt", 
+                new SEQUENCEWriter(), expectedContent);
+    }
+    
+    /**
+     * The names and the signatures are written only one time so the trace
+     * of repeated calls should be much smaller than the diagram.
+     */
+    @Test
+    public final void testTraceIsCompact()
+        throws FileNotFoundException, IOException, ClassNotFoundException {
+        
+        new ActorClass().repeatedCallsMethod();
+        
+        File trace = new File(tmpDir + "ActorClass.repeatedCallsMethod().txt");
+        File diagram = new File(tmpDir + "repeatedCallsMethod.converted");
+        
+        try {
+            BinaryTraceConverter.convert(trace.getAbsolutePath(), 
+                    new SEQUENCEWriter(), diagram.getAbsolutePath());
+            
+            assertTrue(trace.length() + " bytes trace for a " 
+                    + diagram.length() + " bytes diagram",
+                    trace.length() * 3 < diagram.length());
+        } finally {
+            trace.delete();
+            diagram.delete();
+        }
+    }
+    
+    @Test
+    public final void testConvertToCodeToDiagram()
+        throws FileNotFoundException, IOException, URISyntaxException,
+            ClassNotFoundException {
+        
+        new ActorClass().actorMethodWithParams("");
+        
+        String expectedContent =
+            TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/codetodiagram/"
+                    + "ActorClass.actorMethodWithParams(..).txt");
+        
+        //the actor class of the expected diagram is in another package.
+        this.genericTest("ActorClass.actorMethodWithParams(..).txt", 
+                new CodeToDiagramWriter(), 
+                expectedContent.replace("org.aoplib4j.uml.codetodiagram.", 
+                        "org.aoplib4j.uml.binary."));
+    }
+    
+    @Test
+    public final void testConvertStreamedTrace()
+        throws FileNotFoundException, IOException, URISyntaxException,
+            ClassNotFoundException {
+        
+        new ActorClass().methodWithNestedAnnotation2("");
+        
+        this.genericTest("ActorClass.methodWithNestedAnnotation2(..).txt", 
+                new SEQUENCEWriter(),
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/SEQUENCE/"
+                        + "ActorClass.methodWithNestedAnnotation2(..).txt"));
+    }
+    
+    @Test
+    public final void testConvertAggregatedTrace()
+        throws FileNotFoundException, IOException, URISyntaxException,
+            ClassNotFoundException {
+        
+        new ActorClass().loopMethod();
+        
+        this.genericTest("ActorClass.loopMethod().txt", 
+                new SEQUENCEWriter(),
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/aggregation/"
+                        + "ActorClass.loopMethod().txt"));
+    }
+    
+    /**
+     * A file which is not a trace should not be converted.
+     */
+    @Test
+    public final void testConvertNotATrace()
+        throws IOException, URISyntaxException, ClassNotFoundException {
+        
+        File notATrace = File.createTempFile("notATrace", ".txt");
+        File diagram = File.createTempFile("diagram", ".txt");
+        try {
+            BinaryTraceConverter.convert(notATrace.getAbsolutePath(), 
+                    new SEQUENCEWriter(), diagram.getAbsolutePath());
+            fail("the conversion should fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+        } finally {
+            notATrace.delete();
+            diagram.delete();
+        }
+    }
+    
+    /**
+     * @param traceName the name of the written trace.
+     * @param writer the writer used for the conversion.
+     * @param expectedContent the expected diagram.
+     */
+    private void genericTest(final String traceName, 
+            final SequenceDiagramWriter writer, final String expectedContent) 
+        throws FileNotFoundException, IOException, URISyntaxException,
+            ClassNotFoundException {
+        
+        String trace = tmpDir + traceName;
+        String diagram = tmpDir + traceName + ".converted";
+        
+        try {
+            BinaryTraceConverter.convert(trace, writer, diagram);
+            
+            String actualContent = 
+                TestHelperClass.inputStreamToString(
+                        new FileInputStream(diagram));
+            
+            assertEquals(expectedContent, actualContent);
+        } finally {
+            new File(trace).delete();
+            new File(diagram).delete();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.capture.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link Aoplib4jSequenceDiagram#captureValues()}.
+ * @author Adrian Citu
+ *
+ */
+public final class CaptureValuesTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * The arguments and the returned values are written as summaries: the 
+     * strings are quoted, escaped and truncated, the arrays and the 
+     * collections are written as their type and size.
+     */
+    @Test
+    public final void testValuesAreWritten()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        String diagramPath = tmpDir + "ActorClass.captureMethod(..).txt";
+        
+        try {
+            new ActorClass().captureMethod("long\ttext", 3);
+            
+            assertEquals(TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/capture/ActorClass.captureMethod(..).txt"),
+                    TestHelperClass.inputStreamToString(
+                            new FileInputStream(diagramPath)));
+        } finally {
+            new File(diagramPath).delete();
+        }
+    }
+}
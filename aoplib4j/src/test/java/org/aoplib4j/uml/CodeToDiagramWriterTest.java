@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.messages.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the temporary messages file of the 
+ * {@link CodeToDiagramWriter}.
+ * @author Adrian Citu
+ *
+ */
+public final class CodeToDiagramWriterTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * The messages are written in a temporary file of the diagram directory
+     * while the method is recorded; the file is deleted once the diagram is
+     * written.
+     */
+    @Test
+    public final void testTemporaryFile() throws IOException {
+        final int[] filesWhileRecording = new int[1];
+        
+        File diagram = new File(tmpDir 
+                + "ActorClass.streamingMethod(..).txt");
+        try {
+            new ActorClass().streamingMethod(new Runnable() {
+                public void run() {
+                    filesWhileRecording[0] = 
+                        CodeToDiagramWriterTest.this.messagesFiles();
+                }
+            });
+            
+            assertTrue(filesWhileRecording[0] > 0);
+            assertEquals(0, this.messagesFiles());
+            
+            String content = TestHelperClass.inputStreamToString(
+                    new FileInputStream(diagram));
+            assertTrue(content, content.contains("<message type=\"call\" "
+                    + "from=\"org.aoplib4j.uml.messages.ActorClass\" "
+                    + "to=\"org.aoplib4j.uml.Class1\" "
+                    + "text=\"method1Class1()\"/>"));
+        } finally {
+            diagram.delete();
+        }
+    }
+    
+    /**
+     * The temporary file is deleted when the annotated method throws an 
+     * exception before the end of the diagram.
+     */
+    @Test
+    public final void testTemporaryFileDeletedOnException() {
+        File diagram = new File(tmpDir + "ActorClass.throwingMethod().txt");
+        try {
+            new ActorClass().throwingMethod();
+            fail("the annotated method should throw an exception");
+        } catch (IllegalStateException e) {
+            assertEquals(0, this.messagesFiles());
+        } finally {
+            diagram.delete();
+        }
+    }
+    
+    /**
+     * If the temporary file cannot be created the messages are kept in
+     * memory; the diagram is the same.
+     */
+    @Test
+    public final void testInMemoryMessages()
+        throws FileNotFoundException, IOException, URISyntaxException,
+            ClassNotFoundException {
+        
+        new org.aoplib4j.uml.binary.ActorClass().actorMethodWithParams("");
+        
+        String trace = tmpDir + "ActorClass.actorMethodWithParams(..).txt";
+        String diagram = trace + ".converted";
+        
+        CodeToDiagramWriter writer = new CodeToDiagramWriter();
+        writer.setMessagesDirectory(new File(tmpDir, "aoplib4j-missing-dir"));
+        
+        try {
+            BinaryTraceConverter.convert(trace, writer, diagram);
+            
+            String expectedContent =
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/codetodiagram/"
+                        + "ActorClass.actorMethodWithParams(..).txt");
+            
+            //the actor class of the expected diagram is in another package.
+            assertEquals(expectedContent.replace(
+                    "org.aoplib4j.uml.codetodiagram.", 
+                    "org.aoplib4j.uml.binary."), 
+                    TestHelperClass.inputStreamToString(
+                            new FileInputStream(diagram)));
+        } finally {
+            new File(trace).delete();
+            new File(diagram).delete();
+        }
+    }
+    
+    /**
+     * A writer without diagram file (only copying the text) should keep
+     * the messages in memory and add them to the copied text.
+     */
+    @Test
+    public final void testCopiedText() throws IOException {
+        TraceMethod prototype = new TraceMethod("foo.Foo", "bar", 
+                null, new Class<?>[0], new String[0], 0);
+        TraceMethod root = new TraceMethod(prototype, null, 1, null);
+        new TraceMethod(prototype, root, 1, null);
+        
+        CodeToDiagramWriter writer = new CodeToDiagramWriter();
+        StringBuilder text = new StringBuilder();
+        writer.copyLinesTo(text);
+        try {
+            writer.write(root);
+        } finally {
+            writer.closeWriter();
+        }
+        
+        String copied = text.toString();
+        int messages = copied.indexOf("<messages>");
+        assertTrue(copied, messages != -1);
+        assertTrue(copied, copied.indexOf("<message ", messages) != -1);
+    }
+    
+    /**
+     * @return the number of temporary messages files of the diagram 
+     * directory.
+     */
+    private int messagesFiles() {
+        return new File(tmpDir).listFiles(new FileFilter() {
+            public boolean accept(final File file) {
+                return file.getName().startsWith("aoplib4j-messages-");
+            }
+        }).length;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.collapsed.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link CollapsedStackWriter}.
+ * @author Adrian Citu
+ *
+ */
+public final class CollapsedStackWriterTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * The {@link ActorClass#repeatedLoopMethod()} is executed two times; the test 
+     * verifies the stacks of the last execution (the merged loop calls are 
+     * counted with their repeat count) and the aggregated stacks of the 
+     * two executions.
+     */
+    @Test
+    public final void testStacksAreAggregated()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        String diagramPath = tmpDir + "ActorClass.repeatedLoopMethod().txt";
+        String aggregatePath = 
+            diagramPath + CollapsedStacks.AGGREGATE_EXTENSION;
+        
+        try {
+            this.evict(diagramPath);
+            new ActorClass().repeatedLoopMethod();
+            new ActorClass().repeatedLoopMethod();
+            CollapsedStacks.forDiagram(diagramPath).flush();
+            
+            assertEquals(TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/collapsed/ActorClass.repeatedLoopMethod().txt"),
+                    TestHelperClass.inputStreamToString(
+                            new FileInputStream(diagramPath)));
+            assertEquals(TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/collapsed/aggregate.txt"),
+                    TestHelperClass.inputStreamToString(
+                            new FileInputStream(aggregatePath)));
+        } finally {
+            new File(diagramPath).delete();
+            new File(aggregatePath).delete();
+        }
+    }
+    
+    /**
+     * The stacks removed from memory (no execution during a flush period)
+     * should be read back from the aggregate file by the next execution.
+     */
+    @Test
+    public final void testEvictedStacksReloaded()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        String diagramPath = tmpDir + "ActorClass.repeatedLoopMethod().txt";
+        String aggregatePath = 
+            diagramPath + CollapsedStacks.AGGREGATE_EXTENSION;
+        
+        try {
+            this.evict(diagramPath);
+            new ActorClass().repeatedLoopMethod();
+            new ActorClass().repeatedLoopMethod();
+            CollapsedStacks evicted = CollapsedStacks.forDiagram(diagramPath);
+            evicted.flushOrEvict();
+            evicted.flushOrEvict();
+            
+            new ActorClass().repeatedLoopMethod();
+            CollapsedStacks reloaded = 
+                CollapsedStacks.forDiagram(diagramPath);
+            assertNotSame(evicted, reloaded);
+            reloaded.flush();
+            
+            //the expected stacks of three executions.
+            StringBuilder expected = new StringBuilder();
+            for (String line : TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/collapsed/aggregate.txt").split("\n")) {
+                int space = line.lastIndexOf(' ');
+                expected.append(line.substring(0, space + 1)).append(
+                        Long.parseLong(line.substring(space + 1).trim()) / 2 
+                        * 3).append(SequenceDiagramWriter.NEW_LINE);
+            }
+            assertEquals(expected.toString(), 
+                    TestHelperClass.inputStreamToString(
+                            new FileInputStream(aggregatePath)));
+        } finally {
+            this.evict(diagramPath);
+            new File(diagramPath).delete();
+            new File(aggregatePath).delete();
+        }
+    }
+    
+    /**
+     * Removes from memory the aggregated stacks of a diagram path and 
+     * deletes the aggregate file.
+     * 
+     * @param diagramPath the diagram path.
+     */
+    private void evict(final String diagramPath) {
+        CollapsedStacks stacks = CollapsedStacks.forDiagram(diagramPath);
+        stacks.flush();
+        stacks.flushOrEvict();
+        new File(diagramPath + CollapsedStacks.AGGREGATE_EXTENSION).delete();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.SEQUENCE.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test verifying that several threads (others than the thread loading 
+ * the aspect) can record their own diagrams in the same time.
+ * @author Adrian Citu
+ *
+ */
+public final class ConcurrentRecordingTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * Every annotated method is executed by another thread of a pool; the
+     * diagrams should be the same as the diagrams recorded by a single 
+     * thread.
+     */
+    @Test
+    public final void testDiagramsRecordedByWorkerThreads() throws Exception {
+        
+        final ActorClass actor = new ActorClass();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            
+            results.add(pool.submit(new Callable<Object>() {
+                public Object call() {
+                    actor.actorMethod();
+                    return null;
+                }
+            }));
+            results.add(pool.submit(new Callable<Object>() {
+                public Object call() {
+                    actor.anotherActorMethod();
+                    return null;
+                }
+            }));
+            results.add(pool.submit(new Callable<Object>() {
+                public Object call() {
+                    actor.methodWithNestedAnnotation("");
+                    return null;
+                }
+            }));
+            
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        
+        this.genericTest("ActorClass.actorMethod().txt");
+        this.genericTest("ActorClass.anotherActorMethod().txt");
+        this.genericTest("ActorClass.methodWithNestedAnnotation(..).txt");
+        this.genericTest("ActorClass.methodWithNestedAnnotation2(..).txt");
+    }
+    
+    /**
+     * @param diagramName the name of the written diagram and of the 
+     * expected diagram.
+     */
+    private void genericTest(final String diagramName) throws Exception {
+        
+        String actualDiagram = tmpDir + diagramName;
+        
+        try {
+            String expectedContent =
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/SEQUENCE/" + diagramName);
+            
+            String actualContent = 
+                TestHelperClass.inputStreamToString(
+                        new FileInputStream(actualDiagram));
+            
+            assertEquals(expectedContent, actualContent);
+        } finally {
+            new File(actualDiagram).delete();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.dedup.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the deduplication of the diagrams 
+ * ({@link Aoplib4jSequenceDiagram#deduplicate()}).
+ * @author Adrian Citu
+ *
+ */
+public final class DeduplicationTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * The {@link ActorClass#repeatedMethod(boolean)} is executed 5 times 
+     * following 2 different paths; the test verifies that only 2 diagrams 
+     * are written and that the index counts the executions of every path.
+     */
+    @Test
+    public final void testRepeatedDiagramsAreWrittenOnce()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        String diagramPath = tmpDir + "ActorClass.repeatedMethod(..).txt";
+        File indexFile = new File(diagramPath + DiagramIndex.INDEX_EXTENSION);
+        indexFile.delete();
+        
+        ActorClass actor = new ActorClass();
+        actor.repeatedMethod(false);
+        actor.repeatedMethod(false);
+        actor.repeatedMethod(true);
+        actor.repeatedMethod(false);
+        actor.repeatedMethod(true);
+        
+        DiagramIndex.forDiagram(diagramPath).saveHits();
+        String[] lines = TestHelperClass.inputStreamToString(
+                new FileInputStream(indexFile)).split("\\r?\\n");
+        
+        File firstDiagram = new File(tmpDir, lines[1].split(" ")[2]);
+        File secondDiagram = new File(tmpDir, lines[2].split(" ")[2]);
+        try {
+            assertEquals(3, lines.length);
+            assertEquals("3", lines[1].split(" ")[1]);
+            assertEquals("2", lines[2].split(" ")[1]);
+            assertFalse(new File(diagramPath).exists());
+            
+            assertEquals(TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/dedup/ActorClass.repeatedMethod(..)"
+                    + ".txt"), TestHelperClass.inputStreamToString(
+                            new FileInputStream(firstDiagram)));
+            assertEquals(TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/dedup/ActorClass.otherPath.txt"), 
+                    TestHelperClass.inputStreamToString(
+                            new FileInputStream(secondDiagram)));
+        } finally {
+            firstDiagram.delete();
+            secondDiagram.delete();
+            indexFile.delete();
+        }
+    }
+    
+    /**
+     * A diagram deleted by the rotation should be removed from the index
+     * and written again by the next execution having his structure.
+     */
+    @Test
+    public final void testRotatedDiagramIsWrittenAgain() throws IOException {
+        File directory = new File(tmpDir, "aoplib4j-index-" + System.nanoTime());
+        assertTrue(directory.mkdir());
+        DiagramIndex index = DiagramIndex.forDiagram(
+                new File(directory, "Foo.bar().txt").getPath());
+        
+        try {
+            String path = index.reserve(1);
+            assertNotNull(path);
+            new FileOutputStream(path).close();
+            index.opened(1, path);
+            assertNull(index.reserve(1));
+            
+            System.setProperty(DiagramFileSink.MAX_FILES_PROPERTY, "1");
+            File other = new File(directory, "Foo.bar()-other.txt");
+            new FileOutputStream(other).close();
+            DiagramFileSink.fileClosed(other.getPath());
+            
+            assertFalse(new File(path).exists());
+            assertEquals(path, index.reserve(1));
+        } finally {
+            System.clearProperty(DiagramFileSink.MAX_FILES_PROPERTY);
+            index.saveHits();
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+    
+    /**
+     * The hash should be added before the extension of the diagram path.
+     */
+    @Test
+    public final void testDistinctPath() {
+        assertEquals("dir" + File.separator + "Foo.bar()-00000000000000ff.txt",
+                DiagramIndex.distinctPath(
+                        "dir" + File.separator + "Foo.bar().txt", 255));
+        assertEquals("Foo.bar()-ffffffffffffffff", 
+                DiagramIndex.distinctPath("Foo.bar()", -1));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.aoplib4j.TestHelperClass;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link DiagramFileSink}.
+ * @author Adrian Citu
+ *
+ */
+public final class DiagramFileSinkTest {
+
+    /**
+     * The directory of the written diagrams.
+     */
+    private File directory = null;
+    
+    /**
+     * Creates an empty directory.
+     */
+    @Before
+    public void createDirectory() {
+        this.directory = new File(TestHelperClass.getJavaIoTmpDir(), 
+                "aoplib4j-sink-" + System.nanoTime());
+        assertTrue(this.directory.mkdir());
+    }
+    
+    /**
+     * Deletes the directory and clears the system properties.
+     */
+    @After
+    public void deleteDirectory() {
+        System.clearProperty(DiagramFileSink.UNIQUE_NAMES_PROPERTY);
+        System.clearProperty(DiagramFileSink.COMPRESSION_PROPERTY);
+        System.clearProperty(DiagramFileSink.MAX_FILES_PROPERTY);
+        System.clearProperty(DiagramFileSink.MAX_BYTES_PROPERTY);
+        
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+        this.directory.delete();
+    }
+    
+    /**
+     * Every diagram should be written in a new compressed file.
+     * 
+     * @throws IOException if any problem writing.
+     */
+    @Test
+    public final void testUniqueCompressedFiles() throws IOException {
+        System.setProperty(DiagramFileSink.UNIQUE_NAMES_PROPERTY, "true");
+        System.setProperty(DiagramFileSink.COMPRESSION_PROPERTY, 
+                DiagramFileSink.GZIP);
+        
+        StringBuilder text = new StringBuilder();
+        this.writeDiagram(text);
+        this.writeDiagram(new StringBuilder());
+        
+        String[] names = this.directory.list();
+        assertEquals(2, names.length);
+        Arrays.sort(names);
+        assertTrue(names[0], 
+                names[0].matches("Foo\\.bar\\(\\)-[0-9-]+\\.txt\\.gz"));
+        
+        assertEquals(text.toString(), TestHelperClass.inputStreamToString(
+                new GZIPInputStream(new FileInputStream(
+                        new File(this.directory, names[0])))));
+    }
+    
+    /**
+     * Only the last diagrams should be kept in the directory.
+     * 
+     * @throws IOException if any problem writing.
+     */
+    @Test
+    public final void testRotation() throws IOException {
+        System.setProperty(DiagramFileSink.UNIQUE_NAMES_PROPERTY, "true");
+        System.setProperty(DiagramFileSink.MAX_FILES_PROPERTY, "2");
+        
+        StringBuilder text = new StringBuilder();
+        this.writeDiagram(text);
+        this.writeDiagram(text);
+        this.writeDiagram(text);
+        String last = new File(this.writeDiagram(text)).getName();
+        
+        String[] names = this.directory.list();
+        assertEquals(2, names.length);
+        assertTrue(Arrays.asList(names).contains(last));
+    }
+    
+    /**
+     * The diagrams written before a restart (not by this virtual machine)
+     * should also be rotated; the other files should be kept.
+     * 
+     * @throws IOException if any problem writing.
+     */
+    @Test
+    public final void testRotationOfPreviousFiles() throws IOException {
+        System.setProperty(DiagramFileSink.UNIQUE_NAMES_PROPERTY, "true");
+        System.setProperty(DiagramFileSink.MAX_FILES_PROPERTY, "2");
+        
+        for (int i = 0; i < 3; i++) {
+            File previous = new File(this.directory, "Foo.bar()-" + i + ".txt");
+            new FileOutputStream(previous).close();
+            assertTrue(previous.setLastModified(
+                    System.currentTimeMillis() - 60000 + i));
+        }
+        new FileOutputStream(new File(this.directory, "notes.log")).close();
+        
+        String last = new File(this.writeDiagram(new StringBuilder()))
+            .getName();
+        
+        String[] names = this.directory.list();
+        Arrays.sort(names);
+        assertEquals(Arrays.asList("Foo.bar()-2.txt", last, "notes.log"), 
+                Arrays.asList(names));
+    }
+    
+    /**
+     * A diagram which cannot be opened should not interrupt the client code;
+     * the diagram is not written but the lines are still copied.
+     * 
+     * @throws IOException if any problem writing.
+     */
+    @Test
+    public final void testUnwritableDiagram() throws IOException {
+        TraceMethod prototype = new TraceMethod("foo.Foo", "bar", 
+                null, new Class<?>[0], new String[0], 0);
+        TraceMethod root = new TraceMethod(prototype, null, 1, null);
+        
+        SEQUENCEWriter writer = new SEQUENCEWriter(new File(this.directory,
+                "missing" + File.separator + "Foo.bar().txt").getPath());
+        StringBuilder text = new StringBuilder();
+        writer.copyLinesTo(text);
+        try {
+            writer.write(root);
+        } finally {
+            writer.closeWriter();
+        }
+        
+        assertNull(writer.getFilePath());
+        assertTrue(text.length() > 0);
+        assertEquals(0, this.directory.list().length);
+    }
+    
+    /**
+     * Writes a small diagram in the directory.
+     * 
+     * @param text the builder receiving the text of the diagram.
+     * @return the path of the written file.
+     * @throws IOException if any problem writing.
+     */
+    private String writeDiagram(final StringBuilder text) 
+        throws IOException {
+        TraceMethod prototype = new TraceMethod("foo.Foo", "bar", 
+                null, new Class<?>[0], new String[0], 0);
+        TraceMethod root = new TraceMethod(prototype, null, 1, null);
+        new TraceMethod(prototype, root, 1, null);
+        
+        SEQUENCEWriter writer = new SEQUENCEWriter(
+                new File(this.directory, "Foo.bar().txt").getPath());
+        writer.copyLinesTo(text);
+        try {
+            writer.write(root);
+        } finally {
+            writer.closeWriter();
+        }
+        return writer.getFilePath();
+    }
+}
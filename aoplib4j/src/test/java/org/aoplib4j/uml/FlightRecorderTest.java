@@ -0,0 +1,255 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+
+import javax.management.ObjectName;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.flight.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test for the flight recorder ({@link SequenceFlightRecorder}).
+ * @author Adrian Citu
+ *
+ */
+public final class FlightRecorderTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    private SequenceFlightRecorder recorder = 
+        SequenceFlightRecorder.getInstance();
+    
+    private String[] dumped = new String[0];
+    
+    @Before
+    public void setUp() {
+        this.recorder.freeze();
+    }
+    
+    @After
+    public void tearDown() {
+        this.recorder.freeze();
+        for (String path : this.dumped) {
+            new File(path).delete();
+        }
+    }
+    
+    /**
+     * The calls of a thread should be dumped under the method representing
+     * the thread; the recorder should still run after the dump.
+     */
+    @Test
+    public final void testDump() throws Exception {
+        this.recorder.start();
+        this.runThread("flight-recorded");
+        
+        this.dumped = this.recorder.dump("sequence", this.tmpDir);
+        
+        assertTrue(this.recorder.isRunning());
+        this.genericTest("flight-recorded", "Worker.run().txt");
+    }
+    
+    /**
+     * The methods whose enter records were overwritten should be added, as
+     * callers, to the dumped calls.
+     */
+    @Test
+    public final void testOverwrittenRecords() throws Exception {
+        this.recorder.start();
+        System.setProperty("org.aoplib4j.uml.flightRecorder.records", "8");
+        try {
+            this.runThread("flight-overwritten");
+        } finally {
+            System.clearProperty("org.aoplib4j.uml.flightRecorder.records");
+        }
+        
+        this.dumped = this.recorder.dump("sequence", this.tmpDir);
+        
+        this.genericTest("flight-overwritten", "Worker.run()-last8.txt");
+    }
+    
+    /**
+     * Nothing should be recorded while the recorder is frozen.
+     */
+    @Test
+    public final void testFrozen() throws Exception {
+        this.runThread("flight-frozen");
+        
+        this.dumped = this.recorder.dump("sequence", this.tmpDir);
+        
+        assertFalse(this.recorder.isRunning());
+        for (String path : this.dumped) {
+            assertFalse(path, path.contains("flight-frozen"));
+        }
+    }
+    
+    /**
+     * The ring of an ended thread should be released (and his file deleted)
+     * once his records are out of the dumped period.
+     */
+    @Test
+    public final void testEndedThreadReleased() throws Exception {
+        File directory = new File(this.tmpDir, 
+                "aoplib4j-flight-" + System.nanoTime());
+        assertTrue(directory.mkdir());
+        
+        this.recorder.start();
+        System.setProperty("org.aoplib4j.uml.flightRecorder.dir", 
+                directory.getPath());
+        try {
+            this.runThread("flight-ended");
+            int rings = this.countFiles(directory, ".ring");
+            assertTrue(rings > 0);
+            assertEquals(rings, this.countFiles(directory, ".names"));
+            
+            System.setProperty("org.aoplib4j.uml.flightRecorder.seconds", 
+                    "0");
+            this.dumped = this.recorder.dump("sequence", this.tmpDir);
+            
+            assertEquals(rings - 1, this.countFiles(directory, ".ring"));
+            assertEquals(rings - 1, this.countFiles(directory, ".names"));
+            for (String path : this.dumped) {
+                assertFalse(path, path.contains("flight-ended"));
+            }
+        } finally {
+            System.clearProperty("org.aoplib4j.uml.flightRecorder.dir");
+            System.clearProperty("org.aoplib4j.uml.flightRecorder.seconds");
+            this.recorder.freeze();
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+    
+    /**
+     * The names of the recorded methods should be written next to the 
+     * mapped file so the file can be decoded after a crash.
+     */
+    @Test
+    public final void testNamesWritten() throws Exception {
+        File directory = new File(this.tmpDir, 
+                "aoplib4j-flight-" + System.nanoTime());
+        assertTrue(directory.mkdir());
+        
+        this.recorder.start();
+        System.setProperty("org.aoplib4j.uml.flightRecorder.dir", 
+                directory.getPath());
+        try {
+            this.runThread("flight-names");
+            
+            boolean found = false;
+            for (File file : directory.listFiles()) {
+                if (file.getName().endsWith(".names")) {
+                    String names = TestHelperClass.inputStreamToString(
+                            new FileInputStream(file));
+                    found |= names.matches("(?s)(.*\\n)?[0-9]+\t" 
+                            + Worker.class.getName() + "\trun\n.*");
+                }
+            }
+            assertTrue(found);
+        } finally {
+            System.clearProperty("org.aoplib4j.uml.flightRecorder.dir");
+            this.recorder.freeze();
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+    
+    /**
+     * The recorder should be available as MBean once started.
+     */
+    @Test
+    public final void testMBean() throws Exception {
+        this.recorder.start();
+        
+        ObjectName name = 
+            new ObjectName("org.aoplib4j.uml:type=SequenceFlightRecorder");
+        assertEquals(Boolean.TRUE, ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(name, "Running"));
+        
+        ManagementFactory.getPlatformMBeanServer().invoke(
+                name, "freeze", new Object[0], new String[0]);
+        assertFalse(this.recorder.isRunning());
+    }
+    
+    /**
+     * @param directory a directory.
+     * @param extension an extension.
+     * @return the number of files of the directory having the extension.
+     */
+    private int countFiles(final File directory, final String extension) {
+        int returnValue = 0;
+        for (String name : directory.list()) {
+            if (name.endsWith(extension)) {
+                returnValue++;
+            }
+        }
+        return returnValue;
+    }
+    
+    /**
+     * @param threadName the name of the thread.
+     */
+    private void runThread(final String threadName) 
+        throws InterruptedException {
+        Thread thread = new Thread(new Worker(), threadName);
+        thread.start();
+        thread.join();
+    }
+    
+    /**
+     * @param threadName the name of the dumped thread.
+     * @param diagramName the name of the expected diagram.
+     */
+    private void genericTest(final String threadName, 
+            final String diagramName) throws IOException, URISyntaxException {
+        
+        String actualDiagram = null;
+        for (String path : this.dumped) {
+            if (path.endsWith("-" + threadName + ".txt")) {
+                actualDiagram = path;
+            }
+        }
+        assertNotNull(threadName + " not dumped", actualDiagram);
+        
+        String actualContent = 
+            TestHelperClass.inputStreamToString(
+                    new FileInputStream(actualDiagram));
+        
+        String expectedContent =
+            TestHelperClass.getFileContentFromTestRessources(
+                    "/org/aoplib4j/uml/flight/" + diagramName);
+        
+        assertEquals(expectedContent, 
+                actualContent.replaceAll(" // total=[^\\r\\n]*", ""));
+    }
+}
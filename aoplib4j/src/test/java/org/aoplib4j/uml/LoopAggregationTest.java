@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.aggregation.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the aggregation of the loops 
+ * ({@link Aoplib4jSequenceDiagram#aggregateLoops()}).
+ * @author Adrian Citu
+ *
+ */
+public final class LoopAggregationTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * The {@link ActorClass#loopMethod()} calls the same methods in loops;
+     * the test verifies that the consecutive identical calls are written
+     * only one time with the repeat count.
+     */
+    @Test
+    public final void testConsecutiveCallsAreMerged()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        new ActorClass().loopMethod();
+        
+        String actualDiagram = tmpDir + "ActorClass.loopMethod().txt";
+        
+        try {
+            String expectedContent =
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/aggregation/"
+                        + "ActorClass.loopMethod().txt");
+            
+            String actualContent = 
+                TestHelperClass.inputStreamToString(
+                        new FileInputStream(actualDiagram));
+            
+            assertEquals(expectedContent, actualContent);
+        } finally {
+            new File(actualDiagram).delete();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link MethodLabels}.
+ * @author Adrian Citu
+ *
+ */
+public final class MethodLabelsTest {
+
+    /**
+     * The calls of the same method should share the labels formatted for 
+     * the first call.
+     */
+    @Test
+    public final void testLabelsAreSharedBySignature() {
+        TraceMethod prototype = new TraceMethod("foo.Foo", "bar", 
+                Integer.class, new Class<?>[] {String.class, int.class}, 
+                new String[] {"str", "i"}, 0);
+        TraceMethod root = new TraceMethod(prototype, null, 1, null);
+        TraceMethod call = new TraceMethod(prototype, root, 1, null);
+        
+        MethodLabels labels = MethodLabels.forMethod(root);
+        assertSame(labels, MethodLabels.forMethod(call));
+        
+        assertEquals("Foo.", labels.getSequenceClass());
+        assertEquals("bar(java.lang.String str,int i) -> Integer", 
+                labels.getSequenceMethod());
+        assertEquals("foo.Foo", labels.getXmlClassName());
+        assertEquals("bar(class java.lang.String,int)", 
+                labels.getXmlMessageText());
+    }
+    
+    /**
+     * The XML special characters should be replaced by entities.
+     */
+    @Test
+    public final void testXmlLabelsAreEscaped() {
+        TraceMethod prototype = new TraceMethod("foo.Foo", "<init>&", 
+                null, new Class<?>[0], new String[0], 
+                BinaryTraceWriter.FLAG_CONSTRUCTOR);
+        
+        MethodLabels labels = MethodLabels.forMethod(prototype);
+        
+        assertEquals("&lt;init&gt;&amp;()", labels.getXmlMessageText());
+        assertEquals("<init>&() -> void", labels.getSequenceMethod());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.budget.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the node budget of the diagrams 
+ * ({@link Aoplib4jSequenceDiagram#maxNodes()} and 
+ * {@link Aoplib4jSequenceDiagram#maxBytes()}).
+ * @author Adrian Citu
+ *
+ */
+public final class NodeBudgetTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * The {@link ActorClass#truncatedMethod()} makes more calls than the 
+     * budget; the test verifies that the first calls are written and the
+     * other calls are only counted in the truncation marker.
+     */
+    @Test
+    public final void testTruncatedDiagram()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        new ActorClass().truncatedMethod();
+        
+        this.assertDiagram("ActorClass.truncatedMethod().txt");
+    }
+    
+    /**
+     * In the streaming mode only the methods of the current call path are
+     * counted; the {@link ActorClass#streamingMethod()} is truncated only 
+     * when the call path is deeper than the budget.
+     */
+    @Test
+    public final void testStreamingDiagram()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        new ActorClass().streamingMethod();
+        
+        this.assertDiagram("ActorClass.streamingMethod().txt");
+    }
+    
+    /**
+     * The merged calls of the {@link ActorClass#loopMethod()} are not 
+     * counted so the diagram is not truncated.
+     */
+    @Test
+    public final void testMergedCallsAreReleased()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        new ActorClass().loopMethod();
+        
+        this.assertDiagram("ActorClass.loopMethod().txt");
+    }
+    
+    /**
+     * Compares the written diagram with the expected diagram and deletes
+     * the written diagram.
+     * 
+     * @param diagramName the name of the diagram.
+     */
+    private void assertDiagram(final String diagramName)
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        String actualDiagram = tmpDir + diagramName;
+        
+        try {
+            String expectedContent =
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/budget/" + diagramName);
+            
+            String actualContent = 
+                TestHelperClass.inputStreamToString(
+                        new FileInputStream(actualDiagram));
+            
+            assertEquals(expectedContent, actualContent);
+        } finally {
+            new File(actualDiagram).delete();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link ParallelRendering} and for the iterative 
+ * traversal of the {@link DFSDiagramWriter}.
+ * @author Adrian Citu
+ *
+ */
+public final class ParallelRenderingTest {
+
+    /**
+     * The number of children of the wide methods.
+     */
+    private static final int WIDTH = 7;
+    
+    /**
+     * The depth of the generated trees.
+     */
+    private static final int DEPTH = 5;
+    
+    /**
+     * The depth of the deep tree.
+     */
+    private static final int DEEP_TREE_DEPTH = 100000;
+    
+    /**
+     * The diagram written in parallel should be identical to the diagram 
+     * written by a single thread.
+     * 
+     * @throws IOException if any problem writing.
+     */
+    @Test
+    public final void testParallelDiagramIsIdentical() throws IOException {
+        TraceMethod root = ParallelRenderingTest.createTree();
+        
+        String sequential = ParallelRenderingTest.render(root);
+        
+        System.setProperty(ParallelRendering.ENABLED_PROPERTY, "true");
+        try {
+            assertEquals(sequential, ParallelRenderingTest.render(root));
+        } finally {
+            System.clearProperty(ParallelRendering.ENABLED_PROPERTY);
+        }
+    }
+    
+    /**
+     * A very deep call tree should be written without stack overflow.
+     * 
+     * @throws IOException if any problem writing.
+     */
+    @Test
+    public final void testDeepTree() throws IOException {
+        TraceMethod prototype = new TraceMethod("foo.Foo", "deep", 
+                null, new Class<?>[0], new String[0], 0);
+        TraceMethod root = new TraceMethod(prototype, null, 1, null);
+        TraceMethod caller = root;
+        for (int i = 0; i < DEEP_TREE_DEPTH; i++) {
+            caller = new TraceMethod(prototype, caller, 1, null);
+        }
+        
+        String text = ParallelRenderingTest.render(root);
+        
+        assertTrue(text.startsWith("Foo.deep() -> void{"));
+        assertTrue(text.trim().endsWith("}"));
+    }
+    
+    /**
+     * Writes a diagram only in memory.
+     * 
+     * @param root the root method.
+     * @return the text of the diagram.
+     * @throws IOException if any problem writing.
+     */
+    private static String render(final TraceMethod root) throws IOException {
+        StringBuilder text = new StringBuilder();
+        SEQUENCEWriter writer = new SEQUENCEWriter();
+        writer.setTimingWritten(true);
+        writer.copyLinesTo(text);
+        writer.write(root);
+        return text.toString();
+    }
+    
+    /**
+     * @return a tree mixing wide methods, leafs and deep methods.
+     */
+    private static TraceMethod createTree() {
+        TraceMethod[] prototypes = new TraceMethod[WIDTH];
+        for (int i = 0; i < WIDTH; i++) {
+            prototypes[i] = new TraceMethod("foo.Class" + i, "method" + i, 
+                    Integer.class, new Class<?>[] {int.class}, 
+                    new String[] {"i"}, 0);
+        }
+        
+        TraceMethod root = new TraceMethod(prototypes[0], null, 1, null);
+        ParallelRenderingTest.addChildren(prototypes, root, DEPTH);
+        return root;
+    }
+    
+    /**
+     * @param prototypes the signatures of the methods.
+     * @param caller the method receiving the children.
+     * @param depth the depth of the subtree.
+     */
+    private static void addChildren(final TraceMethod[] prototypes, 
+            final TraceMethod caller, final int depth) {
+        
+        if (depth == 0) {
+            return;
+        }
+        
+        for (int i = 0; i < WIDTH; i++) {
+            TraceMethod child = 
+                new TraceMethod(prototypes[i], caller, i + 1, null);
+            child.setTimes(depth * i, i, 1, depth);
+            
+            //every other child is a leaf.
+            if (i % 2 == 0) {
+                ParallelRenderingTest.addChildren(prototypes, child, 
+                        depth - 1);
+            }
+        }
+    }
+}
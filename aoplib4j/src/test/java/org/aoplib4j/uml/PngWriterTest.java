@@ -14,9 +14,21 @@
  */
 package org.aoplib4j.uml;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.png.ActorClass;
+import org.junit.After;
 import org.junit.Test;
 
 
@@ -27,10 +39,197 @@ import org.junit.Test;
  */
 public class PngWriterTest {
 
+    /**
+     * The expected .seq diagram of {@link ActorClass#actorMethod()}.
+     */
+    private static final String EXPECTED_DIAGRAM = 
+        "/org/aoplib4j/uml/SEQUENCE/ActorClass.actorMethod().txt";
+    
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * Clears the system properties of the {@link DiagramFileSink}.
+     */
+    @After
+    public void clearProperties() {
+        System.clearProperty(DiagramFileSink.UNIQUE_NAMES_PROPERTY);
+        System.clearProperty(DiagramFileSink.COMPRESSION_PROPERTY);
+        System.clearProperty(DiagramFileSink.MAX_FILES_PROPERTY);
+    }
+
     @Test
     public final void testPngWriterLoadClass() {
         assertNull(PngWriter.loadClass("titi.toto.bobo"));
         assertNull(PngWriter.loadClass(null));
         assertNotNull(PngWriter.loadClass("java.lang.String"));
     }
+    
+    /**
+     * Several diagrams rendered at the same time by the 
+     * {@link PngRenderingService} should all be written.
+     */
+    @Test
+    public final void testParallelRendering() throws Exception {
+        final String text = TestHelperClass.getFileContentFromTestRessources(
+                "/org/aoplib4j/uml/propagation/" 
+                + "ActorClass.submitMethod(..).txt");
+        final String tmpDir = TestHelperClass.getJavaIoTmpDir();
+        final List<Boolean> results = new ArrayList<Boolean>();
+        
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            final String pngPath = tmpDir + "parallelRendering" + i + ".png";
+            threads.add(new Thread() {
+                public void run() {
+                    boolean rendered = PngRenderingService.getInstance()
+                        .render(text, pngPath);
+                    synchronized (results) {
+                        results.add(rendered);
+                    }
+                }
+            });
+        }
+        
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        for (int i = 0; i < 4; i++) {
+            File png = new File(tmpDir + "parallelRendering" + i + ".png");
+            try {
+                assertTrue(results.get(i));
+                assertTrue(png.length() > 0);
+            } finally {
+                png.delete();
+            }
+        }
+    }
+    
+    /**
+     * The compressed .seq file should be written only once (a valid GZIP 
+     * file) and the png file should have the name without the .gz 
+     * extension.
+     */
+    @Test
+    public final void testCompressedDiagram() throws Exception {
+        System.setProperty(DiagramFileSink.COMPRESSION_PROPERTY, 
+                DiagramFileSink.GZIP);
+        
+        new ActorClass().actorMethod();
+        
+        File seq = new File(tmpDir + "ActorClass.actorMethod().txt.gz");
+        File png = new File(tmpDir + "ActorClass.actorMethod().png");
+        try {
+            assertEquals(TestHelperClass.getFileContentFromTestRessources(
+                    EXPECTED_DIAGRAM), TestHelperClass.inputStreamToString(
+                            new GZIPInputStream(new FileInputStream(seq))));
+            assertTrue(png.length() > 0);
+            assertTrue(!new File(tmpDir + "ActorClass.actorMethod().txt")
+                    .exists());
+        } finally {
+            seq.delete();
+            png.delete();
+        }
+    }
+    
+    /**
+     * With unique names every execution should write one .seq file and one
+     * png file having the same unique name.
+     */
+    @Test
+    public final void testUniqueNames() throws Exception {
+        System.setProperty(DiagramFileSink.UNIQUE_NAMES_PROPERTY, "true");
+        
+        new ActorClass().actorMethod();
+        new ActorClass().actorMethod();
+        
+        List<File> seqFiles = new ArrayList<File>();
+        List<File> pngFiles = new ArrayList<File>();
+        for (File file : new File(tmpDir).listFiles()) {
+            String name = file.getName();
+            if (name.matches(
+                    "ActorClass\\.actorMethod\\(\\)-[0-9-]+\\.txt")) {
+                seqFiles.add(file);
+            } else if (name.matches(
+                    "ActorClass\\.actorMethod\\(\\)-[0-9-]+\\.png")) {
+                pngFiles.add(file);
+            }
+        }
+        
+        try {
+            assertEquals(2, seqFiles.size());
+            assertEquals(2, pngFiles.size());
+            for (File seq : seqFiles) {
+                assertEquals(TestHelperClass.getFileContentFromTestRessources(
+                        EXPECTED_DIAGRAM), TestHelperClass.inputStreamToString(
+                                new FileInputStream(seq)));
+                String pngName = seq.getPath().replaceAll("\\.txt$", ".png");
+                assertTrue(pngName, new File(pngName).length() > 0);
+            }
+        } finally {
+            for (File file : seqFiles) {
+                file.delete();
+            }
+            for (File file : pngFiles) {
+                file.delete();
+            }
+        }
+    }
+    
+    /**
+     * The png files should be rotated with the .seq files; only the last 
+     * diagram (the .seq and the png file) should be kept.
+     */
+    @Test
+    public final void testRotation() throws Exception {
+        System.setProperty(DiagramFileSink.UNIQUE_NAMES_PROPERTY, "true");
+        System.setProperty(DiagramFileSink.MAX_FILES_PROPERTY, "2");
+        
+        File directory = new File(tmpDir, "aoplib4j-png-" + System.nanoTime());
+        assertTrue(directory.mkdir());
+        try {
+            String last = null;
+            for (int i = 0; i < 3; i++) {
+                last = this.writeDiagram(directory);
+            }
+            
+            String[] names = directory.list();
+            Arrays.sort(names);
+            String seqName = new File(last).getName();
+            assertEquals(Arrays.asList(
+                    seqName.replaceAll("\\.txt$", ".png"), seqName),
+                    Arrays.asList(names));
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+    
+    /**
+     * Writes a small png diagram in a directory.
+     * 
+     * @param directory the directory of the diagram.
+     * @return the path of the written .seq file.
+     * @throws Exception if any problem writing.
+     */
+    private String writeDiagram(final File directory) throws Exception {
+        TraceMethod prototype = new TraceMethod("foo.Foo", "bar", 
+                null, new Class<?>[0], new String[0], 0);
+        TraceMethod root = new TraceMethod(prototype, null, 1, null);
+        new TraceMethod(prototype, root, 1, null);
+        
+        PngWriter writer = new PngWriter();
+        writer.setDiagramPath(new File(directory, "Foo.bar().txt").getPath());
+        try {
+            writer.write(root);
+        } finally {
+            writer.closeWriter();
+        }
+        return writer.getFilePath();
+    }
 }
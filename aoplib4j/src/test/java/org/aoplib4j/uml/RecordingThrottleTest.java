@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.throttling.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the sampling and the rate limiting of the diagrams 
+ * ({@link Aoplib4jSequenceDiagram#sampleRate()} and 
+ * {@link Aoplib4jSequenceDiagram#maxDiagramsPerMinute()}).
+ * @author Adrian Citu
+ *
+ */
+public final class RecordingThrottleTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * The {@link ActorClass#limitedMethod()} can be recorded only one time
+     * per minute; the second execution should not write the diagram.
+     */
+    @Test
+    public final void testMaxDiagramsPerMinute() {
+        
+        File diagram = new File(tmpDir + "ActorClass.limitedMethod().txt");
+        
+        try {
+            new ActorClass().limitedMethod();
+            assertTrue(diagram.exists());
+            diagram.delete();
+            
+            new ActorClass().limitedMethod();
+            assertFalse(diagram.exists());
+        } finally {
+            diagram.delete();
+        }
+    }
+    
+    /**
+     * The nested annotated method is not sampled; the diagram should not
+     * be written for it but the method should still be part of the diagram
+     * of the enclosing annotated method.
+     */
+    @Test
+    public final void testNotSampledNestedAnnotation()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        String actualDiagram = 
+            tmpDir + "ActorClass.methodWithNestedAnnotation(..).txt";
+        File nestedDiagram = 
+            new File(tmpDir + "ActorClass.methodWithNestedAnnotation2(..).txt");
+        nestedDiagram.delete();
+        
+        try {
+            new ActorClass().methodWithNestedAnnotation("");
+            
+            assertFalse(nestedDiagram.exists());
+            
+            String expectedContent =
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/SEQUENCE/"
+                        + "ActorClass.methodWithNestedAnnotation(..).txt");
+            
+            String actualContent = 
+                TestHelperClass.inputStreamToString(
+                        new FileInputStream(actualDiagram));
+            
+            assertEquals(expectedContent, actualContent);
+        } finally {
+            new File(actualDiagram).delete();
+            nestedDiagram.delete();
+        }
+    }
+}
@@ -63,6 +63,10 @@ public final class SequenceDiagramTest {
                     {new org.aoplib4j.uml.SEQUENCE.ActorClass(), 
                         "/org/aoplib4j/uml/SEQUENCE/" },
                     {new org.aoplib4j.uml.png.ActorClass(), 
+                        "/org/aoplib4j/uml/SEQUENCE/" },
+                    {new org.aoplib4j.uml.streaming.ActorClass(), 
+                        "/org/aoplib4j/uml/SEQUENCE/" },
+                    {new org.aoplib4j.uml.aggregation.ActorClass(), 
                         "/org/aoplib4j/uml/SEQUENCE/" }
            }
         );
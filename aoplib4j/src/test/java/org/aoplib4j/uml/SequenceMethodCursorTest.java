@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link SequenceMethodCursor}.
+ * @author Adrian Citu
+ *
+ */
+public final class SequenceMethodCursorTest {
+
+    private final TraceMethod prototype = new TraceMethod("foo.Foo", "bar", 
+            null, new Class<?>[0], new String[0], 0);
+    
+    /**
+     * Every method is entered before his children and exited after them; 
+     * the skipped methods are neither entered again nor exited.
+     */
+    @Test
+    public final void testMethodsAreWalkedInOrder() {
+        TraceMethod root = new TraceMethod(prototype, null, 1, null);
+        TraceMethod first = new TraceMethod(prototype, root, 1, null);
+        TraceMethod firstChild = new TraceMethod(prototype, first, 1, null);
+        TraceMethod second = new TraceMethod(prototype, root, 1, null);
+        new TraceMethod(prototype, second, 1, null);
+        new TraceMethod(prototype, root, 1, null);
+        TraceMethod last = new TraceMethod(prototype, root, 1, null);
+        
+        StringBuilder events = new StringBuilder();
+        SequenceMethodCursor cursor = new SequenceMethodCursor(root);
+        while (cursor.next()) {
+            events.append(cursor.isEntering() ? "+" : "-")
+                .append(cursor.getDepth()).append(" ");
+            
+            if (cursor.isEntering() && cursor.getMethod() == second) {
+                //skip second and the next sibling.
+                cursor.skip(2);
+            }
+        }
+        
+        assertEquals("+0 +1 +2 -2 -1 +1 +1 -1 -0 ", events.toString());
+        assertFalse(cursor.next());
+        
+        cursor = new SequenceMethodCursor(root);
+        cursor.next();
+        cursor.next();
+        cursor.next();
+        assertSame(firstChild, cursor.getMethod());
+        
+        cursor = new SequenceMethodCursor(last);
+        assertTrue(cursor.next());
+        assertSame(last, cursor.getMethod());
+    }
+    
+    /**
+     * The depth of the walked tree is not limited by the thread stack.
+     */
+    @Test
+    public final void testDeepTreeIsWalked() {
+        TraceMethod root = new TraceMethod(prototype, null, 1, null);
+        TraceMethod caller = root;
+        for (int i = 0; i < 100000; i++) {
+            caller = new TraceMethod(prototype, caller, 1, null);
+        }
+        
+        int entered = 0;
+        int maxDepth = 0;
+        SequenceMethodCursor cursor = new SequenceMethodCursor(root);
+        while (cursor.next()) {
+            if (cursor.isEntering()) {
+                entered++;
+                maxDepth = Math.max(maxDepth, cursor.getDepth());
+            }
+        }
+        
+        assertEquals(100001, entered);
+        assertEquals(100000, maxDepth);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.propagation.ActorClass;
+import org.aoplib4j.uml.propagation.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test for the recording of the tasks submitted to other threads
+ * ({@link SequenceDiagramTasks}).
+ * @author Adrian Citu
+ *
+ */
+public final class TaskPropagationTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    private ExecutorService pool;
+    
+    @Before
+    public void setUp() throws InterruptedException, ExecutionException {
+        this.pool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "worker");
+            }
+        });
+        //start the thread so the thread factory is not in the diagrams.
+        this.pool.submit(new Worker()).get();
+    }
+    
+    @After
+    public void tearDown() {
+        this.pool.shutdownNow();
+    }
+    
+    /**
+     * The calls of a task submitted to a wrapped executor should appear in
+     * the diagram under the submitting method, marked with the name of 
+     * the executing thread.
+     */
+    @Test
+    public final void testWrappedExecutor()
+        throws FileNotFoundException, IOException, URISyntaxException, 
+            InterruptedException, ExecutionException {
+        
+        new ActorClass().submitMethod(this.pool, new Worker());
+        
+        this.genericTest("ActorClass.submitMethod(..).txt");
+    }
+    
+    /**
+     * The calls of the tasks submitted by <code>invokeAll</code> should 
+     * appear, in the order in which the tasks ended, after all the other 
+     * calls of the submitting method.
+     */
+    @Test
+    public final void testInvokeAll()
+        throws FileNotFoundException, IOException, URISyntaxException, 
+            InterruptedException {
+        
+        new ActorClass().invokeAllMethod(this.pool, new Worker());
+        
+        this.genericTest("ActorClass.invokeAllMethod(..).txt");
+    }
+    
+    /**
+     * Without wrapping, the calls executed by other threads should not be 
+     * recorded.
+     */
+    @Test
+    public final void testNotWrappedExecutor()
+        throws FileNotFoundException, IOException, URISyntaxException, 
+            InterruptedException, ExecutionException {
+        
+        new ActorClass().notWrappedMethod(this.pool, new Worker());
+        
+        this.genericTest("ActorClass.notWrappedMethod(..).txt");
+    }
+    
+    /**
+     * @param diagramName the name of the written and expected diagram.
+     */
+    private void genericTest(final String diagramName) 
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        String actualDiagram = tmpDir + diagramName;
+        
+        try {
+            String actualContent = 
+                TestHelperClass.inputStreamToString(
+                        new FileInputStream(actualDiagram));
+            
+            String expectedContent =
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/propagation/" + diagramName);
+            
+            assertEquals(expectedContent, actualContent);
+        } finally {
+            new File(actualDiagram).delete();
+        }
+    }
+}
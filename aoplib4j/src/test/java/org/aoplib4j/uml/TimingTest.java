@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.timing.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the writing of the execution times 
+ * ({@link Aoplib4jSequenceDiagram#timing()}).
+ * @author Adrian Citu
+ *
+ */
+public final class TimingTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * Every line ending a call should contain the times; without the times
+     * the diagram should be the usual diagram.
+     */
+    @Test
+    public final void testTimesWritten()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        new ActorClass().actorMethodWithParams("");
+        
+        this.genericTest("ActorClass.actorMethodWithParams(..).txt");
+    }
+    
+    /**
+     * Same as {@link #testTimesWritten()} in the streaming mode.
+     */
+    @Test
+    public final void testTimesWrittenInStreamingMode()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        new ActorClass().methodWithNestedAnnotation2("");
+        
+        this.genericTest("ActorClass.methodWithNestedAnnotation2(..).txt");
+    }
+    
+    /**
+     * Same as {@link #testTimesWritten()} for the .seq diagram written by 
+     * the {@link PngWriter}.
+     */
+    @Test
+    public final void testTimesWrittenByPngWriter()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        new ActorClass().actorMethod();
+        
+        try {
+            this.genericTest("ActorClass.actorMethod().txt");
+        } finally {
+            new File(tmpDir + "ActorClass.actorMethod().png").delete();
+        }
+    }
+    
+    /**
+     * @param diagramName the name of the written diagram; the expected 
+     * diagram (without times) have the same name.
+     */
+    private void genericTest(final String diagramName) 
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        String actualDiagram = tmpDir + diagramName;
+        
+        try {
+            String actualContent = 
+                TestHelperClass.inputStreamToString(
+                        new FileInputStream(actualDiagram));
+            
+            for (String line : actualContent.split("\\r?\\n")) {
+                if (line.endsWith("{")) {
+                    continue;
+                }
+                assertTrue(line, line.matches(
+                        ".* // total=\\d+\\.\\d{3}ms self=\\d+\\.\\d{3}ms"));
+            }
+            
+            String expectedContent =
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/SEQUENCE/" + diagramName);
+            
+            assertEquals(expectedContent, 
+                    actualContent.replaceAll(" // total=[^\\r\\n]*", ""));
+        } finally {
+            new File(actualDiagram).delete();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.filtering.ActorClass;
+import org.junit.Test;
+
+/**
+ * JUnit test for the filtering of the recorded classes
+ * ({@link Aoplib4jSequenceDiagram#tracedPackages()}).
+ * @author Adrian Citu
+ *
+ */
+public final class TracedPackagesTest {
+
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * Only the annotated method and the methods of the traced packages 
+     * should be recorded, even if they are called by not traced classes.
+     */
+    @Test
+    public final void testTracedPackages()
+        throws FileNotFoundException, IOException, URISyntaxException {
+        
+        new ActorClass().filteredMethod();
+        
+        String diagramName = "ActorClass.filteredMethod().txt";
+        String actualDiagram = tmpDir + diagramName;
+        
+        try {
+            String actualContent = 
+                TestHelperClass.inputStreamToString(
+                        new FileInputStream(actualDiagram));
+            
+            String expectedContent =
+                TestHelperClass.getFileContentFromTestRessources(
+                        "/org/aoplib4j/uml/filtering/" + diagramName);
+            
+            assertEquals(expectedContent, actualContent);
+        } finally {
+            new File(actualDiagram).delete();
+        }
+    }
+}
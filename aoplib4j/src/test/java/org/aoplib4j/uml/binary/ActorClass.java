@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.binary;
+
+import org.aoplib4j.uml.Aoplib4jSequenceDiagram;
+import org.aoplib4j.uml.BinaryTraceWriter;
+import org.aoplib4j.uml.Class1;
+
+
+/**
+ * Class containing methods annotated with the {@link Aoplib4jSequenceDiagram}
+ * annotation and used for testing the {@link BinaryTraceWriter} writer.
+ * @author Adrian Citu
+ *
+ */
+public class ActorClass {
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = BinaryTraceWriter.class,
+            diagramDepth = 10)
+    public void actorMethodWithParams(String str) {
+        Class1 cl1 = new Class1("");
+        cl1.method1Class1();
+        ActorClass.staticPrivateMethod(1);
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = BinaryTraceWriter.class,
+            streaming = true)
+    public void methodWithNestedAnnotation2(String str) {
+        Class1 cl1 = new Class1("");
+        cl1.method1Class1();
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = BinaryTraceWriter.class,
+            aggregateLoops = true,
+            diagramDepth = 10)
+    public void loopMethod() {
+        Class1 cl1 = new Class1("");
+        for (int i = 0; i < 10; i++) {
+            cl1.method1Class1();
+        }
+        
+        for (int i = 0; i < 3; i++) {
+            this.nonAnnotatedMethod();
+        }
+        
+        ActorClass.staticPrivateMethod(1);
+        ActorClass.staticPrivateMethod(2);
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = BinaryTraceWriter.class,
+            diagramDepth = 10)
+    public void repeatedCallsMethod() {
+        Class1 cl1 = new Class1("");
+        for (int i = 0; i < 100; i++) {
+            cl1.method1Class1();
+        }
+    }
+    
+    public void nonAnnotatedMethod() {
+        Class1 cl1 = new Class1("");
+        cl1.method1Class1();
+    }
+    
+    private static void staticPrivateMethod(Integer in) {
+        
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.capture;
+
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aoplib4j.uml.Aoplib4jSequenceDiagram;
+import org.aoplib4j.uml.Class1;
+import org.aoplib4j.uml.SEQUENCEWriter;
+
+
+/**
+ * Class containing methods annotated with the {@link Aoplib4jSequenceDiagram}
+ * annotation and used for testing the capture of the values.
+ * @author Adrian Citu
+ *
+ */
+public class ActorClass {
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = SEQUENCEWriter.class,
+            captureValues = true,
+            maxValueLength = 5)
+    public String captureMethod(String text, int count) {
+        Class1 cl1 = new Class1(text);
+        cl1.method1Class1();
+        ActorClass.staticPrivateMethod(new int[count], 
+                new ArrayList<String>(), RetentionPolicy.RUNTIME, 'c');
+        return text + "\n";
+    }
+    
+    private static Long staticPrivateMethod(int[] values, List<String> list,
+            RetentionPolicy policy, char c) {
+        return null;
+    }
+}
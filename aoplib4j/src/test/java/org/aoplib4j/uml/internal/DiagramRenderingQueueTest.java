@@ -0,0 +1,299 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.aoplib4j.TestHelperClass;
+import org.aoplib4j.uml.Aoplib4jSequenceDiagram;
+import org.aoplib4j.uml.RenderingOverflowPolicy;
+import org.aoplib4j.uml.SEQUENCEWriter;
+import org.aoplib4j.uml.SequenceDiagram;
+import org.aoplib4j.uml.SequenceDiagramWriter;
+import org.aoplib4j.uml.SequenceMethod;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link DiagramRenderingQueue} with one rendering 
+ * thread and a capacity of one diagram: the first diagram is written by
+ * the thread, the second one waits in the queue and the overflow policy
+ * is applied to the third one.
+ * @author Adrian Citu
+ *
+ */
+public final class DiagramRenderingQueueTest {
+
+    /**
+     * Time (in seconds) to wait for a diagram.
+     */
+    private static final int TIMEOUT = 10;
+    
+    private String tmpDir = TestHelperClass.getJavaIoTmpDir();
+    
+    /**
+     * The tested queue.
+     */
+    private DiagramRenderingQueue queue = null;
+    
+    /**
+     * Released to let the writers finish.
+     */
+    private CountDownLatch release = null;
+    
+    /**
+     * The writers of the diagrams.
+     */
+    private List<BlockingWriter> writers = new ArrayList<BlockingWriter>();
+    
+    /**
+     * Creates the queue and fills it (one diagram written, one waiting).
+     */
+    @Before
+    public void fillQueue() throws Exception {
+        this.queue = new DiagramRenderingQueue(1, 1);
+        this.release = new CountDownLatch(1);
+        
+        this.queue.render(this.createDiagram("blockMethod"));
+        assertTrue(this.writers.get(0).started.await(
+                TIMEOUT, TimeUnit.SECONDS));
+        this.queue.render(this.createDiagram("blockMethod"));
+    }
+    
+    /**
+     * Drains the queue and deletes the diagrams.
+     */
+    @After
+    public void drainQueue() {
+        this.release.countDown();
+        this.queue.drain();
+        
+        for (int i = 0; i < this.writers.size(); i++) {
+            new File(tmpDir + "renderingQueue" + i + ".txt").delete();
+        }
+    }
+    
+    /**
+     * The third diagram should be dropped (closed but not written).
+     */
+    @Test
+    public final void testDrop() throws Exception {
+        this.queue.render(this.createDiagram("dropMethod"));
+        
+        BlockingWriter dropped = this.writers.get(2);
+        assertTrue(dropped.closed);
+        
+        this.release.countDown();
+        this.queue.drain();
+        
+        assertNull(dropped.writingThread);
+        this.assertWrittenByQueue(0);
+        this.assertWrittenByQueue(1);
+    }
+    
+    /**
+     * The third diagram should be written by the calling thread.
+     */
+    @Test
+    public final void testSpill() throws Exception {
+        Thread producer = this.renderInThread(
+                this.createDiagram("spillMethod"));
+        
+        assertTrue(this.writers.get(2).started.await(
+                TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(producer.getName(), this.writers.get(2).writingThread);
+        
+        this.release.countDown();
+        this.queue.drain();
+        this.assertWrittenByQueue(0);
+        this.assertWrittenByQueue(1);
+    }
+    
+    /**
+     * The third diagram should wait for a free place and be written by the
+     * rendering thread.
+     */
+    @Test
+    public final void testBlock() throws Exception {
+        Thread producer = this.renderInThread(
+                this.createDiagram("blockMethod"));
+        
+        producer.join(TimeUnit.SECONDS.toMillis(1));
+        assertTrue(producer.isAlive());
+        
+        this.release.countDown();
+        producer.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        assertFalse(producer.isAlive());
+        
+        this.queue.drain();
+        this.assertWrittenByQueue(0);
+        this.assertWrittenByQueue(1);
+        this.assertWrittenByQueue(2);
+    }
+    
+    /**
+     * A diagram waiting for a free place while the queue is drained should
+     * be written by his thread.
+     */
+    @Test
+    public final void testBlockWhileDraining() throws Exception {
+        Thread producer = this.renderInThread(
+                this.createDiagram("blockMethod"));
+        producer.join(TimeUnit.SECONDS.toMillis(1));
+        assertTrue(producer.isAlive());
+        
+        Thread drain = new Thread() {
+            public void run() {
+                DiagramRenderingQueueTest.this.queue.drain();
+            }
+        };
+        drain.start();
+        drain.join(TimeUnit.SECONDS.toMillis(1));
+        assertTrue(drain.isAlive());
+        
+        this.release.countDown();
+        producer.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        drain.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        
+        this.assertWrittenByQueue(0);
+        this.assertWrittenByQueue(1);
+        assertEquals(producer.getName(), this.writers.get(2).writingThread);
+    }
+    
+    /**
+     * @param index the index of a writer.
+     */
+    private void assertWrittenByQueue(final int index) {
+        BlockingWriter writer = this.writers.get(index);
+        assertTrue(writer.writingThread, 
+                writer.writingThread.startsWith("aoplib4j-diagram-renderer"));
+        assertTrue(writer.closed);
+    }
+    
+    /**
+     * @param diagram a diagram.
+     * @return the started thread adding the diagram to the queue.
+     */
+    private Thread renderInThread(final SequenceDiagram diagram) {
+        Thread returnValue = new Thread("producer") {
+            public void run() {
+                try {
+                    DiagramRenderingQueueTest.this.queue.render(diagram);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        returnValue.start();
+        return returnValue;
+    }
+    
+    /**
+     * @param annotatedMethod the name of the method having the annotation 
+     * of the diagram.
+     * @return a new diagram written by a {@link BlockingWriter}.
+     */
+    private SequenceDiagram createDiagram(final String annotatedMethod)
+        throws Exception {
+        
+        Aoplib4jSequenceDiagram annotation = 
+            DiagramRenderingQueueTest.class.getMethod(annotatedMethod)
+                .getAnnotation(Aoplib4jSequenceDiagram.class);
+        
+        BlockingWriter writer = new BlockingWriter(this.release);
+        String path = tmpDir + "renderingQueue" + this.writers.size() 
+            + ".txt";
+        this.writers.add(writer);
+        
+        return new SequenceDiagram(annotation, writer, path, null);
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = SEQUENCEWriter.class,
+            asynchronous = true,
+            overflowPolicy = RenderingOverflowPolicy.BLOCK)
+    public void blockMethod() {
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = SEQUENCEWriter.class,
+            asynchronous = true,
+            overflowPolicy = RenderingOverflowPolicy.DROP)
+    public void dropMethod() {
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = SEQUENCEWriter.class,
+            asynchronous = true,
+            overflowPolicy = RenderingOverflowPolicy.SPILL)
+    public void spillMethod() {
+    }
+    
+    /**
+     * Writer waiting until the test releases it.
+     */
+    private static final class BlockingWriter extends SequenceDiagramWriter {
+        
+        /**
+         * Counted down when the writing starts.
+         */
+        private final CountDownLatch started = new CountDownLatch(1);
+        
+        /**
+         * Released to let the writer finish.
+         */
+        private final CountDownLatch release;
+        
+        /**
+         * The name of the thread writing the diagram; null if not written.
+         */
+        private volatile String writingThread = null;
+        
+        /**
+         * true once the writer was closed.
+         */
+        private volatile boolean closed = false;
+        
+        /**
+         * @param releaseLatch released to let the writer finish.
+         */
+        BlockingWriter(final CountDownLatch releaseLatch) {
+            this.release = releaseLatch;
+        }
+        
+        @Override
+        public void write(final SequenceMethod rootMethod) {
+            this.writingThread = Thread.currentThread().getName();
+            this.started.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        @Override
+        protected void releaseResources() {
+            this.closed = true;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for the {@link WeakKeyMap}.
+ * @author Adrian Citu
+ *
+ */
+public final class WeakKeyMapTest {
+
+    /**
+     * The keys are compared by identity.
+     */
+    @Test
+    public final void testIdentityKeys() {
+        WeakKeyMap<String, String> map = new WeakKeyMap<String, String>();
+        String key = new String("key");
+        
+        assertNull(map.putIfAbsent(key, "first"));
+        assertEquals("first", map.putIfAbsent(key, "second"));
+        assertEquals("first", map.get(key));
+        assertNull(map.get(new String("key")));
+    }
+    
+    /**
+     * The entry of a collected key is removed when another entry is added.
+     */
+    @Test
+    public final void testCollectedKeyRemoved() throws InterruptedException {
+        WeakKeyMap<Object, String> map = new WeakKeyMap<Object, String>();
+        Object key = new Object();
+        Object kept = new Object();
+        
+        map.putIfAbsent(key, "collected");
+        map.putIfAbsent(kept, "kept");
+        key = null;
+        
+        //the reference is queued some time after the collection.
+        for (int i = 0; i < 100 && map.size() != 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            map.putIfAbsent(kept, "kept");
+        }
+        
+        assertEquals(1, map.size());
+        assertSame("kept", map.get(kept));
+    }
+}
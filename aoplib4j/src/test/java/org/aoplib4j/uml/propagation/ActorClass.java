@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.propagation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.aoplib4j.uml.Aoplib4jSequenceDiagram;
+import org.aoplib4j.uml.Class1;
+import org.aoplib4j.uml.SEQUENCEWriter;
+import org.aoplib4j.uml.SequenceDiagramTasks;
+
+
+/**
+ * Class containing methods annotated with the {@link Aoplib4jSequenceDiagram}
+ * annotation and used for testing the recording of the tasks executed by 
+ * other threads.
+ * @author Adrian Citu
+ *
+ */
+public class ActorClass {
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = SEQUENCEWriter.class,
+            diagramDepth = 10)
+    public void submitMethod(ExecutorService pool, Callable<String> task) 
+        throws InterruptedException, ExecutionException {
+        Class1 cl1 = new Class1("");
+        SequenceDiagramTasks.wrap(pool).submit(task).get();
+        cl1.method1Class1();
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = SEQUENCEWriter.class,
+            diagramDepth = 10)
+    public void notWrappedMethod(ExecutorService pool, Callable<String> task) 
+        throws InterruptedException, ExecutionException {
+        pool.submit(task).get();
+    }
+    
+    @Aoplib4jSequenceDiagram(diagramWriter = SEQUENCEWriter.class,
+            diagramDepth = 10)
+    public void invokeAllMethod(ExecutorService pool, Callable<String> task) 
+        throws InterruptedException {
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        tasks.add(task);
+        tasks.add(task);
+        
+        Class1 cl1 = new Class1("");
+        SequenceDiagramTasks.wrap(pool).invokeAll(tasks);
+        cl1.method1Class1();
+    }
+}
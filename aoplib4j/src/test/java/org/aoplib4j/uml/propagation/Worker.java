@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2008-2010 the original author or authors.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.aoplib4j.uml.propagation;
+
+import java.util.concurrent.Callable;
+
+import org.aoplib4j.uml.Class1;
+
+/**
+ * Task submitted by the {@link ActorClass} methods.
+ * @author Adrian Citu
+ *
+ */
+public class Worker implements Callable<String> {
+
+    public String call() {
+        Class1 cl1 = new Class1("");
+        cl1.method1Class1();
+        return "";
+    }
+}